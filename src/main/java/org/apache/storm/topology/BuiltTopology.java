@@ -0,0 +1,108 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.storm.topology.scheduler.SpreadScheduler;
+
+import backtype.storm.generated.StormTopology;
+
+/**
+ * What TopoLoader.build() built: a topology, its name and the storm
+ * config to submit it with. The config can't be changed, down to the
+ * lists and maps inside it (such as the colocation groups); copy it to
+ * add to it. The topology is this build's own, but it's a thrift object, so
+ * it's up to the caller not to change it if it's shared.
+ */
+public class BuiltTopology {
+    protected final String name;
+    protected final StormTopology topology;
+    protected final Map<String,Object> stormConf;
+
+    @SuppressWarnings("unchecked")
+    protected BuiltTopology(String name, StormTopology topology, Map<String,Object> stormConf) {
+        this.name = name;
+        this.topology = topology;
+        this.stormConf = (Map<String,Object>)freeze(stormConf);
+    }
+
+    /**
+     * Copy a config value, making any lists and maps in it, however deeply
+     * nested, unmodifiable copies.
+     * @param o - value to copy
+     * @return the copy, or o itself if it's neither a list nor a map.
+     */
+    protected static Object freeze(Object o) {
+        if (o instanceof Map<?,?>) {
+            Map<Object,Object> ret = new HashMap<Object,Object>();
+            for (Map.Entry<?,?> e : ((Map<?,?>)o).entrySet()) {
+                ret.put(e.getKey(), freeze(e.getValue()));
+            }
+            return Collections.unmodifiableMap(ret);
+        }
+        if (o instanceof List<?>) {
+            List<Object> ret = new ArrayList<Object>(((List<?>)o).size());
+            for (Object i : (List<?>)o) {
+                ret.add(freeze(i));
+            }
+            return Collections.unmodifiableList(ret);
+        }
+        return o;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public StormTopology getTopology() {
+        return topology;
+    }
+
+    /**
+     * Storm config to submit the topology with.
+     * @return unmodifiable config
+     */
+    public Map<String,Object> getStormConfig() {
+        return stormConf;
+    }
+
+    /**
+     * Components to spread across workers (see SpreadScheduler).
+     * @return component names, or null if there are none.
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getSpreads() {
+        return (List<String>)stormConf.get(SpreadScheduler.SPREAD_COMPONENTS);
+    }
+
+    /**
+     * Groups of components to keep in the same workers (see SpreadScheduler).
+     * @return groups of component names, or null if there are none.
+     */
+    @SuppressWarnings("unchecked")
+    public List<List<String>> getColocations() {
+        return (List<List<String>>)stormConf.get(SpreadScheduler.COLOCATE);
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology;
+
+import java.util.Map;
+
+import backtype.storm.generated.StormTopology;
+import backtype.storm.generated.SubmitOptions;
+
+/**
+ * Submits a built topology to a cluster. TopoLoader uses
+ * StormTopologySubmitter for a single topology and NimbusTopologySubmitter
+ * for a batch. Implementations used for a batch must be thread safe.
+ */
+public interface ITopologySubmitter {
+
+    /**
+     * Submit a topology.
+     * @param name - Topology name.
+     * @param stormConf - Storm configuration for the topology.
+     * @param topology - The topology.
+     * @param options - Submit options (initial status).
+     * @throws Exception if the topology can't be submitted.
+     */
+    public void submit(String name, Map<String,Object> stormConf, StormTopology topology, SubmitOptions options) throws Exception;
+
+    /**
+     * Release any connection held by the submitter.
+     */
+    public void close();
+}
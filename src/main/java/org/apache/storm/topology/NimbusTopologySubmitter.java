@@ -0,0 +1,138 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.thrift7.transport.TTransportException;
+import org.json.simple.JSONValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import backtype.storm.Config;
+import backtype.storm.StormSubmitter;
+import backtype.storm.generated.StormTopology;
+import backtype.storm.generated.SubmitOptions;
+import backtype.storm.utils.NimbusClient;
+import backtype.storm.utils.Utils;
+
+/**
+ * Submit any number of topologies over one Nimbus connection.
+ * StormSubmitter connects to Nimbus several times for each topology
+ * (to check the name, upload the jar and submit). This opens one client
+ * on the first submit, uploads the jar once, and then sends each topology
+ * over that client. A thrift client can't be shared between threads, so
+ * submissions are serialized.
+ *
+ * It can be kept open indefinitely, as TopoLoaderDaemon does. A failed
+ * submission drops the connection, so the next one reconnects, and the
+ * jar is uploaded again before Nimbus would clean it out of its inbox.
+ * The topologies are built from the classes this process loaded, so if
+ * the jar changes on disk, submissions are refused until it's restarted;
+ * uploading the new jar would pair it with topologies built from the old.
+ */
+public class NimbusTopologySubmitter implements ITopologySubmitter {
+    private static final Logger logger = LoggerFactory.getLogger(NimbusTopologySubmitter.class);
+
+    protected NimbusClient client = null;
+    // Where Nimbus put the uploaded jar, and when.
+    protected String jarLocation = null;
+    protected long jarUploaded = 0;
+    // Upload the jar again when it's this old.
+    protected long jarMaxAgeMs = 0;
+    // The jar as it was when this started.
+    protected final File jar;
+    protected final long jarModified;
+    protected final long jarLength;
+
+    public NimbusTopologySubmitter() {
+        this(System.getProperty("storm.jar"));
+    }
+
+    /**
+     * @param localJar - The jar to upload, or null if not known.
+     */
+    protected NimbusTopologySubmitter(String localJar) {
+        jar = (localJar == null) ? null : new File(localJar);
+        jarModified = (jar == null) ? 0 : jar.lastModified();
+        jarLength = (jar == null) ? 0 : jar.length();
+    }
+
+    /**
+     * Make sure the jar hasn't changed since this started.
+     * @throws IllegalStateException if it has.
+     */
+    protected void checkJar() {
+        if ((jar != null) && ((jar.lastModified() != jarModified) || (jar.length() != jarLength))) {
+            throw new IllegalStateException(jar + " has changed since this process started."
+                    + " Restart it (e.g. the TopoLoader daemon) to submit with the new jar.");
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized void submit(String name, Map<String,Object> stormConf, StormTopology topology, SubmitOptions options) throws Exception {
+        checkJar();
+        if (!Utils.isValidConf(stormConf)) {
+            throw new IllegalArgumentException("Storm conf for " + name + " is not valid. Must be json-serializable");
+        }
+        // Same configuration StormSubmitter would send.
+        Map<String,Object> topoConf = new HashMap<String,Object>(stormConf);
+        topoConf.putAll(Utils.readCommandLineOpts());
+
+        if (client == null) {
+            Map<String,Object> conf = Utils.readStormConfig();
+            conf.putAll(topoConf);
+            client = NimbusClient.getConfiguredClient(conf);
+            // Nimbus deletes inbox jars after this long; stay well inside it.
+            Object expire = conf.get(Config.NIMBUS_INBOX_JAR_EXPIRATION_SECS);
+            jarMaxAgeMs = (expire instanceof Number) ? ((Number)expire).longValue() * 1000 / 2 : Long.MAX_VALUE;
+        }
+        if ((jarLocation == null) || (System.currentTimeMillis() - jarUploaded >= jarMaxAgeMs)) {
+            if (jar == null) {
+                throw new IllegalStateException("Must submit topologies using the 'storm' client script so that StormSubmitter knows which jar to upload.");
+            }
+            Map<String,Object> conf = Utils.readStormConfig();
+            conf.putAll(topoConf);
+            jarLocation = StormSubmitter.submitJar(conf, jar.getPath());
+            jarUploaded = System.currentTimeMillis();
+        }
+
+        logger.info("Submitting topology {} in distributed mode", name);
+        try {
+            client.getClient().submitTopologyWithOpts(name, jarLocation, JSONValue.toJSONString(topoConf), topology, options);
+        } catch (TTransportException e) {
+            // The connection may be broken; start over with the next one.
+            close();
+            throw e;
+        }
+        logger.info("Finished submitting topology: {}", name);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+    }
+}
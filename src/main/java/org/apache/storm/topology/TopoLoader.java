@@ -23,15 +23,24 @@ package org.apache.storm.topology;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import org.kohsuke.args4j.Argument;
@@ -41,18 +50,23 @@ import org.kohsuke.args4j.Option;
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.constructor.SafeConstructor;
 
+import org.apache.storm.topology.builder.AbstractLoader;
+import org.apache.storm.topology.builder.CodeGenerator;
+import org.apache.storm.topology.builder.IComponentFactory;
 import org.apache.storm.topology.builder.ILoader;
 import org.apache.storm.topology.builder.ITopologyConfigurator;
+import org.apache.storm.topology.builder.LoadProfile;
 import org.apache.storm.topology.builder.Loader;
 import org.apache.storm.topology.builder.Loader.LoadFailure;
+import org.apache.storm.topology.scheduler.SpreadScheduler;
 import org.apache.utils.DefaultingMap;
 
 import backtype.storm.Config;
 import backtype.storm.LocalCluster;
-import backtype.storm.StormSubmitter;
 import backtype.storm.generated.StormTopology;
 import backtype.storm.generated.SubmitOptions;
 import backtype.storm.generated.TopologyInitialStatus;
+import backtype.storm.topology.TopologyBuilder;
 
 
 /**
@@ -80,6 +94,9 @@ public class TopoLoader implements ITopologyConfigurator {
     @Option(name="--maxparallel", aliases={"-p"},  usage="topology max parallelism")
     private int _maxParallel = -1;
 
+    @Option(name="--scale", metaVar="factor", usage="multiply every component's parallelism, and the workers, by this factor")
+    private double _scale = Double.NaN;
+
     @Option(name="--debug", aliases={"-d"},  usage="turn on debug level logging")
     private boolean _debug = false;
     
@@ -89,11 +106,44 @@ public class TopoLoader implements ITopologyConfigurator {
     @Option(name="--inactive", aliases={"-i"}, usage="Inactive. Submit topology but don't activate")
     private boolean _inactive = false;
 
+    @Option(name="--profile", usage="print where the time went loading the topology")
+    private boolean _profile = false;
+
+    @Option(name="--profilejson", metaVar="path", usage="also write the load profile as JSON to this file")
+    private String _profileJson = null;
+
+    @Option(name="--manifest", metaVar="path", usage="yaml file listing topologies to build and submit together")
+    private String _manifest = null;
+
+    @Option(name="--threads", usage="number of topologies to build at once in a batch")
+    private int _threads = -1;
+
+    @Option(name="--codegen", metaVar="class", usage="write Java source for this class that builds the topology, instead of building it")
+    private String _codegen = null;
+
+    @Option(name="--codegendir", metaVar="dir", usage="source directory for --codegen (default .)")
+    private String _codegenDir = ".";
+
     @Argument
     private List<String> _args = new ArrayList<String>();
     
     protected final Config stormConf;
     private List<String> topoUsers;
+    // Timings for this run, or null if not profiling.
+    protected LoadProfile profile = null;
+    // Parsed yaml shared by a batch, or null when loading one topology.
+    protected YamlCache yamlCache = null;
+
+    // For a class written by --codegen: its yaml, and the factory that builds its components.
+    protected Map<String,Object> generatedYaml = null;
+    protected IComponentFactory factory = null;
+
+    // With g.scale or --scale: the workers as configured, and each component's parallelism before and after.
+    protected int unscaledWorkers = -1;
+    protected Map<String,int[]> scaling = null;
+
+    // Submitter to use for everything, if set. TopoLoaderDaemon shares one between requests.
+    protected ITopologySubmitter submitter = null;
     
     public TopoLoader() {
         stormConf = new Config();
@@ -106,7 +156,7 @@ public class TopoLoader implements ITopologyConfigurator {
      */
     @Override
     public ILoader getLoader(DefaultingMap conf) throws LoadFailure{
-        return new Loader(conf, this);
+        return new Loader(conf, new TopologyBuilder(), this, profile, factory);
     }
     
     /**
@@ -131,51 +181,230 @@ public class TopoLoader implements ITopologyConfigurator {
             ret = 1;
         }
         
-        if ((_args.size() <= 0) || "help".equalsIgnoreCase(_args.get(0))) {
+        if (_args.isEmpty() ? ((_manifest == null) && (generatedYaml == null)) : "help".equalsIgnoreCase(_args.get(0))) {
             _help = true;     
         }
         if (_help) {
-            System.err.println("storm jar <path> org.apache.storm.topology.TopoLoader [options] <yaml path>");
+            System.err.println("storm jar <path> org.apache.storm.topology.TopoLoader [options] <yaml path>...");
             parser.printUsage(System.err);
             System.err.println();
             return ret;
         }
         
-        // Read the main yaml file.
-        Map<String,Object> yaml = readYaml(_args.get(0));
+        if (generatedYaml != null) {
+            if ((_manifest != null) || !_args.isEmpty() || (_overrides != null) || (_codegen != null)) {
+                System.err.println("The topology is built in; yaml, overrides, --manifest and --codegen can't be given");
+                return 1;
+            }
+            return runTopology(null);
+        }
+        if (_codegen != null) {
+            if ((_manifest != null) || (_args.size() > 1)) {
+                System.err.println("--codegen takes a single topology yaml");
+                return 1;
+            }
+            return generateCode(_args.get(0));
+        }
+        if ((_manifest != null) || (_args.size() > 1)) {
+            return runBatch();
+        }
+        return runTopology(_args.get(0));
+    }
+
+    /**
+     * Run TopoLoader on a topology built into a class written by --codegen.
+     * Takes the same options as TopoLoader, but no yaml or overrides.
+     * @param yaml - The topology yaml.
+     * @param factory - Builds the topology's components.
+     * @param args - Command line arguments.
+     * @return - Return nonzero on failure.
+     * @throws InterruptedException
+     * @throws LoadFailure
+     */
+    public static int runGenerated(Map<String,Object> yaml, IComponentFactory factory, String[] args)
+            throws InterruptedException, LoadFailure {
+        TopoLoader me = new TopoLoader();
+        me.generatedYaml = yaml;
+        me.factory = factory;
+        return me.runLoader(args);
+    }
+
+    /**
+     * Read the topology yaml and any overrides, and write Java source for
+     * a class that builds the topology without reflection.
+     * @param yamlPath - Path to the topology yaml.
+     * @return - Return nonzero on failure.
+     */
+    protected int generateCode(String yamlPath) {
+        Map<String,Object> yaml = resolveYaml(yamlPath, new LoadProfile(false));
         if (yaml == null) {
             return 1;
         }
-
-        // Update the yaml just read with any environment-specific updates.
-        if (!processOverrides(_overrides, yaml)) {
-            // Something broke handling overrides.
+        try {
+            CodeGenerator gen = new CodeGenerator(_codegen);
+            String source = gen.generate(yaml, new File(yamlPath).getName()
+                    + ((_overrides == null) ? "" : " with overrides " + _overrides));
+            File out = new File(_codegenDir, gen.getSourcePath());
+            if ((out.getParentFile() != null) && !out.getParentFile().isDirectory() && !out.getParentFile().mkdirs()) {
+                System.err.println("Can't create " + out.getParentFile());
+                return 1;
+            }
+            Writer w = new OutputStreamWriter(new FileOutputStream(out), "UTF-8");
+            try {
+                w.write(source);
+            } finally {
+                w.close();
+            }
+            System.out.println("Wrote " + out);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        } catch (IOException e) {
+            System.err.println("Error writing generated code: " + e.getMessage());
             return 1;
         }
+        return 0;
+    }
+
+    /**
+     * Build one topology and submit it (or run it locally).
+     * @param yamlPath - Path to the topology yaml.
+     * @return - Return nonzero on failure.
+     * @throws InterruptedException
+     * @throws LoadFailure
+     */
+    protected int runTopology(String yamlPath) throws InterruptedException, LoadFailure {
+        if (_profile || (_profileJson != null)) {
+            profile = new LoadProfile(true);
+        }
+        // Phase timings are collected either way; they're only reported when profiling.
+        LoadProfile prof = (profile == null) ? new LoadProfile(false) : profile;
 
-        if (!patchSchemas(yaml)) {
-            // A problem with patching schemas
+        StormTopology topology = buildTopology(yamlPath, prof);
+        if (topology == null) {
             return 1;
         }
 
+        if (_dryrun) {
+            System.out.println("Dryrun. Skipping topology start");
+            printScaling();
+            printProfile();
+        }
+        else if (_localSecs > 0) {
+            LocalCluster cluster = new LocalCluster();
+            try {
+                System.out.println("Submitting topology " + _topologyName + " locally");
+                long start = prof.start();
+                cluster.submitTopology(_topologyName, stormConf, topology);
+                prof.phase("submit", start);
+                printProfile();
+                Thread.sleep(TimeUnit.SECONDS.toMillis(_localSecs));
+                System.out.println("Killing topology");
+            } catch (Exception e) {
+                System.out.println(e.getMessage());
+                e.printStackTrace();
+            }
+            cluster.shutdown();
+        }
+        else {
+            System.out.println("Submitting topology " + _topologyName);
+            try {
+                if (topoUsers != null) {
+                    // TODO: Was this a local enhancement?s
+                    // stormConf.put(Config.TOPOLOGY_USERS, topoUsers);
+                }
+                long start = prof.start();
+                submit(getSubmitter(), topology);
+                prof.phase("submit", start);
+                printProfile();
+            } catch (Exception e) {
+                System.out.println("Error submitting topology: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        
+        return 0;
+        
+    }
+
+    /**
+     * Read the topology yaml and any overrides, and build the topology.
+     * On return the topology name and stormConf are set up for submission.
+     * @param yamlPath - Path to the topology yaml.
+     * @param prof - Where to record phase timings.
+     * @return the topology, or null if there was a problem (already reported).
+     * @throws LoadFailure
+     */
+    protected StormTopology buildTopology(String yamlPath, LoadProfile prof) throws LoadFailure {
+        Map<String,Object> yaml = (generatedYaml != null) ? generatedYaml : resolveYaml(yamlPath, prof);
+        if (yaml == null) {
+            return null;
+        }
+        return buildTopology(yaml, prof);
+    }
+
+    /**
+     * Build the topology from its final yaml.
+     * On return the topology name and stormConf are set up for submission.
+     * @param yaml - The yaml, with overrides applied. The loader keeps it.
+     * @param prof - Where to record phase timings.
+     * @return the topology, or null if there was a problem (already reported).
+     * @throws LoadFailure
+     */
+    protected StormTopology buildTopology(Map<String,Object> yaml, LoadProfile prof) throws LoadFailure {
+        try {
+            return createTopology(yaml, prof);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Build the topology from the final yaml, as buildTopology() does, but
+     * throw on a problem instead of reporting it.
+     * @param yaml - The topology yaml, after overrides and patches.
+     * @param prof - Where to record phase timings.
+     * @return the topology
+     * @throws LoadFailure
+     * @throws IllegalArgumentException if the scale isn't positive or there's no topology name.
+     */
+    protected StormTopology createTopology(Map<String,Object> yaml, LoadProfile prof) throws LoadFailure {
         DefaultingMap conf = new DefaultingMap((Map<String,Object>)yaml);
         if (_localSecs > 0) {
             // If we're going to run locally, restrict parallelism
             conf.put(DefaultingMap.GLOBALPREFIX+"parallelism", 1);
         }
+        if (!Double.isNaN(_scale)) {
+            conf.put(Loader.SCALE_KEY, _scale);
+        }
+        double scale = conf.getDouble(Loader.SCALE_KEY, 1.0);
+        if (scale <= 0) {
+            throw new IllegalArgumentException("Scale must be positive: " + scale);
+        }
         if (_topologyName == null) {
             _topologyName = conf.getString("topologyname");
             if (_topologyName == null) {
-                System.err.println("A topology name must be supplied either in yaml or command line");
-                return 1;
+                throw new IllegalArgumentException("A topology name must be supplied either in yaml or command line");
             }
         }
         
+        long start = prof.start();
         ILoader tLoader = getLoader(conf);
+        prof.phase("load", start);
+        start = prof.start();
         StormTopology topology = tLoader.getTopology();
-        SubmitOptions submitOptions = new SubmitOptions(_inactive ? TopologyInitialStatus.INACTIVE : TopologyInitialStatus.ACTIVE);
+        prof.phase("createTopology", start);
         if (_workers < 0) {
             _workers = conf.getInt("workers", 1);
+            if (scale != 1.0) {
+                // An explicit --workers isn't scaled.
+                unscaledWorkers = _workers;
+                _workers = Loader.scale(_workers, scale, 1, Integer.MAX_VALUE);
+            }
+        }
+        if (tLoader instanceof Loader) {
+            scaling = ((Loader)tLoader).getScaling();
         }
         stormConf.setNumWorkers(_workers);
         String commaUserList = conf.getString("topoUsers");
@@ -187,11 +416,16 @@ public class TopoLoader implements ITopologyConfigurator {
             }
         }
         
-        // Should some workers be spread across nodes?
+        // Should some workers be spread across nodes, or kept together?
+        // These are honored when Nimbus runs SpreadScheduler.
         List<String> spreads;
         if ((spreads = tLoader.getSpreads()) != null) {
-            // TODO: Was this a local enhancement?
-            // stormConf.put(Config.TOPOLOGY_SPREAD_COMPONENTS, spreads);
+            stormConf.put(SpreadScheduler.SPREAD_COMPONENTS, spreads);
+        }
+        List<List<String>> colocations = (tLoader instanceof AbstractLoader) ?
+                ((AbstractLoader)tLoader).getColocations() : null;
+        if (colocations != null) {
+            stormConf.put(SpreadScheduler.COLOCATE, colocations);
         }
 
         if (_debug) {
@@ -201,39 +435,437 @@ public class TopoLoader implements ITopologyConfigurator {
         if (_maxParallel > 0) {
             stormConf.setMaxTaskParallelism(_maxParallel);
         }
+        return topology;
+    }
 
-        if (_dryrun) {
-            System.out.println("Dryrun. Skipping topology start");
+    /**
+     * Read the topology yaml, apply any overrides and list patches, and
+     * intern the result.
+     * @param yamlPath - Path to the topology yaml.
+     * @param prof - Where to record phase timings.
+     * @return the final yaml, or null if there was a problem (already reported).
+     */
+    protected Map<String,Object> resolveYaml(String yamlPath, LoadProfile prof) {
+        try {
+            return prepareYaml(yamlPath, prof);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
         }
-        else if (_localSecs > 0) {
-            LocalCluster cluster = new LocalCluster();
-            try {
-                System.out.println("Submitting topology " + _topologyName + " locally");
-                cluster.submitTopology(_topologyName, stormConf, topology);
-                Thread.sleep(TimeUnit.SECONDS.toMillis(_localSecs));
-                System.out.println("Killing topology");
-            } catch (Exception e) {
-                System.out.println(e.getMessage());
-                e.printStackTrace();
+        return null;
+    }
+
+    /**
+     * Apply any overrides and list patches to a topology yaml, and
+     * intern the result.
+     * @param yaml - The topology yaml, which is updated in place.
+     * @param prof - Where to record phase timings.
+     * @return the final yaml, or null if there was a problem (already reported).
+     */
+    protected Map<String,Object> resolveYaml(Map<String,Object> yaml, LoadProfile prof) {
+        try {
+            return prepareYaml(yaml, prof);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Read the topology yaml, as resolveYaml() does, but throw on a
+     * problem instead of reporting it.
+     * @param yamlPath - Path to the topology yaml.
+     * @param prof - Where to record phase timings.
+     * @return the final yaml
+     * @throws IOException if the yaml or an override can't be read.
+     * @throws IllegalArgumentException if a list patch can't be applied.
+     */
+    protected Map<String,Object> prepareYaml(String yamlPath, LoadProfile prof) throws IOException {
+        // Read the main yaml file.
+        long start = prof.start();
+        Map<String,Object> yaml = (yamlCache == null) ? parseYaml(yamlPath) : yamlCache.load(yamlPath);
+        prof.phase("yaml", start);
+        return prepareYaml(yaml, prof);
+    }
+
+    /**
+     * Apply overrides and list patches, as resolveYaml() does, but throw
+     * on a problem instead of reporting it.
+     * @param yaml - The topology yaml, which is updated in place.
+     * @param prof - Where to record phase timings.
+     * @return the final yaml
+     * @throws IOException if an override can't be read.
+     * @throws IllegalArgumentException if a list patch can't be applied.
+     */
+    protected Map<String,Object> prepareYaml(Map<String,Object> yaml, LoadProfile prof) throws IOException {
+        // Update the yaml just read with any environment-specific updates.
+        long start = prof.start();
+        mergeOverrides(_overrides, yaml, yamlCache);
+        prof.phase("overrides", start);
+
+        start = prof.start();
+        applyPatches(yaml);
+        prof.phase("patchSchemas", start);
+
+        // The yaml is final, so equal lists can be shared from here on.
+        start = prof.start();
+        YamlInterner.intern(yaml);
+        prof.phase("intern", start);
+        return yaml;
+    }
+
+    /**
+     * Build a topology without submitting it. Each call has its own
+     * TopoLoader and its own copy of the yaml, so any number of threads
+     * can build at once; they share only the yaml cache and loaded classes.
+     * @param spec - What to build.
+     * @param cache - Parsed yaml to share between builds, or null to read files each time.
+     * @return the topology and its storm config
+     * @throws LoadFailure if a component can't be built.
+     * @throws IllegalArgumentException if the yaml or overrides can't be read,
+     *         a list patch can't be applied, or there's no topology name. The
+     *         message says what went wrong, and the cause is chained if there is one.
+     */
+    public static BuiltTopology build(TopologySpec spec, YamlCache cache) throws LoadFailure {
+        TopoLoader tl = new TopoLoader();
+        tl._topologyName = spec.getName();
+        tl._workers = spec.getWorkers();
+        tl._maxParallel = spec.getMaxParallel();
+        tl._debug = spec.isDebug();
+        if (spec.getScale() > 0) {
+            tl._scale = spec.getScale();
+        }
+        List<String> overrides = spec.getOverrides();
+        if (!overrides.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            for (String o : overrides) {
+                sb.append((sb.length() == 0) ? "" : ",").append(o);
             }
-            cluster.shutdown();
+            tl._overrides = sb.toString();
         }
-        else {
-            System.out.println("Submitting topology " + _topologyName);
+        tl.yamlCache = cache;
+
+        LoadProfile prof = new LoadProfile(false);
+        StormTopology topology;
+        try {
+            Map<String,Object> yaml = (spec.getYamlPath() != null)
+                    ? tl.prepareYaml(spec.getYamlPath(), prof) : tl.prepareYaml(spec.getYaml(), prof);
+            topology = tl.createTopology(yaml, prof);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can't build topology from " + spec + ": " + e.getMessage(), e);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Can't build topology from " + spec + ": " + e.getMessage(), e);
+        }
+        return new BuiltTopology(tl._topologyName, topology, tl.stormConf);
+    }
+
+    /**
+     * Submit a topology built by buildTopology().
+     * @param sub - Submitter to use.
+     * @param topology - The topology.
+     * @throws Exception if submission fails.
+     */
+    protected void submit(ITopologySubmitter sub, StormTopology topology) throws Exception {
+        SubmitOptions submitOptions = new SubmitOptions(_inactive ? TopologyInitialStatus.INACTIVE : TopologyInitialStatus.ACTIVE);
+        sub.submit(_topologyName, stormConf, topology, submitOptions);
+    }
+
+    /**
+     * Submitter for a single topology. Override to submit some other way.
+     * @return the submitter
+     */
+    protected ITopologySubmitter getSubmitter() {
+        if (submitter != null) {
+            return submitter;
+        }
+        return new StormTopologySubmitter();
+    }
+
+    /**
+     * Submitter shared by all the topologies of a batch. It must be thread safe.
+     * @return the submitter
+     */
+    protected ITopologySubmitter getBatchSubmitter() {
+        if (submitter != null) {
+            return submitter;
+        }
+        return new NimbusTopologySubmitter();
+    }
+
+    /**
+     * Build and submit several topologies: every yaml on the command line
+     * and every entry in the manifest. Topologies are built concurrently,
+     * sharing parsed yaml, and submitted one at a time over a single submitter
+     * as each finishes building. Prints how each one went.
+     * @return - Return nonzero if any topology failed.
+     * @throws InterruptedException
+     */
+    protected int runBatch() throws InterruptedException {
+        if (_localSecs > 0) {
+            System.err.println("--local can't be used with more than one topology");
+            return 1;
+        }
+        if (_topologyName != null) {
+            System.err.println("--name can't be used with more than one topology; name them in the manifest");
+            return 1;
+        }
+        if (_profile || (_profileJson != null)) {
+            System.err.println("--profile and --profilejson can't be used with more than one topology");
+            return 1;
+        }
+
+        List<List<String>> entries = new ArrayList<List<String>>();
+        for (String y : _args) {
+            entries.add(Collections.singletonList(y));
+        }
+        if (_manifest != null) {
+            List<List<String>> m = readManifest(_manifest);
+            if (m == null) {
+                return 1;
+            }
+            entries.addAll(m);
+        }
+        if (entries.isEmpty()) {
+            System.err.println("No topologies in " + _manifest);
+            return 1;
+        }
+
+        int threads = (_threads > 0) ? _threads : Runtime.getRuntime().availableProcessors();
+        threads = Math.min(threads, entries.size());
+        YamlCache cache = (yamlCache != null) ? yamlCache : new YamlCache();
+        final ITopologySubmitter sub = _dryrun ? null : getBatchSubmitter();
+        ExecutorService builders = Executors.newFixedThreadPool(threads);
+        // One thread, since the submitter has one Nimbus connection.
+        final ExecutorService submitters = Executors.newSingleThreadExecutor();
+        final ConcurrentHashMap<String,BatchEntry> names = new ConcurrentHashMap<String,BatchEntry>();
+
+        List<BatchEntry> batch = new ArrayList<BatchEntry>();
+        for (List<String> entry : entries) {
+            final BatchEntry be = new BatchEntry(entry);
+            batch.add(be);
+            final TopoLoader child;
             try {
-                if (topoUsers != null) {
-                    // TODO: Was this a local enhancement?s
-                    // stormConf.put(Config.TOPOLOGY_USERS, topoUsers);
+                child = newBatchLoader(cache, entry);
+            } catch (IllegalArgumentException e) {
+                be.error = e.getMessage();
+                continue;
+            }
+            be.yamlPath = child._args.get(0);
+            builders.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final StormTopology topology;
+                    try {
+                        topology = child.buildTopology(be.yamlPath, new LoadProfile(false));
+                    } catch (Exception e) {
+                        be.error = "build failed: " + e.getMessage();
+                        return;
+                    }
+                    be.name = child._topologyName;
+                    if (topology == null) {
+                        be.error = "build failed";
+                        return;
+                    }
+                    if (names.putIfAbsent(be.name, be) != null) {
+                        be.error = "topology name already used in this batch";
+                        return;
+                    }
+                    if (sub == null) {
+                        be.ok = true;
+                        return;
+                    }
+                    submitters.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                child.submit(sub, topology);
+                                be.ok = true;
+                            } catch (Exception e) {
+                                be.error = "submit failed: " + e.getMessage();
+                            }
+                        }
+                    });
                 }
-                StormSubmitter.submitTopology(_topologyName, stormConf, topology, submitOptions);
-            } catch (Exception e) {
-                System.out.println("Error submitting topology: " + e.getMessage());
-                e.printStackTrace();
+            });
+        }
+
+        // Builds queue their submissions, so wait for the builds first.
+        builders.shutdown();
+        builders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        submitters.shutdown();
+        submitters.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        if (sub != null) {
+            sub.close();
+        }
+
+        int failed = 0;
+        StringBuilder report = new StringBuilder();
+        for (BatchEntry be : batch) {
+            if (!be.ok) {
+                ++failed;
+            }
+            report.append(be).append('\n');
+        }
+        System.out.println();
+        System.out.printf("%d topologies, %d %s, %d failed%n", batch.size(), batch.size() - failed,
+                _dryrun ? "built" : "submitted", failed);
+        System.out.print(report);
+        return (failed > 0) ? 1 : 0;
+    }
+
+    /**
+     * Make the loader for one topology of a batch. It starts with this
+     * loader's options, then applies the entry's own arguments.
+     * @param cache - Yaml shared by the batch.
+     * @param entry - Arguments for this topology, including its yaml path.
+     * @return the loader
+     * @throws IllegalArgumentException if the entry is bad, or gives an
+     *         option that only makes sense for the whole run.
+     */
+    protected TopoLoader newBatchLoader(YamlCache cache, List<String> entry) {
+        TopoLoader child;
+        try {
+            child = getClass().newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Can't create " + getClass().getName(), e);
+        }
+        child._workers = _workers;
+        child._overrides = _overrides;
+        child._maxParallel = _maxParallel;
+        child._debug = _debug;
+        child._scale = _scale;
+        child._dryrun = _dryrun;
+        child._inactive = _inactive;
+        child.yamlCache = cache;
+
+        try {
+            new CmdLineParser(child).parseArgument(entry);
+        } catch (CmdLineException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        if (child._args.size() != 1) {
+            throw new IllegalArgumentException("expected one yaml file, got " + child._args);
+        }
+        // These are parsed, but a batch has no use for them.
+        List<String> unused = new ArrayList<String>();
+        if (child._help) {
+            unused.add("--help");
+        }
+        if (child._localSecs != 0) {
+            unused.add("--local");
+        }
+        if (child._manifest != null) {
+            unused.add("--manifest");
+        }
+        if (child._threads != -1) {
+            unused.add("--threads");
+        }
+        if ((child._codegen != null) || !".".equals(child._codegenDir)) {
+            unused.add("--codegen");
+        }
+        if (child._profile || (child._profileJson != null)) {
+            unused.add("--profile");
+        }
+        if (!unused.isEmpty()) {
+            throw new IllegalArgumentException(unused + " can't be used in a manifest entry");
+        }
+        return child;
+    }
+
+    /**
+     * Read a batch manifest: a yaml with a "topologies" list. Each entry is
+     * the arguments for one topology, either as a list or as a string split
+     * at white space, and includes the topology's yaml path.
+     * @param path - Path to the manifest.
+     * @return the argument list for each topology, or null if the manifest is bad.
+     */
+    protected static List<List<String>> readManifest(String path) {
+        Map<String,Object> manifest = readYaml(path);
+        if (manifest == null) {
+            return null;
+        }
+        Object o = manifest.get("topologies");
+        if (!(o instanceof List<?>)) {
+            System.err.println("Manifest " + path + " has no topologies list");
+            return null;
+        }
+        List<List<String>> ret = new ArrayList<List<String>>();
+        for (Object e : (List<?>)o) {
+            List<String> args = new ArrayList<String>();
+            if (e instanceof List<?>) {
+                for (Object a : (List<?>)e) {
+                    args.add(String.valueOf(a));
+                }
+            }
+            else if (e != null) {
+                args.addAll(Arrays.asList(e.toString().trim().split("\\s+")));
+            }
+            ret.add(args);
+        }
+        return ret;
+    }
+
+    /**
+     * How one topology of a batch went.
+     */
+    protected static class BatchEntry {
+        protected final List<String> args;
+        protected volatile String yamlPath = null;
+        protected volatile String name = null;
+        protected volatile boolean ok = false;
+        protected volatile String error = null;
+
+        protected BatchEntry(List<String> args) {
+            this.args = args;
+        }
+
+        @Override
+        public String toString() {
+            String what = (name != null) ? name + " (" + yamlPath + ")" : args.toString();
+            return ok ? "  OK      " + what : "  FAILED  " + what + ": " + error;
+        }
+    }
+
+    /**
+     * If the topology was scaled, print the workers and each component's
+     * parallelism, as configured and as scaled.
+     */
+    protected void printScaling() {
+        boolean components = (scaling != null) && !scaling.isEmpty();
+        if ((unscaledWorkers < 0) && !components) {
+            return;
+        }
+        System.out.println();
+        System.out.println("Scaled plan:");
+        if (unscaledWorkers >= 0) {
+            System.out.printf("  %-30s %6d -> %d%n", "workers", unscaledWorkers, _workers);
+        }
+        if (components) {
+            for (Map.Entry<String,int[]> e : scaling.entrySet()) {
+                System.out.printf("  %-30s %6d -> %d%n", e.getKey(), e.getValue()[0], e.getValue()[1]);
+            }
+        }
+    }
+
+    /**
+     * If profiling, print the load profile and write it as JSON if asked.
+     */
+    protected void printProfile() {
+        if (profile == null) {
+            return;
+        }
+        System.out.println();
+        System.out.print(profile.report());
+        if (_profileJson != null) {
+            try {
+                profile.writeJson(_profileJson);
+            } catch (IOException e) {
+                System.err.println("Can't write profile to " + _profileJson + ": " + e.getMessage());
             }
         }
-        
-        return 0;
-        
     }
     
     /**
@@ -250,36 +882,83 @@ public class TopoLoader implements ITopologyConfigurator {
      * @param override
      */
     public static void mergeYaml(Map<String,Object> yaml, Map<String,Object> override) {
+        mergeYaml(yaml, Collections.singletonList(override));
+    }
+
+    /**
+     * Merge a stack of override maps into yaml in a single pass. The result is
+     * the same as calling mergeYaml(yaml, override) for each override in order,
+     * but each key is resolved once across the whole stack: anything an earlier
+     * override sets that a later one replaces or deletes is never merged, and
+     * each yaml submap is walked once no matter how many overrides touch it.
+     * Untouched sections of yaml, and override sections that are simply inserted,
+     * are shared rather than copied.
+     * @param yaml - The yaml to update
+     * @param overrides - Override maps, in the order they should be applied.
+     */
+    @SuppressWarnings("unchecked")
+    public static void mergeYaml(Map<String,Object> yaml, List<Map<String,Object>> overrides) {
+        if (overrides.isEmpty()) {
+            return;
+        }
+
+        // Every key named anywhere in the stack, in order of first appearance.
+        Set<String> keys = new LinkedHashSet<String>();
+        for (Map<String,Object> override : overrides) {
+            keys.addAll(override.keySet());
+        }
 
-        for (Map.Entry<String,Object> e : override.entrySet()) {
-            String k = e.getKey();
-            Object v = e.getValue();
-            if (v instanceof Map<?,?>) {
-                @SuppressWarnings("unchecked")
-                Map<String,Object> subMap = (Map<String,Object>)v;
+        for (String k : keys) {
+            boolean present = yaml.containsKey(k);
+            boolean deleted = false;
+            Object base = yaml.get(k);
+            // Map overrides waiting to be merged (recursively) into base.
+            List<Map<String,Object>> pending = new ArrayList<Map<String,Object>>(1);
 
-                if (isTrue(subMap.get("deleteSection"))) {
-                    yaml.remove(k);
+            for (Map<String,Object> override : overrides) {
+                if (!override.containsKey(k)) {
+                    continue;
                 }
-                else {
-                    Object ov = yaml.get(k);
+                Object v = override.get(k);
+                if (v instanceof Map<?,?>) {
+                    Map<String,Object> subMap = (Map<String,Object>)v;
 
-                    if (isTrue(subMap.get("replaceSection"))) {
+                    if (isTrue(subMap.get("deleteSection"))) {
+                        present = false;
+                        deleted = true;
+                        base = null;
+                        pending.clear();
+                    }
+                    else if (isTrue(subMap.get("replaceSection"))) {
                         subMap.remove("replaceSection");
-                        yaml.put(k, subMap);
+                        present = true;
+                        base = subMap;
+                        pending.clear();
                     }
-                    else if (!(ov instanceof Map<?,?>)) {
-                        yaml.put(k, subMap);
+                    else if (!pending.isEmpty() || (base instanceof Map<?,?>)) {
+                        pending.add(subMap);
                     }
                     else {
-                        @SuppressWarnings("unchecked")
-                        Map<String,Object> oMap = (Map<String,Object>)ov;
-                        mergeYaml(oMap, subMap);
+                        present = true;
+                        base = subMap;
                     }
                 }
+                else {
+                    present = true;
+                    base = v;
+                    pending.clear();
+                }
             }
-            else {
-                yaml.put(k, v);
+
+            if (!pending.isEmpty()) {
+                mergeYaml((Map<String,Object>)base, pending);
+            }
+
+            if (deleted) {
+                yaml.remove(k);
+            }
+            if (present) {
+                yaml.put(k, base);
             }
         }
     }
@@ -291,17 +970,43 @@ public class TopoLoader implements ITopologyConfigurator {
      * @return true if no errors encountered.
      */
     public static boolean processOverrides (String overrides, Map<String,Object> yaml) {
-        if ((overrides == null) || overrides.isEmpty()) {
+        return processOverrides(overrides, yaml, null);
+    }
+
+    /**
+     * Update the yaml with any overrides specified on command line
+     * @param overrides - Comma-separated list of yaml files to use to update yaml
+     * @param yaml - The yaml to update
+     * @param cache - Where to get override yaml, or null to read each file.
+     * @return true if no errors encountered.
+     */
+    public static boolean processOverrides (String overrides, Map<String,Object> yaml, YamlCache cache) {
+        try {
+            mergeOverrides(overrides, yaml, cache);
             return true;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return false;
         }
+    }
+
+    /**
+     * Update the yaml with overrides, as processOverrides() does, but
+     * throw if one can't be read.
+     * @param overrides - Comma-separated list of yaml files to use to update yaml
+     * @param yaml - The yaml to update
+     * @param cache - Where to get override yaml, or null to read each file.
+     * @throws IOException if an override can't be read.
+     */
+    public static void mergeOverrides(String overrides, Map<String,Object> yaml, YamlCache cache) throws IOException {
+        if ((overrides == null) || overrides.isEmpty()) {
+            return;
+        }
+        List<Map<String,Object>> orStack = new ArrayList<Map<String,Object>>();
         for (String orFile : overrides.split(",")) {
-            Map<String,Object> ory = readYaml(orFile);
-            if (ory == null) {
-                return false;
-            }
-            mergeYaml(yaml, ory);
+            orStack.add((cache == null) ? parseYaml(orFile) : cache.load(orFile));
         }
-        return true;
+        mergeYaml(yaml, orStack);
     }
     
     /**
@@ -311,15 +1016,38 @@ public class TopoLoader implements ITopologyConfigurator {
      * @param yaml
      * @return true if no errors found
      */
-    @SuppressWarnings("unchecked")
     public static boolean patchSchemas(Map<String,Object> yaml) {
+        try {
+            applyPatches(yaml);
+            return true;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Process the "listpatch" section, as patchSchemas() does, but throw
+     * if a patch can't be applied.
+     * @param yaml
+     * @throws IllegalArgumentException if a patch's target section isn't found.
+     */
+    @SuppressWarnings("unchecked")
+    public static void applyPatches(Map<String,Object> yaml) {
         Object o = yaml.get("listpatch");
         if (!(o instanceof Map<?,?>)) {
             // No patches found, so nothing to do.
-            return true;
+            return;
         }
 
         Map<String,Object> patches = (Map<String,Object>)o;
+
+        // Working schema for each target, keyed by the map holding it and
+        // then by schema name. Shared (anchored or interned) sections can put
+        // several entries on the same schema, so each schema is copied once,
+        // every entry is applied to it, and it's written back once at the end.
+        Map<Map<String,Object>,Map<String,Set<String>>> working =
+                new IdentityHashMap<Map<String,Object>,Map<String,Set<String>>>();
         for (Map.Entry<String,Object>e: patches.entrySet()) {
             o = e.getValue();
             if (!(o instanceof Map<?,?>)) {
@@ -337,26 +1065,29 @@ public class TopoLoader implements ITopologyConfigurator {
                 o = tgt.get(sect);
                 if (!(o instanceof Map<?,?>)) {
                     // Everything down to the final item must be a map.
-                    System.err.println("listpatch section " + patchTarget + " not found");
-                    return false;
+                    throw new IllegalArgumentException("listpatch section " + patchTarget + " not found");
                 }
                 tgt = (Map<String,Object>)o;
             }
             
             // So now tgt is the map containing the actual schema.
             // finalSect is the name of the schema within that map.
-            
-            // Get the schema
-            DefaultingMap dfTgt = new DefaultingMap(tgt);
-            Set<String> schema = dfTgt.getFlattenedList(finalSect);
-
+            Map<String,Set<String>> schemas = working.get(tgt);
+            if (schemas == null) {
+                schemas = new LinkedHashMap<String,Set<String>>();
+                working.put(tgt, schemas);
+            }
+            Set<String> schema = schemas.get(finalSect);
             if (schema == null) {
+                // Get the schema. This is an ordered set, so fields keep their
+                // original positions and additions go on the end.
+                // The flattened list can't be changed, so work on a copy.
                 // If the schema doesn't exist, adds are still reasonable.
-                // Start with an empty schema
-                schema = new HashSet<String>();
+                Set<String> found = new DefaultingMap(tgt).getFlattenedList(finalSect);
+                schema = (found == null) ? new LinkedHashSet<String>() : new LinkedHashSet<String>(found);
+                schemas.put(finalSect, schema);
             }
 
-            // Now we have the schema as a set in schema.
             // Now look for add or remove sections.
             Set<String>additions = patcher.getFlattenedList("add");
             if (additions != null) {
@@ -365,15 +1096,20 @@ public class TopoLoader implements ITopologyConfigurator {
             }
             Set<String>removals = patcher.getFlattenedList("remove");
             if (removals != null) {
-                // Process additions
-                schema.removeAll(removals);
+                // Process removals. One at a time, since removeAll() walks
+                // the whole schema when the patch is as big as the schema.
+                for (String r : removals) {
+                    schema.remove(r);
+                }
             }
+        }
 
-            // Now put the modified schema back into the original location.
-            tgt.put(finalSect, new ArrayList<String>(schema));
-        
+        // Now put each modified schema back into its original location.
+        for (Map.Entry<Map<String,Object>,Map<String,Set<String>>> t : working.entrySet()) {
+            for (Map.Entry<String,Set<String>> sch : t.getValue().entrySet()) {
+                t.getKey().put(sch.getKey(), new ArrayList<String>(sch.getValue()));
+            }
         }
-        return true;
     }
 
     /**
@@ -381,15 +1117,30 @@ public class TopoLoader implements ITopologyConfigurator {
      * @param fName - Path to file
      * @return - Map from the yaml, or null if file can't be loaded.
      */
-    @SuppressWarnings("unchecked")
     public static Map<String,Object> readYaml(String fName) {        
+        try {
+            return parseYaml(fName);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Read and parse a yaml file, as readYaml() does, but throw if it
+     * can't be loaded.
+     * @param fName - Path to file
+     * @return - Map from the yaml
+     * @throws IOException if the file can't be opened or doesn't hold a map.
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String,Object> parseYaml(String fName) throws IOException {
         File yamlPath = new File(fName);
         InputStream yamlReader = null;
         try {
             yamlReader = new FileInputStream(yamlPath);
         } catch (FileNotFoundException e) {
-            System.err.println("Can't open " + yamlPath);
-            return null;
+            throw new IOException("Can't open " + yamlPath, e);
         }
 
         Yaml yaml = new Yaml(new SafeConstructor());
@@ -405,8 +1156,7 @@ public class TopoLoader implements ITopologyConfigurator {
         }
 
         if (!(y instanceof Map<?,?>)) {
-            System.err.println("Error reading yaml file " + yamlPath);
-            return null;
+            throw new IOException("Error reading yaml file " + yamlPath);
         }
 
         return (Map<String,Object>)y;
@@ -0,0 +1,497 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONValue;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import backtype.storm.generated.StormTopology;
+import backtype.storm.generated.SubmitOptions;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs TopoLoader requests in one long-lived JVM, so each deploy skips
+ * JVM startup and finds classes already resolved, yaml files already
+ * parsed (and re-read only if they change) and a Nimbus connection
+ * already open. Requests come over HTTP on the loopback interface only:
+ *
+ *     POST /submit   body: JSON array of TopoLoader arguments
+ *                    reply: {"exit": &lt;TopoLoader exit code&gt;, "output": "&lt;what it printed&gt;"}
+ *     GET  /status   reply: {"requests": n, "active": n, "cachedYaml": n}
+ *
+ * Every request must carry the daemon's token in an X-TopoLoader-Token
+ * header, since other users on the host can reach the port. The token is
+ * given with --token, or made up at start and written to --tokenfile,
+ * readable only by the daemon's user.
+ *
+ * Each request gets its own TopoLoader, so its storm config and options
+ * are its own; requests run concurrently, up to the number of threads.
+ * Only the options in ALLOWED_OPTIONS and ALLOWED_FLAGS may be used:
+ * the rest write files, or (--local) would tie up the daemon.
+ */
+public class TopoLoaderDaemon {
+    private static final Logger logger = LoggerFactory.getLogger(TopoLoaderDaemon.class);
+
+    public static final int DEFAULT_PORT = 8642;
+    public static final String TOKEN_HEADER = "X-TopoLoader-Token";
+    public static final String DEFAULT_TOKEN_FILE = ".topoloader-daemon.token";
+
+    // TopoLoader options a request may use, and that take a value.
+    public static final Set<String> ALLOWED_OPTIONS = new HashSet<String>(Arrays.asList(
+            "-n", "--name", "-w", "--workers", "--overrides", "-p", "--maxparallel", "--scale"));
+    // TopoLoader options a request may use, without a value.
+    public static final Set<String> ALLOWED_FLAGS = new HashSet<String>(Arrays.asList(
+            "-d", "--debug", "--dryrun", "-i", "--inactive", "--profile"));
+
+    @Option(name="--help", aliases={"-h"}, usage="print help message")
+    private boolean _help = false;
+
+    @Option(name="--port", usage="port to listen on, on localhost (default 8642)")
+    private int _port = DEFAULT_PORT;
+
+    @Option(name="--threads", usage="number of requests to run at once (default 4)")
+    private int _threads = 4;
+
+    @Option(name="--token", metaVar="token", usage="token requests must present (default: make one up)")
+    private String _token = null;
+
+    @Option(name="--tokenfile", metaVar="path", usage="where to write a made-up token (default ~/" + DEFAULT_TOKEN_FILE + ")")
+    private String _tokenFile = null;
+
+    protected final YamlCache yamlCache = new YamlCache();
+    protected ITopologySubmitter submitter = null;
+    protected HttpServer server = null;
+    protected ExecutorService executor = null;
+    protected final AtomicInteger requests = new AtomicInteger();
+    protected final AtomicInteger active = new AtomicInteger();
+
+    public TopoLoaderDaemon() {
+    }
+
+    /**
+     * @param port - Port to listen on; 0 picks a free one.
+     * @param threads - Number of requests to run at once.
+     * @param submitter - Submitter for all requests, or null for a NimbusTopologySubmitter.
+     */
+    public TopoLoaderDaemon(int port, int threads, ITopologySubmitter submitter) {
+        this(port, threads, submitter, null);
+    }
+
+    /**
+     * @param port - Port to listen on; 0 picks a free one.
+     * @param threads - Number of requests to run at once.
+     * @param submitter - Submitter for all requests, or null for a NimbusTopologySubmitter.
+     * @param token - Token requests must present, or null to make one up (see getToken()).
+     */
+    public TopoLoaderDaemon(int port, int threads, ITopologySubmitter submitter, String token) {
+        _port = port;
+        _threads = threads;
+        this.submitter = submitter;
+        _token = token;
+    }
+
+    /**
+     * Start listening.
+     * @throws IOException if the port can't be opened.
+     */
+    public void start() throws IOException {
+        if (_token == null) {
+            _token = newToken();
+            if (_tokenFile != null) {
+                writeToken(new File(_tokenFile), _token);
+                logger.info("TopoLoader daemon token written to {}", _tokenFile);
+            }
+        }
+        if (submitter == null) {
+            submitter = new NimbusTopologySubmitter();
+        }
+        RequestOutput.install();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), _port), 0);
+        executor = Executors.newFixedThreadPool(Math.max(1, _threads));
+        server.setExecutor(executor);
+        server.createContext("/submit", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleSubmit(exchange);
+            }
+        });
+        server.createContext("/status", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleStatus(exchange);
+            }
+        });
+        server.start();
+        logger.info("TopoLoader daemon listening on {}", server.getAddress());
+    }
+
+    /**
+     * Stop listening, let running requests finish, and close the submitter.
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            server = null;
+        }
+        if (submitter != null) {
+            submitter.close();
+        }
+    }
+
+    /**
+     * Port the daemon is listening on.
+     * @return port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * The token requests must present in the X-TopoLoader-Token header.
+     * @return token, or null if it's made up and the daemon hasn't started.
+     */
+    public String getToken() {
+        return _token;
+    }
+
+    /**
+     * A new random token.
+     * @return 32 random bytes, in hex
+     */
+    protected static String newToken() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the token to a file only its owner can read. Any old file is
+     * replaced rather than rewritten, so its permissions don't carry over.
+     * @param f - The file.
+     * @param token - The token.
+     * @throws IOException if it can't be written.
+     */
+    protected static void writeToken(File f, String token) throws IOException {
+        Path path = f.toPath();
+        Files.deleteIfExists(path);
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system.
+            Files.createFile(path);
+            if (!(f.setReadable(false, false) && f.setReadable(true, true)
+                    && f.setWritable(false, false) && f.setWritable(true, true))) {
+                throw new IOException("Can't make " + f + " private to its owner");
+            }
+        }
+        Files.write(path, token.getBytes(Charset.forName("UTF-8")));
+    }
+
+    /**
+     * Check a request's token, replying 401 or 403 if it's missing or wrong.
+     * @return true if the request may go ahead.
+     */
+    protected boolean authorized(HttpExchange exchange) throws IOException {
+        String given = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+        if (given == null) {
+            reply(exchange, 401, "Missing " + TOKEN_HEADER + " header");
+            return false;
+        }
+        // Compare in constant time.
+        if (!MessageDigest.isEqual(given.getBytes("UTF-8"), _token.getBytes("UTF-8"))) {
+            reply(exchange, 403, "Wrong " + TOKEN_HEADER);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check that a request only uses the options it may.
+     * @param args - TopoLoader arguments.
+     * @return null if they're allowed, else why not.
+     */
+    public static String checkArgs(List<String> args) {
+        for (int i = 0; i < args.size(); ++i) {
+            String a = args.get(i);
+            if (!a.startsWith("-")) {
+                // A yaml file.
+                continue;
+            }
+            if (ALLOWED_OPTIONS.contains(a)) {
+                if (++i >= args.size()) {
+                    return a + " needs a value";
+                }
+            } else if (!ALLOWED_FLAGS.contains(a)) {
+                return a + " can't be used with the daemon";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Run one request: a TopoLoader command line.
+     * @param args - TopoLoader arguments.
+     * @param output - Where the request's output goes.
+     * @return TopoLoader's exit code.
+     */
+    public int run(List<String> args, OutputStream output) {
+        requests.incrementAndGet();
+        active.incrementAndGet();
+        RequestOutput.capture(output);
+        try {
+            return newLoader().runLoader(args.toArray(new String[args.size()]));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return 1;
+        } finally {
+            RequestOutput.capture(null);
+            active.decrementAndGet();
+        }
+    }
+
+    /**
+     * A TopoLoader for one request, sharing the daemon's caches and submitter.
+     * @return the loader
+     */
+    protected TopoLoader newLoader() {
+        TopoLoader ret = new TopoLoader();
+        ret.yamlCache = yamlCache;
+        ret.submitter = new SharedSubmitter(submitter);
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void handleSubmit(HttpExchange exchange) throws IOException {
+        if (!authorized(exchange)) {
+            return;
+        }
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            reply(exchange, 405, "Use POST");
+            return;
+        }
+        Object body;
+        InputStream in = exchange.getRequestBody();
+        try {
+            body = JSONValue.parse(new InputStreamReader(in, "UTF-8"));
+        } finally {
+            in.close();
+        }
+        if (!(body instanceof List<?>)) {
+            reply(exchange, 400, "Expected a JSON array of TopoLoader arguments");
+            return;
+        }
+        List<String> args = new ArrayList<String>();
+        for (Object a : (List<Object>)body) {
+            if (!(a instanceof String)) {
+                reply(exchange, 400, "Arguments must be strings: " + a);
+                return;
+            }
+            args.add((String)a);
+        }
+        String bad = checkArgs(args);
+        if (bad != null) {
+            reply(exchange, 400, bad);
+            return;
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int exit = run(args, output);
+        Map<String,Object> ret = new LinkedHashMap<String,Object>();
+        ret.put("exit", exit);
+        ret.put("output", output.toString("UTF-8"));
+        reply(exchange, 200, JSONValue.toJSONString(ret));
+    }
+
+    protected void handleStatus(HttpExchange exchange) throws IOException {
+        if (!authorized(exchange)) {
+            return;
+        }
+        Map<String,Object> ret = new LinkedHashMap<String,Object>();
+        ret.put("requests", requests.get());
+        ret.put("active", active.get());
+        ret.put("cachedYaml", yamlCache.size());
+        reply(exchange, 200, JSONValue.toJSONString(ret));
+    }
+
+    protected static void reply(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", (code == 200) ? "application/json" : "text/plain");
+        exchange.sendResponseHeaders(code, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * The daemon's submitter, as given to one request. Requests don't get
+     * to close it.
+     */
+    protected static class SharedSubmitter implements ITopologySubmitter {
+        protected final ITopologySubmitter shared;
+
+        protected SharedSubmitter(ITopologySubmitter shared) {
+            this.shared = shared;
+        }
+
+        @Override
+        public void submit(String name, Map<String,Object> stormConf, StormTopology topology, SubmitOptions options) throws Exception {
+            shared.submit(name, stormConf, topology, options);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Sends what each request prints to System.out and System.err to that
+     * request's output, including threads it starts, and everything else
+     * to the real System.out or System.err.
+     */
+    protected static class RequestOutput extends OutputStream {
+        protected static final InheritableThreadLocal<OutputStream> target = new InheritableThreadLocal<OutputStream>();
+        protected static boolean installed = false;
+
+        protected final OutputStream dflt;
+
+        protected RequestOutput(OutputStream dflt) {
+            this.dflt = dflt;
+        }
+
+        protected static synchronized void install() {
+            if (!installed) {
+                System.setOut(new PrintStream(new RequestOutput(System.out), true));
+                System.setErr(new PrintStream(new RequestOutput(System.err), true));
+                installed = true;
+            }
+        }
+
+        protected static void capture(OutputStream out) {
+            if (out == null) {
+                target.remove();
+            } else {
+                target.set(out);
+            }
+        }
+
+        protected OutputStream out() {
+            OutputStream o = target.get();
+            return (o == null) ? dflt : o;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out().flush();
+        }
+    }
+
+    /**
+     * Run until killed.
+     * @param args - Command line arguments.
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        TopoLoaderDaemon me = new TopoLoaderDaemon();
+        CmdLineParser parser = new CmdLineParser(me);
+        parser.setUsageWidth(80);
+        try {
+            parser.parseArgument(args);
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            me._help = true;
+        }
+        if (me._help) {
+            System.err.println("storm jar <path> org.apache.storm.topology.TopoLoaderDaemon [options]");
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+
+        if ((me._token == null) && (me._tokenFile == null)) {
+            me._tokenFile = new File(System.getProperty("user.home"), DEFAULT_TOKEN_FILE).getPath();
+        }
+
+        final TopoLoaderDaemon daemon = me;
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                daemon.stop();
+            }
+        });
+        daemon.start();
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What TopoLoader.build() should build: a topology yaml (a path, or the
+ * yaml itself) and the options that would otherwise come from the command
+ * line. A spec never changes, so one can be shared by threads and built
+ * any number of times. The with...() methods return a changed copy:
+ *
+ *     TopologySpec spec = new TopologySpec("topology.yaml")
+ *             .withOverrides(Arrays.asList("prod.yaml"))
+ *             .withName("MyTopo");
+ *     BuiltTopology built = TopoLoader.build(spec, cache);
+ */
+public class TopologySpec {
+    protected final String yamlPath;
+    // A private copy; builds get copies of it.
+    protected final Map<String,Object> yaml;
+    protected final List<String> overrides;
+    protected final String name;
+    protected final int workers;
+    protected final int maxParallel;
+    protected final boolean debug;
+    protected final double scale;
+
+    /**
+     * Spec for a topology yaml file, with no options.
+     * @param yamlPath - Path to the topology yaml.
+     */
+    public TopologySpec(String yamlPath) {
+        this(yamlPath, null, Collections.<String>emptyList(), null, -1, -1, false, -1);
+        if (yamlPath == null) {
+            throw new IllegalArgumentException("yaml path can't be null");
+        }
+    }
+
+    /**
+     * Spec for a topology yaml already read, with no options. The yaml is
+     * copied, so changing it later doesn't change the spec.
+     * @param yaml - The topology yaml.
+     */
+    public TopologySpec(Map<String,Object> yaml) {
+        this(null, YamlCache.copyMap(yaml), Collections.<String>emptyList(), null, -1, -1, false, -1);
+    }
+
+    protected TopologySpec(String yamlPath, Map<String,Object> yaml, List<String> overrides,
+            String name, int workers, int maxParallel, boolean debug, double scale) {
+        this.yamlPath = yamlPath;
+        this.yaml = yaml;
+        this.overrides = overrides;
+        this.name = name;
+        this.workers = workers;
+        this.maxParallel = maxParallel;
+        this.debug = debug;
+        this.scale = scale;
+    }
+
+    /**
+     * Same spec, with override yaml files applied in order (--overrides).
+     * @param overrides - Paths of override files.
+     * @return the new spec
+     */
+    public TopologySpec withOverrides(List<String> overrides) {
+        List<String> copy = Collections.unmodifiableList(new ArrayList<String>(overrides));
+        return new TopologySpec(yamlPath, yaml, copy, name, workers, maxParallel, debug, scale);
+    }
+
+    /**
+     * Same spec, with the topology name set (--name).
+     * @param name - Topology name, or null to use the yaml's topologyname.
+     * @return the new spec
+     */
+    public TopologySpec withName(String name) {
+        return new TopologySpec(yamlPath, yaml, overrides, name, workers, maxParallel, debug, scale);
+    }
+
+    /**
+     * Same spec, with the number of workers set (--workers).
+     * @param workers - Number of workers, or -1 to use the yaml's.
+     * @return the new spec
+     */
+    public TopologySpec withWorkers(int workers) {
+        return new TopologySpec(yamlPath, yaml, overrides, name, workers, maxParallel, debug, scale);
+    }
+
+    /**
+     * Same spec, with the topology's max parallelism set (--maxparallel).
+     * @param maxParallel - Max parallelism, or -1 for none.
+     * @return the new spec
+     */
+    public TopologySpec withMaxParallel(int maxParallel) {
+        return new TopologySpec(yamlPath, yaml, overrides, name, workers, maxParallel, debug, scale);
+    }
+
+    /**
+     * Same spec, with topology debugging on or off (--debug).
+     * @param debug - Turn on debugging.
+     * @return the new spec
+     */
+    public TopologySpec withDebug(boolean debug) {
+        return new TopologySpec(yamlPath, yaml, overrides, name, workers, maxParallel, debug, scale);
+    }
+
+    /**
+     * Same spec, with parallelism and workers scaled (--scale).
+     * Without this the yaml's g.scale is used.
+     * @param scale - Scale factor.
+     * @return the new spec
+     * @throws IllegalArgumentException if the scale isn't positive.
+     */
+    public TopologySpec withScale(double scale) {
+        if (!(scale > 0)) {
+            throw new IllegalArgumentException("Scale must be positive: " + scale);
+        }
+        return new TopologySpec(yamlPath, yaml, overrides, name, workers, maxParallel, debug, scale);
+    }
+
+    /**
+     * Path to the topology yaml.
+     * @return the path, or null if the spec was made from yaml already read.
+     */
+    public String getYamlPath() {
+        return yamlPath;
+    }
+
+    /**
+     * A copy of the yaml the spec was made from, for the caller to change.
+     * @return the yaml, or null if the spec was made from a path.
+     */
+    public Map<String,Object> getYaml() {
+        return (yaml == null) ? null : YamlCache.copyMap(yaml);
+    }
+
+    public List<String> getOverrides() {
+        return overrides;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getMaxParallel() {
+        return maxParallel;
+    }
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * Scale factor set by withScale().
+     * @return the scale, or -1 if it wasn't set.
+     */
+    public double getScale() {
+        return scale;
+    }
+
+    @Override
+    public String toString() {
+        String ret = (yamlPath != null) ? yamlPath : "yaml";
+        if (name != null) {
+            ret = name + " (" + ret + ")";
+        }
+        return overrides.isEmpty() ? ret : ret + " with " + overrides;
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parsed yaml files, shared by the topologies of a batch so an override
+ * used by all of them is read once. Merging overrides and patching schemas
+ * change the maps they're given, so each caller gets its own copy of the
+ * parsed yaml. Copying is much cheaper than parsing again. A file that
+ * has changed since it was read (by modification time or length) is read
+ * again, so a long-lived cache, as in TopoLoaderDaemon, stays current.
+ */
+public class YamlCache {
+
+    protected final ConcurrentHashMap<String,Parsed> parsed = new ConcurrentHashMap<String,Parsed>();
+
+    /**
+     * A parsed file, and the file's state when it was read.
+     */
+    protected static class Parsed {
+        protected final Map<String,Object> yaml;
+        protected final long modified;
+        protected final long length;
+
+        protected Parsed(Map<String,Object> yaml, long modified, long length) {
+            this.yaml = yaml;
+            this.modified = modified;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Get a copy of a yaml file, reading it if it hasn't been read yet
+     * or has changed since.
+     * @param fName - Path to file
+     * @return - Map from the yaml, or null if file can't be loaded.
+     */
+    public Map<String,Object> get(String fName) {
+        try {
+            return load(fName);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Get a copy of a yaml file, as get() does, but throw if it can't be loaded.
+     * @param fName - Path to file
+     * @return - Map from the yaml
+     * @throws IOException if the file can't be opened or doesn't hold a map.
+     */
+    public Map<String,Object> load(String fName) throws IOException {
+        String key = canonical(fName);
+        File f = new File(key);
+        long modified = f.lastModified();
+        long length = f.length();
+        Parsed p = parsed.get(key);
+        if ((p == null) || (p.modified != modified) || (p.length != length)) {
+            // Two threads might both read a file the first time. That's harmless.
+            Map<String,Object> y;
+            try {
+                y = TopoLoader.parseYaml(fName);
+            } catch (IOException e) {
+                parsed.remove(key);
+                throw e;
+            }
+            p = new Parsed(y, modified, length);
+            parsed.put(key, p);
+        }
+        return copyMap(p.yaml);
+    }
+
+    /**
+     * Number of distinct files read.
+     * @return number of files in the cache
+     */
+    public int size() {
+        return parsed.size();
+    }
+
+    protected static String canonical(String fName) {
+        try {
+            return new File(fName).getCanonicalPath();
+        } catch (IOException e) {
+            return fName;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static Map<String,Object> copyMap(Map<String,Object> m) {
+        Map<String,Object> ret = new LinkedHashMap<String,Object>();
+        for (Map.Entry<String,Object> e : m.entrySet()) {
+            ret.put(e.getKey(), copy(e.getValue()));
+        }
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static Object copy(Object o) {
+        if (o instanceof Map<?,?>) {
+            return copyMap((Map<String,Object>)o);
+        }
+        if (o instanceof List<?>) {
+            List<Object> l = (List<Object>)o;
+            List<Object> ret = new ArrayList<Object>(l.size());
+            for (Object i : l) {
+                ret.add(copy(i));
+            }
+            return ret;
+        }
+        // Strings, numbers, booleans and dates are immutable.
+        return o;
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.utils.StringPool;
+
+/**
+ * Share equal lists and scalars across a topology yaml. SnakeYAML turns
+ * an alias (*SinkFields) into a reference to the anchored list, but overrides,
+ * list patches and copying break that sharing, and lists that are equal
+ * without being aliased are never shared. After the yaml is final, the
+ * interner replaces every list of scalars (or of such lists) with one
+ * unmodifiable instance per distinct value, and every string, number and
+ * boolean with one instance per value.
+ *
+ * Maps stay as they are, since the Loader and components update their
+ * configurations. Their values are interned in place. Lists that hold maps
+ * keep their own identity for the same reason, though their contents are
+ * interned. So does a list that contains itself (a: &x [1, *x]).
+ *
+ * Components with equal schemas then share one list (and the Loader gives
+ * them one FieldIndex), and a component that refers to the same list twice
+ * serializes it once. Storm serializes each component separately, so
+ * identical lists in different components are still each written once per
+ * component.
+ */
+public class YamlInterner {
+
+    // Canonical instance of each immutable value.
+    protected final Map<Object,Object> canon = new HashMap<Object,Object>();
+    // What each list or map already visited became, so aliases are walked once.
+    protected final Map<Object,Object> visited = new IdentityHashMap<Object,Object>();
+    // Lists that are canonical, so can be part of another shared list.
+    protected final Set<Object> shared = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+
+    /**
+     * Intern a yaml tree in place.
+     * @param yaml - The yaml, after overrides and patches.
+     * @return yaml
+     */
+    public static Map<String,Object> intern(Map<String,Object> yaml) {
+        new YamlInterner().internMap(yaml);
+        return yaml;
+    }
+
+    /**
+     * Intern the values of a map, replacing them in place.
+     * @param map - Map to intern.
+     */
+    public void internMap(Map<String,Object> map) {
+        if (visited.put(map, map) != null) {
+            return;
+        }
+        for (Map.Entry<String,Object> e : map.entrySet()) {
+            Object v = e.getValue();
+            Object iv = intern(v);
+            if (iv != v) {
+                e.setValue(iv);
+            }
+        }
+    }
+
+    /**
+     * Intern a value.
+     * @param v - Value from the yaml.
+     * @return the shared equivalent of v, or v if it can't be shared.
+     */
+    @SuppressWarnings("unchecked")
+    public Object intern(Object v) {
+        if (v instanceof Map<?,?>) {
+            internMap((Map<String,Object>)v);
+            return v;
+        }
+        if (v instanceof List<?>) {
+            Object done = visited.get(v);
+            if (done != null) {
+                return done;
+            }
+            // Until it's been walked, a list stands for itself, so a list
+            // reached again from inside itself isn't shared.
+            visited.put(v, v);
+            Object ret = internList((List<Object>)v);
+            visited.put(v, ret);
+            return ret;
+        }
+        if ((v instanceof String) || (v instanceof Number) || (v instanceof Boolean)) {
+            return canonical(v);
+        }
+        return v;
+    }
+
+    protected Object internList(List<Object> list) {
+        boolean shareable = true;
+        List<Object> copy = new ArrayList<Object>(list.size());
+        for (Object o : list) {
+            Object io = intern(o);
+            copy.add(io);
+            // Only lists of immutable things can be shared. Lists that
+            // aren't shared are never looked up, since one might contain
+            // itself and couldn't be hashed.
+            shareable &= (io == null) || (io instanceof String) || (io instanceof Number)
+                    || (io instanceof Boolean) || shared.contains(io);
+        }
+        if (!shareable) {
+            // Keep the original (modifiable) list, with interned contents.
+            for (int i = 0; i < copy.size(); ++i) {
+                if (copy.get(i) != list.get(i)) {
+                    list.set(i, copy.get(i));
+                }
+            }
+            return list;
+        }
+        Object ret = canonical(Collections.unmodifiableList(copy));
+        shared.add(ret);
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected <T> T canonical(T v) {
+        if (v instanceof String) {
+            // Strings are shared with DefaultingMap keys and schemas too.
+            v = (T)StringPool.intern((String)v);
+        }
+        Object c = canon.get(v);
+        if (c == null) {
+            canon.put(v, v);
+            return v;
+        }
+        return (T)c;
+    }
+
+    /**
+     * Number of distinct shared values.
+     * @return size of the canonical table
+     */
+    public int size() {
+        return canon.size();
+    }
+}
@@ -0,0 +1,316 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.bolts;
+
+import backtype.storm.Config;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.IRichBolt;
+import backtype.storm.tuple.Tuple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.utils.DefaultingMap;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Base for loadable bolts whose per-tuple work is blocking I/O. process()
+ * runs on a bounded thread pool, so the executor thread doesn't wait on
+ * I/O latency. Results come back to the executor thread, which does all
+ * emits, acks and fails (OutputCollector isn't thread-safe). Configuration:
+ *
+ *     threads: 10          # I/O threads
+ *     maxinflight: 100     # Most tuples in process() or awaiting ack
+ *     ordered: false       # Emit and ack in input order
+ *     drainsecs: 1         # Tick interval for handling completions when idle
+ *
+ * When maxinflight tuples are outstanding, execute() waits for one to
+ * finish, or for a deferred ack (see complete()). That backpressure keeps
+ * memory bounded and, with topology.max.spout.pending, throttles the spouts.
+ */
+public abstract class AsyncBolt implements IRichBolt {
+    private static final long serialVersionUID = -1722346920950779316L;
+    private static final Logger logger = LoggerFactory.getLogger(AsyncBolt.class);
+
+    protected final String myName;
+    protected final int threads;
+    protected final int maxInFlight;
+    protected final boolean ordered;
+    protected final int drainSecs;
+
+    protected transient OutputCollector collector;
+    protected transient ExecutorService pool;
+    // Finished work, waiting for the executor thread.
+    protected transient LinkedBlockingQueue<Completion> done;
+    // In ordered mode, outstanding work in input order.
+    protected transient ArrayDeque<Completion> pending;
+    // Submitted and not yet acked or failed.
+    protected transient int inFlight;
+    // Submitted and not yet handled; the rest of inFlight awaits a deferred ack.
+    protected transient int processing;
+
+    /**
+     * One tuple's work. Written by the pool thread before it's queued
+     * on done, read by the executor thread after it's taken from done.
+     */
+    protected static class Completion implements Runnable {
+        protected final AsyncBolt bolt;
+        protected final Tuple input;
+        protected List<Object> result = null;
+        protected Throwable error = null;
+        protected volatile boolean finished = false;
+
+        protected Completion(AsyncBolt bolt, Tuple input) {
+            this.bolt = bolt;
+            this.input = input;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result = bolt.process(input);
+            } catch (Throwable t) {
+                error = t;
+            }
+            finished = true;
+            bolt.done.add(this);
+        }
+    }
+
+    public AsyncBolt(String name, DefaultingMap conf) {
+        myName = name;
+        threads = conf.getInt("threads", 10);
+        maxInFlight = conf.getInt("maxinflight", 100);
+        ordered = conf.getBool("ordered", false);
+        drainSecs = conf.getInt("drainsecs", 1);
+        if ((threads <= 0) || (maxInFlight <= 0) || (drainSecs <= 0)) {
+            throw new IllegalArgumentException(name + ": threads, maxinflight and drainsecs must be positive");
+        }
+    }
+
+    /**
+     * Do the work for one tuple. Runs on a pool thread, so it must not
+     * use the collector, and anything it shares must be thread-safe.
+     * @param input - The input tuple.
+     * @return values to emit, anchored to input, or null to emit nothing.
+     * @throws Exception to fail the tuple.
+     */
+    protected abstract List<Object> process(Tuple input) throws Exception;
+
+    /**
+     * Per-executor setup, called from prepare() before the pool starts.
+     * @param stormConf - Storm configuration
+     * @param context - Topology context
+     */
+    protected void prepareAsync(@SuppressWarnings("rawtypes") Map stormConf, TopologyContext context) {
+    }
+
+    /**
+     * Called on the executor thread on every tick tuple, after completed
+     * work has been handled.
+     */
+    protected void onTick() {
+    }
+
+    /**
+     * Called on the executor thread when maxinflight tuples are all waiting
+     * on deferred acks, before execute() takes another. Subclasses that
+     * defer acks must ack() or fail() at least one here, e.g. by flushing
+     * a batch. The default does nothing.
+     */
+    protected void flushDeferred() {
+    }
+
+    /**
+     * Called on the executor thread when a tuple's work finishes, before
+     * it is acked or failed. The default emits result, anchored to input.
+     * Subclasses can override to delay acks: return false, and later call
+     * ack() or fail() here (not the collector's) on the executor thread.
+     * The tuple counts against maxinflight until then.
+     * @param input - The input tuple.
+     * @param result - What process() returned.
+     * @return true to ack the tuple now, false if the subclass will ack it later.
+     */
+    protected boolean complete(Tuple input, List<Object> result) {
+        if (result != null) {
+            collector.emit(input, result);
+        }
+        return true;
+    }
+
+    @Override
+    public void prepare(@SuppressWarnings("rawtypes") Map stormConf, TopologyContext context,
+            OutputCollector collector) {
+        this.collector = collector;
+        done = new LinkedBlockingQueue<Completion>();
+        pending = new ArrayDeque<Completion>();
+        inFlight = 0;
+        processing = 0;
+        prepareAsync(stormConf, context);
+
+        final AtomicInteger threadNum = new AtomicInteger();
+        pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, myName + "-io-" + threadNum.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    @Override
+    public void execute(Tuple input) {
+        if (WindowedAggregationBolt.isTick(input)) {
+            drain();
+            onTick();
+            return;
+        }
+
+        drain();
+        while (inFlight >= maxInFlight) {
+            if (processing > 0) {
+                awaitCompletion();
+                continue;
+            }
+            // Everything outstanding is waiting on a deferred ack.
+            int before = inFlight;
+            flushDeferred();
+            if (inFlight >= before) {
+                throw new IllegalStateException(myName + ": " + inFlight
+                        + " tuples awaiting deferred acks and flushDeferred() released none");
+            }
+        }
+
+        Completion c = new Completion(this, input);
+        if (ordered) {
+            pending.add(c);
+        }
+        ++inFlight;
+        ++processing;
+        pool.execute(c);
+    }
+
+    /**
+     * Handle everything that has finished, without waiting.
+     */
+    protected void drain() {
+        Completion c;
+        while ((c = done.poll()) != null) {
+            finished(c);
+        }
+        if (ordered) {
+            flushOrdered();
+        }
+    }
+
+    /**
+     * Wait for at least one tuple to finish, and handle what's done.
+     */
+    protected void awaitCompletion() {
+        try {
+            finished(done.take());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(myName + " interrupted waiting for I/O", e);
+        }
+        drain();
+    }
+
+    protected void finished(Completion c) {
+        if (!ordered) {
+            handle(c);
+        }
+        // In ordered mode, completions are handled from the head of pending.
+    }
+
+    protected void flushOrdered() {
+        while (!pending.isEmpty() && pending.peek().finished) {
+            handle(pending.poll());
+        }
+    }
+
+    protected void handle(Completion c) {
+        --processing;
+        if (c.error != null) {
+            logger.warn("{}: failing tuple: {}", myName, c.error.toString());
+            collector.reportError(c.error);
+            fail(c.input);
+        }
+        else if (complete(c.input, c.result)) {
+            ack(c.input);
+        }
+    }
+
+    /**
+     * Ack a tuple and release its in-flight slot. Executor thread only.
+     * @param input - The input tuple.
+     */
+    protected void ack(Tuple input) {
+        collector.ack(input);
+        --inFlight;
+    }
+
+    /**
+     * Fail a tuple and release its in-flight slot. Executor thread only.
+     * @param input - The input tuple.
+     */
+    protected void fail(Tuple input) {
+        collector.fail(input);
+        --inFlight;
+    }
+
+    /**
+     * Number of tuples submitted that haven't been acked or failed yet.
+     * @return in-flight count
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public void cleanup() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drain();
+    }
+
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        Map<String,Object> conf = new HashMap<String,Object>();
+        conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, drainSecs);
+        return conf;
+    }
+}
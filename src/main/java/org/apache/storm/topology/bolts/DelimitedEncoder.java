@@ -0,0 +1,69 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.bolts;
+
+import backtype.storm.tuple.Tuple;
+
+import org.apache.utils.DefaultingMap;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Default FileSinkBolt encoder: one line per tuple, all values in order,
+ * converted with toString(). Configuration:
+ *
+ *     separator: "\t"      # Between values
+ *     null: ""             # Written for null values
+ *     charset: UTF-8
+ */
+public class DelimitedEncoder implements IRecordEncoder {
+    private static final long serialVersionUID = 4790358416170922841L;
+
+    protected final String separator;
+    protected final String nullValue;
+    protected final String charsetName;
+    protected transient Charset charset;
+
+    public DelimitedEncoder(String name, DefaultingMap conf) {
+        separator = conf.getString("separator", "\t");
+        nullValue = conf.getString("null", "");
+        charsetName = conf.getString("charset", "UTF-8");
+        charset = Charset.forName(charsetName);
+    }
+
+    @Override
+    public byte[] encode(Tuple input) {
+        if (charset == null) {
+            charset = Charset.forName(charsetName);
+        }
+        List<Object> values = input.getValues();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.size(); ++i) {
+            if (i > 0) {
+                sb.append(separator);
+            }
+            Object v = values.get(i);
+            sb.append((v == null) ? nullValue : v.toString());
+        }
+        sb.append('\n');
+        return sb.toString().getBytes(charset);
+    }
+}
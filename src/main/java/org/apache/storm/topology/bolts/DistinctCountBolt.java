@@ -0,0 +1,109 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.bolts;
+
+import backtype.storm.tuple.Values;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.storm.topology.bolts.WindowTable.Kind;
+import org.apache.utils.DefaultingMap;
+import org.apache.utils.HyperLogLog;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A loadable bolt that estimates the number of distinct values of a field,
+ * per key, with a HyperLogLog sketch. Each key costs 2^hllprecision bytes
+ * however many values it sees. In addition to the SketchBolt settings:
+ *
+ *     hllprecision: 12     # 4-16; standard error about 1.04/sqrt(2^p)
+ *
+ * single and merge modes emit the key fields and "distinct" (Long).
+ * partial mode emits the key fields and the sketch as a byte[].
+ */
+public class DistinctCountBolt extends SketchBolt {
+    private static final long serialVersionUID = -3198871452018409386L;
+    private static final Logger logger = LoggerFactory.getLogger(DistinctCountBolt.class);
+
+    protected final int hllPrecision;
+
+    protected transient WindowTable table;
+    protected transient int[] distinctPos;
+    protected static final int[] noVals = new int[0];
+
+    public DistinctCountBolt(String name, DefaultingMap conf) {
+        super(name, conf);
+        hllPrecision = conf.getInt("hllprecision", 12);
+        if ((hllPrecision < HyperLogLog.MIN_PRECISION) || (hllPrecision > HyperLogLog.MAX_PRECISION)) {
+            throw new IllegalArgumentException(name + ": hllprecision out of range: " + hllPrecision);
+        }
+    }
+
+    @Override
+    protected void allocate() {
+        table = new WindowTable(maxKeys, keyFields.length, new Kind[0], 1, hllPrecision);
+        distinctPos = new int[1];
+    }
+
+    @Override
+    protected void offer(List<Object> values) {
+        distinctPos[0] = valuePos;
+        table.update(values, keyPos, noVals, distinctPos);
+    }
+
+    @Override
+    protected void mergePartial(List<Object> values) {
+        int slot = table.slotFor(values, keyPos);
+        if (slot >= 0) {
+            table.sketchAt(slot, 0).mergeBytes((byte[])values.get(valuePos));
+        }
+    }
+
+    @Override
+    protected void emit() {
+        if (table.dropped() > 0) {
+            logger.warn("{}: {} updates dropped; more than {} keys", myName, table.dropped(), maxKeys);
+        }
+        for (int slot = 0; slot < table.capacity(); ++slot) {
+            if (!table.isUsed(slot)) {
+                continue;
+            }
+            Values out = keyValues(table.keyAt(slot));
+            if (mode == Mode.partial) {
+                out.add(table.sketchAt(slot, 0).toBytes());
+            } else {
+                out.add(table.distinctAt(slot, 0));
+            }
+            collector.emit(out);
+        }
+    }
+
+    @Override
+    protected void clear() {
+        table.clear();
+    }
+
+    @Override
+    protected List<String> resultFields() {
+        return Arrays.asList("distinct");
+    }
+}
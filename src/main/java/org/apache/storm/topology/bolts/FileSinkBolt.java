@@ -0,0 +1,294 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.bolts;
+
+import backtype.storm.Config;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.IRichBolt;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.tuple.Tuple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.storm.topology.builder.Loader;
+import org.apache.storm.topology.builder.Loader.LoadFailure;
+import org.apache.utils.DefaultingMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A loadable bolt that writes one record per tuple to a file. Records
+ * are collected in a direct buffer and written to a FileChannel a batch
+ * at a time (group commit), when the buffer fills or on a tick tuple.
+ * Configuration:
+ *
+ *     outPath: /var/log/out.txt  # Output file; {task} is replaced by the task id
+ *     flush: sync                # none, write or sync (see below)
+ *     buffersize: 1048576        # Bytes buffered before a commit
+ *     commitsecs: 1              # Commit at least this often
+ *     rotatebytes: 0             # Rotate after this many bytes; 0 means never
+ *     rotatesecs: 0              # Rotate after this many seconds; 0 means never
+ *     encoder:                   # IRecordEncoder; default DelimitedEncoder
+ *       class: org.apache.storm.topology.bolts.DelimitedEncoder
+ *
+ * flush controls when input tuples are acked:
+ *     none  - as soon as they're buffered. Fastest, but a worker crash
+ *             loses what's buffered.
+ *     write - after their batch is written to the file. Faster than sync,
+ *             but a host crash can lose acked records still in the page
+ *             cache. (true means write, false means none.)
+ *     sync  - after their batch is written and forced to disk. The default.
+ * If a commit fails, every tuple in the batch is failed.
+ *
+ * If there's more than one task and outPath doesn't contain {task}, the
+ * task id is appended to the path. Rotated files are renamed to
+ * &lt;path&gt;.&lt;yyyyMMdd-HHmmss&gt;.
+ */
+public class FileSinkBolt implements IRichBolt {
+    private static final long serialVersionUID = 2815617703622519380L;
+    private static final Logger logger = LoggerFactory.getLogger(FileSinkBolt.class);
+
+    protected enum Flush {none, write, sync};
+
+    protected final String myName;
+    protected final String outPath;
+    protected final Flush flush;
+    protected final int bufferSize;
+    protected final int commitSecs;
+    protected final long rotateBytes;
+    protected final long rotateMillis;
+    protected final IRecordEncoder encoder;
+
+    protected transient OutputCollector collector;
+    protected transient File file;
+    protected transient FileChannel channel;
+    protected transient ByteBuffer buffer;
+    protected transient List<Tuple> pending;
+    protected transient long fileBytes;
+    protected transient long openedAt;
+
+    public FileSinkBolt(String name, DefaultingMap conf) throws LoadFailure {
+        myName = name;
+        outPath = conf.getString("outPath");
+        if (outPath == null) {
+            throw new IllegalArgumentException(name + ": outPath is required");
+        }
+
+        Object f = conf.get("flush");
+        if (f == null) {
+            flush = Flush.sync;
+        } else if (f instanceof Boolean) {
+            flush = ((Boolean)f) ? Flush.write : Flush.none;
+        } else {
+            try {
+                flush = Flush.valueOf(f.toString().trim());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(name + ": flush must be none, write or sync: " + f);
+            }
+        }
+
+        bufferSize = conf.getInt("buffersize", 1024 * 1024);
+        commitSecs = conf.getInt("commitsecs", 1);
+        if ((bufferSize <= 0) || (commitSecs <= 0)) {
+            throw new IllegalArgumentException(name + ": buffersize and commitsecs must be positive");
+        }
+        rotateBytes = conf.getLong("rotatebytes", 0);
+        rotateMillis = conf.getLong("rotatesecs", 0) * 1000;
+
+        DefaultingMap encConf = conf.getSubMap("encoder");
+        if (encConf == null) {
+            encoder = new DelimitedEncoder(name, new DefaultingMap());
+        } else {
+            Object enc = Loader.loadAndBuild(name, encConf);
+            if (!(enc instanceof IRecordEncoder)) {
+                throw new IllegalArgumentException(name + ": encoder must be an IRecordEncoder");
+            }
+            encoder = (IRecordEncoder)enc;
+        }
+    }
+
+    @Override
+    public void prepare(@SuppressWarnings("rawtypes") Map stormConf, TopologyContext context,
+            OutputCollector collector) {
+        this.collector = collector;
+        buffer = ByteBuffer.allocateDirect(bufferSize);
+        pending = new ArrayList<Tuple>();
+
+        String path = outPath;
+        if (context != null) {
+            int task = context.getThisTaskId();
+            if (path.contains("{task}")) {
+                path = path.replace("{task}", Integer.toString(task));
+            } else if (context.getComponentTasks(context.getThisComponentId()).size() > 1) {
+                path = path + "." + task;
+            }
+        }
+        file = new File(path);
+    }
+
+    @Override
+    public void execute(Tuple input) {
+        if (WindowedAggregationBolt.isTick(input)) {
+            commit();
+            if ((rotateMillis > 0) && (fileBytes > 0)
+                    && (System.currentTimeMillis() - openedAt >= rotateMillis)) {
+                rotate();
+            }
+            return;
+        }
+
+        byte[] record = encoder.encode(input);
+        if (record.length > buffer.remaining()) {
+            commit();
+        }
+        if (record.length > buffer.capacity()) {
+            // Too big to buffer; write it on its own.
+            pending.add(input);
+            commit(ByteBuffer.wrap(record));
+            return;
+        }
+
+        buffer.put(record);
+        if (flush == Flush.none) {
+            collector.ack(input);
+        } else {
+            pending.add(input);
+        }
+        if (!buffer.hasRemaining()) {
+            commit();
+        }
+    }
+
+    /**
+     * Write out the buffer and ack the tuples it holds.
+     */
+    protected void commit() {
+        buffer.flip();
+        commit(buffer);
+        buffer.clear();
+    }
+
+    protected void commit(ByteBuffer data) {
+        if (!data.hasRemaining() && pending.isEmpty()) {
+            return;
+        }
+        try {
+            if (channel == null) {
+                open();
+            }
+            while (data.hasRemaining()) {
+                fileBytes += channel.write(data);
+            }
+            if (flush == Flush.sync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            logger.error("{}: write to {} failed: {}", myName, file, e.toString());
+            collector.reportError(e);
+            for (Tuple t : pending) {
+                collector.fail(t);
+            }
+            pending.clear();
+            data.position(data.limit());
+            closeQuietly();
+            return;
+        }
+
+        for (Tuple t : pending) {
+            collector.ack(t);
+        }
+        pending.clear();
+
+        if ((rotateBytes > 0) && (fileBytes >= rotateBytes)) {
+            rotate();
+        }
+    }
+
+    protected void open() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileBytes = channel.size();
+        openedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Close the current file and move it aside. The next commit starts
+     * a new one.
+     */
+    protected void rotate() {
+        closeQuietly();
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        File dest = new File(file.getPath() + "." + stamp);
+        for (int n = 1; dest.exists(); ++n) {
+            dest = new File(file.getPath() + "." + stamp + "." + n);
+        }
+        if (!file.renameTo(dest)) {
+            logger.warn("{}: couldn't rotate {} to {}", myName, file, dest);
+        }
+        fileBytes = 0;
+    }
+
+    protected void closeQuietly() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("{}: close of {} failed: {}", myName, file, e.toString());
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * The file currently being written.
+     * @return output file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void cleanup() {
+        commit();
+        closeQuietly();
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+    }
+
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        Map<String,Object> conf = new HashMap<String,Object>();
+        conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, commitSecs);
+        return conf;
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.bolts;
+
+import backtype.storm.tuple.Tuple;
+
+import java.io.Serializable;
+
+/**
+ * Turns a tuple into the bytes FileSinkBolt writes for it. Encoders are
+ * loaded with Loader.loadAndBuild(), so an implementation can take a
+ * (String name, DefaultingMap conf) constructor for its settings.
+ */
+public interface IRecordEncoder extends Serializable {
+
+    /**
+     * Encode one tuple, including any record terminator.
+     * @param input - The tuple to encode.
+     * @return the encoded record
+     */
+    public byte[] encode(Tuple input);
+}
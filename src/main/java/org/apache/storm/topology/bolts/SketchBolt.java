@@ -0,0 +1,204 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.bolts;
+
+import backtype.storm.Config;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.IRichBolt;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+
+import org.apache.utils.DefaultingMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Common part of the sketch bolts. A sketch bolt keeps a fixed-size
+ * sketch per key and emits on tick tuples. It runs in one of three modes:
+ *
+ *  - single: sketch the input, emit results (the default)
+ *  - partial: sketch the input, emit the sketches themselves and reset.
+ *    Use this stage behind a fields (or shuffle) grouping.
+ *  - merge: merge partial sketches from upstream, emit results. Use this
+ *    stage behind a global (or fields-on-key) grouping.
+ *
+ * Configuration common to all sketch bolts:
+ *
+ *     mode: single|partial|merge
+ *     keys: [k1, k2]       # Key fields; none means one global sketch
+ *     field: value         # Field to sketch (single and partial)
+ *     sketchfield: sketch  # Field holding partial sketches (merge)
+ *     emitsecs: 60         # Tick interval
+ *     maxkeys: 10000       # Most keys kept between emits
+ *     reset: true          # Reset after each emit (single and merge)
+ */
+public abstract class SketchBolt implements IRichBolt {
+    private static final long serialVersionUID = 7026431916209734011L;
+
+    protected enum Mode {single, partial, merge};
+
+    protected final String myName;
+    protected final Mode mode;
+    protected final String[] keyFields;
+    protected final String valueField;
+    protected final String sketchField;
+    protected final int emitSecs;
+    protected final int maxKeys;
+    protected final boolean reset;
+
+    protected transient OutputCollector collector;
+    protected transient Fields lastFields;
+    protected transient int[] keyPos;
+    protected transient int valuePos;
+
+    public SketchBolt(String name, DefaultingMap conf) {
+        myName = name;
+        try {
+            mode = Mode.valueOf(conf.getString("mode", Mode.single.name()));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(name + ": mode must be single, partial, or merge");
+        }
+        Set<String> keys = conf.getFlattenedList("keys");
+        keyFields = (keys == null) ? new String[0] : keys.toArray(new String[keys.size()]);
+        valueField = conf.getString("field");
+        sketchField = conf.getString("sketchfield", "sketch");
+        if ((mode != Mode.merge) && (valueField == null)) {
+            throw new IllegalArgumentException(name + ": field must be set");
+        }
+        emitSecs = conf.getInt("emitsecs", 60);
+        maxKeys = conf.getInt("maxkeys", 10000);
+        if ((emitSecs <= 0) || (maxKeys <= 0)) {
+            throw new IllegalArgumentException(name + ": emitsecs and maxkeys must be positive");
+        }
+        reset = conf.getBool("reset", true);
+    }
+
+    /**
+     * Allocate sketch state. Called from prepare().
+     */
+    protected abstract void allocate();
+
+    /**
+     * Add the value in an input record to the sketch for its key.
+     * @param values - Record values; key fields at keyPos, value at valuePos.
+     */
+    protected abstract void offer(List<Object> values);
+
+    /**
+     * Merge a partial sketch from upstream into the sketch for its key.
+     * @param values - Record values; key fields at keyPos, sketch at valuePos.
+     */
+    protected abstract void mergePartial(List<Object> values);
+
+    /**
+     * Emit results (or, in partial mode, sketches) for every key.
+     */
+    protected abstract void emit();
+
+    /**
+     * Discard all sketches.
+     */
+    protected abstract void clear();
+
+    /**
+     * Names of the output fields that follow the key fields.
+     * @return field names
+     */
+    protected abstract List<String> resultFields();
+
+    @Override
+    public void prepare(@SuppressWarnings("rawtypes") Map stormConf, TopologyContext context,
+            OutputCollector collector) {
+        this.collector = collector;
+        lastFields = null;
+        allocate();
+    }
+
+    @Override
+    public void execute(Tuple input) {
+        if (WindowedAggregationBolt.isTick(input)) {
+            emit();
+            if (reset || (mode == Mode.partial)) {
+                clear();
+            }
+            return;
+        }
+
+        Fields fields = input.getFields();
+        if (fields != lastFields) {
+            keyPos = new int[keyFields.length];
+            for (int i = 0; i < keyFields.length; ++i) {
+                keyPos[i] = fields.fieldIndex(keyFields[i]);
+            }
+            valuePos = fields.fieldIndex((mode == Mode.merge) ? sketchField : valueField);
+            lastFields = fields;
+        }
+
+        if (mode == Mode.merge) {
+            mergePartial(input.getValues());
+        } else {
+            offer(input.getValues());
+        }
+        collector.ack(input);
+    }
+
+    /**
+     * Start an output tuple with the given key.
+     */
+    protected static Values keyValues(Object[] key) {
+        Values out = new Values();
+        for (Object k : key) {
+            out.add(k);
+        }
+        return out;
+    }
+
+    @Override
+    public void cleanup() {
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        List<String> out = new ArrayList<String>();
+        for (String k : keyFields) {
+            out.add(k);
+        }
+        if (mode == Mode.partial) {
+            out.add(sketchField);
+        } else {
+            out.addAll(resultFields());
+        }
+        declarer.declare(new Fields(out));
+    }
+
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        Map<String,Object> conf = new HashMap<String,Object>();
+        conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, emitSecs);
+        return conf;
+    }
+}
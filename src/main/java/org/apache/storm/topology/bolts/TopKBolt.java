@@ -0,0 +1,179 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.bolts;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+import backtype.storm.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.utils.DefaultingMap;
+import org.apache.utils.SpaceSaving;
+import org.apache.utils.SpaceSaving.Counter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A loadable bolt that finds the most frequent values of a field, per key,
+ * with a Space-Saving summary of fixed capacity. In addition to the
+ * SketchBolt settings:
+ *
+ *     capacity: 100        # Items tracked per key; more is more accurate
+ *     top: 10              # Items emitted per key; at most capacity
+ *     weightfield: n       # Optional field to count by, rather than 1 per tuple;
+ *                          # tuples with a weight of 0 or less are skipped
+ *
+ * single and merge modes emit one tuple per reported item: the key fields,
+ * "item", "count", "error" (count over-estimates by at most this), and
+ * "rank" (1 is the most frequent). partial mode emits the key fields and
+ * the serialized summary as a byte[].
+ */
+public class TopKBolt extends SketchBolt {
+    private static final long serialVersionUID = 2939462830766287449L;
+    private static final Logger logger = LoggerFactory.getLogger(TopKBolt.class);
+
+    protected final int capacity;
+    protected final int top;
+    protected final String weightField;
+
+    protected transient Map<List<Object>,SpaceSaving<Object>> summaries;
+    protected transient List<Object> scratchKey;
+    protected transient long dropped;
+    protected transient long skipped;
+    protected transient int weightPos;
+    protected transient Fields weightFields;
+
+    public TopKBolt(String name, DefaultingMap conf) {
+        super(name, conf);
+        capacity = conf.getInt("capacity", 100);
+        top = Math.min(conf.getInt("top", 10), capacity);
+        weightField = conf.getString("weightfield");
+        if ((capacity <= 0) || (top <= 0)) {
+            throw new IllegalArgumentException(name + ": capacity and top must be positive");
+        }
+    }
+
+    @Override
+    protected void allocate() {
+        summaries = new HashMap<List<Object>,SpaceSaving<Object>>(maxKeys * 2);
+        scratchKey = new ArrayList<Object>(keyFields.length);
+        dropped = 0;
+        skipped = 0;
+        weightFields = null;
+    }
+
+    /**
+     * Find the summary for the key in a record, creating it if there's room.
+     * Lookups use a reused key list, so only new keys allocate.
+     */
+    protected SpaceSaving<Object> summaryFor(List<Object> values) {
+        scratchKey.clear();
+        for (int p : keyPos) {
+            scratchKey.add(values.get(p));
+        }
+        SpaceSaving<Object> summary = summaries.get(scratchKey);
+        if (summary == null) {
+            if (summaries.size() >= maxKeys) {
+                ++dropped;
+                return null;
+            }
+            summary = new SpaceSaving<Object>(capacity);
+            summaries.put(new ArrayList<Object>(scratchKey), summary);
+        }
+        return summary;
+    }
+
+    @Override
+    protected void offer(List<Object> values) {
+        long weight = 1;
+        if (weightField != null) {
+            if (lastFields != weightFields) {
+                weightPos = lastFields.fieldIndex(weightField);
+                weightFields = lastFields;
+            }
+            Object w = values.get(weightPos);
+            weight = (w instanceof Number) ? ((Number)w).longValue() : 1;
+            if (weight <= 0) {
+                // Space-Saving only counts up.
+                ++skipped;
+                return;
+            }
+        }
+        SpaceSaving<Object> summary = summaryFor(values);
+        if (summary == null) {
+            return;
+        }
+        summary.offer(values.get(valuePos), weight);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void mergePartial(List<Object> values) {
+        SpaceSaving<Object> summary = summaryFor(values);
+        if (summary != null) {
+            summary.merge((SpaceSaving<Object>)Utils.deserialize((byte[])values.get(valuePos)));
+        }
+    }
+
+    @Override
+    protected void emit() {
+        if (dropped > 0) {
+            logger.warn("{}: {} updates dropped; more than {} keys", myName, dropped, maxKeys);
+        }
+        if (skipped > 0) {
+            logger.warn("{}: {} updates skipped; {} not positive", myName, skipped, weightField);
+        }
+        for (Map.Entry<List<Object>,SpaceSaving<Object>> e : summaries.entrySet()) {
+            Object[] key = e.getKey().toArray();
+            if (mode == Mode.partial) {
+                Values out = keyValues(key);
+                out.add(Utils.serialize(e.getValue()));
+                collector.emit(out);
+                continue;
+            }
+            int rank = 1;
+            for (Counter<Object> c : e.getValue().top(top)) {
+                Values out = keyValues(key);
+                out.add(c.getItem());
+                out.add(c.getCount());
+                out.add(c.getError());
+                out.add(rank++);
+                collector.emit(out);
+            }
+        }
+    }
+
+    @Override
+    protected void clear() {
+        summaries.clear();
+        dropped = 0;
+        skipped = 0;
+    }
+
+    @Override
+    protected List<String> resultFields() {
+        return Arrays.asList("item", "count", "error", "rank");
+    }
+}
@@ -0,0 +1,329 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.bolts;
+
+import org.apache.utils.HyperLogLog;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-key aggregates for one window bucket. This is an open-addressing
+ * hash table sized once, up front, for maxKeys keys. Aggregates live in
+ * primitive arrays indexed by slot. Clearing the table returns key arrays
+ * and sketches to a spare pool that new keys draw from, so at most maxKeys
+ * of each are ever live, and once maxKeys keys have been seen updates and
+ * clears don't allocate. Keys beyond maxKeys are dropped and counted.
+ */
+class WindowTable {
+
+    enum Kind {sum, min, max};
+
+    protected final int maxKeys;
+    protected final int mask;
+    protected final int nKeys;
+    protected final Kind[] valKinds;
+    protected final int nVals;
+    protected final int nDistinct;
+    protected final int hllPrecision;
+
+    protected final boolean[] used;
+    protected final int[] hashes;
+    protected final Object[][] keys;
+    protected final long[] counts;
+    protected final double[] vals;
+    protected final HyperLogLog[] sketches;
+    protected final Object[][] spareKeys;
+    protected final HyperLogLog[] spareSketches;
+    protected int nSpareKeys = 0;
+    protected int nSpareSketches = 0;
+    protected int size = 0;
+    protected long dropped = 0;
+
+    /**
+     * @param maxKeys - Most keys the table will hold.
+     * @param nKeys - Number of key fields.
+     * @param valKinds - How each numeric aggregate column combines values.
+     * @param nDistinct - Number of distinct-count columns.
+     * @param hllPrecision - HyperLogLog precision for distinct columns.
+     */
+    WindowTable(int maxKeys, int nKeys, Kind[] valKinds, int nDistinct, int hllPrecision) {
+        this.maxKeys = maxKeys;
+        this.nKeys = nKeys;
+        this.valKinds = valKinds;
+        this.nVals = valKinds.length;
+        this.nDistinct = nDistinct;
+        this.hllPrecision = hllPrecision;
+
+        // Keep the load factor at or under 1/2.
+        int capacity = Integer.highestOneBit(Math.max(2, maxKeys) * 2 - 1) << 1;
+        mask = capacity - 1;
+        used = new boolean[capacity];
+        hashes = new int[capacity];
+        keys = new Object[capacity][];
+        counts = new long[capacity];
+        vals = new double[capacity * nVals];
+        sketches = new HyperLogLog[capacity * nDistinct];
+        spareKeys = new Object[maxKeys][];
+        spareSketches = new HyperLogLog[maxKeys * nDistinct];
+    }
+
+    /**
+     * Aggregate one record.
+     * @param values - Record values.
+     * @param keyPos - Positions of the key fields in values.
+     * @param valPos - Positions of the numeric aggregate fields.
+     * @param distinctPos - Positions of the distinct-count fields.
+     */
+    void update(List<Object> values, int[] keyPos, int[] valPos, int[] distinctPos) {
+        int slot = slotFor(values, keyPos);
+        if (slot < 0) {
+            return;
+        }
+
+        counts[slot]++;
+        int base = slot * nVals;
+        for (int c = 0; c < nVals; ++c) {
+            double x = toDouble(values.get(valPos[c]));
+            if (Double.isNaN(x)) {
+                continue;
+            }
+            combine(base + c, valKinds[c], x);
+        }
+        base = slot * nDistinct;
+        for (int d = 0; d < nDistinct; ++d) {
+            sketches[base + d].offer(values.get(distinctPos[d]));
+        }
+    }
+
+    /**
+     * Find or insert the slot for the key in a record.
+     * @param values - Record values.
+     * @param keyPos - Positions of the key fields in values.
+     * @return slot, or -1 if the key is new and the table is full.
+     */
+    int slotFor(List<Object> values, int[] keyPos) {
+        int h = 1;
+        for (int p : keyPos) {
+            Object v = values.get(p);
+            h = 31 * h + ((v == null) ? 0 : v.hashCode());
+        }
+        return find(values, keyPos, h);
+    }
+
+    /**
+     * Add everything in this table to another with the same layout.
+     * @param target - Table to merge into.
+     */
+    void mergeInto(WindowTable target) {
+        for (int slot = 0; slot < used.length; ++slot) {
+            if (!used[slot]) {
+                continue;
+            }
+            int ts = target.find(keys[slot], hashes[slot]);
+            if (ts < 0) {
+                continue;
+            }
+            target.counts[ts] += counts[slot];
+            int base = slot * nVals;
+            int tbase = ts * nVals;
+            for (int c = 0; c < nVals; ++c) {
+                target.combine(tbase + c, valKinds[c], vals[base + c]);
+            }
+            base = slot * nDistinct;
+            tbase = ts * nDistinct;
+            for (int d = 0; d < nDistinct; ++d) {
+                target.sketches[tbase + d].merge(sketches[base + d]);
+            }
+        }
+        target.dropped += dropped;
+    }
+
+    /**
+     * Empty the table, moving key arrays and sketches to the spare pool.
+     */
+    void clear() {
+        for (int slot = 0; slot < used.length; ++slot) {
+            if (!used[slot]) {
+                continue;
+            }
+            Object[] key = keys[slot];
+            Arrays.fill(key, null);
+            spareKeys[nSpareKeys++] = key;
+            keys[slot] = null;
+            int base = slot * nDistinct;
+            for (int d = 0; d < nDistinct; ++d) {
+                spareSketches[nSpareSketches++] = sketches[base + d];
+                sketches[base + d] = null;
+            }
+        }
+        Arrays.fill(used, false);
+        size = 0;
+        dropped = 0;
+    }
+
+    protected void combine(int idx, Kind kind, double x) {
+        switch (kind) {
+        case sum:
+            vals[idx] += x;
+            break;
+        case min:
+            vals[idx] = Math.min(vals[idx], x);
+            break;
+        case max:
+            vals[idx] = Math.max(vals[idx], x);
+            break;
+        }
+    }
+
+    /**
+     * Find or insert the slot for the key held in the given record fields.
+     * @return slot, or -1 if the key is new and the table is full.
+     */
+    protected int find(List<Object> values, int[] keyPos, int h) {
+        int slot = h & mask;
+        while (used[slot]) {
+            if ((hashes[slot] == h) && keyMatches(keys[slot], values, keyPos)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!claim(slot, h)) {
+            return -1;
+        }
+        Object[] key = keys[slot];
+        for (int i = 0; i < nKeys; ++i) {
+            key[i] = values.get(keyPos[i]);
+        }
+        return slot;
+    }
+
+    /**
+     * Find or insert the slot for a key taken from another table.
+     * @return slot, or -1 if the key is new and the table is full.
+     */
+    protected int find(Object[] key, int h) {
+        int slot = h & mask;
+        while (used[slot]) {
+            if ((hashes[slot] == h) && Arrays.equals(keys[slot], key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!claim(slot, h)) {
+            return -1;
+        }
+        System.arraycopy(key, 0, keys[slot], 0, nKeys);
+        return slot;
+    }
+
+    /**
+     * Take an empty slot for a new key and reset its aggregates.
+     */
+    protected boolean claim(int slot, int h) {
+        if (size >= maxKeys) {
+            ++dropped;
+            return false;
+        }
+        ++size;
+        used[slot] = true;
+        hashes[slot] = h;
+        keys[slot] = (nSpareKeys > 0) ? spareKeys[--nSpareKeys] : new Object[nKeys];
+        counts[slot] = 0;
+        int base = slot * nVals;
+        for (int c = 0; c < nVals; ++c) {
+            vals[base + c] = (valKinds[c] == Kind.sum) ? 0.0 :
+                ((valKinds[c] == Kind.min) ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY);
+        }
+        base = slot * nDistinct;
+        for (int d = 0; d < nDistinct; ++d) {
+            if (nSpareSketches > 0) {
+                HyperLogLog hll = spareSketches[--nSpareSketches];
+                spareSketches[nSpareSketches] = null;
+                hll.clear();
+                sketches[base + d] = hll;
+            }
+            else {
+                sketches[base + d] = new HyperLogLog(hllPrecision);
+            }
+        }
+        return true;
+    }
+
+    protected static boolean keyMatches(Object[] key, List<Object> values, int[] keyPos) {
+        for (int i = 0; i < key.length; ++i) {
+            Object v = values.get(keyPos[i]);
+            if ((v == null) ? (key[i] != null) : !v.equals(key[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static double toDouble(Object o) {
+        if (o instanceof Number) {
+            return ((Number)o).doubleValue();
+        }
+        if (o == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(o.toString());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    int capacity() {
+        return used.length;
+    }
+
+    boolean isUsed(int slot) {
+        return used[slot];
+    }
+
+    Object[] keyAt(int slot) {
+        return keys[slot];
+    }
+
+    long countAt(int slot) {
+        return counts[slot];
+    }
+
+    double valAt(int slot, int col) {
+        return vals[slot * nVals + col];
+    }
+
+    HyperLogLog sketchAt(int slot, int col) {
+        return sketches[slot * nDistinct + col];
+    }
+
+    long distinctAt(int slot, int col) {
+        return sketches[slot * nDistinct + col].cardinality();
+    }
+
+    int size() {
+        return size;
+    }
+
+    long dropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,306 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.bolts;
+
+import backtype.storm.Config;
+import backtype.storm.Constants;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.IRichBolt;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.storm.topology.bolts.WindowTable.Kind;
+import org.apache.utils.DefaultingMap;
+import org.apache.utils.HyperLogLog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A loadable bolt that computes per-key aggregates over a tumbling or
+ * sliding time window, and emits the aggregates for the whole window on
+ * every tick tuple. Configuration:
+ *
+ *     windowsecs: 300          # Window length
+ *     slidesecs: 60            # Emit interval; default windowsecs (tumbling)
+ *     keys: [user, site]       # Key fields; none means one global key
+ *     aggregations:            # &lt;function&gt;[:&lt;field&gt;[:&lt;output name&gt;]]
+ *       - count
+ *       - sum:bytes
+ *       - max:latency:maxLatency
+ *       - distinct:ip          # HyperLogLog estimate
+ *     maxkeys: 100000          # Keys kept per window bucket
+ *     hllprecision: 12         # For distinct: 2^p bytes per key
+ *
+ * Output fields are the key fields, then one field per aggregation (named
+ * &lt;function&gt;_&lt;field&gt; unless given), then "windowend" (millis). Counts
+ * and distinct estimates are Longs; sum, min and max are Doubles.
+ *
+ * The window is a ring of windowsecs/slidesecs buckets, each a fixed-size
+ * WindowTable that never holds more than maxkeys keys and sketches, so
+ * memory is bounded by (buckets + 1) * maxkeys, counting the table the
+ * buckets are merged into for output. Input tuples are
+ * acked once they're aggregated, and results are emitted unanchored.
+ */
+public class WindowedAggregationBolt implements IRichBolt {
+    private static final long serialVersionUID = -5460185069016081766L;
+    private static final Logger logger = LoggerFactory.getLogger(WindowedAggregationBolt.class);
+
+    protected enum Function {count, sum, min, max, distinct};
+
+    protected final String myName;
+    protected final int windowSecs;
+    protected final int slideSecs;
+    protected final int maxKeys;
+    protected final int hllPrecision;
+    protected final String[] keyFields;
+    protected final Function[] functions;
+    protected final String[] aggFields;
+    protected final String[] outNames;
+
+    protected transient OutputCollector collector;
+    protected transient WindowTable[] buckets;
+    protected transient WindowTable merged;
+    protected transient int current;
+    protected transient Map<Fields,int[][]> positionCache;
+    protected transient Fields lastFields;
+    protected transient int[] keyPos;
+    protected transient int[] valPos;
+    protected transient int[] distinctPos;
+
+    public WindowedAggregationBolt(String name, DefaultingMap conf) {
+        myName = name;
+        windowSecs = conf.getInt("windowsecs", 60);
+        slideSecs = conf.getInt("slidesecs", windowSecs);
+        if ((windowSecs <= 0) || (slideSecs <= 0) || ((windowSecs % slideSecs) != 0)) {
+            throw new IllegalArgumentException(String.format(
+                    "%s: windowsecs (%d) must be a positive multiple of slidesecs (%d)", name, windowSecs, slideSecs));
+        }
+        maxKeys = conf.getInt("maxkeys", 100000);
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException(name + ": maxkeys must be positive");
+        }
+        hllPrecision = conf.getInt("hllprecision", 12);
+
+        Set<String> keys = conf.getFlattenedList("keys");
+        keyFields = (keys == null) ? new String[0] : keys.toArray(new String[keys.size()]);
+
+        Set<String> aggs = conf.getFlattenedList("aggregations");
+        if ((aggs == null) || aggs.isEmpty()) {
+            aggs = new LinkedHashSet<String>();
+            aggs.add("count");
+        }
+        functions = new Function[aggs.size()];
+        aggFields = new String[aggs.size()];
+        outNames = new String[aggs.size()];
+        int i = 0;
+        for (String spec : aggs) {
+            String[] parts = spec.split(":");
+            try {
+                functions[i] = Function.valueOf(parts[0].trim());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(name + ": unknown aggregation " + spec);
+            }
+            if ((functions[i] != Function.count) && (parts.length < 2)) {
+                throw new IllegalArgumentException(name + ": aggregation needs a field: " + spec);
+            }
+            aggFields[i] = (parts.length > 1) ? parts[1].trim() : null;
+            if (parts.length > 2) {
+                outNames[i] = parts[2].trim();
+            } else {
+                outNames[i] = (aggFields[i] == null) ? parts[0].trim() : parts[0].trim() + "_" + aggFields[i];
+            }
+            ++i;
+        }
+        if ((hllPrecision < HyperLogLog.MIN_PRECISION) || (hllPrecision > HyperLogLog.MAX_PRECISION)) {
+            throw new IllegalArgumentException(name + ": hllprecision out of range: " + hllPrecision);
+        }
+    }
+
+    @Override
+    public void prepare(@SuppressWarnings("rawtypes") Map stormConf, TopologyContext context,
+            OutputCollector collector) {
+        this.collector = collector;
+
+        List<Kind> kinds = new ArrayList<Kind>();
+        int nDistinct = 0;
+        for (Function f : functions) {
+            if (f == Function.distinct) {
+                ++nDistinct;
+            } else if (f != Function.count) {
+                kinds.add(Kind.valueOf(f.name()));
+            }
+        }
+        Kind[] valKinds = kinds.toArray(new Kind[kinds.size()]);
+
+        buckets = new WindowTable[windowSecs / slideSecs];
+        for (int i = 0; i < buckets.length; ++i) {
+            buckets[i] = new WindowTable(maxKeys, keyFields.length, valKinds, nDistinct, hllPrecision);
+        }
+        merged = (buckets.length == 1) ? null :
+            new WindowTable(maxKeys, keyFields.length, valKinds, nDistinct, hllPrecision);
+        current = 0;
+        positionCache = new IdentityHashMap<Fields,int[][]>();
+        lastFields = null;
+    }
+
+    @Override
+    public void execute(Tuple input) {
+        if (isTick(input)) {
+            emitWindow(System.currentTimeMillis());
+            return;
+        }
+
+        Fields fields = input.getFields();
+        if (fields != lastFields) {
+            resolvePositions(fields);
+        }
+        buckets[current].update(input.getValues(), keyPos, valPos, distinctPos);
+        collector.ack(input);
+    }
+
+    /**
+     * Look up the positions of key and aggregate fields for a tuple layout.
+     * Each input stream has its own Fields object, so this normally
+     * happens once per stream.
+     */
+    protected void resolvePositions(Fields fields) {
+        int[][] pos = positionCache.get(fields);
+        if (pos == null) {
+            pos = new int[3][];
+            pos[0] = new int[keyFields.length];
+            for (int i = 0; i < keyFields.length; ++i) {
+                pos[0][i] = fields.fieldIndex(keyFields[i]);
+            }
+            List<Integer> vals = new ArrayList<Integer>();
+            List<Integer> distincts = new ArrayList<Integer>();
+            for (int i = 0; i < functions.length; ++i) {
+                if (functions[i] == Function.distinct) {
+                    distincts.add(fields.fieldIndex(aggFields[i]));
+                } else if (functions[i] != Function.count) {
+                    vals.add(fields.fieldIndex(aggFields[i]));
+                }
+            }
+            pos[1] = toArray(vals);
+            pos[2] = toArray(distincts);
+            positionCache.put(fields, pos);
+        }
+        keyPos = pos[0];
+        valPos = pos[1];
+        distinctPos = pos[2];
+        lastFields = fields;
+    }
+
+    protected static int[] toArray(List<Integer> l) {
+        int[] ret = new int[l.size()];
+        for (int i = 0; i < ret.length; ++i) {
+            ret[i] = l.get(i);
+        }
+        return ret;
+    }
+
+    /**
+     * Emit the aggregates for the whole window, then start a new bucket.
+     * @param now - Window end time, millis.
+     */
+    protected void emitWindow(long now) {
+        WindowTable window = buckets[0];
+        if (merged != null) {
+            merged.clear();
+            for (WindowTable b : buckets) {
+                b.mergeInto(merged);
+            }
+            window = merged;
+        }
+
+        if (window.dropped() > 0) {
+            logger.warn("{}: {} updates dropped; more than {} keys in window", myName, window.dropped(), maxKeys);
+        }
+
+        for (int slot = 0; slot < window.capacity(); ++slot) {
+            if (!window.isUsed(slot)) {
+                continue;
+            }
+            Values out = new Values();
+            for (Object k : window.keyAt(slot)) {
+                out.add(k);
+            }
+            int val = 0;
+            int distinct = 0;
+            for (Function f : functions) {
+                switch (f) {
+                case count:
+                    out.add(window.countAt(slot));
+                    break;
+                case distinct:
+                    out.add(window.distinctAt(slot, distinct++));
+                    break;
+                default:
+                    out.add(window.valAt(slot, val++));
+                    break;
+                }
+            }
+            out.add(now);
+            collector.emit(out);
+        }
+
+        current = (current + 1) % buckets.length;
+        buckets[current].clear();
+    }
+
+    protected static boolean isTick(Tuple t) {
+        return Constants.SYSTEM_COMPONENT_ID.equals(t.getSourceComponent())
+                && Constants.SYSTEM_TICK_STREAM_ID.equals(t.getSourceStreamId());
+    }
+
+    @Override
+    public void cleanup() {
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        List<String> out = new ArrayList<String>();
+        for (String k : keyFields) {
+            out.add(k);
+        }
+        for (String n : outNames) {
+            out.add(n);
+        }
+        out.add("windowend");
+        declarer.declare(new Fields(out));
+    }
+
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        Map<String,Object> conf = new HashMap<String,Object>();
+        conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, slideSecs);
+        return conf;
+    }
+}
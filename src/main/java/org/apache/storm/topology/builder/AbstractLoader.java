@@ -0,0 +1,42 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import java.util.List;
+
+
+/**
+ * Base for ILoader implementations. Placement hints added since ILoader
+ * was published live here, with defaults, so loaders written against
+ * ILoader alone keep compiling; extend this to offer them.
+ *
+ */
+public abstract class AbstractLoader implements ILoader {
+
+    /**
+     * Get groups of spouts/bolts that should run in the same workers.
+     * Returns null if there are none, which is the default.
+     * @return List of groups of component names.
+     */
+    public List<List<String>> getColocations() {
+        return null;
+    }
+
+}
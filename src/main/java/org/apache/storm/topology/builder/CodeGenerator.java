@@ -0,0 +1,576 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import backtype.storm.topology.IRichBolt;
+
+import org.apache.utils.DefaultingMap;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes a topology yaml, with its overrides and list patches already
+ * applied, as Java source for a GeneratedTopology. The generated class
+ * holds the yaml as literals and builds each spout, bolt and custom
+ * grouping with a direct constructor (or builder) call, so a missing
+ * class, or one that's not a spout, bolt or grouping, fails when the
+ * generated code is compiled instead of when the topology is loaded.
+ * Its main() runs TopoLoader on the built-in yaml, taking the same
+ * options as TopoLoader except for yaml paths and overrides.
+ *
+ * Classes that can be loaded while generating are checked for the
+ * constructor or builder method loadAndBuild() would use. One that isn't
+ * public is left to loadAndBuild(), as are lazy components, which are
+ * built in the worker.
+ */
+public class CodeGenerator {
+
+    // Most modules' configurations go in a method of their own, to keep
+    // the methods short.
+    protected static final int METHOD_DEPTH = 2;
+    // Most values a generated method holds. Each takes about ten bytes of
+    // code, so this stays well clear of the JVM's 64K limit on a method's
+    // code. A bigger map, list or set is split across methods.
+    protected static final int METHOD_ELEMENTS = 2000;
+
+    protected final String packageName;
+    protected final String simpleName;
+    protected final ClassLoader classLoader;
+
+    protected StringBuilder methods;
+    protected int methodCount;
+    // Values in each map, list and set, counted once.
+    protected Map<Object,Integer> sizes;
+
+    /**
+     * @param className - Fully qualified name of the class to generate.
+     */
+    public CodeGenerator(String className) {
+        this(className, CodeGenerator.class.getClassLoader());
+    }
+
+    /**
+     * @param className - Fully qualified name of the class to generate.
+     * @param classLoader - Where to look for component classes.
+     */
+    public CodeGenerator(String className, ClassLoader classLoader) {
+        for (String part : className.split("\\.", -1)) {
+            if (!isIdentifier(part)) {
+                throw new IllegalArgumentException("Not a valid class name: " + className);
+            }
+        }
+        int dot = className.lastIndexOf('.');
+        packageName = (dot < 0) ? null : className.substring(0, dot);
+        simpleName = className.substring(dot + 1);
+        this.classLoader = classLoader;
+    }
+
+    protected static boolean isIdentifier(String s) {
+        if (s.isEmpty() || !Character.isJavaIdentifierStart(s.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < s.length(); ++i) {
+            if (!Character.isJavaIdentifierPart(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Relative path the source should be written to.
+     * @return path, such as com/example/MyTopology.java
+     */
+    public String getSourcePath() {
+        return ((packageName == null) ? "" : packageName.replace('.', '/') + "/") + simpleName + ".java";
+    }
+
+    /**
+     * Generate the source.
+     * @param yaml - The final topology yaml.
+     * @param source - Where the yaml came from, for the header comment.
+     * @return Java source
+     */
+    @SuppressWarnings("unchecked")
+    public String generate(Map<String,Object> yaml, String source) {
+        methods = new StringBuilder();
+        methodCount = 0;
+        sizes = new IdentityHashMap<Object,Integer>();
+
+        StringBuilder out = new StringBuilder();
+        out.append("// Generated by TopoLoader from ").append(source.replace('\n', ' '))
+            .append(". Change the yaml and regenerate rather than editing this.\n");
+        if (packageName != null) {
+            out.append("package ").append(packageName).append(";\n");
+        }
+        out.append("\n");
+        out.append("import org.apache.storm.topology.TopoLoader;\n");
+        out.append("import org.apache.storm.topology.builder.GeneratedTopology;\n");
+        out.append("import org.apache.storm.topology.builder.Loader;\n");
+        out.append("import org.apache.storm.topology.builder.Loader.LoadFailure;\n");
+        out.append("import org.apache.utils.DefaultingMap;\n");
+        out.append("\n");
+        out.append("import java.util.List;\n");
+        out.append("import java.util.Map;\n");
+        out.append("import java.util.Set;\n");
+        out.append("\n");
+        out.append("public class ").append(simpleName).append(" extends GeneratedTopology {\n\n");
+
+        out.append("    public static void main(String[] args) throws Exception {\n");
+        out.append("        System.exit(TopoLoader.runGenerated(yaml(), new ").append(simpleName).append("(), args));\n");
+        out.append("    }\n\n");
+
+        // The patches are already applied.
+        Map<String,Object> body = new LinkedHashMap<String,Object>(yaml);
+        body.remove("listpatch");
+        out.append("    /**\n     * The topology yaml, with overrides applied.\n     * @return a new copy of the yaml\n     */\n");
+        out.append("    public static Map<String,Object> yaml() {\n");
+        out.append("        return ").append(literal(body, 0, "        ")).append(";\n");
+        out.append("    }\n");
+
+        Map<String,Object> spouts = (yaml.get("spouts") instanceof Map<?,?>) ? (Map<String,Object>)yaml.get("spouts") : null;
+        Map<String,Object> bolts = (yaml.get("bolts") instanceof Map<?,?>) ? (Map<String,Object>)yaml.get("bolts") : null;
+        appendFactory(out, "newSpout", "spout", spouts, false);
+        appendFactory(out, "newBolt", "bolt", bolts, false);
+        appendFactory(out, "newGrouping", "grouping", groupings(bolts), true);
+
+        out.append(methods);
+        out.append("}\n");
+        return out.toString();
+    }
+
+    /**
+     * Custom groupings used by the bolts, keyed by what they build.
+     */
+    @SuppressWarnings("unchecked")
+    protected Map<String,Object> groupings(Map<String,Object> bolts) {
+        Map<String,Object> ret = new LinkedHashMap<String,Object>();
+        if (bolts == null) {
+            return ret;
+        }
+        for (Object b : bolts.values()) {
+            if (!(b instanceof Map<?,?>) || !(((Map<String,Object>)b).get("inputs") instanceof List<?>)) {
+                continue;
+            }
+            for (Object in : (List<Object>)((Map<String,Object>)b).get("inputs")) {
+                if (in instanceof Map<?,?>) {
+                    String cls = GeneratedTopology.classOf(new DefaultingMap((Map<String,Object>)in));
+                    if (!cls.isEmpty() && !ret.containsKey(cls)) {
+                        ret.put(cls, in);
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Write one of the factory methods: a switch on the component name
+     * (or, for groupings, on the class) with a case for each component.
+     */
+    @SuppressWarnings("unchecked")
+    protected void appendFactory(StringBuilder out, String method, String kind, Map<String,Object> modules, boolean byClass) {
+        List<String> cases = new ArrayList<String>();
+        Set<String> seen = new LinkedHashSet<String>();
+        if (modules != null) {
+            for (Map.Entry<String,Object> e : modules.entrySet()) {
+                if (!(e.getValue() instanceof Map<?,?>)) {
+                    continue;
+                }
+                DefaultingMap conf = new DefaultingMap((Map<String,Object>)e.getValue());
+                if (!byClass && ((conf.getInt("parallelism", 1) <= 0) || conf.getBool(Loader.LAZY_KEY, false))) {
+                    // Never built here.
+                    continue;
+                }
+                String call = construct(kind, conf);
+                if ((call != null) && seen.add(e.getKey())) {
+                    cases.add("            case " + quote(e.getKey()) + ":\n                return " + call + ";\n");
+                }
+            }
+        }
+        if (cases.isEmpty()) {
+            return;
+        }
+
+        out.append("\n    @Override\n");
+        out.append("    public Object ").append(method).append("(String name, DefaultingMap conf) throws LoadFailure {\n");
+        out.append("        try {\n");
+        out.append("            switch (").append(byClass ? "classOf(conf)" : "name").append(") {\n");
+        for (String c : cases) {
+            out.append(c);
+        }
+        out.append("            default:\n");
+        out.append("                return Loader.loadAndBuild(name, conf);\n");
+        out.append("            }\n");
+        out.append("        } catch (LoadFailure e) {\n");
+        out.append("            throw e;\n");
+        out.append("        } catch (Exception e) {\n");
+        out.append("            throw new LoadFailure(classOf(conf), name, e);\n");
+        out.append("        }\n");
+        out.append("    }\n");
+    }
+
+    /**
+     * Expression that builds a component, wrapped to check its type, or
+     * null to leave it to loadAndBuild().
+     */
+    protected String construct(String kind, DefaultingMap conf) {
+        String builder = conf.getString("builder", null);
+        String className = (builder != null) ? builder.split(":")[0] : conf.getString("class", null);
+        if (className == null) {
+            return null;
+        }
+        Class<?> cls = null;
+        try {
+            cls = Class.forName(className, false, classLoader);
+        } catch (ClassNotFoundException e) {
+            // Assume it's right; the compiler will say if it isn't.
+        } catch (LinkageError e) {
+            // Same.
+        }
+        String typeName = (cls != null) ? cls.getCanonicalName() : className.replace('$', '.');
+        if ((cls != null) && ((typeName == null) || !isPublic(cls))) {
+            return null;
+        }
+
+        String call;
+        Class<?> type = cls;
+        if (builder != null) {
+            String[] parts = builder.split(":");
+            String methodName = (parts.length > 1) ? parts[1] : "builder";
+            if (cls != null) {
+                try {
+                    Method m = cls.getDeclaredMethod(methodName, String.class, DefaultingMap.class);
+                    if (!Modifier.isPublic(m.getModifiers()) || !Modifier.isStatic(m.getModifiers())) {
+                        return null;
+                    }
+                    type = m.getReturnType();
+                } catch (NoSuchMethodException e) {
+                    return null;
+                }
+            }
+            call = typeName + "." + methodName + "(name, conf)";
+        } else {
+            boolean withConf = true;
+            if (cls != null) {
+                Constructor<?> ctor = null;
+                try {
+                    ctor = cls.getDeclaredConstructor(String.class, DefaultingMap.class);
+                } catch (NoSuchMethodException e) {
+                    withConf = false;
+                    try {
+                        ctor = cls.getDeclaredConstructor();
+                    } catch (NoSuchMethodException e1) {
+                        return null;
+                    }
+                }
+                if (!Modifier.isPublic(ctor.getModifiers()) || Modifier.isAbstract(cls.getModifiers())) {
+                    return null;
+                }
+            }
+            call = "new " + typeName + (withConf ? "(name, conf)" : "()");
+        }
+
+        if ((type != null) && (cls != null) && (builder != null) && !isExpected(kind, type)) {
+            // The builder's declared type doesn't say, so check when loading.
+            return call;
+        }
+        if ("bolt".equals(kind) && (type != null) && IRichBolt.class.isAssignableFrom(type)) {
+            // Loader prefers IRichBolt for a bolt that's both.
+            return "bolt((backtype.storm.topology.IRichBolt)" + call + ")";
+        }
+        return kind + "(" + call + ")";
+    }
+
+    protected static boolean isPublic(Class<?> cls) {
+        for (Class<?> c = cls; c != null; c = c.getEnclosingClass()) {
+            if (!Modifier.isPublic(c.getModifiers())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static boolean isExpected(String kind, Class<?> type) {
+        if ("spout".equals(kind)) {
+            return backtype.storm.topology.IRichSpout.class.isAssignableFrom(type);
+        }
+        if ("bolt".equals(kind)) {
+            return IRichBolt.class.isAssignableFrom(type) || backtype.storm.topology.IBasicBolt.class.isAssignableFrom(type);
+        }
+        return backtype.storm.grouping.CustomStreamGrouping.class.isAssignableFrom(type);
+    }
+
+    /**
+     * Java expression for a yaml value. Maps near the top get a method
+     * of their own, and so does anything too big to share a method.
+     */
+    @SuppressWarnings("unchecked")
+    protected String literal(Object o, int depth, String indent) {
+        if (o == null) {
+            return "null";
+        }
+        if (o instanceof String) {
+            return quote((String)o);
+        }
+        if (o instanceof Boolean) {
+            return o.toString();
+        }
+        if (o instanceof Integer) {
+            return o.toString();
+        }
+        if (o instanceof Long) {
+            return o + "L";
+        }
+        if (o instanceof Double) {
+            double d = (Double)o;
+            if (Double.isNaN(d)) {
+                return "Double.NaN";
+            }
+            if (Double.isInfinite(d)) {
+                return (d > 0) ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+            }
+            return o.toString();
+        }
+        if (o instanceof Float) {
+            float f = (Float)o;
+            if (Float.isNaN(f)) {
+                return "Float.NaN";
+            }
+            if (Float.isInfinite(f)) {
+                return (f > 0) ? "Float.POSITIVE_INFINITY" : "Float.NEGATIVE_INFINITY";
+            }
+            return o + "F";
+        }
+        if (o instanceof Date) {
+            // A yaml timestamp.
+            return "new java.util.Date(" + ((Date)o).getTime() + "L)";
+        }
+        if (o instanceof BigInteger) {
+            return "new java.math.BigInteger(" + quote(o.toString()) + ")";
+        }
+        if ((o instanceof List<?>) || (o instanceof Set<?>) || (o instanceof Map<?,?>)) {
+            if (size(o) > METHOD_ELEMENTS) {
+                return split(o, depth);
+            }
+            if ((o instanceof Map<?,?>) && (depth > 0) && (depth <= METHOD_DEPTH) && !((Map<?,?>)o).isEmpty()) {
+                return method("Map<String,Object>", "m", mapLiteral((Map<Object,Object>)o, depth, "        "));
+            }
+            if (o instanceof Map<?,?>) {
+                return mapLiteral((Map<Object,Object>)o, depth, indent);
+            }
+            // A yaml !!set is a set.
+            return itemsLiteral((o instanceof Set<?>) ? "set" : "list", (Collection<?>)o, depth, indent);
+        }
+        throw new IllegalArgumentException("Can't generate code for " + o.getClass().getName() + " value " + o);
+    }
+
+    /**
+     * Put a map, list or set too big for one method in methods of its own:
+     * one, if it fits once its own big values are in methods of theirs,
+     * or else several parts that are joined when it's built.
+     */
+    @SuppressWarnings("unchecked")
+    protected String split(Object o, int depth) {
+        String indent = "        ";
+        if (o instanceof Map<?,?>) {
+            List<Map<Object,Object>> parts = new ArrayList<Map<Object,Object>>();
+            Map<Object,Object> part = new LinkedHashMap<Object,Object>();
+            int cost = 1;
+            for (Map.Entry<Object,Object> e : ((Map<Object,Object>)o).entrySet()) {
+                int c = 1 + cost(e.getValue());
+                if (!part.isEmpty() && (cost + c > METHOD_ELEMENTS)) {
+                    parts.add(part);
+                    part = new LinkedHashMap<Object,Object>();
+                    cost = 1;
+                }
+                part.put(e.getKey(), e.getValue());
+                cost += c;
+            }
+            parts.add(part);
+            if (parts.size() == 1) {
+                return method("Map<String,Object>", "m", mapLiteral(part, depth, indent));
+            }
+            StringBuilder sb = new StringBuilder("merge(");
+            for (int i = 0; i < parts.size(); ++i) {
+                sb.append((i == 0) ? "" : ", ").append(method("Map<String,Object>", "m", mapLiteral(parts.get(i), depth, indent)));
+            }
+            return sb.append(")").toString();
+        }
+
+        boolean isSet = (o instanceof Set<?>);
+        List<List<Object>> parts = new ArrayList<List<Object>>();
+        List<Object> part = new ArrayList<Object>();
+        int cost = 1;
+        for (Object item : (Collection<Object>)o) {
+            int c = cost(item);
+            if (!part.isEmpty() && (cost + c > METHOD_ELEMENTS)) {
+                parts.add(part);
+                part = new ArrayList<Object>();
+                cost = 1;
+            }
+            part.add(item);
+            cost += c;
+        }
+        parts.add(part);
+        if (parts.size() == 1) {
+            return isSet ? method("Set<Object>", "s", itemsLiteral("set", part, depth, indent))
+                    : method("List<Object>", "l", itemsLiteral("list", part, depth, indent));
+        }
+        StringBuilder sb = new StringBuilder("concat(");
+        for (int i = 0; i < parts.size(); ++i) {
+            sb.append((i == 0) ? "" : ", ").append(method("List<Object>", "l", itemsLiteral("list", parts.get(i), depth, indent)));
+        }
+        sb.append(")");
+        return isSet ? "set(" + sb + ".toArray())" : sb.toString();
+    }
+
+    /**
+     * Write a method that returns an expression.
+     * @return a call to the method
+     */
+    protected String method(String type, String prefix, String body) {
+        String name = prefix + methodCount++;
+        methods.append("\n    private static ").append(type).append(" ").append(name).append("() {\n");
+        methods.append("        return ").append(body).append(";\n");
+        methods.append("    }\n");
+        return name + "()";
+    }
+
+    /**
+     * Number of values in a yaml value: 1 for a scalar, or 1 plus the
+     * keys and values in a map or the items in a list or set.
+     */
+    protected int size(Object o) {
+        if (!(o instanceof Map<?,?>) && !(o instanceof Collection<?>)) {
+            return 1;
+        }
+        Integer s = sizes.get(o);
+        if (s != null) {
+            return s;
+        }
+        int n = 1;
+        if (o instanceof Map<?,?>) {
+            for (Object v : ((Map<?,?>)o).values()) {
+                n += 1 + size(v);
+            }
+        } else {
+            for (Object i : (Collection<?>)o) {
+                n += size(i);
+            }
+        }
+        sizes.put(o, n);
+        return n;
+    }
+
+    /**
+     * What a value adds to the method that holds it; a value too big to
+     * share a method is just a call.
+     */
+    protected int cost(Object o) {
+        int s = size(o);
+        return (s > METHOD_ELEMENTS) ? 1 : s;
+    }
+
+    protected String itemsLiteral(String function, Collection<?> items, int depth, String indent) {
+        if (items.isEmpty()) {
+            return function + "()";
+        }
+        StringBuilder sb = new StringBuilder(function).append("(");
+        String inner = indent + "    ";
+        boolean first = true;
+        for (Object item : items) {
+            sb.append(first ? "\n" : ",\n").append(inner).append(arg(item, depth + 1, inner));
+            first = false;
+        }
+        return sb.append(")").toString();
+    }
+
+    protected String mapLiteral(Map<Object,Object> m, int depth, String indent) {
+        if (m.isEmpty()) {
+            return "map()";
+        }
+        StringBuilder sb = new StringBuilder("map(");
+        String inner = indent + "    ";
+        boolean first = true;
+        for (Map.Entry<Object,Object> e : m.entrySet()) {
+            if (!(e.getKey() instanceof String)) {
+                throw new IllegalArgumentException("Can't generate code for non-string key " + e.getKey());
+            }
+            sb.append(first ? "\n" : ",\n").append(inner).append(quote((String)e.getKey()))
+                .append(", ").append(literal(e.getValue(), depth + 1, inner));
+            first = false;
+        }
+        return sb.append(")").toString();
+    }
+
+    /**
+     * A lone null passed to a varargs method would be taken as the array.
+     */
+    protected String arg(Object o, int depth, String indent) {
+        return (o == null) ? "(Object)null" : literal(o, depth, indent);
+    }
+
+    /**
+     * Java string literal.
+     */
+    protected static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if ((c < 0x20) || (c > 0x7e)) {
+                    sb.append(String.format("\\u%04x", (int)c));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
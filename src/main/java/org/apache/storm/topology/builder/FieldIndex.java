@@ -0,0 +1,164 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import backtype.storm.tuple.Fields;
+
+import org.apache.utils.DefaultingMap;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An ordered, immutable list of field names with precomputed positions.
+ * The Loader compiles each component's "schema" into one of these so
+ * the component can look up field positions once, when it's built, and
+ * then use positional access (tuple.getValue(i)) on every tuple rather
+ * than resolving fields by name.
+ */
+public class FieldIndex implements Iterable<String>, Serializable {
+    private static final long serialVersionUID = -2217359083645236317L;
+
+    protected final String[] fields;
+    protected final Map<String,Integer> positions;
+
+    /**
+     * Create an index of the given fields, in iteration order.
+     * Duplicate names keep their first position.
+     * @param fieldNames - Field names, in order.
+     */
+    public FieldIndex(Collection<String> fieldNames) {
+        positions = new HashMap<String,Integer>(fieldNames.size() * 2);
+        String[] flds = new String[fieldNames.size()];
+        int n = 0;
+        for (String f : fieldNames) {
+            if (!positions.containsKey(f)) {
+                positions.put(f, n);
+                flds[n++] = f;
+            }
+        }
+        fields = (n == flds.length) ? flds : Arrays.copyOf(flds, n);
+    }
+
+    /**
+     * Compile a schema section of a configuration into a FieldIndex.
+     * @param conf - Configuration containing the schema.
+     * @param section - Name of the schema section, usually "schema".
+     * @return the index, or null if there is no such section.
+     */
+    public static FieldIndex compile(DefaultingMap conf, String section) {
+        Set<String> schema = conf.getFlattenedList(section);
+        return (schema == null) ? null : new FieldIndex(schema);
+    }
+
+    /**
+     * Number of fields.
+     * @return field count
+     */
+    public int size() {
+        return fields.length;
+    }
+
+    /**
+     * Name of the field at the given position.
+     * @param pos - Field position.
+     * @return field name
+     */
+    public String get(int pos) {
+        return fields[pos];
+    }
+
+    /**
+     * Position of a field.
+     * @param field - Field name.
+     * @return position of the field, or -1 if it isn't in the index.
+     */
+    public int indexOf(String field) {
+        Integer pos = positions.get(field);
+        return (pos == null) ? -1 : pos;
+    }
+
+    /**
+     * Position of a field that must be present. Intended for use when
+     * a component is built, so a bad configuration fails at load time.
+     * @param field - Field name.
+     * @return position of the field
+     * @throws IllegalArgumentException if the field isn't in the index.
+     */
+    public int require(String field) {
+        Integer pos = positions.get(field);
+        if (pos == null) {
+            throw new IllegalArgumentException("Field " + field + " not in schema " + this);
+        }
+        return pos;
+    }
+
+    /**
+     * Is the field in this index?
+     * @param field - Field name.
+     * @return true if present
+     */
+    public boolean contains(String field) {
+        return positions.containsKey(field);
+    }
+
+    /**
+     * The fields, in order.
+     * @return unmodifiable list of field names
+     */
+    public List<String> toList() {
+        return Collections.unmodifiableList(Arrays.asList(fields));
+    }
+
+    /**
+     * The fields as a storm Fields object, for declareOutputFields().
+     * @return Fields in index order
+     */
+    public Fields toFields() {
+        return new Fields(fields);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return toList().iterator();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof FieldIndex) && Arrays.equals(fields, ((FieldIndex)o).fields);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(fields);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(fields);
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.utils.DefaultingMap;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+/**
+ * Reads live configuration from a yaml file on each worker's local disk.
+ * The file is parsed again only when its modification time or length
+ * changes. A missing file means nothing is overridden.
+ *
+ *     reload:
+ *       path: /etc/topologies/mytopo-live.yaml
+ */
+public class FileReloadSource implements IReloadSource {
+    private static final long serialVersionUID = 2939145206394447761L;
+
+    protected final String path;
+    // What the file looked like when last read, on this copy.
+    protected transient long modified = 0;
+    protected transient long length = 0;
+
+    /**
+     * @param name - Name of the section ("reload").
+     * @param conf - Its configuration.
+     */
+    public FileReloadSource(String name, DefaultingMap conf) {
+        path = conf.getString("path");
+        if (path == null) {
+            throw new IllegalArgumentException(name + ": no path given");
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String,Object> read() throws Exception {
+        File f = new File(path);
+        long m = f.lastModified();
+        long len = f.length();
+        if ((m == modified) && (len == length)) {
+            return null;
+        }
+
+        Map<String,Object> ret = new HashMap<String,Object>();
+        if (f.exists()) {
+            InputStream in = new FileInputStream(f);
+            try {
+                Object y = new Yaml(new SafeConstructor()).load(new InputStreamReader(in, "UTF-8"));
+                if (y instanceof Map<?,?>) {
+                    ret = (Map<String,Object>)y;
+                }
+                else if (y != null) {
+                    throw new IllegalArgumentException(path + " isn't a yaml map");
+                }
+            } finally {
+                in.close();
+            }
+        }
+        modified = m;
+        length = len;
+        return ret;
+    }
+
+    public String getPath() {
+        return path;
+    }
+}
@@ -0,0 +1,471 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import backtype.storm.Constants;
+import backtype.storm.generated.GlobalStreamId;
+import backtype.storm.generated.StreamInfo;
+import backtype.storm.task.IOutputCollector;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.BasicBoltExecutor;
+import backtype.storm.topology.IBasicBolt;
+import backtype.storm.topology.IRichBolt;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.topology.OutputFieldsGetter;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.MessageId;
+import backtype.storm.tuple.Tuple;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A chain of bolts run as one. Each stage's emits on the stream the next
+ * stage subscribes to are passed straight to the next stage's execute(),
+ * in the same thread, instead of going through Storm's queues. The last
+ * stage's emits go to the real collector, so the fused bolt declares the
+ * last stage's streams. The Loader builds these when "fuse: true" is set;
+ * see Loader.findFusableChains() for which chains qualify.
+ *
+ * Reliability is kept: each input is acked once every stage has acked
+ * everything derived from it, and failed as soon as any stage fails any
+ * of it. The last stage's emits are anchored to the inputs its own inputs
+ * came from.
+ */
+public class FusedBolt implements IRichBolt {
+    private static final long serialVersionUID = 3196094440917591807L;
+
+    protected final String[] names;
+    protected final IRichBolt[] stages;
+    // linkStreams[i] is the stream of stage i that stage i+1 consumes.
+    protected final String[] linkStreams;
+    protected final Fields[] linkFields;
+
+    protected transient OutputCollector collector;
+    protected transient int taskId;
+    // Inputs with work still outstanding in some stage.
+    protected transient Map<Tuple,Root> roots;
+
+    /**
+     * Fuse a chain of bolts.
+     * @param names - Stage names, in order.
+     * @param bolts - The stages, each an IRichBolt or IBasicBolt.
+     * @param linkStreams - For each stage but the last, the stream the next stage consumes.
+     */
+    public FusedBolt(List<String> names, List<Object> bolts, List<String> linkStreams) {
+        if ((names.size() != bolts.size()) || (linkStreams.size() != bolts.size() - 1)) {
+            throw new IllegalArgumentException("Mismatched stages for fused bolt " + names);
+        }
+        this.names = names.toArray(new String[names.size()]);
+        stages = new IRichBolt[bolts.size()];
+        for (int i = 0; i < stages.length; ++i) {
+            Object o = bolts.get(i);
+            if (o instanceof IRichBolt) {
+                stages[i] = (IRichBolt)o;
+            } else if (o instanceof IBasicBolt) {
+                stages[i] = new BasicBoltExecutor((IBasicBolt)o);
+            } else {
+                throw new IllegalArgumentException("Bolt " + this.names[i] + " doesn't implement IRichBolt or IBasicBolt");
+            }
+        }
+        this.linkStreams = linkStreams.toArray(new String[linkStreams.size()]);
+        linkFields = new Fields[this.linkStreams.length];
+        for (int i = 0; i < linkFields.length; ++i) {
+            OutputFieldsGetter getter = new OutputFieldsGetter();
+            stages[i].declareOutputFields(getter);
+            StreamInfo si = getter.getFieldsDeclaration().get(this.linkStreams[i]);
+            if (si == null) {
+                throw new IllegalArgumentException(this.names[i] + " doesn't declare stream " + this.linkStreams[i]
+                        + " used by " + this.names[i + 1]);
+            }
+            linkFields[i] = new Fields(si.get_output_fields());
+        }
+    }
+
+    @Override
+    public void prepare(@SuppressWarnings("rawtypes") Map stormConf, TopologyContext context, OutputCollector collector) {
+        this.collector = collector;
+        taskId = context.getThisTaskId();
+        roots = new IdentityHashMap<Tuple,Root>();
+        for (int i = 0; i < stages.length; ++i) {
+            stages[i].prepare(stormConf, context, new OutputCollector(new StageCollector(i)));
+        }
+    }
+
+    @Override
+    public void execute(Tuple input) {
+        if (Constants.SYSTEM_COMPONENT_ID.equals(input.getSourceComponent())
+                && Constants.SYSTEM_TICK_STREAM_ID.equals(input.getSourceStreamId())) {
+            // Every stage gets ticks. They aren't tracked, since stages
+            // needn't ack them, so their acks and fails are ignored and the
+            // tick is acked here.
+            for (IRichBolt stage : stages) {
+                stage.execute(input);
+            }
+            collector.ack(input);
+            return;
+        }
+        roots.put(input, new Root(input, 1));
+        stages[0].execute(input);
+    }
+
+    @Override
+    public void cleanup() {
+        for (IRichBolt stage : stages) {
+            stage.cleanup();
+        }
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        stages[stages.length - 1].declareOutputFields(declarer);
+    }
+
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        return null;
+    }
+
+    /**
+     * Names of the stages, in order.
+     * @return stage names
+     */
+    public List<String> getStageNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    /**
+     * Number of inputs not yet acked or failed.
+     * @return pending inputs
+     */
+    public int getPending() {
+        return roots.size();
+    }
+
+    /**
+     * The inputs a tuple derives from.
+     */
+    protected Collection<Root> rootsOf(Tuple t) {
+        if (t instanceof StageTuple) {
+            return ((StageTuple)t).roots;
+        }
+        Root r = roots.get(t);
+        return (r == null) ? Collections.<Root>emptyList() : Collections.singletonList(r);
+    }
+
+    protected List<Root> rootsOf(Collection<Tuple> anchors) {
+        List<Root> ret = new ArrayList<Root>(1);
+        if (anchors != null) {
+            for (Tuple a : anchors) {
+                for (Root r : rootsOf(a)) {
+                    if (!ret.contains(r)) {
+                        ret.add(r);
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    protected static List<Tuple> inputsOf(List<Root> rs) {
+        List<Tuple> ret = new ArrayList<Tuple>(rs.size());
+        for (Root r : rs) {
+            ret.add(r.input);
+        }
+        return ret;
+    }
+
+    /**
+     * An input tuple, and how many tuples derived from it (counting
+     * itself) haven't been acked by the stage they went to.
+     */
+    protected class Root {
+        protected final Tuple input;
+        protected int outstanding;
+        protected boolean done = false;
+
+        protected Root(Tuple input, int outstanding) {
+            this.input = input;
+            this.outstanding = outstanding;
+        }
+
+        protected void release() {
+            if (!done && (--outstanding <= 0)) {
+                done = true;
+                roots.remove(input);
+                collector.ack(input);
+            }
+        }
+
+        protected void fail() {
+            if (!done) {
+                done = true;
+                roots.remove(input);
+                collector.fail(input);
+            }
+        }
+    }
+
+    /**
+     * Collector given to one stage.
+     */
+    protected class StageCollector implements IOutputCollector {
+        protected final int stage;
+        protected final boolean last;
+
+        protected StageCollector(int stage) {
+            this.stage = stage;
+            this.last = (stage == stages.length - 1);
+        }
+
+        @Override
+        public List<Integer> emit(String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+            if (last) {
+                return collector.emit(streamId, inputsOf(rootsOf(anchors)), tuple);
+            }
+            if (!linkStreams[stage].equals(streamId)) {
+                // Nothing outside the chain consumes this stage.
+                return Collections.emptyList();
+            }
+            List<Root> rs = rootsOf(anchors);
+            for (Root r : rs) {
+                ++r.outstanding;
+            }
+            stages[stage + 1].execute(new StageTuple(names[stage], streamId, taskId, linkFields[stage], tuple, rs));
+            return Collections.singletonList(taskId);
+        }
+
+        @Override
+        public void emitDirect(int task, String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+            if (last) {
+                collector.emitDirect(task, streamId, inputsOf(rootsOf(anchors)), tuple);
+            } else {
+                emit(streamId, anchors, tuple);
+            }
+        }
+
+        @Override
+        public void ack(Tuple input) {
+            for (Root r : rootsOf(input)) {
+                r.release();
+            }
+        }
+
+        @Override
+        public void fail(Tuple input) {
+            for (Root r : rootsOf(input)) {
+                r.fail();
+            }
+        }
+
+        @Override
+        public void reportError(Throwable error) {
+            collector.reportError(error);
+        }
+    }
+
+    /**
+     * A tuple passed from one stage to the next.
+     */
+    protected static class StageTuple implements Tuple {
+        protected final String component;
+        protected final String stream;
+        protected final int task;
+        protected final Fields fields;
+        protected final List<Object> values;
+        protected final List<Root> roots;
+        protected final MessageId id = MessageId.makeUnanchored();
+
+        protected StageTuple(String component, String stream, int task, Fields fields, List<Object> values, List<Root> roots) {
+            this.component = component;
+            this.stream = stream;
+            this.task = task;
+            this.fields = fields;
+            this.values = values;
+            this.roots = roots;
+        }
+
+        @Override
+        public int size() {
+            return values.size();
+        }
+
+        @Override
+        public boolean contains(String field) {
+            return fields.contains(field);
+        }
+
+        @Override
+        public Fields getFields() {
+            return fields;
+        }
+
+        @Override
+        public int fieldIndex(String field) {
+            return fields.fieldIndex(field);
+        }
+
+        @Override
+        public List<Object> select(Fields selector) {
+            return fields.select(selector, values);
+        }
+
+        @Override
+        public Object getValue(int i) {
+            return values.get(i);
+        }
+
+        @Override
+        public String getString(int i) {
+            return (String)values.get(i);
+        }
+
+        @Override
+        public Integer getInteger(int i) {
+            return (Integer)values.get(i);
+        }
+
+        @Override
+        public Long getLong(int i) {
+            return (Long)values.get(i);
+        }
+
+        @Override
+        public Boolean getBoolean(int i) {
+            return (Boolean)values.get(i);
+        }
+
+        @Override
+        public Short getShort(int i) {
+            return (Short)values.get(i);
+        }
+
+        @Override
+        public Byte getByte(int i) {
+            return (Byte)values.get(i);
+        }
+
+        @Override
+        public Double getDouble(int i) {
+            return (Double)values.get(i);
+        }
+
+        @Override
+        public Float getFloat(int i) {
+            return (Float)values.get(i);
+        }
+
+        @Override
+        public byte[] getBinary(int i) {
+            return (byte[])values.get(i);
+        }
+
+        @Override
+        public Object getValueByField(String field) {
+            return values.get(fields.fieldIndex(field));
+        }
+
+        @Override
+        public String getStringByField(String field) {
+            return (String)getValueByField(field);
+        }
+
+        @Override
+        public Integer getIntegerByField(String field) {
+            return (Integer)getValueByField(field);
+        }
+
+        @Override
+        public Long getLongByField(String field) {
+            return (Long)getValueByField(field);
+        }
+
+        @Override
+        public Boolean getBooleanByField(String field) {
+            return (Boolean)getValueByField(field);
+        }
+
+        @Override
+        public Short getShortByField(String field) {
+            return (Short)getValueByField(field);
+        }
+
+        @Override
+        public Byte getByteByField(String field) {
+            return (Byte)getValueByField(field);
+        }
+
+        @Override
+        public Double getDoubleByField(String field) {
+            return (Double)getValueByField(field);
+        }
+
+        @Override
+        public Float getFloatByField(String field) {
+            return (Float)getValueByField(field);
+        }
+
+        @Override
+        public byte[] getBinaryByField(String field) {
+            return (byte[])getValueByField(field);
+        }
+
+        @Override
+        public List<Object> getValues() {
+            return values;
+        }
+
+        @Override
+        public GlobalStreamId getSourceGlobalStreamid() {
+            return new GlobalStreamId(component, stream);
+        }
+
+        @Override
+        public String getSourceComponent() {
+            return component;
+        }
+
+        @Override
+        public int getSourceTask() {
+            return task;
+        }
+
+        @Override
+        public String getSourceStreamId() {
+            return stream;
+        }
+
+        @Override
+        public MessageId getMessageId() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return "source: " + component + ":" + task + ", stream: " + stream + ", " + values;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import backtype.storm.grouping.CustomStreamGrouping;
+import backtype.storm.topology.IBasicBolt;
+import backtype.storm.topology.IRichBolt;
+import backtype.storm.topology.IRichSpout;
+
+import org.apache.storm.topology.builder.Loader.LoadFailure;
+import org.apache.utils.DefaultingMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Base of the classes CodeGenerator writes. Anything a generated class
+ * doesn't build itself is built by Loader.loadAndBuild(). The helpers
+ * here keep generated code short, and the spout(), bolt() and grouping()
+ * wrappers make a component that doesn't implement the right interface
+ * a compile error rather than a load failure.
+ */
+public abstract class GeneratedTopology implements IComponentFactory {
+
+    @Override
+    public Object newSpout(String name, DefaultingMap conf) throws LoadFailure {
+        return Loader.loadAndBuild(name, conf);
+    }
+
+    @Override
+    public Object newBolt(String name, DefaultingMap conf) throws LoadFailure {
+        return Loader.loadAndBuild(name, conf);
+    }
+
+    @Override
+    public Object newGrouping(String name, DefaultingMap conf) throws LoadFailure {
+        return Loader.loadAndBuild(name, conf);
+    }
+
+    /**
+     * What loadAndBuild() would build from a configuration: the builder
+     * if there is one, otherwise the class.
+     * @param conf - Component configuration.
+     * @return builder or class name, or "" if neither is set.
+     */
+    public static String classOf(DefaultingMap conf) {
+        String ret = conf.getString("builder", null);
+        if (ret == null) {
+            ret = conf.getString("class", "");
+        }
+        return ret;
+    }
+
+    protected static IRichSpout spout(IRichSpout s) {
+        return s;
+    }
+
+    protected static IRichBolt bolt(IRichBolt b) {
+        return b;
+    }
+
+    protected static IBasicBolt bolt(IBasicBolt b) {
+        return b;
+    }
+
+    protected static CustomStreamGrouping grouping(CustomStreamGrouping g) {
+        return g;
+    }
+
+    /**
+     * A map from alternating keys and values, in order.
+     */
+    protected static Map<String,Object> map(Object... kv) {
+        Map<String,Object> ret = new LinkedHashMap<String,Object>(kv.length);
+        for (int i = 0; i < kv.length; i += 2) {
+            ret.put((String)kv[i], kv[i + 1]);
+        }
+        return ret;
+    }
+
+    /**
+     * A modifiable list of the items.
+     */
+    protected static List<Object> list(Object... items) {
+        return new ArrayList<Object>(Arrays.asList(items));
+    }
+
+    /**
+     * A modifiable set of the items, in order.
+     */
+    protected static Set<Object> set(Object... items) {
+        return new LinkedHashSet<Object>(Arrays.asList(items));
+    }
+
+    /**
+     * A modifiable list of the items of each part, in order. A list too
+     * long for one method is written as several parts.
+     */
+    protected static List<Object> concat(List<?>... parts) {
+        List<Object> ret = new ArrayList<Object>();
+        for (List<?> p : parts) {
+            ret.addAll(p);
+        }
+        return ret;
+    }
+
+    /**
+     * A modifiable map with the entries of each part, in order. A map too
+     * big for one method is written as several parts.
+     */
+    @SuppressWarnings("unchecked")
+    protected static Map<String,Object> merge(Map<?,?>... parts) {
+        Map<String,Object> ret = new LinkedHashMap<String,Object>();
+        for (Map<?,?> p : parts) {
+            ret.putAll((Map<String,Object>)p);
+        }
+        return ret;
+    }
+}
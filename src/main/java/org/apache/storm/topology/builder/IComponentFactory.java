@@ -0,0 +1,59 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import org.apache.storm.topology.builder.Loader.LoadFailure;
+import org.apache.utils.DefaultingMap;
+
+/**
+ * Makes the spouts, bolts and custom groupings a Loader adds to a
+ * topology. The Loader's own factory uses Loader.loadAndBuild(), which
+ * finds the class by name; code generated by CodeGenerator calls the
+ * constructors directly.
+ */
+public interface IComponentFactory {
+
+    /**
+     * Build a spout.
+     * @param name - Spout's name in the topology.
+     * @param conf - Spout's configuration.
+     * @return the spout
+     * @throws LoadFailure - If it can't be built.
+     */
+    public Object newSpout(String name, DefaultingMap conf) throws LoadFailure;
+
+    /**
+     * Build a bolt.
+     * @param name - Bolt's name in the topology.
+     * @param conf - Bolt's configuration.
+     * @return the bolt
+     * @throws LoadFailure - If it can't be built.
+     */
+    public Object newBolt(String name, DefaultingMap conf) throws LoadFailure;
+
+    /**
+     * Build a custom grouping.
+     * @param name - Name to give the grouping.
+     * @param conf - The grouping's input specification.
+     * @return the grouping
+     * @throws LoadFailure - If it can't be built.
+     */
+    public Object newGrouping(String name, DefaultingMap conf) throws LoadFailure;
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import org.apache.utils.DefaultingMap;
+
+/**
+ * Builds @Loadable classes without reflection. LoadableProcessor
+ * generates an implementation for the @Loadable classes compiled
+ * together and lists it in META-INF/services, where Loader finds it.
+ */
+public interface ILoadableRegistry {
+
+    /**
+     * Build an instance of a class, if it's one this registry knows.
+     * @param className - Binary name of the class, as used by Class.forName().
+     * @param name - Name to pass to the constructor.
+     * @param conf - Configuration to pass to the constructor.
+     * @return the new object, or null if the class isn't in this registry.
+     * @throws Exception - Anything the constructor throws.
+     */
+    public Object build(String className, String name, DefaultingMap conf) throws Exception;
+}
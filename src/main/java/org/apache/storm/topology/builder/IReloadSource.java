@@ -0,0 +1,41 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Where live configuration changes come from: a yaml file (see
+ * FileReloadSource) or some other configuration store. A source is
+ * serialized with each reloadable component, so every executor polls its
+ * own copy. Build one as a loadable object from the topology's "reload"
+ * section.
+ */
+public interface IReloadSource extends Serializable {
+    /**
+     * Current live configuration, shaped like the topology yaml:
+     * spouts and bolts sections, each with settings by component name.
+     * @return the configuration, or null if it hasn't changed since the
+     *         last call on this copy of the source.
+     * @throws Exception if it can't be read; it's tried again next time.
+     */
+    Map<String,Object> read() throws Exception;
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import java.util.Set;
+
+import org.apache.utils.DefaultingMap;
+
+/**
+ * A spout or bolt that can take new values for some of its settings
+ * while it runs. When the topology has a "reload" section, the Loader
+ * wraps such a component in a proxy that watches the reload source and
+ * passes changes to reload(), on the executor thread, between tuples.
+ */
+public interface IReloadable {
+    /**
+     * Keys of the component's configuration that can change while it runs.
+     * Asked once, when the topology is built.
+     * @return keys, or null or empty if none.
+     */
+    Set<String> getReloadableKeys();
+
+    /**
+     * Use new values. Called on the executor thread, never at the same
+     * time as execute() or nextTuple().
+     * @param changes - The reloadable keys that changed, with their new
+     *                  values. A key that's no longer overridden has its
+     *                  value from the topology configuration again.
+     */
+    void reload(DefaultingMap changes);
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.BasicBoltExecutor;
+import backtype.storm.topology.IBasicBolt;
+import backtype.storm.topology.IRichBolt;
+import backtype.storm.tuple.Tuple;
+
+import org.apache.storm.topology.builder.Loader.LoadFailure;
+import org.apache.utils.DefaultingMap;
+
+import java.util.Map;
+
+/**
+ * Proxy for a bolt configured with "lazy: true". The bolt is built in
+ * prepare(); see LazyComponent.
+ */
+public class LazyBolt extends LazyComponent implements IRichBolt {
+    private static final long serialVersionUID = -4200911452387745447L;
+
+    protected transient IRichBolt bolt;
+
+    public LazyBolt(String name, DefaultingMap conf) throws LoadFailure {
+        super(name, conf, IRichBolt.class, IBasicBolt.class);
+    }
+
+    @Override
+    public void prepare(@SuppressWarnings("rawtypes") Map stormConf, TopologyContext context,
+            OutputCollector collector) {
+        Object o = build();
+        if (o instanceof IRichBolt) {
+            bolt = (IRichBolt)o;
+        } else if (o instanceof IBasicBolt) {
+            bolt = new BasicBoltExecutor((IBasicBolt)o);
+        } else {
+            throw new IllegalArgumentException("Bolt " + myName + " doesn't implement IRichBolt or IBasicBolt");
+        }
+        bolt.prepare(stormConf, context, collector);
+    }
+
+    @Override
+    public void execute(Tuple input) {
+        bolt.execute(input);
+    }
+
+    @Override
+    public void cleanup() {
+        if (bolt != null) {
+            bolt.cleanup();
+        }
+    }
+
+    /**
+     * The real bolt, once prepared.
+     * @return the bolt, or null before prepare()
+     */
+    public IRichBolt getBolt() {
+        return bolt;
+    }
+}
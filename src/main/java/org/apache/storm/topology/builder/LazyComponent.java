@@ -0,0 +1,186 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.tuple.Fields;
+import backtype.storm.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.storm.topology.builder.Loader.LoadFailure;
+import org.apache.utils.DefaultingMap;
+import org.apache.utils.FrozenDefaultingMap;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Base for the proxies the Loader uses for components marked "lazy: true".
+ * Only the component's name and a frozen copy of its configuration are
+ * serialized into the topology; the real component is built with
+ * Loader.loadAndBuild() in the worker, when the proxy is prepared or
+ * opened. That keeps the submitted topology small and moves expensive
+ * construction off the submitting machine and onto the workers.
+ *
+ * Since the real component doesn't exist at submit time, what the proxy
+ * tells Storm about it comes from the configuration:
+ *
+ *     lazy: true
+ *     schema: [...]          # Fields of the default stream
+ *     streams:               # Other streams (or the default stream), optional
+ *       errors: [id, message]
+ *     componentconfig:       # Returned by getComponentConfiguration(), optional
+ *       topology.tick.tuple.freq.secs: 60
+ *
+ * A lazy component's ITopologyConfigure callback isn't called, so a
+ * class that implements it is warned about at submit time.
+ */
+public abstract class LazyComponent implements Serializable {
+    private static final long serialVersionUID = 7302279154458212876L;
+    private static final Logger logger = LoggerFactory.getLogger(LazyComponent.class);
+
+    protected final String myName;
+    protected final FrozenDefaultingMap spec;
+    protected final Map<String,Fields> streams;
+    protected final Map<String,Object> componentConfig;
+
+    /**
+     * @param name - Component name
+     * @param conf - Component configuration
+     * @param expected - Interfaces the component's class may implement.
+     * @throws LoadFailure if the class can't be found or is the wrong type.
+     */
+    protected LazyComponent(String name, DefaultingMap conf, Class<?>... expected) throws LoadFailure {
+        myName = name;
+        checkClass(name, conf, expected);
+        spec = FrozenDefaultingMap.freeze(conf);
+
+        streams = new LinkedHashMap<String,Fields>();
+        FieldIndex schema = Loader.getSchemaIndex(conf);
+        if (schema != null) {
+            streams.put(Utils.DEFAULT_STREAM_ID, schema.toFields());
+        }
+        DefaultingMap streamConf = conf.getSubMap("streams");
+        if (streamConf != null) {
+            for (String stream : streamConf.keySet()) {
+                Set<String> fields = streamConf.getFlattenedList(stream);
+                if (fields == null) {
+                    throw new IllegalArgumentException(name + ": stream " + stream + " needs a list of fields");
+                }
+                streams.put(stream, new Fields(new ArrayList<String>(fields)));
+            }
+        }
+
+        DefaultingMap cc = conf.getSubMap("componentconfig");
+        componentConfig = (cc == null) ? null : new HashMap<String,Object>(cc);
+    }
+
+    /**
+     * Make sure the class exists, and is one of the expected types, so a
+     * bad configuration fails at submit time rather than in the workers.
+     */
+    protected static void checkClass(String name, DefaultingMap conf, Class<?>... expected) throws LoadFailure {
+        String className = conf.getString("class");
+        if (className == null) {
+            String builder = conf.getString("builder");
+            if (builder == null) {
+                throw new IllegalArgumentException(name + ": no class or builder defined");
+            }
+            className = builder.split(":")[0];
+            expected = new Class<?>[0];     // Can't tell what a builder returns
+        }
+
+        Class<?> cls;
+        try {
+            cls = Loader.resolveClass(className);
+        } catch (ClassNotFoundException e) {
+            throw new LoadFailure(className, name, e);
+        }
+        if (ITopologyConfigure.class.isAssignableFrom(cls)) {
+            logger.warn("{}: {} implements ITopologyConfigure, but it's lazy, so configureTopology()"
+                    + " isn't called and its storm config settings are dropped", name, className);
+        }
+        if (expected.length == 0) {
+            return;
+        }
+        for (Class<?> e : expected) {
+            if (e.isAssignableFrom(cls)) {
+                return;
+            }
+        }
+        throw new IllegalArgumentException(name + ": " + className + " is not a " + expected[0].getSimpleName());
+    }
+
+    /**
+     * Build the real component from the configuration.
+     * @return the component
+     */
+    protected Object build() {
+        try {
+            // A mutable copy, all the way down, in case the constructor
+            // changes its configuration as it would when built eagerly.
+            return Loader.loadAndBuild(myName, new DefaultingMap(mutableMap(spec)));
+        } catch (LoadFailure e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Copy a frozen map, making every nested map and list a changeable copy.
+     */
+    protected static Map<String,Object> mutableMap(Map<String,Object> m) {
+        Map<String,Object> ret = new LinkedHashMap<String,Object>();
+        for (Map.Entry<String,Object> e : m.entrySet()) {
+            ret.put(e.getKey(), mutableCopy(e.getValue()));
+        }
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static Object mutableCopy(Object o) {
+        if (o instanceof Map<?,?>) {
+            return mutableMap((Map<String,Object>)o);
+        }
+        if (o instanceof List<?>) {
+            List<Object> ret = new ArrayList<Object>(((List<?>)o).size());
+            for (Object i : (List<?>)o) {
+                ret.add(mutableCopy(i));
+            }
+            return ret;
+        }
+        return o;
+    }
+
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        for (Map.Entry<String,Fields> s : streams.entrySet()) {
+            declarer.declareStream(s.getKey(), s.getValue());
+        }
+    }
+
+    public Map<String, Object> getComponentConfiguration() {
+        return componentConfig;
+    }
+}
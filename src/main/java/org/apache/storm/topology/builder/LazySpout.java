@@ -0,0 +1,94 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import backtype.storm.spout.SpoutOutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.IRichSpout;
+
+import org.apache.storm.topology.builder.Loader.LoadFailure;
+import org.apache.utils.DefaultingMap;
+
+import java.util.Map;
+
+/**
+ * Proxy for a spout configured with "lazy: true". The spout is built in
+ * open(); see LazyComponent.
+ */
+public class LazySpout extends LazyComponent implements IRichSpout {
+    private static final long serialVersionUID = 3408160787290618335L;
+
+    protected transient IRichSpout spout;
+
+    public LazySpout(String name, DefaultingMap conf) throws LoadFailure {
+        super(name, conf, IRichSpout.class);
+    }
+
+    @Override
+    public void open(@SuppressWarnings("rawtypes") Map conf, TopologyContext context,
+            SpoutOutputCollector collector) {
+        Object o = build();
+        if (!(o instanceof IRichSpout)) {
+            throw new IllegalArgumentException("Spout " + myName + " doesn't implement IRichSpout");
+        }
+        spout = (IRichSpout)o;
+        spout.open(conf, context, collector);
+    }
+
+    @Override
+    public void close() {
+        if (spout != null) {
+            spout.close();
+        }
+    }
+
+    @Override
+    public void activate() {
+        spout.activate();
+    }
+
+    @Override
+    public void deactivate() {
+        spout.deactivate();
+    }
+
+    @Override
+    public void nextTuple() {
+        spout.nextTuple();
+    }
+
+    @Override
+    public void ack(Object msgId) {
+        spout.ack(msgId);
+    }
+
+    @Override
+    public void fail(Object msgId) {
+        spout.fail(msgId);
+    }
+
+    /**
+     * The real spout, once opened.
+     * @return the spout, or null before open()
+     */
+    public IRichSpout getSpout() {
+        return spout;
+    }
+}
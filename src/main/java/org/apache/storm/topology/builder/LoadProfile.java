@@ -0,0 +1,296 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import backtype.storm.utils.Utils;
+import org.json.simple.JSONValue;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Where the time goes while a topology is loaded. Phases are named
+ * intervals; a phase named "parent.child" is reported under "parent".
+ * Each component records how long its constructor and its
+ * ITopologyConfigure callback took and, if sizes are being measured,
+ * how big it is serialized, since every component is serialized into
+ * the topology that's submitted and deserialized by every worker.
+ */
+public class LoadProfile {
+
+    /**
+     * Timings for one spout or bolt.
+     */
+    public static class Component {
+        public final String name;
+        public final String kind;
+        public final long buildNanos;
+        public final long configNanos;
+        // Serialized size, or -1 if not measured or not serializable.
+        public long serializedBytes = -1;
+        // Kept until it's measured.
+        protected Object module;
+
+        public Component(String name, String kind, long buildNanos, long configNanos, Object module) {
+            this.name = name;
+            this.kind = kind;
+            this.buildNanos = buildNanos;
+            this.configNanos = configNanos;
+            this.module = module;
+        }
+    }
+
+    protected final boolean measureSizes;
+    protected final Map<String,Long> phases = new LinkedHashMap<String,Long>();
+    protected final List<Component> components = new ArrayList<Component>();
+
+    /**
+     * @param measureSizes - Serialize each component to find its size
+     *     when the profile is reported. Otherwise components aren't kept.
+     */
+    public LoadProfile(boolean measureSizes) {
+        this.measureSizes = measureSizes;
+    }
+
+    /**
+     * Start timing something.
+     * @return start time to pass to phase() or component()
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record a phase that began at startNanos and has just ended.
+     * Time for a phase recorded more than once is added up.
+     * @param name - Phase name
+     * @param startNanos - What start() returned.
+     */
+    public void phase(String name, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        Long prev = phases.get(name);
+        phases.put(name, (prev == null) ? elapsed : prev + elapsed);
+    }
+
+    /**
+     * Record how long a component took to build and configure.
+     * @param name - Component name
+     * @param kind - "spout" or "bolt"
+     * @param buildNanos - Time in its constructor (or builder)
+     * @param configNanos - Time in its ITopologyConfigure callback
+     * @param module - The component, to measure if sizes are being measured.
+     */
+    public void component(String name, String kind, long buildNanos, long configNanos, Object module) {
+        components.add(new Component(name, kind, buildNanos, configNanos, measureSizes ? module : null));
+    }
+
+    /**
+     * Serialize any components not yet measured. This is done when the
+     * profile is read rather than while loading, so it isn't counted in
+     * the load phases.
+     */
+    protected void measure() {
+        for (Component c : components) {
+            if (c.module != null) {
+                try {
+                    c.serializedBytes = Utils.serialize(c.module).length;
+                } catch (RuntimeException e) {
+                    // Not serializable; submission will fail and say why.
+                }
+                c.module = null;
+            }
+        }
+    }
+
+    /**
+     * Total time recorded for a phase.
+     * @param name - Phase name
+     * @return nanoseconds, or 0 if never recorded
+     */
+    public long getPhaseNanos(String name) {
+        Long n = phases.get(name);
+        return (n == null) ? 0 : n;
+    }
+
+    /**
+     * Total of the top-level phases.
+     * @return nanoseconds
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (Map.Entry<String,Long> e : phases.entrySet()) {
+            if (isTopLevel(e.getKey())) {
+                total += e.getValue();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * A phase is reported on its own unless its parent was recorded.
+     */
+    protected boolean isTopLevel(String phase) {
+        int dot = phase.indexOf('.');
+        return (dot < 0) || !phases.containsKey(phase.substring(0, dot));
+    }
+
+    /**
+     * Components in the order they were built.
+     * @return unmodifiable list of component timings
+     */
+    public List<Component> getComponents() {
+        measure();
+        return Collections.unmodifiableList(components);
+    }
+
+    protected static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Top-level phases, slowest first, each followed by its children.
+     */
+    protected List<String> sortedPhases() {
+        Comparator<String> byTime = new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Long.compare(phases.get(b), phases.get(a));
+            }
+        };
+        List<String> top = new ArrayList<String>();
+        for (String p : phases.keySet()) {
+            if (isTopLevel(p)) {
+                top.add(p);
+            }
+        }
+        Collections.sort(top, byTime);
+
+        List<String> ret = new ArrayList<String>();
+        for (String t : top) {
+            ret.add(t);
+            List<String> children = new ArrayList<String>();
+            for (String p : phases.keySet()) {
+                if (p.startsWith(t + ".")) {
+                    children.add(p);
+                }
+            }
+            Collections.sort(children, byTime);
+            ret.addAll(children);
+        }
+        return ret;
+    }
+
+    protected List<Component> sortedComponents() {
+        measure();
+        List<Component> ret = new ArrayList<Component>(components);
+        Collections.sort(ret, new Comparator<Component>() {
+            @Override
+            public int compare(Component a, Component b) {
+                return Long.compare(b.buildNanos + b.configNanos, a.buildNanos + a.configNanos);
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * A readable breakdown: phases, then components, slowest first.
+     * @return the report
+     */
+    public String report() {
+        long total = getTotalNanos();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%-32s %10s %6s%n", "Phase", "ms", "%"));
+        for (String p : sortedPhases()) {
+            long n = phases.get(p);
+            String label = isTopLevel(p) ? p : "  " + p;
+            sb.append(String.format(Locale.ROOT, "%-32s %10.2f %6.1f%n", label, ms(n),
+                    (total == 0) ? 0.0 : 100.0 * n / total));
+        }
+        sb.append(String.format(Locale.ROOT, "%-32s %10.2f%n", "total", ms(total)));
+
+        if (!components.isEmpty()) {
+            long bytes = 0;
+            sb.append(String.format(Locale.ROOT, "%n%-32s %-5s %10s %10s %12s%n",
+                    "Component", "kind", "build ms", "config ms", "serialized"));
+            for (Component c : sortedComponents()) {
+                sb.append(String.format(Locale.ROOT, "%-32s %-5s %10.2f %10.2f %12s%n", c.name, c.kind,
+                        ms(c.buildNanos), ms(c.configNanos), (c.serializedBytes < 0) ? "-" : Long.toString(c.serializedBytes)));
+                bytes += Math.max(c.serializedBytes, 0);
+            }
+            if (measureSizes) {
+                sb.append(String.format(Locale.ROOT, "%-32s %-5s %10s %10s %12d%n", "total", "", "", "", bytes));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The profile as JSON:
+     * {"totalMs": n, "phases": {name: ms, ...}, "components": [{...}, ...]}
+     * @return JSON text
+     */
+    public String toJson() {
+        Map<String,Object> phaseMap = new LinkedHashMap<String,Object>();
+        for (String p : sortedPhases()) {
+            phaseMap.put(p, ms(phases.get(p)));
+        }
+        List<Object> comps = new ArrayList<Object>();
+        for (Component c : sortedComponents()) {
+            Map<String,Object> cm = new LinkedHashMap<String,Object>();
+            cm.put("name", c.name);
+            cm.put("kind", c.kind);
+            cm.put("buildMs", ms(c.buildNanos));
+            cm.put("configMs", ms(c.configNanos));
+            cm.put("serializedBytes", c.serializedBytes);
+            comps.add(cm);
+        }
+        Map<String,Object> ret = new LinkedHashMap<String,Object>();
+        ret.put("totalMs", ms(getTotalNanos()));
+        ret.put("phases", phaseMap);
+        ret.put("components", comps);
+        return JSONValue.toJSONString(ret);
+    }
+
+    /**
+     * Write toJson() to a file.
+     * @param path - File to write
+     * @throws IOException if it can't be written
+     */
+    public void writeJson(String path) throws IOException {
+        Writer w = new OutputStreamWriter(new FileOutputStream(path), Charset.forName("UTF-8"));
+        try {
+            w.write(toJson());
+            w.write('\n');
+        } finally {
+            w.close();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor for @Loadable. Each annotated class is checked
+ * for a constructor loadAndBuild() can use; one without is a compile
+ * error. The classes are then written into an ILoadableRegistry, one per
+ * compilation, listed in META-INF/services/ so Loader finds it.
+ *
+ * The registry is named by the "loadable.registry" option
+ * (-Aloadable.registry=com.example.MyRegistry). By default it's
+ * LoadableRegistry in the package of the first annotated class. Give
+ * each jar's registry its own name if they'll be shaded together.
+ */
+@SupportedAnnotationTypes("org.apache.storm.topology.builder.Loadable")
+@SupportedOptions(LoadableProcessor.REGISTRY_OPTION)
+public class LoadableProcessor extends AbstractProcessor {
+
+    public static final String REGISTRY_OPTION = "loadable.registry";
+    public static final String SERVICE_FILE = "META-INF/services/" + ILoadableRegistry.class.getName();
+
+    protected static final String STRING_TYPE = "java.lang.String";
+    protected static final String CONF_TYPE = "org.apache.utils.DefaultingMap";
+
+    // Constructor call for each class, by binary name.
+    protected final Map<String,String> builders = new TreeMap<String,String>();
+    protected final List<Element> origins = new ArrayList<Element>();
+    protected boolean written = false;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        int before = builders.size();
+        for (Element e : roundEnv.getElementsAnnotatedWith(Loadable.class)) {
+            String call = check(e);
+            if (call != null) {
+                TypeElement type = (TypeElement)e;
+                builders.put(processingEnv.getElementUtils().getBinaryName(type).toString(), call);
+                origins.add(e);
+            }
+        }
+        if (builders.size() == before) {
+            return true;
+        }
+        if (written) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "@Loadable classes generated by other processors aren't in the registry; they'll be built by reflection");
+            return true;
+        }
+        // Only write once there's something to write, so compiling nothing
+        // annotated doesn't produce an empty registry.
+        write();
+        written = true;
+        return true;
+    }
+
+    /**
+     * Check an annotated element.
+     * @return the expression that builds it, or null if it's not buildable (already reported).
+     */
+    protected String check(Element e) {
+        if (e.getKind() != ElementKind.CLASS) {
+            error(e, "@Loadable can only be used on a class");
+            return null;
+        }
+        TypeElement type = (TypeElement)e;
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            error(e, "@Loadable class " + type.getQualifiedName() + " is abstract");
+            return null;
+        }
+        for (Element t = type; t instanceof TypeElement; t = t.getEnclosingElement()) {
+            TypeElement tt = (TypeElement)t;
+            if (!tt.getModifiers().contains(Modifier.PUBLIC)
+                    || ((tt.getNestingKind() == NestingKind.MEMBER) && !tt.getModifiers().contains(Modifier.STATIC))
+                    || (tt.getNestingKind() == NestingKind.LOCAL) || (tt.getNestingKind() == NestingKind.ANONYMOUS)) {
+                error(e, "@Loadable class " + type.getQualifiedName() + " must be public, and static if nested");
+                return null;
+            }
+        }
+
+        ExecutableElement withConf = null;
+        ExecutableElement noArgs = null;
+        for (ExecutableElement c : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            List<? extends VariableElement> params = c.getParameters();
+            if (params.isEmpty()) {
+                noArgs = c;
+            } else if ((params.size() == 2) && STRING_TYPE.equals(params.get(0).asType().toString())
+                    && CONF_TYPE.equals(params.get(1).asType().toString())) {
+                withConf = c;
+            }
+        }
+        // Same choice as loadAndBuild(): the (name, conf) constructor if there is one.
+        ExecutableElement ctor = (withConf != null) ? withConf : noArgs;
+        if (ctor == null) {
+            error(e, "@Loadable class " + type.getQualifiedName()
+                    + " has no (String, DefaultingMap) or no-argument constructor, so Loader can't build it");
+            return null;
+        }
+        if (!ctor.getModifiers().contains(Modifier.PUBLIC)) {
+            error(ctor, "Constructor of @Loadable class " + type.getQualifiedName() + " must be public");
+            return null;
+        }
+        return "new " + type.getQualifiedName() + ((ctor == withConf) ? "(name, conf)" : "()");
+    }
+
+    protected void error(Element e, String msg) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, msg, e);
+    }
+
+    /**
+     * Name of the registry class to generate.
+     */
+    protected String registryName() {
+        String name = processingEnv.getOptions().get(REGISTRY_OPTION);
+        if (name != null) {
+            return name;
+        }
+        String first = builders.keySet().iterator().next();
+        int dot = first.lastIndexOf('.');
+        return (dot < 0) ? "LoadableRegistry" : first.substring(0, dot + 1) + "LoadableRegistry";
+    }
+
+    protected void write() {
+        String registry = registryName();
+        int dot = registry.lastIndexOf('.');
+        try {
+            JavaFileObject src = processingEnv.getFiler().createSourceFile(registry, origins.toArray(new Element[origins.size()]));
+            Writer w = src.openWriter();
+            try {
+                w.write(generate((dot < 0) ? null : registry.substring(0, dot), registry.substring(dot + 1)));
+            } finally {
+                w.close();
+            }
+
+            FileObject svc = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE,
+                    origins.toArray(new Element[origins.size()]));
+            w = svc.openWriter();
+            try {
+                w.write(registry + "\n");
+            } finally {
+                w.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Can't write " + registry + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Source of the registry.
+     */
+    protected String generate(String packageName, String simpleName) {
+        StringBuilder out = new StringBuilder();
+        out.append("// Generated by LoadableProcessor from the @Loadable classes. Don't edit.\n");
+        if (packageName != null) {
+            out.append("package ").append(packageName).append(";\n");
+        }
+        out.append("\n");
+        out.append("import org.apache.storm.topology.builder.ILoadableRegistry;\n");
+        out.append("import org.apache.utils.DefaultingMap;\n");
+        out.append("\n");
+        out.append("public final class ").append(simpleName).append(" implements ILoadableRegistry {\n\n");
+        out.append("    @Override\n");
+        out.append("    public Object build(String className, String name, DefaultingMap conf) throws Exception {\n");
+        out.append("        switch (className) {\n");
+        for (Map.Entry<String,String> b : builders.entrySet()) {
+            out.append("        case \"").append(b.getKey()).append("\":\n");
+            out.append("            return ").append(b.getValue()).append(";\n");
+        }
+        out.append("        default:\n");
+        out.append("            return null;\n");
+        out.append("        }\n");
+        out.append("    }\n");
+        out.append("}\n");
+        return out.toString();
+    }
+
+    /**
+     * Classes registered so far, by binary name.
+     * @return class names
+     */
+    public Set<String> getRegistered() {
+        return Collections.unmodifiableSet(builders.keySet());
+    }
+}
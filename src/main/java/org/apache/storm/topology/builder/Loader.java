@@ -19,12 +19,17 @@
  */
 package org.apache.storm.topology.builder;
 
+import backtype.storm.Config;
 import backtype.storm.generated.StormTopology;
+import backtype.storm.generated.StreamInfo;
 import backtype.storm.grouping.CustomStreamGrouping;
+import backtype.storm.metric.api.IMetricsConsumer;
 import backtype.storm.topology.BoltDeclarer;
 import backtype.storm.topology.IBasicBolt;
+import backtype.storm.topology.IComponent;
 import backtype.storm.topology.IRichBolt;
 import backtype.storm.topology.IRichSpout;
+import backtype.storm.topology.OutputFieldsGetter;
 import backtype.storm.topology.SpoutDeclarer;
 import backtype.storm.topology.TopologyBuilder;
 import backtype.storm.tuple.Fields;
@@ -38,21 +43,58 @@ import java.io.Serializable;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class Loader implements ILoader {
+public class Loader extends AbstractLoader {
     private static final Logger Logger = LoggerFactory.getLogger(Loader.class);
 
     public final String spreadKey = "spreadworkers";
+    // Component (or list of components) to run in the same workers as this one.
+    public final String colocateKey = "colocate";
 
     protected final TopologyBuilder builder;
     protected final List<String> spreadObjects;
+    protected final List<List<String>> colocations;
+    protected final LoadProfile profile;
+    // Serialized size limits, or null if the topology has none.
+    protected final SizeBudget sizeBudget;
+    // Builds the spouts, bolts and custom groupings.
+    protected final IComponentFactory factory;
+    // Where reloadable components look for changes, or null if the topology has no reload section.
+    protected final IReloadSource reloadSource;
+    protected final int reloadSecs;
+    // Scale factor, and each scaled component's parallelism before and after.
+    protected final double scale;
+    protected Map<String,int[]> scaling = new LinkedHashMap<String,int[]>();
+
+    // Builds everything by name, with loadAndBuild().
+    protected static final IComponentFactory REFLECTIVE_FACTORY = new IComponentFactory() {
+        @Override
+        public Object newSpout(String name, DefaultingMap conf) throws LoadFailure {
+            return Loader.loadAndBuild(name, conf);
+        }
+
+        @Override
+        public Object newBolt(String name, DefaultingMap conf) throws LoadFailure {
+            return Loader.loadAndBuild(name, conf);
+        }
+
+        @Override
+        public Object newGrouping(String name, DefaultingMap conf) throws LoadFailure {
+            return Loader.loadAndBuild(name, conf);
+        }
+    };
 
     // Indexes of subfields in input spec.
     protected static final int INPUT_SOURCE_IDX = 0;
@@ -60,9 +102,30 @@ public class Loader implements ILoader {
     protected static final int INPUT_GROUPING_IDX = 2;
     protected static final int INPUT_FIELDS_IDX = 3;
 
+    // Key under which each module's compiled schema is added to its configuration.
+    public static final String SCHEMA_INDEX_KEY = "schemaindex";
+    // Set true in a module's configuration to build it in the worker; see LazyComponent.
+    public static final String LAZY_KEY = "lazy";
+    // Set true at the top level to fuse linear bolt chains; false in a bolt to keep it separate.
+    public static final String FUSE_KEY = "fuse";
+    // Multiplies every component's parallelism (and, in TopoLoader, the workers).
+    public static final String SCALE_KEY = DefaultingMap.GLOBALPREFIX + "scale";
+
+    // Classes already resolved by name. Shared by every Loader in the JVM,
+    // so topologies built together in a batch only look each class up once.
+    protected static final ConcurrentHashMap<String,Class<?>> classCache = new ConcurrentHashMap<String,Class<?>>();
+
     protected Set<String> activeMods = new HashSet<String>();
+    // One FieldIndex per distinct schema.
+    protected Map<FieldIndex,FieldIndex> schemaIndexes = new HashMap<FieldIndex,FieldIndex>();
     protected Map<String,DefaultingMap> spoutSpecs = null;
     protected Map<String,DefaultingMap> boltSpecs = null;
+    // Output streams each component declared, by component name.
+    protected Map<String,Map<String,StreamInfo>> declaredStreams = new HashMap<String,Map<String,StreamInfo>>();
+    // Bolt chains to fuse, keyed by the last bolt of the chain, which names the fused bolt.
+    protected Map<String,List<String>> fusedChains = new HashMap<String,List<String>>();
+    // Name each fused bolt runs under, by stage name.
+    protected Map<String,String> fusedInto = new HashMap<String,String>();
 
     protected enum GroupingType {shuffle, all, fields, none, global, direct, localOrShuffle, custom};
 
@@ -135,7 +198,11 @@ public class Loader implements ILoader {
         }
 
         public Fields getFields() {
-            return new Fields(fields.split(","));
+            String[] names = fields.split(",");
+            for (int i = 0; i < names.length; ++i) {
+                names[i] = names[i].trim();
+            }
+            return new Fields(names);
         }
 
         public DefaultingMap getCustomSpec() {
@@ -150,7 +217,8 @@ public class Loader implements ILoader {
      * The allocated object can be any type as long as it provides the necessary
      * constructor. If the constructor is missing then default constructor will be used to 
      * create the object. It's up to the caller to verify that the created object
-     * is actually of the expected type.
+     * is actually of the expected type. A class in an @Loadable registry is
+     * built by the registry; anything else is found by name.
      * 
      * @param name - A name for the object. This has no meaning here, it's
      *               provided to the class constructor to use as it wishes.
@@ -175,8 +243,20 @@ public class Loader implements ILoader {
             return null;
         }
 
+        // Classes compiled with @Loadable are built without reflection.
+        for (ILoadableRegistry registry : Registries.ALL) {
+            try {
+                theMod = registry.build(className, name, params);
+            } catch (Exception e) {
+                throw new LoadFailure(className, name, e);
+            }
+            if (theMod != null) {
+                return theMod;
+            }
+        }
+
         try {
-            Class<?> classType = Class.forName(className);
+            Class<?> classType = resolveClass(className);
             Constructor<?> ctor = null;
             try {
 
@@ -197,6 +277,50 @@ public class Loader implements ILoader {
         return theMod;
     }
 
+    /**
+     * The ILoadableRegistry implementations on the classpath, loaded on
+     * first use.
+     */
+    protected static class Registries {
+        protected static final List<ILoadableRegistry> ALL = load();
+
+        protected static List<ILoadableRegistry> load() {
+            List<ILoadableRegistry> ret = new ArrayList<ILoadableRegistry>();
+            try {
+                for (ILoadableRegistry r : ServiceLoader.load(ILoadableRegistry.class, Loader.class.getClassLoader())) {
+                    ret.add(r);
+                }
+            } catch (ServiceConfigurationError e) {
+                Logger.warn("Can't load @Loadable registries, so all classes will be loaded by name: {}", e.getMessage());
+            }
+            Logger.debug("{} @Loadable registries found", ret.size());
+            return Collections.unmodifiableList(ret);
+        }
+    }
+
+    /**
+     * The @Loadable registries Loader consults before reflection.
+     * @return registries, possibly empty
+     */
+    public static List<ILoadableRegistry> getRegistries() {
+        return Registries.ALL;
+    }
+
+    /**
+     * Class.forName(), remembering the result.
+     * @param className - Fully qualified class name.
+     * @return the class
+     * @throws ClassNotFoundException if there's no such class.
+     */
+    public static Class<?> resolveClass(String className) throws ClassNotFoundException {
+        Class<?> cls = classCache.get(className);
+        if (cls == null) {
+            cls = Class.forName(className);
+            classCache.putIfAbsent(className, cls);
+        }
+        return cls;
+    }
+
     /**
      * This is a variation of loadAndBuild() that allocates the module
      * using a static builder method.
@@ -212,7 +336,7 @@ public class Loader implements ILoader {
         String builderMethod = (builderParts.length > 1) ? builderParts[1] : "builder";
 
         try {
-            Class<?> classType = Class.forName(className);
+            Class<?> classType = resolveClass(className);
             Method builder = classType.getDeclaredMethod(builderMethod, String.class, DefaultingMap.class);
             builder.setAccessible(true);
             return builder.invoke(null, name, params);
@@ -254,11 +378,68 @@ public class Loader implements ILoader {
             return;
         }
         
-        Object o = Loader.loadAndBuild(boltName, conf);
+        Object o = buildBolt(boltName, conf, topoCfg);
+        declareBolt(tBldr, boltName, o, parallelism, getInputs(conf));
+    }
+
+    /**
+     * Instantiate a bolt and do everything that's done with the object
+     * before it's added to the topology: topology configuration, profiling,
+     * recording its outputs and checking its size.
+     * @param boltName - The name of the bolt
+     * @param conf - Configuration describing the bolt.
+     * @param topoCfg - Topology configurator
+     * @return the bolt
+     * @throws LoadFailure - If bolt can't be loaded
+     */
+    protected Object buildBolt(String boltName, DefaultingMap conf, ITopologyConfigurator topoCfg) throws LoadFailure {
+        long start = profile.start();
+        // A lazy bolt is built by its proxy, in the worker.
+        Object o = conf.getBool(LAZY_KEY, false) ? new LazyBolt(boltName, conf) : factory.newBolt(boltName, conf);
+        long built = profile.start();
 
         // Give the bolt a chance to add anything needed to the topology configuration.
         moduleTopoConfig (o, topoCfg);
+        profile.component(boltName, "bolt", built - start, profile.start() - built, o);
+        recordOutputs(boltName, o, conf);
+        if (sizeBudget != null) {
+            sizeBudget.check(boltName, o);
+        }
+        return reloadable(boltName, "bolts", o, conf);
+    }
+
+    /**
+     * Wrap a component that has reloadable settings in a proxy that
+     * watches for changes, if the topology has a reload section.
+     * @param name - Component name
+     * @param section - "spouts" or "bolts"
+     * @param o - The component
+     * @param conf - Its configuration
+     * @return the proxy, or o if it isn't reloadable.
+     */
+    protected Object reloadable(String name, String section, Object o, DefaultingMap conf) {
+        if ((reloadSource == null) || !(o instanceof IReloadable)) {
+            return o;
+        }
+        Set<String> keys = ((IReloadable)o).getReloadableKeys();
+        if ((keys == null) || keys.isEmpty()) {
+            return o;
+        }
+        Reloader reloader = new Reloader(name, section, keys, conf, reloadSource, reloadSecs);
+        return section.equals("spouts") ? new ReloadableSpout((IRichSpout)o, reloader) : new ReloadableBolt(o, reloader);
+    }
 
+    /**
+     * Add a bolt to the topology and connect its inputs.
+     * @param tBldr - The topology
+     * @param boltName - The name of the bolt
+     * @param o - The bolt
+     * @param parallelism - Bolt's parallelism
+     * @param inputs - Bolt's inputs, or null if none.
+     * @throws LoadFailure - If an input can't be loaded
+     */
+    protected void declareBolt(TopologyBuilder tBldr, String boltName, Object o, int parallelism,
+            List<InputSpec> inputs) throws LoadFailure {
         BoltDeclarer declarer = null;
         if (o instanceof IRichBolt) {
             declarer = tBldr.setBolt(boltName, (IRichBolt)o, parallelism);
@@ -268,17 +449,171 @@ public class Loader implements ILoader {
             throw new IllegalArgumentException("Bolt " + boltName + " doesn't implement IRichBolt or IBasicBolt");
         }
 
-        o = conf.get("inputs");
-        if (o instanceof List<?>) {
-            @SuppressWarnings("unchecked")
-            List<InputSpec>inputs = (List<InputSpec>) o;
-
+        if (inputs != null) {
             for (InputSpec inspec : inputs) {
                 chainInput(boltName, declarer, inspec);
             }
         }
     }
 
+    /**
+     * A bolt's inputs.
+     * @param conf - Bolt's configuration
+     * @return the inputs, or null if there are none.
+     */
+    @SuppressWarnings("unchecked")
+    protected static List<InputSpec> getInputs(DefaultingMap conf) {
+        Object o = conf.get("inputs");
+        return (o instanceof List<?>) ? (List<InputSpec>)o : null;
+    }
+
+    /**
+     * Build each bolt of a chain found by findFusableChains() and add them
+     * to the topology as one FusedBolt, named for the last bolt and fed by
+     * the first bolt's inputs. If any bolt turns out to need something
+     * fusing would lose (its own component configuration, such as a tick
+     * frequency) the bolts are added separately instead.
+     * @param tBldr - The topology
+     * @param chain - Names of the bolts, in order.
+     * @param topoCfg - Topology configurator
+     * @throws LoadFailure - If a bolt can't be loaded
+     */
+    protected void addFusedBolt(TopologyBuilder tBldr, List<String> chain, ITopologyConfigurator topoCfg) throws LoadFailure {
+        List<Object> bolts = new ArrayList<Object>(chain.size());
+        List<String> links = new ArrayList<String>(chain.size() - 1);
+        boolean fusable = true;
+        for (String name : chain) {
+            DefaultingMap conf = boltSpecs.get(name);
+            Object o = buildBolt(name, conf, topoCfg);
+            if (!bolts.isEmpty()) {
+                links.add(getInputs(conf).get(0).getStreamId());
+            }
+            bolts.add(o);
+            if (!(o instanceof IComponent)) {
+                fusable = false;
+            } else {
+                Map<String,Object> compConf = ((IComponent)o).getComponentConfiguration();
+                if ((compConf != null) && !compConf.isEmpty()) {
+                    Logger.info("Bolt {} has its own configuration, so won't be fused", name);
+                    fusable = false;
+                }
+            }
+        }
+
+        if (!fusable) {
+            for (int i = 0; i < chain.size(); ++i) {
+                String name = chain.get(i);
+                fusedInto.remove(name);
+                DefaultingMap conf = boltSpecs.get(name);
+                declareBolt(tBldr, name, bolts.get(i), conf.getInt("parallelism", 1), getInputs(conf));
+            }
+            fusedChains.remove(chain.get(chain.size() - 1));
+            return;
+        }
+
+        String tail = chain.get(chain.size() - 1);
+        DefaultingMap headConf = boltSpecs.get(chain.get(0));
+        Logger.info("Fusing {} into {}", chain, tail);
+        declareBolt(tBldr, tail, new FusedBolt(chain, bolts, links), headConf.getInt("parallelism", 1), getInputs(headConf));
+    }
+
+    /**
+     * Find chains of bolts that can run as one bolt, in one executor,
+     * with tuples passed between them by method call. Bolt B can follow
+     * bolt A in a chain if B's only input is from A with shuffle,
+     * localOrShuffle or no grouping, nothing else subscribes to A, and
+     * both have the same parallelism. Lazy bolts and any with "fuse: false"
+     * are left alone. Chains are recorded in fusedChains and fusedInto.
+     */
+    protected void findFusableChains() {
+        // Bolts subscribing to each component.
+        Map<String,List<String>> consumers = new HashMap<String,List<String>>();
+        for (Map.Entry<String, DefaultingMap> be : boltSpecs.entrySet()) {
+            List<InputSpec> inputs = getInputs(be.getValue());
+            if (inputs == null) {
+                continue;
+            }
+            for (InputSpec in : inputs) {
+                List<String> c = consumers.get(in.getSource());
+                if (c == null) {
+                    c = new ArrayList<String>(1);
+                    consumers.put(in.getSource(), c);
+                }
+                c.add(be.getKey());
+            }
+        }
+
+        // Fusable predecessor of each bolt that has one.
+        Map<String,String> prev = new HashMap<String,String>();
+        Map<String,String> next = new HashMap<String,String>();
+        for (Map.Entry<String, DefaultingMap> be : boltSpecs.entrySet()) {
+            String name = be.getKey();
+            DefaultingMap conf = be.getValue();
+            List<InputSpec> inputs = getInputs(conf);
+            if (!isFusable(conf) || (inputs == null) || (inputs.size() != 1)) {
+                continue;
+            }
+            InputSpec in = inputs.get(0);
+            String source = in.getSource();
+            DefaultingMap sourceConf = boltSpecs.get(source);
+            if ((sourceConf == null) || source.equals(name) || !isFusable(sourceConf)) {
+                continue;
+            }
+            GroupingType g = in.getGrouping();
+            if ((g != GroupingType.shuffle) && (g != GroupingType.localOrShuffle) && (g != GroupingType.none)) {
+                continue;
+            }
+            if ((consumers.get(source).size() != 1)
+                    || (conf.getInt("parallelism", 1) != sourceConf.getInt("parallelism", 1))) {
+                continue;
+            }
+            prev.put(name, source);
+            next.put(source, name);
+        }
+
+        // Walk forward from each head. A loop has no head, so is never fused.
+        for (String name : next.keySet()) {
+            if (prev.containsKey(name)) {
+                continue;
+            }
+            List<String> chain = new ArrayList<String>();
+            for (String b = name; b != null; b = next.get(b)) {
+                chain.add(b);
+            }
+            String tail = chain.get(chain.size() - 1);
+            fusedChains.put(tail, chain);
+            for (String b : chain) {
+                fusedInto.put(b, tail);
+            }
+        }
+    }
+
+    /**
+     * Can the bolt be part of a fused chain?
+     */
+    protected static boolean isFusable(DefaultingMap conf) {
+        return conf.getBool(FUSE_KEY, true) && !conf.getBool(LAZY_KEY, false)
+                && (conf.getInt("parallelism", 1) > 0);
+    }
+
+    /**
+     * Chains of bolts that were fused, keyed by the name the fused bolt
+     * runs under (the last bolt in the chain).
+     * @return fused chains, possibly empty.
+     */
+    public Map<String,List<String>> getFusedChains() {
+        return Collections.unmodifiableMap(fusedChains);
+    }
+
+    /**
+     * The component a spout or bolt runs as, which for a fused bolt is
+     * the last bolt of its chain.
+     */
+    protected String componentOf(String modName) {
+        String tail = fusedInto.get(modName);
+        return (tail == null) ? modName : tail;
+    }
+
 
     /**
      * Add the given input to the bolt
@@ -325,7 +660,7 @@ public class Loader implements ILoader {
             break;
 
         case custom:
-            Object customGroup = Loader.loadAndBuild("customInput", inputSpec.getCustomSpec());
+            Object customGroup = factory.newGrouping("customInput", inputSpec.getCustomSpec());
             if (!(customGroup instanceof CustomStreamGrouping)) {
                 throw new IllegalArgumentException(String.format("Bolt %s input must implement CustomStreamGrouping", boltName));
             }
@@ -370,17 +705,90 @@ public class Loader implements ILoader {
             return;
         }
         
-        Object o = Loader.loadAndBuild(spoutName, conf);
+        long start = profile.start();
+        Object o = conf.getBool(LAZY_KEY, false) ? new LazySpout(spoutName, conf) : factory.newSpout(spoutName, conf);
+        long built = profile.start();
         if (!(o instanceof IRichSpout)) {
             throw new IllegalArgumentException("Spout " + spoutName + " doesn't implement IRichSpout");
         }
         IRichSpout spout = (IRichSpout)o;
 
         @SuppressWarnings("unused")
-        SpoutDeclarer declarer = tBldr.setSpout(spoutName, spout, parallelism);
+        SpoutDeclarer declarer = tBldr.setSpout(spoutName, (IRichSpout)reloadable(spoutName, "spouts", spout, conf), parallelism);
 
         // Give the spout a chance to add anything needed to the topology configuration.
         moduleTopoConfig (spout, topoCfg);
+        profile.component(spoutName, "spout", built - start, profile.start() - built, spout);
+        recordOutputs(spoutName, spout, conf);
+        if (sizeBudget != null) {
+            sizeBudget.check(spoutName, spout);
+        }
+    }
+
+    /**
+     * Remember the output streams a component declares, so inputs can be checked
+     * against them once the whole topology is built. If the component also has a
+     * schema, warn if it doesn't match the fields declared for the default stream.
+     * @param name - Component name
+     * @param module - The component
+     * @param conf - The component's configuration
+     */
+    protected void recordOutputs(String name, Object module, DefaultingMap conf) {
+        if (!(module instanceof IComponent)) {
+            return;
+        }
+        OutputFieldsGetter getter = new OutputFieldsGetter();
+        try {
+            ((IComponent)module).declareOutputFields(getter);
+        } catch (RuntimeException e) {
+            // Some components can't declare until they're prepared. Nothing to check.
+            Logger.debug("Can't get declared outputs of {}: {}", name, e.getMessage());
+            return;
+        }
+        Map<String,StreamInfo> streams = getter.getFieldsDeclaration();
+        declaredStreams.put(name, streams);
+
+        FieldIndex schema = getSchemaIndex(conf);
+        StreamInfo dflt = streams.get(Utils.DEFAULT_STREAM_ID);
+        if ((schema != null) && (dflt != null) && !schema.toList().equals(dflt.get_output_fields())) {
+            Logger.warn("{} declares fields {} but its schema is {}", name, dflt.get_output_fields(), schema);
+        }
+    }
+
+    /**
+     * Check that every fields grouping names fields that the source component
+     * actually declares on that stream. Sources that didn't declare anything
+     * we could see are skipped.
+     * @throws IllegalArgumentException for a grouping on an undeclared stream or field
+     */
+    @SuppressWarnings("unchecked")
+    protected void checkInputFields() {
+        for (Map.Entry<String, DefaultingMap> be : boltSpecs.entrySet()) {
+            Object o = be.getValue().get("inputs");
+            if (!(o instanceof List<?>)) {
+                continue;
+            }
+            for (InputSpec inspec : (List<InputSpec>)o) {
+                if (inspec.getGrouping() != GroupingType.fields) {
+                    continue;
+                }
+                Map<String,StreamInfo> streams = declaredStreams.get(inspec.getSource());
+                if ((streams == null) || streams.isEmpty()) {
+                    continue;
+                }
+                StreamInfo stream = streams.get(inspec.getStreamId());
+                if (stream == null) {
+                    throw new IllegalArgumentException(String.format("Bolt %s input: %s doesn't declare stream %s",
+                            be.getKey(), inspec.getSource(), inspec.getStreamId()));
+                }
+                for (String f : inspec.getFields()) {
+                    if (!stream.get_output_fields().contains(f)) {
+                        throw new IllegalArgumentException(String.format("Bolt %s input: %s stream %s has no field %s",
+                                be.getKey(), inspec.getSource(), inspec.getStreamId(), f));
+                    }
+                }
+            }
+        }
     }
 
     /**
@@ -406,6 +814,20 @@ public class Loader implements ILoader {
         return conf.getFlattenedList("schema");
     }
 
+    /**
+     * Return the compiled schema of a section. Modules built by the Loader find
+     * this already in their configuration; otherwise it's compiled from "schema".
+     * @param conf - DefaultingMap section with schema.
+     * @return FieldIndex of the schema, or null if there is no schema.
+     */
+    public static FieldIndex getSchemaIndex(DefaultingMap conf) {
+        Object o = conf.get(SCHEMA_INDEX_KEY);
+        if (o instanceof FieldIndex) {
+            return (FieldIndex)o;
+        }
+        return FieldIndex.compile(conf, "schema");
+    }
+
     /**
      * Do a topology-specific initialization of the storm Config.
      * @param configurator - Topology condfigurator
@@ -450,6 +872,64 @@ public class Loader implements ILoader {
         return 0;
     }
 
+    /**
+     * Set up topology metrics from the "metrics" section:
+     *
+     *     metrics:
+     *       bucketsecs: 10              # topology.builtin.metrics.bucket.size.secs
+     *       consumers:
+     *         - class: backtype.storm.metric.LoggingMetricsConsumer
+     *           parallelism: 1
+     *           argument: ...           # Passed to the consumer's prepare()
+     *
+     * @param configurator - Topology configurator
+     * @param topoConf - Topology configuration.
+     * @throws IllegalArgumentException if the section is malformed or a consumer isn't an IMetricsConsumer.
+     */
+    public static void doMetricsConfig(ITopologyConfigurator configurator, DefaultingMap topoConf) {
+        Object o = topoConf.get("metrics");
+        if (o == null) {
+            return;
+        }
+        if (!(o instanceof Map<?,?>)) {
+            throw new IllegalArgumentException("metrics is not a map");
+        }
+        DefaultingMap metrics = topoConf.getSubMap("metrics");
+        Config stormConf = configurator.getStormConfig();
+
+        int bucketSecs = metrics.getInt("bucketsecs", 0);
+        if (bucketSecs > 0) {
+            stormConf.put(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS, bucketSecs);
+        }
+
+        o = metrics.get("consumers");
+        if (o == null) {
+            return;
+        }
+        if (!(o instanceof List<?>)) {
+            throw new IllegalArgumentException("metrics consumers is not a list");
+        }
+        for (Object c : (List<?>)o) {
+            if (!(c instanceof Map<?,?>)) {
+                throw new IllegalArgumentException("Invalid metrics consumer " + c);
+            }
+            @SuppressWarnings("unchecked")
+            DefaultingMap consumer = new DefaultingMap((Map<String,Object>)c);
+            String className = consumer.getString("class");
+            Class<?> klass;
+            try {
+                klass = resolveClass(className);
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Can't load metrics consumer " + className, e);
+            }
+            if (!IMetricsConsumer.class.isAssignableFrom(klass)) {
+                throw new IllegalArgumentException(className + " doesn't implement IMetricsConsumer");
+            }
+            stormConf.registerMetricsConsumer(klass, consumer.get("argument"), consumer.getLong("parallelism", 1));
+            Logger.info("Registered metrics consumer {}", className);
+        }
+    }
+
     /**
      * Version of constructor that allocates the TopologyBuilder.
      * This is the constructor normally used.
@@ -458,7 +938,43 @@ public class Loader implements ILoader {
      * @throws LoadFailure  - If object couldn't be created
      */
     public Loader(DefaultingMap conf, ITopologyConfigurator topoCfg) throws LoadFailure {
-        this(conf, new TopologyBuilder(), topoCfg);
+        this(conf, new TopologyBuilder(), topoCfg, null);
+    }
+
+    /**
+     * Version of constructor that allocates the TopologyBuilder and
+     * records where the time goes.
+     * @param conf - Module configuration
+     * @param topoCfg - Topology configurator
+     * @param profile - Profile to record phases and components in.
+     * @throws LoadFailure  - If object couldn't be created
+     */
+    public Loader(DefaultingMap conf, ITopologyConfigurator topoCfg, LoadProfile profile) throws LoadFailure {
+        this(conf, new TopologyBuilder(), topoCfg, profile);
+    }
+
+    /**
+     * Constructor with a caller-supplied builder, usually for unit tests.
+     * @param conf - The DefaultingMap configuration.
+     * @param builder - Topology builder to use to build topology.
+     * @param topoCfg - Topology configurator
+     * @throws LoadFailure - If object can't be created
+     */
+    public Loader(DefaultingMap conf, TopologyBuilder builder, ITopologyConfigurator topoCfg) throws LoadFailure {
+        this(conf, builder, topoCfg, null);
+    }
+
+    /**
+     * Constructor that builds components with Loader.loadAndBuild().
+     * @param conf - The DefaultingMap configuration.
+     * @param builder - Topology builder to use to build topology.
+     * @param topoCfg - Topology configurator
+     * @param profile - Profile to record timings in, or null.
+     * @throws LoadFailure - If object can't be created
+     */
+    public Loader(DefaultingMap conf, TopologyBuilder builder, ITopologyConfigurator topoCfg,
+            LoadProfile profile) throws LoadFailure {
+        this(conf, builder, topoCfg, profile, null);
     }
 
     /**
@@ -467,17 +983,31 @@ public class Loader implements ILoader {
      * its own subsection to let it configure itself, adds each spout and
      * bolt to the topology with the appropriate parallelism setting,
      * and sets the inputs for each bolt as specified in the configuration.
-     * This constructor is usually used for unit tests. It allows the test
-     * to provide a mock builder.
+     * Phases of the load and each component are timed in profile; phase
+     * names start with "load.".
      * 
      * @param conf - The DefaultingMap configuration.
      * @param builder - Topology builder to use to build topology.
      * @param topoCfg - Topology configurator
+     * @param profile - Profile to record timings in, or null.
+     * @param factory - Builds spouts, bolts and custom groupings, or null to use loadAndBuild().
      * @throws LoadFailure - If object can't be created
      */
     @SuppressWarnings("unchecked")
-    public Loader(DefaultingMap conf, TopologyBuilder builder, ITopologyConfigurator topoCfg) throws LoadFailure {
-
+    public Loader(DefaultingMap conf, TopologyBuilder builder, ITopologyConfigurator topoCfg,
+            LoadProfile profile, IComponentFactory factory) throws LoadFailure {
+
+        this.factory = (factory == null) ? REFLECTIVE_FACTORY : factory;
+        this.profile = (profile == null) ? new LoadProfile(false) : profile;
+        sizeBudget = SizeBudget.fromConfig(conf);
+        scale = conf.getDouble(SCALE_KEY, 1.0);
+        if (scale <= 0) {
+            throw new IllegalArgumentException(SCALE_KEY + " must be positive: " + scale);
+        }
+        DefaultingMap reloadConf = conf.getSubMap(Reloader.RELOAD_KEY);
+        reloadSource = (reloadConf == null) ? null : Reloader.newSource(reloadConf);
+        reloadSecs = (reloadConf == null) ? 0 : reloadConf.getInt("checksecs", Reloader.DEFAULT_CHECK_SECS);
+        long start = this.profile.start();
         Object o = conf.get("spouts");
         if (!(o instanceof Map<?,?>)) {
             throw new IllegalArgumentException("No spouts defined");
@@ -493,9 +1023,13 @@ public class Loader implements ILoader {
             boltSpecs = getModules((Map<String,Object>)o);
             activeMods.addAll(boltSpecs.keySet());
         }
+        this.profile.phase("load.modules", start);
 
         this.builder = builder;
         spreadObjects = new ArrayList<String>();
+        colocations = new ArrayList<List<String>>();
+
+        start = this.profile.start();
 
         for (Map.Entry<String, DefaultingMap> se : spoutSpecs.entrySet()) {
             DefaultingMap spoutMap = se.getValue();
@@ -506,27 +1040,55 @@ public class Loader implements ILoader {
             if (spoutMap.getBool(spreadKey, false)) {
                 spreadObjects.add(spoutName);
             }
+            addColocation(spoutName, spoutMap);
         }
+        this.profile.phase("load.spouts", start);
 
         if (!conf.getBool("keeporphans", false)) {
+            start = this.profile.start();
             dropOrphans();
+            this.profile.phase("load.orphans", start);
         }
 
         if (boltSpecs != null) {
+            if (conf.getBool(FUSE_KEY, false)) {
+                start = this.profile.start();
+                findFusableChains();
+                this.profile.phase("load.fuse", start);
+            }
+            start = this.profile.start();
+            // A chain that can't be fused after all is added bolt by bolt, and drops out of fusedInto.
+            Set<String> chained = new HashSet<String>(fusedInto.keySet());
+            for (List<String> chain : new ArrayList<List<String>>(fusedChains.values())) {
+                addFusedBolt(builder, chain, topoCfg);
+            }
             for (Map.Entry<String, DefaultingMap> be : boltSpecs.entrySet()) {
                 DefaultingMap boltConf = be.getValue();
                 String boltName = be.getKey();
 
-                addBolt(boltName, boltConf, topoCfg);
+                if (!chained.contains(boltName)) {
+                    addBolt(boltName, boltConf, topoCfg);
+                }
 
                 if (boltConf.getBool(spreadKey, false)) {
                     spreadObjects.add(boltName);
                 }
+                addColocation(boltName, boltConf);
             }
+            this.profile.phase("load.bolts", start);
+            start = this.profile.start();
+            checkInputFields();
+            this.profile.phase("load.checkinputs", start);
+        }
+        if (sizeBudget != null) {
+            sizeBudget.checkTotal();
         }
 
         // Look for any non-spout/bolt modules for custom configuration.
+        start = this.profile.start();
         doCustomConfig(topoCfg, conf);
+        doMetricsConfig(topoCfg, conf);
+        this.profile.phase("load.config", start);
     }
 
     /**
@@ -550,6 +1112,12 @@ public class Loader implements ILoader {
             @SuppressWarnings("unchecked")
             DefaultingMap modMap = new DefaultingMap((Map<String,Object>)s);
             int parallelism = modMap.getInt("parallelism", 1);
+            if ((parallelism > 0) && (scale != 1.0)) {
+                int scaled = scale(parallelism, scale, modMap.getInt("minparallelism", 1),
+                        modMap.getInt("maxparallelism", Integer.MAX_VALUE));
+                scaling.put(modName, new int[] {parallelism, scaled});
+                modMap.put("parallelism", scaled);
+            }
             if (parallelism > 0) {
                 Object i = modMap.get("inputs");
                 if (i instanceof List<?>) {
@@ -572,12 +1140,48 @@ public class Loader implements ILoader {
                     }
                     modMap.put("inputs", inputSpecs);
                 }
+                FieldIndex schema = FieldIndex.compile(modMap, "schema");
+                if (schema != null) {
+                    // Components with the same schema share an index.
+                    FieldIndex shared = schemaIndexes.get(schema);
+                    if (shared == null) {
+                        schemaIndexes.put(schema, schema);
+                    }
+                    else {
+                        schema = shared;
+                    }
+                    modMap.put(SCHEMA_INDEX_KEY, schema);
+                }
                 modSpecs.put(modName, modMap);
             }
         }
         return modSpecs;
     }
 
+    /**
+     * Scale a parallelism or worker count. Every count is multiplied by the
+     * same factor and rounded, so ratios between components are kept as
+     * closely as whole numbers allow.
+     * @param n - Count as configured.
+     * @param factor - Scale factor.
+     * @param min - Smallest allowed result.
+     * @param max - Largest allowed result.
+     * @return the scaled count, at least 1 and within min and max.
+     */
+    public static int scale(int n, double factor, int min, int max) {
+        long scaled = Math.max(1, Math.round(n * factor));
+        return (int)Math.max(Math.max(min, 1), Math.min(max, scaled));
+    }
+
+    /**
+     * Parallelism of each component before and after g.scale was applied,
+     * in the order components were configured.
+     * @return component name to {configured, scaled}; empty if not scaled.
+     */
+    public Map<String,int[]> getScaling() {
+        return Collections.unmodifiableMap(scaling);
+    }
+
     /**
      * Get the topology that was built.
      * @return StormTopology
@@ -638,7 +1242,79 @@ public class Loader implements ILoader {
      */
     @Override
     public List<String> getSpreads() {
-        return (spreadObjects.size() > 0) ? spreadObjects : null;
+        if (spreadObjects.size() == 0) {
+            return null;
+        }
+        if (fusedInto.isEmpty()) {
+            return spreadObjects;
+        }
+        List<String> ret = new ArrayList<String>(spreadObjects.size());
+        for (String s : spreadObjects) {
+            String c = componentOf(s);
+            if (!ret.contains(c)) {
+                ret.add(c);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Record a module's colocate hint, if it has one.
+     * @param modName - Name of the module.
+     * @param conf - Module's configuration.
+     */
+    protected void addColocation(String modName, DefaultingMap conf) {
+        Set<String> with = conf.getFlattenedList(colocateKey);
+        if (with == null) {
+            String one = conf.getString(colocateKey);
+            if (one == null) {
+                return;
+            }
+            with = Collections.singleton(one);
+        }
+        List<String> group = new ArrayList<String>(with.size() + 1);
+        group.add(modName);
+        for (String w : with) {
+            if (!activeMods.contains(w)) {
+                Logger.warn("{} can't be colocated with {}, which isn't in the topology", modName, w);
+            }
+            else if (!group.contains(w)) {
+                group.add(w);
+            }
+        }
+        if (group.size() > 1) {
+            colocations.add(group);
+        }
+    }
+
+    /**
+     * Get groups of spouts/bolts that should run in the same workers.
+     * Returns null if there are none.
+     * @return groups of component names
+     */
+    @Override
+    public List<List<String>> getColocations() {
+        if (colocations.size() == 0) {
+            return null;
+        }
+        if (fusedInto.isEmpty()) {
+            return colocations;
+        }
+        // Fused bolts run under the chain's last name.
+        List<List<String>> ret = new ArrayList<List<String>>(colocations.size());
+        for (List<String> group : colocations) {
+            List<String> g = new ArrayList<String>(group.size());
+            for (String s : group) {
+                String c = componentOf(s);
+                if (!g.contains(c)) {
+                    g.add(c);
+                }
+            }
+            if (g.size() > 1) {
+                ret.add(g);
+            }
+        }
+        return (ret.size() > 0) ? ret : null;
     }
 
     public static class LoadFailure extends Exception {
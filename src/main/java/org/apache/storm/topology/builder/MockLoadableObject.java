@@ -29,10 +29,12 @@ import backtype.storm.task.WorkerTopologyContext;
 import backtype.storm.topology.IRichBolt;
 import backtype.storm.topology.IRichSpout;
 import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.tuple.Fields;
 import backtype.storm.tuple.Tuple;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.storm.topology.builder.ITopologyConfigurator;
 import org.apache.storm.topology.builder.ITopologyConfigure;
@@ -58,6 +60,10 @@ public class MockLoadableObject implements IRichBolt, IRichSpout, ITopologyConfi
         myVar = conf.getString("val", null);
         tableMultiplier = conf.getLong("multiplier", 2);
         theConf = conf;
+        Set<String> declared = conf.getFlattenedList("declare");
+        if (declared != null) {
+            schemaFields = declared.toArray(new String[declared.size()]);
+        }
     }
 
     public String myName() {
@@ -86,7 +92,9 @@ public class MockLoadableObject implements IRichBolt, IRichSpout, ITopologyConfi
 
     @Override
     public void declareOutputFields(OutputFieldsDeclarer declarer) {
-        
+        if (schemaFields != null) {
+            declarer.declare(new Fields(schemaFields));
+        }
     }
 
     @Override
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import backtype.storm.Config;
+import backtype.storm.Constants;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.BasicBoltExecutor;
+import backtype.storm.topology.IBasicBolt;
+import backtype.storm.topology.IRichBolt;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.tuple.Tuple;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Proxy for an IReloadable bolt. It asks Storm for tick tuples every
+ * reload checksecs, and on each tick looks for changes and passes them to
+ * the bolt. Other tuples go straight to the bolt, so between ticks the
+ * only cost is recognizing a tick. If the bolt asks for its own tick
+ * tuples, changes are checked at its frequency and it still gets its
+ * ticks.
+ */
+public class ReloadableBolt implements IRichBolt {
+    private static final long serialVersionUID = 6520869123954138318L;
+
+    protected final IRichBolt bolt;
+    protected final IReloadable target;
+    protected final Reloader reloader;
+    // Does the bolt want tick tuples itself?
+    protected final boolean boltTicks;
+    protected transient OutputCollector collector;
+
+    /**
+     * @param o - The bolt: an IRichBolt or IBasicBolt that's IReloadable.
+     * @param reloader - Watches for its changes.
+     */
+    public ReloadableBolt(Object o, Reloader reloader) {
+        if (o instanceof IRichBolt) {
+            bolt = (IRichBolt)o;
+        } else if (o instanceof IBasicBolt) {
+            bolt = new BasicBoltExecutor((IBasicBolt)o);
+        } else {
+            throw new IllegalArgumentException("Bolt " + reloader.getName() + " doesn't implement IRichBolt or IBasicBolt");
+        }
+        target = (IReloadable)o;
+        this.reloader = reloader;
+        Map<String,Object> cc = bolt.getComponentConfiguration();
+        boltTicks = (cc != null) && (cc.get(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS) != null);
+    }
+
+    @Override
+    public void prepare(@SuppressWarnings("rawtypes") Map stormConf, TopologyContext context,
+            OutputCollector collector) {
+        this.collector = collector;
+        bolt.prepare(stormConf, context, collector);
+    }
+
+    @Override
+    public void execute(Tuple input) {
+        if (Constants.SYSTEM_COMPONENT_ID.equals(input.getSourceComponent())
+                && Constants.SYSTEM_TICK_STREAM_ID.equals(input.getSourceStreamId())) {
+            reloader.reload(target);
+            if (!boltTicks) {
+                collector.ack(input);
+                return;
+            }
+        }
+        bolt.execute(input);
+    }
+
+    @Override
+    public void cleanup() {
+        bolt.cleanup();
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        bolt.declareOutputFields(declarer);
+    }
+
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        Map<String,Object> cc = bolt.getComponentConfiguration();
+        if (boltTicks) {
+            return cc;
+        }
+        Map<String,Object> ret = (cc == null) ? new HashMap<String,Object>() : new HashMap<String,Object>(cc);
+        ret.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, reloader.getCheckSecs());
+        return ret;
+    }
+
+    /**
+     * The real bolt.
+     * @return the bolt, as given to the constructor.
+     */
+    public IReloadable getBolt() {
+        return target;
+    }
+}
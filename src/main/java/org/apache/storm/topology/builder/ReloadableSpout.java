@@ -0,0 +1,108 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import backtype.storm.spout.SpoutOutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.IRichSpout;
+import backtype.storm.topology.OutputFieldsDeclarer;
+
+import java.util.Map;
+
+/**
+ * Proxy for an IReloadable spout. Spouts don't get tick tuples, so it
+ * looks for changes from nextTuple() once every reload checksecs; the
+ * rest of the time it only compares the clock.
+ */
+public class ReloadableSpout implements IRichSpout {
+    private static final long serialVersionUID = -1740285580497361164L;
+
+    protected final IRichSpout spout;
+    protected final Reloader reloader;
+    protected transient long nextCheck;
+
+    /**
+     * @param spout - The spout, which is IReloadable.
+     * @param reloader - Watches for its changes.
+     */
+    public ReloadableSpout(IRichSpout spout, Reloader reloader) {
+        this.spout = spout;
+        this.reloader = reloader;
+    }
+
+    @Override
+    public void open(@SuppressWarnings("rawtypes") Map conf, TopologyContext context, SpoutOutputCollector collector) {
+        nextCheck = System.currentTimeMillis() + reloader.getCheckSecs() * 1000L;
+        spout.open(conf, context, collector);
+    }
+
+    @Override
+    public void nextTuple() {
+        long now = System.currentTimeMillis();
+        if (now >= nextCheck) {
+            nextCheck = now + reloader.getCheckSecs() * 1000L;
+            reloader.reload((IReloadable)spout);
+        }
+        spout.nextTuple();
+    }
+
+    @Override
+    public void close() {
+        spout.close();
+    }
+
+    @Override
+    public void activate() {
+        spout.activate();
+    }
+
+    @Override
+    public void deactivate() {
+        spout.deactivate();
+    }
+
+    @Override
+    public void ack(Object msgId) {
+        spout.ack(msgId);
+    }
+
+    @Override
+    public void fail(Object msgId) {
+        spout.fail(msgId);
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        spout.declareOutputFields(declarer);
+    }
+
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        return spout.getComponentConfiguration();
+    }
+
+    /**
+     * The real spout.
+     * @return the spout
+     */
+    public IRichSpout getSpout() {
+        return spout;
+    }
+}
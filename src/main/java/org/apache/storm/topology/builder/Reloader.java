@@ -0,0 +1,181 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.storm.topology.builder.Loader.LoadFailure;
+import org.apache.utils.DefaultingMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the reloadable settings of one component against a reload
+ * source, and works out what changed. Configured by the topology's
+ * "reload" section:
+ *
+ *     reload:
+ *       path: /etc/topologies/mytopo-live.yaml   # Read by FileReloadSource
+ *       class: com.example.StoreSource           # Or any loadable IReloadSource
+ *       checksecs: 30                            # How often to look for changes
+ *
+ * The live configuration has the shape of the topology yaml. Only keys a
+ * component lists in IReloadable.getReloadableKeys() are used; others
+ * are ignored. Taking a key out restores the topology's value.
+ */
+public class Reloader implements Serializable {
+    private static final long serialVersionUID = -3850386946717393123L;
+    private static final Logger logger = LoggerFactory.getLogger(Reloader.class);
+
+    public static final String RELOAD_KEY = "reload";
+    public static final int DEFAULT_CHECK_SECS = 30;
+
+    protected final String name;
+    protected final String section;
+    protected final List<String> keys;
+    // Values from the topology configuration.
+    protected final HashMap<String,Object> initial;
+    protected final IReloadSource source;
+    protected final int checkSecs;
+    // Values the component has now, on this copy.
+    protected transient Map<String,Object> current;
+
+    /**
+     * @param name - Component name.
+     * @param section - Section of the live configuration it's in, "spouts" or "bolts".
+     * @param keys - Its reloadable keys.
+     * @param conf - Its configuration.
+     * @param source - Where changes come from.
+     * @param checkSecs - How often to look for changes.
+     */
+    public Reloader(String name, String section, Set<String> keys, DefaultingMap conf,
+            IReloadSource source, int checkSecs) {
+        this.name = name;
+        this.section = section;
+        this.keys = new ArrayList<String>(keys);
+        this.initial = new HashMap<String,Object>();
+        for (String k : keys) {
+            initial.put(k, conf.get(k));
+        }
+        this.source = source;
+        this.checkSecs = checkSecs;
+    }
+
+    /**
+     * Make the reload source a topology configures.
+     * @param conf - The reload section.
+     * @return the source
+     * @throws LoadFailure if a source class can't be built.
+     * @throws IllegalArgumentException if the section is bad.
+     */
+    public static IReloadSource newSource(DefaultingMap conf) throws LoadFailure {
+        if (conf.getInt("checksecs", DEFAULT_CHECK_SECS) <= 0) {
+            throw new IllegalArgumentException("reload checksecs must be positive");
+        }
+        if ((conf.getString("class") == null) && (conf.getString("builder") == null)) {
+            return new FileReloadSource(RELOAD_KEY, conf);
+        }
+        Object o = Loader.loadAndBuild(RELOAD_KEY, conf);
+        if (!(o instanceof IReloadSource)) {
+            throw new IllegalArgumentException("reload source " + o.getClass().getName() + " isn't an IReloadSource");
+        }
+        return (IReloadSource)o;
+    }
+
+    /**
+     * Look for changes.
+     * @return reloadable keys whose values changed, with their new values,
+     *         or null if nothing changed or the source can't be read.
+     */
+    @SuppressWarnings("unchecked")
+    public DefaultingMap poll() {
+        Map<String,Object> live;
+        try {
+            live = source.read();
+        } catch (Exception e) {
+            logger.warn("{}: can't read live configuration: {}", name, e.toString());
+            return null;
+        }
+        if (live == null) {
+            return null;
+        }
+        if (current == null) {
+            current = new HashMap<String,Object>(initial);
+        }
+
+        Map<String,Object> mine = Collections.emptyMap();
+        Object s = live.get(section);
+        if (s instanceof Map<?,?>) {
+            Object m = ((Map<String,Object>)s).get(name);
+            if (m instanceof Map<?,?>) {
+                mine = (Map<String,Object>)m;
+            }
+        }
+
+        DefaultingMap changes = null;
+        for (String k : keys) {
+            Object v = mine.containsKey(k) ? mine.get(k) : initial.get(k);
+            Object was = current.get(k);
+            if ((v == was) || ((v != null) && v.equals(was))) {
+                continue;
+            }
+            if (changes == null) {
+                changes = new DefaultingMap();
+            }
+            changes.put(k, v);
+            current.put(k, v);
+        }
+        if (changes != null) {
+            logger.info("{}: reloading {}", name, changes);
+        }
+        return changes;
+    }
+
+    /**
+     * Poll and give any changes to the component. A component that rejects
+     * a change (throws) is left as it is; the change isn't offered again
+     * until the value changes.
+     * @param target - The component.
+     */
+    public void reload(IReloadable target) {
+        DefaultingMap changes = poll();
+        if (changes != null) {
+            try {
+                target.reload(changes);
+            } catch (RuntimeException e) {
+                logger.warn("{}: rejected {}: {}", name, changes, e.toString());
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCheckSecs() {
+        return checkSecs;
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import backtype.storm.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.utils.DefaultingMap;
+import org.apache.utils.FrozenDefaultingMap;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Limits on how big spouts and bolts are when serialized. Every component
+ * is Java-serialized into the topology that's uploaded to Nimbus, and
+ * deserialized by each worker that runs it, so a component that captures
+ * large tables or whole configurations slows both. Configured by the
+ * topology's "sizebudget" section:
+ *
+ *     sizebudget:
+ *       component: 1000000   # Bytes allowed per component; 0 for no limit
+ *       total: 10000000      # Bytes allowed for all components; 0 for no limit
+ *       action: fail         # fail or warn when a budget is exceeded
+ *       compact: false       # Freeze DefaultingMap values before measuring
+ *
+ * With compact, the values of each DefaultingMap a component holds in its
+ * fields are frozen in place (see FrozenDefaultingMap.freezeValues()).
+ * That shares repeated values in the serialized form, but the component
+ * can no longer change its nested maps and lists. The map itself, and
+ * the field holding it, are unchanged, so final fields are compacted too.
+ */
+public class SizeBudget {
+    private static final Logger logger = LoggerFactory.getLogger(SizeBudget.class);
+
+    // Fields listed when a component is over budget.
+    protected static final int TOP_FIELDS = 5;
+
+    protected final long componentLimit;
+    protected final long totalLimit;
+    protected final boolean fail;
+    protected final boolean compact;
+    protected final Map<String,Long> sizes = new LinkedHashMap<String,Long>();
+    protected long total = 0;
+
+    /**
+     * Size of one field of a component.
+     */
+    public static class FieldSize {
+        public final String name;
+        public final long bytes;
+
+        public FieldSize(String name, long bytes) {
+            this.name = name;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + bytes;
+        }
+    }
+
+    /**
+     * @param conf - The sizebudget section.
+     */
+    public SizeBudget(DefaultingMap conf) {
+        componentLimit = conf.getLong("component", 0);
+        totalLimit = conf.getLong("total", 0);
+        compact = conf.getBool("compact", false);
+        String action = conf.getString("action", "fail").trim();
+        if (!action.equals("fail") && !action.equals("warn")) {
+            throw new IllegalArgumentException("sizebudget action must be fail or warn: " + action);
+        }
+        fail = action.equals("fail");
+    }
+
+    /**
+     * The budget for a topology, if it has one.
+     * @param topoConf - Topology configuration
+     * @return the budget, or null if there's no sizebudget section.
+     */
+    public static SizeBudget fromConfig(DefaultingMap topoConf) {
+        DefaultingMap conf = topoConf.getSubMap("sizebudget");
+        return (conf == null) ? null : new SizeBudget(conf);
+    }
+
+    /**
+     * Compact a component if configured to, then measure it against the
+     * per-component budget and add it to the total.
+     * @param name - Component name
+     * @param module - The component
+     * @return its serialized size
+     * @throws IllegalArgumentException if over budget and the action is fail.
+     */
+    public long check(String name, Object module) {
+        if (compact) {
+            int n = compact(module);
+            if (n > 0) {
+                logger.debug("{}: froze {} configuration values", name, n);
+            }
+        }
+        long size = Utils.serialize(module).length;
+        sizes.put(name, size);
+        total += size;
+
+        if ((componentLimit > 0) && (size > componentLimit)) {
+            over(String.format("%s serializes to %d bytes, over the budget of %d. Largest fields: %s",
+                    name, size, componentLimit, fieldSizes(module, TOP_FIELDS)));
+        }
+        return size;
+    }
+
+    /**
+     * Check the total of all components measured so far.
+     * @throws IllegalArgumentException if over budget and the action is fail.
+     */
+    public void checkTotal() {
+        if ((totalLimit > 0) && (total > totalLimit)) {
+            List<Map.Entry<String,Long>> bySize = new ArrayList<Map.Entry<String,Long>>(sizes.entrySet());
+            Collections.sort(bySize, new Comparator<Map.Entry<String,Long>>() {
+                @Override
+                public int compare(Map.Entry<String,Long> a, Map.Entry<String,Long> b) {
+                    return Long.compare(b.getValue(), a.getValue());
+                }
+            });
+            over(String.format("Components serialize to %d bytes, over the budget of %d. Largest: %s",
+                    total, totalLimit, bySize.subList(0, Math.min(TOP_FIELDS, bySize.size()))));
+        }
+    }
+
+    protected void over(String msg) {
+        if (fail) {
+            throw new IllegalArgumentException(msg);
+        }
+        logger.warn(msg);
+    }
+
+    /**
+     * Sizes of components measured so far.
+     * @return component name to serialized bytes, in the order measured
+     */
+    public Map<String,Long> getSizes() {
+        return Collections.unmodifiableMap(sizes);
+    }
+
+    /**
+     * Total serialized size of components measured so far.
+     * @return bytes
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Serializable instance fields of an object, including inherited ones.
+     */
+    protected static List<Field> serializedFields(Object module) {
+        List<Field> ret = new ArrayList<Field>();
+        for (Class<?> c = module.getClass(); (c != null) && (c != Object.class); c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                int mod = f.getModifiers();
+                if (!Modifier.isStatic(mod) && !Modifier.isTransient(mod)) {
+                    f.setAccessible(true);
+                    ret.add(f);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * The largest fields of a component, each serialized on its own.
+     * Objects shared between fields are counted in each, so the sizes
+     * can add up to more than the component.
+     * @param module - The component
+     * @param n - How many fields to return
+     * @return up to n fields, largest first
+     */
+    public static List<FieldSize> fieldSizes(Object module, int n) {
+        List<FieldSize> ret = new ArrayList<FieldSize>();
+        for (Field f : serializedFields(module)) {
+            try {
+                Object v = f.get(module);
+                long bytes = (v == null) ? 0 : Utils.serialize(v).length;
+                ret.add(new FieldSize(f.getDeclaringClass().getSimpleName() + "." + f.getName(), bytes));
+            } catch (Exception e) {
+                ret.add(new FieldSize(f.getDeclaringClass().getSimpleName() + "." + f.getName(), -1));
+            }
+        }
+        Collections.sort(ret, new Comparator<FieldSize>() {
+            @Override
+            public int compare(FieldSize a, FieldSize b) {
+                return Long.compare(b.bytes, a.bytes);
+            }
+        });
+        return ret.subList(0, Math.min(n, ret.size()));
+    }
+
+    /**
+     * Freeze the values of the DefaultingMaps in a component's fields, in
+     * place. The fields keep the same maps, so final fields work too.
+     * Only the component's own fields are looked at; maps held by objects
+     * it refers to are left alone.
+     * @param module - The component
+     * @return number of values frozen
+     */
+    public static int compact(Object module) {
+        int n = 0;
+        for (Field f : serializedFields(module)) {
+            try {
+                Object v = f.get(module);
+                if (v instanceof DefaultingMap) {
+                    n += FrozenDefaultingMap.freezeValues((DefaultingMap)v);
+                }
+            } catch (IllegalAccessException e) {
+                logger.warn("Can't compact {}.{}: {}", module.getClass().getName(), f.getName(), e.toString());
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.metrics;
+
+import backtype.storm.metric.api.IMetricsConsumer;
+import backtype.storm.task.IErrorReporter;
+import backtype.storm.task.TopologyContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.utils.DefaultingMap;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A metrics consumer that reduces Storm's built-in metrics to one line per
+ * component per metrics bucket, and appends them to a local file:
+ *
+ *     time  component  tasks  executed  emitted  acked  failed  execute_ms  process_ms  complete_ms
+ *
+ * Counts are totals over the component's tasks for the bucket; latencies
+ * are averages weighted by the matching counts (executed for execute_ms,
+ * acked for process_ms and complete_ms). Register it in the metrics
+ * section of the topology, with an optional argument map:
+ *
+ *     metrics:
+ *       consumers:
+ *         - class: org.apache.storm.topology.metrics.LocalFileMetricsConsumer
+ *           argument:
+ *             path: /tmp/{topology}-metrics.tsv   # {topology} is the topology id
+ *             system: false                       # Include __acker, __system, ...
+ *
+ * The file is written on whichever host runs the consumer task.
+ */
+public class LocalFileMetricsConsumer implements IMetricsConsumer {
+    private static final Logger logger = LoggerFactory.getLogger(LocalFileMetricsConsumer.class);
+
+    protected static final String HEADER =
+            "time\tcomponent\ttasks\texecuted\temitted\tacked\tfailed\texecute_ms\tprocess_ms\tcomplete_ms\n";
+
+    /**
+     * One component's totals for one bucket.
+     */
+    protected static class Totals {
+        int tasks = 0;
+        long executed = 0;
+        long emitted = 0;
+        long acked = 0;
+        long failed = 0;
+        double executeMs = 0;
+        double processMs = 0;
+        double completeMs = 0;
+    }
+
+    protected Writer out;
+    protected boolean includeSystem;
+    // bucket time -> component -> totals, oldest first
+    protected TreeMap<Long,TreeMap<String,Totals>> buckets;
+    protected long newest;
+    // Newest bucket already written; later reports for it are dropped.
+    protected long written;
+
+    @Override
+    public void prepare(@SuppressWarnings("rawtypes") Map stormConf, Object registrationArgument,
+            TopologyContext context, IErrorReporter errorReporter) {
+        DefaultingMap args = new DefaultingMap();
+        if (registrationArgument instanceof Map<?,?>) {
+            @SuppressWarnings("unchecked")
+            Map<String,Object> m = (Map<String,Object>)registrationArgument;
+            args.putAll(m);
+        }
+        String topology = (context == null) ? "topology" : context.getStormId();
+        String path = args.getString("path", new File(System.getProperty("java.io.tmpdir"), "{topology}-metrics.tsv").getPath());
+        path = path.replace("{topology}", topology);
+        includeSystem = args.getBool("system", false);
+        buckets = new TreeMap<Long,TreeMap<String,Totals>>();
+        newest = 0;
+        written = Long.MIN_VALUE;
+
+        File f = new File(path);
+        try {
+            boolean isNew = !f.exists() || (f.length() == 0);
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f, true), Charset.forName("UTF-8")));
+            if (isNew) {
+                out.write(HEADER);
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Can't open metrics file " + f, e);
+        }
+        logger.info("Writing metrics to {}", f);
+    }
+
+    @Override
+    public void handleDataPoints(TaskInfo taskInfo, Collection<DataPoint> dataPoints) {
+        String component = taskInfo.srcComponentId;
+        if (!includeSystem && component.startsWith("__")) {
+            return;
+        }
+        int interval = Math.max(taskInfo.updateIntervalSecs, 1);
+        long bucket = (taskInfo.timestamp / interval) * interval;
+        if (bucket <= written) {
+            // Its row is already out; another one would split the bucket.
+            logger.warn("Dropping metrics for {} at {}, more than an interval late", component, bucket);
+            return;
+        }
+
+        TreeMap<String,Totals> components = buckets.get(bucket);
+        if (components == null) {
+            components = new TreeMap<String,Totals>();
+            buckets.put(bucket, components);
+        }
+        Totals t = components.get(component);
+        if (t == null) {
+            t = new Totals();
+            components.put(component, t);
+        }
+        add(t, dataPoints);
+
+        // Tasks report at slightly different times, and a report for one
+        // bucket can arrive after the next bucket's first; write a bucket
+        // once two newer ones have started, allowing a full interval of grace.
+        newest = Math.max(newest, bucket);
+        write(newest - 2 * interval);
+    }
+
+    /**
+     * Add one task's data points to a component's totals.
+     */
+    protected static void add(Totals t, Collection<DataPoint> dataPoints) {
+        Map<?,?> executeCount = null;
+        Map<?,?> ackCount = null;
+        Map<?,?> executeLatency = null;
+        Map<?,?> processLatency = null;
+        Map<?,?> completeLatency = null;
+
+        ++t.tasks;
+        for (DataPoint dp : dataPoints) {
+            if (!(dp.value instanceof Map<?,?>)) {
+                continue;
+            }
+            Map<?,?> v = (Map<?,?>)dp.value;
+            if (dp.name.equals("__execute-count")) {
+                executeCount = v;
+                t.executed += sum(v);
+            } else if (dp.name.equals("__emit-count")) {
+                t.emitted += sum(v);
+            } else if (dp.name.equals("__ack-count")) {
+                ackCount = v;
+                t.acked += sum(v);
+            } else if (dp.name.equals("__fail-count")) {
+                t.failed += sum(v);
+            } else if (dp.name.equals("__execute-latency")) {
+                executeLatency = v;
+            } else if (dp.name.equals("__process-latency")) {
+                processLatency = v;
+            } else if (dp.name.equals("__complete-latency")) {
+                completeLatency = v;
+            }
+        }
+        // Accumulate latency * count; write() divides by the total count.
+        t.executeMs += weighted(executeLatency, executeCount);
+        t.processMs += weighted(processLatency, ackCount);
+        t.completeMs += weighted(completeLatency, ackCount);
+    }
+
+    protected static long sum(Map<?,?> m) {
+        long total = 0;
+        for (Object o : m.values()) {
+            if (o instanceof Number) {
+                total += ((Number)o).longValue();
+            }
+        }
+        return total;
+    }
+
+    protected static double weighted(Map<?,?> latency, Map<?,?> counts) {
+        if ((latency == null) || (counts == null)) {
+            return 0;
+        }
+        double total = 0;
+        for (Map.Entry<?,?> e : latency.entrySet()) {
+            Object c = counts.get(e.getKey());
+            if ((e.getValue() instanceof Number) && (c instanceof Number)) {
+                total += ((Number)e.getValue()).doubleValue() * ((Number)c).longValue();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Write and forget all buckets up to and including upTo.
+     */
+    protected void write(long upTo) {
+        Iterator<Map.Entry<Long,TreeMap<String,Totals>>> it = buckets.entrySet().iterator();
+        try {
+            while (it.hasNext()) {
+                Map.Entry<Long,TreeMap<String,Totals>> b = it.next();
+                if (b.getKey() > upTo) {
+                    break;
+                }
+                written = Math.max(written, b.getKey());
+                for (Map.Entry<String,Totals> c : b.getValue().entrySet()) {
+                    Totals t = c.getValue();
+                    out.write(String.format(Locale.ROOT, "%d\t%s\t%d\t%d\t%d\t%d\t%d\t%.3f\t%.3f\t%.3f\n",
+                            b.getKey(), c.getKey(), t.tasks, t.executed, t.emitted, t.acked, t.failed,
+                            avg(t.executeMs, t.executed), avg(t.processMs, t.acked), avg(t.completeMs, t.acked)));
+                }
+                it.remove();
+            }
+            out.flush();
+        } catch (IOException e) {
+            logger.error("Metrics write failed: {}", e.toString());
+        }
+    }
+
+    protected static double avg(double total, long count) {
+        return (count == 0) ? 0 : total / count;
+    }
+
+    @Override
+    public void cleanup() {
+        write(Long.MAX_VALUE);
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.warn("Close of metrics file failed: {}", e.toString());
+        }
+    }
+}
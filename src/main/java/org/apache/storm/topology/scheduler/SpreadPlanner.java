@@ -0,0 +1,379 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.scheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import backtype.storm.scheduler.ExecutorDetails;
+import backtype.storm.scheduler.WorkerSlot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Works out where a topology's executors should run. This is plain Java,
+ * with no dependence on Nimbus, so placements can be checked against a
+ * made-up cluster. SpreadScheduler feeds it the real cluster state.
+ *
+ * Components are gathered into groups that should run together: the
+ * two ends of a localOrShuffle grouping, and components named together in
+ * a colocate hint. Each group is placed on as many workers as its smallest
+ * component has executors, with every component of the group spread
+ * evenly over those same workers. Every worker of the group then has a
+ * task of each component, so a localOrShuffle grouping always finds a
+ * local target and never crosses workers. (A downstream task in a worker
+ * with no upstream task would get nothing from a localOrShuffle grouping
+ * anyway.)
+ *
+ * Groups with a spread component are placed first, one worker per node
+ * before any node gets a second, so they land on as many nodes as possible.
+ * A partner with fewer executors than the group's spread components would
+ * narrow the group (a parallelism 1 partner would put everything on one
+ * worker), so such partners are taken out of the group and placed on their
+ * own, with a warning. Other groups go to the least loaded workers.
+ */
+public class SpreadPlanner {
+    private static final Logger logger = LoggerFactory.getLogger(SpreadPlanner.class);
+
+    protected final Map<String,List<ExecutorDetails>> executors = new TreeMap<String,List<ExecutorDetails>>();
+    protected final Set<String> spread = new HashSet<String>();
+    // Union-find of components that should run together.
+    protected final Map<String,String> parent = new HashMap<String,String>();
+
+    protected static final Comparator<ExecutorDetails> BY_TASK = new Comparator<ExecutorDetails>() {
+        @Override
+        public int compare(ExecutorDetails a, ExecutorDetails b) {
+            return (a.getStartTask() < b.getStartTask()) ? -1 : ((a.getStartTask() == b.getStartTask()) ? 0 : 1);
+        }
+    };
+
+    protected static final Comparator<WorkerSlot> BY_SLOT = new Comparator<WorkerSlot>() {
+        @Override
+        public int compare(WorkerSlot a, WorkerSlot b) {
+            int c = a.getNodeId().compareTo(b.getNodeId());
+            return (c != 0) ? c : ((a.getPort() < b.getPort()) ? -1 : ((a.getPort() == b.getPort()) ? 0 : 1));
+        }
+    };
+
+    /**
+     * Create a planner.
+     * @param componentExecutors - Executors to place, by component.
+     */
+    public SpreadPlanner(Map<String,? extends Collection<ExecutorDetails>> componentExecutors) {
+        for (Map.Entry<String,? extends Collection<ExecutorDetails>> e : componentExecutors.entrySet()) {
+            List<ExecutorDetails> execs = new ArrayList<ExecutorDetails>(e.getValue());
+            Collections.sort(execs, BY_TASK);
+            executors.put(e.getKey(), execs);
+            parent.put(e.getKey(), e.getKey());
+        }
+    }
+
+    /**
+     * Ask for components to be spread over as many nodes as possible.
+     * Components that aren't being placed are ignored.
+     * @param components - Component names.
+     */
+    public void addSpread(Collection<String> components) {
+        spread.addAll(components);
+    }
+
+    /**
+     * Ask for components to run in the same workers.
+     * Components that aren't being placed are ignored.
+     * @param components - Component names.
+     */
+    public void colocate(Collection<String> components) {
+        String first = null;
+        for (String c : components) {
+            if (!parent.containsKey(c)) {
+                continue;
+            }
+            if (first == null) {
+                first = c;
+            }
+            else {
+                union(first, c);
+            }
+        }
+    }
+
+    /**
+     * Note a localOrShuffle grouping between two components.
+     * @param source - Upstream component.
+     * @param target - Downstream component.
+     */
+    public void addLocalEdge(String source, String target) {
+        colocate(Arrays.asList(source, target));
+    }
+
+    protected String find(String c) {
+        String p = parent.get(c);
+        while (!p.equals(c)) {
+            String gp = parent.get(p);
+            parent.put(c, gp);
+            c = p;
+            p = gp;
+        }
+        return c;
+    }
+
+    protected void union(String a, String b) {
+        String ra = find(a);
+        String rb = find(b);
+        if (!ra.equals(rb)) {
+            // Keep the smaller name as the root, so plans don't depend on call order.
+            if (ra.compareTo(rb) < 0) {
+                parent.put(rb, ra);
+            }
+            else {
+                parent.put(ra, rb);
+            }
+        }
+    }
+
+    /**
+     * Components that will be placed together, by group.
+     * @return groups of component names
+     */
+    public Collection<List<String>> getGroups() {
+        Map<String,List<String>> groups = new TreeMap<String,List<String>>();
+        for (String c : executors.keySet()) {
+            String root = find(c);
+            List<String> g = groups.get(root);
+            if (g == null) {
+                g = new ArrayList<String>();
+                groups.put(root, g);
+            }
+            g.add(c);
+        }
+        return groups.values();
+    }
+
+    /**
+     * Choose the workers to use: up to numWorkers of the available slots,
+     * taking one slot from each node in turn.
+     * @param slots - Available slots.
+     * @param numWorkers - Workers wanted.
+     * @return chosen slots
+     */
+    public static List<WorkerSlot> chooseSlots(Collection<WorkerSlot> slots, int numWorkers) {
+        Map<String,List<WorkerSlot>> byNode = new TreeMap<String,List<WorkerSlot>>();
+        for (WorkerSlot s : slots) {
+            List<WorkerSlot> l = byNode.get(s.getNodeId());
+            if (l == null) {
+                l = new ArrayList<WorkerSlot>();
+                byNode.put(s.getNodeId(), l);
+            }
+            l.add(s);
+        }
+        for (List<WorkerSlot> l : byNode.values()) {
+            Collections.sort(l, BY_SLOT);
+        }
+        List<WorkerSlot> ret = new ArrayList<WorkerSlot>();
+        for (int round = 0; ret.size() < numWorkers; ++round) {
+            boolean any = false;
+            for (List<WorkerSlot> l : byNode.values()) {
+                if ((round < l.size()) && (ret.size() < numWorkers)) {
+                    ret.add(l.get(round));
+                    any = true;
+                }
+            }
+            if (!any) {
+                break;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Plan the placement.
+     * @param slots - Available slots.
+     * @param numWorkers - Workers the topology asked for.
+     * @return executors for each slot used
+     */
+    public Map<WorkerSlot,List<ExecutorDetails>> plan(Collection<WorkerSlot> slots, int numWorkers) {
+        final List<WorkerSlot> workers = chooseSlots(slots, numWorkers);
+        Map<WorkerSlot,List<ExecutorDetails>> plan = new LinkedHashMap<WorkerSlot,List<ExecutorDetails>>();
+        if (workers.isEmpty()) {
+            return plan;
+        }
+        final int[] load = new int[workers.size()];
+
+        // Spread groups first, then bigger groups before smaller.
+        List<List<String>> groups = new ArrayList<List<String>>();
+        for (List<String> group : getGroups()) {
+            groups.add(group);
+            if (isSpread(group)) {
+                List<String> narrow = splitNarrow(group, workers.size());
+                if (!narrow.isEmpty()) {
+                    groups.add(narrow);
+                }
+            }
+        }
+        Collections.sort(groups, new Comparator<List<String>>() {
+            @Override
+            public int compare(List<String> a, List<String> b) {
+                boolean sa = isSpread(a);
+                boolean sb = isSpread(b);
+                if (sa != sb) {
+                    return sa ? -1 : 1;
+                }
+                int c = size(b) - size(a);
+                return (c != 0) ? c : a.get(0).compareTo(b.get(0));
+            }
+        });
+
+        for (List<String> group : groups) {
+            int k = workers.size();
+            for (String c : group) {
+                k = Math.min(k, executors.get(c).size());
+            }
+            if (k == 0) {
+                continue;
+            }
+            List<Integer> chosen = isSpread(group) ? pickSpread(workers, load, k) : pickLeastLoaded(load, k);
+            for (String c : group) {
+                List<ExecutorDetails> execs = executors.get(c);
+                for (int i = 0; i < execs.size(); ++i) {
+                    int w = chosen.get(i % k);
+                    WorkerSlot slot = workers.get(w);
+                    List<ExecutorDetails> l = plan.get(slot);
+                    if (l == null) {
+                        l = new ArrayList<ExecutorDetails>();
+                        plan.put(slot, l);
+                    }
+                    l.add(execs.get(i));
+                    ++load[w];
+                }
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Take the partners that would narrow a spread group out of it.
+     * @param group - A group with a spread component; changed in place.
+     * @param nWorkers - Workers available.
+     * @return the partners taken out, which stay together as a group.
+     */
+    protected List<String> splitNarrow(List<String> group, int nWorkers) {
+        int width = nWorkers;
+        for (String c : group) {
+            if (spread.contains(c)) {
+                width = Math.min(width, executors.get(c).size());
+            }
+        }
+        List<String> narrow = new ArrayList<String>();
+        for (String c : group) {
+            int n = executors.get(c).size();
+            if (!spread.contains(c) && (n < width)) {
+                logger.warn("{} has {} executors, fewer than the spread components it runs with; "
+                        + "placing it apart so they still spread over {} workers", c, n, width);
+                narrow.add(c);
+            }
+        }
+        group.removeAll(narrow);
+        return narrow;
+    }
+
+    protected boolean isSpread(List<String> group) {
+        for (String c : group) {
+            if (spread.contains(c)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected int size(List<String> group) {
+        int n = 0;
+        for (String c : group) {
+            n += executors.get(c).size();
+        }
+        return n;
+    }
+
+    /**
+     * The k least loaded workers.
+     */
+    protected static List<Integer> pickLeastLoaded(final int[] load, int k) {
+        List<Integer> idx = new ArrayList<Integer>(load.length);
+        for (int i = 0; i < load.length; ++i) {
+            idx.add(i);
+        }
+        Collections.sort(idx, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return (load[a] != load[b]) ? ((load[a] < load[b]) ? -1 : 1) : a.compareTo(b);
+            }
+        });
+        return idx.subList(0, k);
+    }
+
+    /**
+     * k workers, taking the least loaded worker of each node (least loaded
+     * nodes first) before taking a second worker from any node.
+     */
+    protected static List<Integer> pickSpread(List<WorkerSlot> workers, final int[] load, int k) {
+        final Map<String,Integer> nodeLoad = new HashMap<String,Integer>();
+        Map<String,List<Integer>> byNode = new TreeMap<String,List<Integer>>();
+        for (int w : pickLeastLoaded(load, load.length)) {
+            String node = workers.get(w).getNodeId();
+            List<Integer> l = byNode.get(node);
+            if (l == null) {
+                l = new ArrayList<Integer>();
+                byNode.put(node, l);
+                nodeLoad.put(node, 0);
+            }
+            l.add(w);
+            nodeLoad.put(node, nodeLoad.get(node) + load[w]);
+        }
+        List<String> nodes = new ArrayList<String>(byNode.keySet());
+        Collections.sort(nodes, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int la = nodeLoad.get(a);
+                int lb = nodeLoad.get(b);
+                return (la != lb) ? ((la < lb) ? -1 : 1) : a.compareTo(b);
+            }
+        });
+
+        List<Integer> ret = new ArrayList<Integer>(k);
+        for (int round = 0; ret.size() < k; ++round) {
+            for (String node : nodes) {
+                List<Integer> l = byNode.get(node);
+                if ((round < l.size()) && (ret.size() < k)) {
+                    ret.add(l.get(round));
+                }
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.scheduler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import backtype.storm.generated.Bolt;
+import backtype.storm.generated.GlobalStreamId;
+import backtype.storm.generated.Grouping;
+import backtype.storm.generated.StormTopology;
+import backtype.storm.scheduler.Cluster;
+import backtype.storm.scheduler.DefaultScheduler;
+import backtype.storm.scheduler.ExecutorDetails;
+import backtype.storm.scheduler.IScheduler;
+import backtype.storm.scheduler.SchedulerAssignment;
+import backtype.storm.scheduler.SupervisorDetails;
+import backtype.storm.scheduler.Topologies;
+import backtype.storm.scheduler.TopologyDetails;
+import backtype.storm.scheduler.WorkerSlot;
+
+/**
+ * A Nimbus scheduler that honors TopoLoader's placement hints. Install
+ * it by putting the TopoLoader jar in Nimbus's lib directory and setting
+ * storm.scheduler: org.apache.storm.topology.scheduler.SpreadScheduler
+ * in Nimbus's storm.yaml.
+ *
+ * A topology whose configuration has SPREAD_COMPONENTS or COLOCATE is
+ * placed by SpreadPlanner the first time it's scheduled, which also keeps
+ * localOrShuffle groupings inside workers. Everything else, including
+ * reassigning executors of a worker that died, is left to Storm's
+ * DefaultScheduler.
+ */
+public class SpreadScheduler implements IScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(SpreadScheduler.class);
+
+    // Topology config: components to spread across nodes.
+    public static final String SPREAD_COMPONENTS = "topoloader.spread.components";
+    // Topology config: lists of components to run in the same workers.
+    public static final String COLOCATE = "topoloader.colocate";
+
+    protected final IScheduler fallback;
+
+    public SpreadScheduler() {
+        this(new DefaultScheduler());
+    }
+
+    /**
+     * Create a scheduler.
+     * @param fallback - Scheduler for topologies without hints.
+     */
+    public SpreadScheduler(IScheduler fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void prepare(Map conf) {
+        fallback.prepare(conf);
+    }
+
+    @Override
+    public void schedule(Topologies topologies, Cluster cluster) {
+        for (TopologyDetails td : cluster.needsSchedulingTopologies(topologies)) {
+            if (!hasHints(td.getConf())) {
+                continue;
+            }
+            SchedulerAssignment existing = cluster.getAssignmentById(td.getId());
+            if ((existing != null) && !existing.getExecutors().isEmpty()) {
+                // Partly running. Let the default scheduler fill in.
+                continue;
+            }
+
+            SpreadPlanner planner = makePlanner(td, cluster.getNeedsSchedulingComponentToExecutors(td));
+            Map<WorkerSlot,List<ExecutorDetails>> plan = planner.plan(getAvailableSlots(cluster), td.getNumWorkers());
+            for (Map.Entry<WorkerSlot,List<ExecutorDetails>> e : plan.entrySet()) {
+                cluster.assign(e.getKey(), td.getId(), e.getValue());
+            }
+            logger.info("Placed {} on {} workers", td.getName(), plan.size());
+        }
+        fallback.schedule(topologies, cluster);
+    }
+
+    /**
+     * Does this topology configuration ask for placement?
+     * @param conf - Topology configuration.
+     * @return true if it has spread or colocate hints.
+     */
+    @SuppressWarnings("rawtypes")
+    public static boolean hasHints(Map conf) {
+        return (conf != null) && ((conf.get(SPREAD_COMPONENTS) instanceof Collection<?>)
+                || (conf.get(COLOCATE) instanceof Collection<?>));
+    }
+
+    /**
+     * Set up a planner from a topology's hints and groupings.
+     * @param td - The topology.
+     * @param componentExecutors - Executors to place, by component.
+     * @return the planner
+     */
+    @SuppressWarnings("rawtypes")
+    public static SpreadPlanner makePlanner(TopologyDetails td, Map<String,List<ExecutorDetails>> componentExecutors) {
+        SpreadPlanner planner = new SpreadPlanner(componentExecutors);
+        Map conf = td.getConf();
+        Object o = conf.get(SPREAD_COMPONENTS);
+        if (o instanceof Collection<?>) {
+            planner.addSpread(toStrings((Collection<?>)o));
+        }
+        o = conf.get(COLOCATE);
+        if (o instanceof Collection<?>) {
+            for (Object group : (Collection<?>)o) {
+                if (group instanceof Collection<?>) {
+                    planner.colocate(toStrings((Collection<?>)group));
+                }
+            }
+        }
+        StormTopology topology = td.getTopology();
+        if ((topology != null) && (topology.get_bolts() != null)) {
+            for (Map.Entry<String,Bolt> b : topology.get_bolts().entrySet()) {
+                for (Map.Entry<GlobalStreamId,Grouping> in : b.getValue().get_common().get_inputs().entrySet()) {
+                    if (in.getValue().is_set_local_or_shuffle()) {
+                        planner.addLocalEdge(in.getKey().get_componentId(), b.getKey());
+                    }
+                }
+            }
+        }
+        return planner;
+    }
+
+    /**
+     * Free slots on supervisors that aren't blacklisted.
+     * @param cluster - Cluster state.
+     * @return available slots
+     */
+    protected static List<WorkerSlot> getAvailableSlots(Cluster cluster) {
+        List<WorkerSlot> slots = new ArrayList<WorkerSlot>();
+        for (SupervisorDetails s : cluster.getSupervisors().values()) {
+            if (!cluster.isBlacklistedHost(s.getHost())) {
+                slots.addAll(cluster.getAvailableSlots(s));
+            }
+        }
+        return slots;
+    }
+
+    protected static List<String> toStrings(Collection<?> c) {
+        List<String> ret = new ArrayList<String>(c.size());
+        for (Object o : c) {
+            ret.add(String.valueOf(o));
+        }
+        return ret;
+    }
+}
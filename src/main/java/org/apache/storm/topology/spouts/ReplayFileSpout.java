@@ -0,0 +1,555 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.spouts;
+
+import backtype.storm.spout.SpoutOutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.IRichSpout;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.storm.topology.builder.FieldIndex;
+import org.apache.storm.topology.builder.Loader;
+import org.apache.utils.DefaultingMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A loadable spout that replays captured records from files, for load
+ * testing a topology with production-like input. The files are memory
+ * mapped, and each line is split and decoded straight from the mapping.
+ * Records are delimited lines, as written by FileSinkBolt with the
+ * default encoder. Configuration:
+ *
+ *     files: [/data/capture]   # File or directory, or a list of them
+ *     schema: [...]            # Output fields (required)
+ *     columns: [...]           # Field names of the columns in the file; default schema
+ *     types:                   # Conversions: string (default), int, long, double, boolean
+ *       bytes: long
+ *     separator: "\t"          # One byte
+ *     charset: UTF-8
+ *     speed: max               # max, original, or a multiple of original speed
+ *     timefield: ts            # Column with the record time (millis), for original speed
+ *     repeat: 1                # Times to replay the files; 0 means forever
+ *                              # (or until a pass finds no records)
+ *     reliable: true           # Emit with message ids and replay failures
+ *
+ * Message ids are the record's file and offset. Failed records are
+ * re-emitted before any new ones. With more than one task, the files are
+ * divided among the tasks.
+ */
+public class ReplayFileSpout implements IRichSpout {
+    private static final long serialVersionUID = 5127738408573722513L;
+    private static final Logger logger = LoggerFactory.getLogger(ReplayFileSpout.class);
+
+    protected static final int T_STRING = 0;
+    protected static final int T_INT = 1;
+    protected static final int T_LONG = 2;
+    protected static final int T_DOUBLE = 3;
+    protected static final int T_BOOLEAN = 4;
+
+    // Most of a file mapped at once. Lines can't be longer than this.
+    protected static final int CHUNK_SIZE = 1 << 28;
+
+    protected final String myName;
+    protected final List<String> paths;
+    protected final FieldIndex schema;
+    protected final int[] columnTarget;
+    protected final int timeColumn;
+    protected final int[] types;
+    protected final byte separator;
+    protected final String charsetName;
+    protected final double scale;
+    protected final int repeat;
+    protected final boolean reliable;
+    protected int chunkSize = CHUNK_SIZE;
+
+    protected transient SpoutOutputCollector collector;
+    protected transient Charset charset;
+    protected transient File[] files;
+    protected transient int fileIdx;
+    protected transient int loop;
+    protected transient boolean exhausted;
+    // Whether this pass has read any record, so empty files can't spin forever.
+    protected transient boolean passHasRecords;
+    protected transient MappedByteBuffer map;
+    protected transient long mapStart;
+    protected transient long fileSize;
+    protected transient int pos;
+    protected transient byte[] scratch;
+
+    protected transient List<Object> next;
+    protected transient Offset nextId;
+    protected transient long nextTime;
+    protected transient long baseRecordTime;
+    protected transient long baseWallTime;
+
+    protected transient Map<Offset,List<Object>> pending;
+    protected transient ArrayDeque<Offset> failed;
+
+    /**
+     * Message id of a record: where it is in which file, on which pass.
+     */
+    public static class Offset {
+        public final int file;
+        public final long offset;
+        public final int loop;
+
+        public Offset(int file, long offset, int loop) {
+            this.file = file;
+            this.offset = offset;
+            this.loop = loop;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Offset)) {
+                return false;
+            }
+            Offset other = (Offset)o;
+            return (file == other.file) && (offset == other.offset) && (loop == other.loop);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int)(offset ^ (offset >>> 32)) * 31 + file * 17 + loop;
+        }
+
+        @Override
+        public String toString() {
+            return file + ":" + offset + ((loop > 0) ? "/" + loop : "");
+        }
+    }
+
+    public ReplayFileSpout(String name, DefaultingMap conf) {
+        myName = name;
+
+        Set<String> p = conf.getFlattenedList("files");
+        if (p != null) {
+            paths = new ArrayList<String>(p);
+        } else {
+            // A single path
+            paths = new ArrayList<String>();
+            if (conf.getString("files") != null) {
+                paths.add(conf.getString("files"));
+            }
+        }
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException(name + ": no files to replay");
+        }
+
+        schema = Loader.getSchemaIndex(conf);
+        if ((schema == null) || (schema.size() == 0)) {
+            throw new IllegalArgumentException(name + ": a schema is required");
+        }
+
+        Set<String> c = conf.getFlattenedList("columns");
+        List<String> columns = (c == null) ? schema.toList() : new ArrayList<String>(c);
+        columnTarget = new int[columns.size()];
+        for (int i = 0; i < columnTarget.length; ++i) {
+            columnTarget[i] = schema.indexOf(columns.get(i));
+        }
+        for (String f : schema) {
+            if (!columns.contains(f)) {
+                throw new IllegalArgumentException(name + ": schema field " + f + " isn't in columns");
+            }
+        }
+
+        types = new int[schema.size()];
+        DefaultingMap typeConf = conf.getSubMap("types");
+        if (typeConf != null) {
+            for (Map.Entry<String,Object> e : typeConf.entrySet()) {
+                int pos = schema.indexOf(e.getKey());
+                if (pos >= 0) {
+                    types[pos] = parseType(name, e.getValue().toString());
+                }
+            }
+        }
+
+        charsetName = conf.getString("charset", "UTF-8");
+        byte[] sep = conf.getString("separator", "\t").getBytes(Charset.forName(charsetName));
+        if (sep.length != 1) {
+            throw new IllegalArgumentException(name + ": separator must be a single byte");
+        }
+        separator = sep[0];
+
+        String speed = conf.getString("speed", "max").trim();
+        if (speed.equals("max")) {
+            scale = 0;
+        } else if (speed.equals("original")) {
+            scale = 1;
+        } else {
+            try {
+                scale = Double.parseDouble(speed);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(name + ": speed must be max, original or a number: " + speed);
+            }
+            if (scale <= 0) {
+                throw new IllegalArgumentException(name + ": speed must be positive: " + speed);
+            }
+        }
+
+        String timeField = conf.getString("timefield");
+        timeColumn = (timeField == null) ? -1 : columns.indexOf(timeField);
+        if ((scale > 0) && (timeColumn < 0)) {
+            throw new IllegalArgumentException(name + ": speed " + speed + " needs a timefield in columns");
+        }
+
+        repeat = conf.getInt("repeat", 1);
+        reliable = conf.getBool("reliable", true);
+    }
+
+    protected static int parseType(String name, String type) {
+        switch (type.trim()) {
+        case "string":
+            return T_STRING;
+        case "int":
+            return T_INT;
+        case "long":
+            return T_LONG;
+        case "double":
+            return T_DOUBLE;
+        case "boolean":
+            return T_BOOLEAN;
+        default:
+            throw new IllegalArgumentException(name + ": unknown type " + type);
+        }
+    }
+
+    @Override
+    public void open(@SuppressWarnings("rawtypes") Map conf, TopologyContext context,
+            SpoutOutputCollector collector) {
+        this.collector = collector;
+        charset = Charset.forName(charsetName);
+        scratch = new byte[256];
+        pending = new HashMap<Offset,List<Object>>();
+        failed = new ArrayDeque<Offset>();
+
+        List<File> all = new ArrayList<File>();
+        for (String path : paths) {
+            File f = new File(path);
+            if (f.isDirectory()) {
+                File[] inDir = f.listFiles();
+                Arrays.sort(inDir);
+                for (File d : inDir) {
+                    if (d.isFile()) {
+                        all.add(d);
+                    }
+                }
+            } else if (f.isFile()) {
+                all.add(f);
+            } else {
+                logger.error("{}: no such file {}", myName, f);
+            }
+        }
+
+        int task = 0;
+        int nTasks = 1;
+        if (context != null) {
+            task = context.getThisTaskIndex();
+            nTasks = context.getComponentTasks(context.getThisComponentId()).size();
+        }
+        List<File> mine = new ArrayList<File>();
+        for (int i = task; i < all.size(); i += nTasks) {
+            mine.add(all.get(i));
+        }
+        files = mine.toArray(new File[mine.size()]);
+        if (files.length == 0) {
+            logger.warn("{}: no files to replay in task {}", myName, task);
+        }
+
+        fileIdx = 0;
+        loop = 0;
+        passHasRecords = false;
+        exhausted = (files.length == 0);
+        map = null;
+        next = null;
+        baseWallTime = -1;
+    }
+
+    @Override
+    public void nextTuple() {
+        if (!failed.isEmpty()) {
+            Offset id = failed.poll();
+            List<Object> values = pending.get(id);
+            if (values != null) {
+                collector.emit(values, id);
+            }
+            return;
+        }
+
+        if ((next == null) && !readNext()) {
+            return;
+        }
+
+        if ((scale > 0) && (nextTime >= 0)) {
+            long now = System.currentTimeMillis();
+            if (baseWallTime < 0) {
+                baseWallTime = now;
+                baseRecordTime = nextTime;
+            }
+            long due = baseWallTime + (long)((nextTime - baseRecordTime) / scale);
+            if (now < due) {
+                return;
+            }
+        }
+
+        if (reliable) {
+            pending.put(nextId, next);
+            collector.emit(next, nextId);
+        } else {
+            collector.emit(next);
+        }
+        next = null;
+    }
+
+    /**
+     * Parse the next record into next, nextId and nextTime.
+     * @return false if there are no more records.
+     */
+    protected boolean readNext() {
+        while (!exhausted) {
+            if (map == null) {
+                openNext();
+                continue;
+            }
+
+            int limit = map.limit();
+            if (pos >= limit) {
+                if (mapStart + limit < fileSize) {
+                    mapRegion(mapStart + limit);
+                } else {
+                    nextFile();
+                }
+                continue;
+            }
+            int end = pos;
+            while ((end < limit) && (map.get(end) != '\n')) {
+                ++end;
+            }
+            if (end == limit) {
+                if (mapStart + limit < fileSize) {
+                    // The line runs past this chunk; map again from its start.
+                    if (pos == 0) {
+                        logger.error("{}: line at {}:{} longer than {} bytes; skipping rest of file",
+                                myName, files[fileIdx], mapStart, chunkSize);
+                        nextFile();
+                    } else {
+                        mapRegion(mapStart + pos);
+                    }
+                    continue;
+                }
+                // Last line, with no newline.
+            }
+
+            Offset id = new Offset(fileIdx, mapStart + pos, loop);
+            int lineEnd = ((end > pos) && (map.get(end - 1) == '\r')) ? end - 1 : end;
+            List<Object> values = (lineEnd > pos) ? parse(pos, lineEnd) : null;
+            pos = end + 1;
+            if (values != null) {
+                passHasRecords = true;
+                next = values;
+                nextId = id;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Split a line into columns and convert the ones in the schema.
+     */
+    protected List<Object> parse(int start, int end) {
+        Object[] values = new Object[schema.size()];
+        nextTime = -1;
+        int col = 0;
+        int fieldStart = start;
+        for (int i = start; i <= end; ++i) {
+            if ((i < end) && (map.get(i) != separator)) {
+                continue;
+            }
+            if (col < columnTarget.length) {
+                int target = columnTarget[col];
+                if ((target >= 0) || (col == timeColumn)) {
+                    String s = decode(fieldStart, i);
+                    if (target >= 0) {
+                        values[target] = convert(s, types[target]);
+                    }
+                    if (col == timeColumn) {
+                        try {
+                            nextTime = Long.parseLong(s.trim());
+                        } catch (NumberFormatException e) {
+                            nextTime = -1;
+                        }
+                    }
+                }
+            }
+            ++col;
+            fieldStart = i + 1;
+        }
+        return Arrays.asList(values);
+    }
+
+    protected String decode(int start, int end) {
+        int len = end - start;
+        if (len > scratch.length) {
+            scratch = new byte[Math.max(len, scratch.length * 2)];
+        }
+        for (int i = 0; i < len; ++i) {
+            scratch[i] = map.get(start + i);
+        }
+        return new String(scratch, 0, len, charset);
+    }
+
+    protected Object convert(String s, int type) {
+        if (type == T_STRING) {
+            return s;
+        }
+        if (s.isEmpty()) {
+            return null;
+        }
+        try {
+            switch (type) {
+            case T_INT:
+                return Integer.valueOf(s.trim());
+            case T_LONG:
+                return Long.valueOf(s.trim());
+            case T_DOUBLE:
+                return Double.valueOf(s.trim());
+            default:
+                return Boolean.valueOf(s.trim());
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Map the current file, or move on to the next pass when all the files
+     * have been read.
+     */
+    protected void openNext() {
+        if (fileIdx >= files.length) {
+            ++loop;
+            if ((repeat > 0) && (loop >= repeat)) {
+                logger.info("{}: replay finished after {} passes", myName, loop);
+                exhausted = true;
+                return;
+            }
+            if (!passHasRecords) {
+                logger.warn("{}: no records in any file; replay finished after {} passes", myName, loop);
+                exhausted = true;
+                return;
+            }
+            passHasRecords = false;
+            fileIdx = 0;
+            baseWallTime = -1;
+        }
+        fileSize = files[fileIdx].length();
+        if (fileSize == 0) {
+            ++fileIdx;
+            return;
+        }
+        mapRegion(0);
+    }
+
+    protected void mapRegion(long start) {
+        FileChannel ch = null;
+        try {
+            ch = FileChannel.open(files[fileIdx].toPath(), StandardOpenOption.READ);
+            long len = Math.min(chunkSize, fileSize - start);
+            map = ch.map(FileChannel.MapMode.READ_ONLY, start, len);
+            mapStart = start;
+            pos = 0;
+        } catch (IOException e) {
+            logger.error("{}: can't map {}: {}", myName, files[fileIdx], e.toString());
+            nextFile();
+        } finally {
+            if (ch != null) {
+                try {
+                    ch.close();
+                } catch (IOException e) {
+                    // The mapping stays valid.
+                }
+            }
+        }
+    }
+
+    protected void nextFile() {
+        map = null;
+        ++fileIdx;
+    }
+
+    @Override
+    public void ack(Object msgId) {
+        pending.remove(msgId);
+    }
+
+    @Override
+    public void fail(Object msgId) {
+        if (pending.containsKey(msgId)) {
+            failed.add((Offset)msgId);
+        }
+    }
+
+    /**
+     * Number of records emitted and not yet acked.
+     * @return pending count
+     */
+    public int getPending() {
+        return pending.size();
+    }
+
+    @Override
+    public void close() {
+        map = null;
+    }
+
+    @Override
+    public void activate() {
+    }
+
+    @Override
+    public void deactivate() {
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        declarer.declare(schema.toFields());
+    }
+
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        return null;
+    }
+}
@@ -19,12 +19,22 @@
  */
 package org.apache.utils;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.lang.NumberFormatException;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,12 +51,22 @@ public class DefaultingMap extends HashMap<String, Object> {
     private static final long serialVersionUID = 4866488686159859500L;
     public static final String GLOBALPREFIX = "g.";
 
+    // Bumped whenever the map changes, to invalidate flattened lists.
+    private transient int version = 0;
+    // Results of getFlattenedList(), by section. Made with the map, so
+    // readers never wait to create it.
+    private transient ConcurrentMap<String,Flattened> flattened = new ConcurrentHashMap<String,Flattened>(4);
+
     /**
      * Create a DefaultingMap that's a copy of another map.
+     * Keys are canonicalized through the StringPool.
      * @param map - Make a new DefaultingMap constructed from this map.
      */
     public DefaultingMap(Map<String,Object> map) {
-        super(map);
+        super(Math.max((int)(map.size() / .75f) + 1, 16));
+        for (Map.Entry<String,Object> e : map.entrySet()) {
+            super.put(StringPool.intern(e.getKey()), e.getValue());
+        }
     }
 
     /**
@@ -61,41 +81,69 @@ public class DefaultingMap extends HashMap<String, Object> {
      * contains a tree of lists. This traverses the tree
      * walking each list it finds. All non-list items are
      * converted to String. The result is the unique
-     * set of all such strings.
+     * set of all such strings, in the order each was first found.
+     * The result is remembered, so asking again for a section that
+     * hasn't changed returns the same set. Copy it to change it.
      * @param section - Name of the root of the tree in the map.
-     * @return - Unique set of resulting strings, or null if there is no section.
+     * @return - Unmodifiable set of resulting strings, or null if there is no section.
      */
     @SuppressWarnings("unchecked")
     public Set<String> getFlattenedList(String section) {
-        HashSet<String> theSet = null;
-
         Object fList = get(section);
-        if (fList instanceof List<?>) {
-            theSet = new HashSet<String>();
-            doFlatten(theSet, (List<Object>) fList);
+        if (!(fList instanceof List<?>)) {
+            return null;
         }
+        List<Object> list = (List<Object>)fList;
 
-        return theSet;
+        ConcurrentMap<String,Flattened> cache = flattened;
+        Flattened f = cache.get(section);
+        if ((f == null) || !f.isFor(list, version)) {
+            LinkedHashSet<String> theSet = new LinkedHashSet<String>();
+            doFlatten(theSet, list);
+            f = new Flattened(list, version, Collections.unmodifiableSet(theSet));
+            cache.put(section, f);
+        }
+        return f.result;
     }
     
     /**
-     * Internal worker for getFlattenedList(). Walks a list accumulating
-     * strings and recursively calling itself to walk child lists.
+     * Internal worker for getFlattenedList(). Walks a tree of lists
+     * accumulating strings. This uses its own stack rather than recursion,
+     * so deep nesting can't overflow the thread's stack. A list that
+     * contains itself (possible with yaml anchors) is only walked once.
      * @param oSch - Set of strings being accumulated
      * @param iSch - List to walk
      */
-    @SuppressWarnings("unchecked")
-    protected static void doFlatten(HashSet<String> oSch, List<Object> iSch) {
+    protected static void doFlatten(Set<String> oSch, List<Object> iSch) {
+        ArrayDeque<Iterator<?>> stack = null;
+        Set<Object> walking = null;
+        Iterator<?> it = iSch.iterator();
 
-        for (Object o : iSch) {
-            if (o == null) {
-                continue;
-            } else if (o instanceof List<?>) {
-                doFlatten(oSch, (List<Object>)o);
+        while (true) {
+            while (it.hasNext()) {
+                Object o = it.next();
+                if (o == null) {
+                    continue;
+                }
+                else if (o instanceof List<?>) {
+                    if (stack == null) {
+                        stack = new ArrayDeque<Iterator<?>>();
+                        walking = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+                        walking.add(iSch);
+                    }
+                    if (walking.add(o)) {
+                        stack.push(it);
+                        it = ((List<?>)o).iterator();
+                    }
+                }
+                else {
+                    oSch.add(StringPool.intern(o.toString().trim()));
+                }
             }
-            else {
-                oSch.add(o.toString().trim());
+            if ((stack == null) || stack.isEmpty()) {
+                return;
             }
+            it = stack.pop();
         }
     }
 
@@ -293,6 +341,7 @@ public class DefaultingMap extends HashMap<String, Object> {
      * child configurations.
      * getSubMap() handles three cases:
      * (1) If the value is already a DefaultingMap, it's returned as is.
+     *     (A frozen one that lacks this map's globals is copied first.)
      * (2) If the value is a regular Map, it's turned into a DefaultingMap.
      * (3) If the value is a list of Maps, a new DefaultingMap is constructed
      *     by merging all of the individual Maps; the key/values of each
@@ -300,7 +349,10 @@ public class DefaultingMap extends HashMap<String, Object> {
      *     the one from the last will be used. 
      * In either (2) or (3), g. globals are copied to the new DefaultingMap,
      * and the new DefaultingMap replaces the existing value in the parent
-     * DefaultingMap.
+     * DefaultingMap. So changes to the child are kept, but the first
+     * lookup can change this map. To share a configuration between
+     * threads, freeze it: FrozenDefaultingMap.getSubMap() never changes
+     * the map and doesn't lock.
      * @param key - Name to look up
      * @return - Specified value as a DefaultingMap
      */
@@ -310,6 +362,13 @@ public class DefaultingMap extends HashMap<String, Object> {
 
         if (o instanceof DefaultingMap) {
             ret = (DefaultingMap)o;
+            if (hasGlobals(key, ret)) {
+                return ret;
+            }
+            if (!ret.isChangeable()) {
+                ret = new DefaultingMap(ret);
+                put(key, ret);
+            }
         }
         else if (o instanceof Map<?,?>) {
             @SuppressWarnings("unchecked")
@@ -326,7 +385,9 @@ public class DefaultingMap extends HashMap<String, Object> {
                 if (ent instanceof Map<?,?>) {
                     @SuppressWarnings("unchecked")
                     Map<String,Object>subMap = (Map<String,Object>)ent;
-                    ret.putAll(subMap);
+                    for (Map.Entry<String,Object> e : subMap.entrySet()) {
+                        ret.put(StringPool.intern(e.getKey()), e.getValue());
+                    }
                 }
                 else {
                     return null;
@@ -348,4 +409,106 @@ public class DefaultingMap extends HashMap<String, Object> {
 
         return ret;
     }
+
+    /**
+     * Can this map be changed? Frozen maps can't.
+     * @return true for a DefaultingMap
+     */
+    protected boolean isChangeable() {
+        return true;
+    }
+
+    /**
+     * Does a child configuration already have this map's globals?
+     * @param key - Name of the child.
+     * @param child - The child configuration.
+     * @return true if every global of this map has the same value in child.
+     */
+    protected boolean hasGlobals(String key, DefaultingMap child) {
+        for (Map.Entry<String,Object> entry : entrySet()) {
+            String k = entry.getKey();
+            if (k.startsWith(GLOBALPREFIX) && !key.equals(k)) {
+                Object pv = entry.getValue();
+                Object cv = child.get(k);
+                if ((cv == null) ? ((pv != null) || !child.containsKey(k)) : !cv.equals(pv)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deserialization makes new key strings for every map. Swap them for
+     * pooled ones, so a worker running many components keeps one of each.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        flattened = new ConcurrentHashMap<String,Flattened>(4);
+        List<Map.Entry<String,Object>> moved = null;
+        for (Map.Entry<String,Object> e : super.entrySet()) {
+            String k = e.getKey();
+            if (StringPool.intern(k) != k) {
+                if (moved == null) {
+                    moved = new ArrayList<Map.Entry<String,Object>>();
+                }
+                moved.add(new AbstractMap.SimpleEntry<String,Object>(e));
+            }
+        }
+        if (moved != null) {
+            // An equal key keeps its old instance on put(), so remove it first.
+            for (Map.Entry<String,Object> e : moved) {
+                super.remove(e.getKey());
+                super.put(StringPool.intern(e.getKey()), e.getValue());
+            }
+        }
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        ++version;
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Object> m) {
+        ++version;
+        super.putAll(m);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        ++version;
+        return super.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        ++version;
+        super.clear();
+    }
+
+    /**
+     * A remembered getFlattenedList() result. It's good as long as the map
+     * hasn't changed and the section still holds the same list with the
+     * same length. (Changing a list in place without changing its length
+     * isn't noticed.)
+     */
+    protected static class Flattened {
+        protected final List<Object> source;
+        protected final int sourceSize;
+        protected final int version;
+        protected final Set<String> result;
+
+        protected Flattened(List<Object> source, int version, Set<String> result) {
+            this.source = source;
+            this.sourceSize = source.size();
+            this.version = version;
+            this.result = result;
+        }
+
+        protected boolean isFor(List<Object> list, int mapVersion) {
+            return (list == source) && (mapVersion == version) && (list.size() == sourceSize);
+        }
+    }
 }
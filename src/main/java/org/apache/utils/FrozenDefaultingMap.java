@@ -0,0 +1,301 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.utils;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable, deep copy of a DefaultingMap. Nested maps are frozen too,
+ * with the parent's g. globals already pushed into them, and lists are
+ * unmodifiable. Equal strings, numbers and lists are shared, so when the
+ * map is serialized each is written once and referred to after that.
+ *
+ * The Loader can freeze what components' DefaultingMap fields hold
+ * before the topology is serialized ("compact" in the sizebudget
+ * section; see freezeValues()). Reads work as usual; anything that
+ * changes a frozen map throws UnsupportedOperationException.
+ *
+ * getSubMap() never changes the map and takes no lock, so any number of
+ * threads can share a frozen configuration. Nested maps are already
+ * DefaultingMaps, and lists of maps are merged when the map is frozen.
+ */
+public class FrozenDefaultingMap extends DefaultingMap {
+    private static final long serialVersionUID = -6052193781127520544L;
+
+    // What freezeValue() makes of a list.
+    private static final Class<?> UNMODIFIABLE_LIST =
+            Collections.unmodifiableList(new ArrayList<Object>()).getClass();
+
+    private boolean frozen = false;
+    // Each list of maps, merged for getSubMap(). Built with the map (and
+    // again when it's deserialized) rather than serialized with it.
+    private transient Map<String,DefaultingMap> merged;
+
+    protected FrozenDefaultingMap(Map<String,Object> map, Map<String,Object> globals, Map<Object,Object> canon) {
+        super();
+        Map<String,Object> myGlobals = new HashMap<String,Object>();
+        if (globals != null) {
+            for (Map.Entry<String,Object> g : globals.entrySet()) {
+                if (!map.containsKey(g.getKey())) {
+                    myGlobals.put(g.getKey(), g.getValue());
+                    super.put(g.getKey(), g.getValue());
+                }
+            }
+        }
+        for (Map.Entry<String,Object> e : map.entrySet()) {
+            if (e.getKey().startsWith(GLOBALPREFIX)) {
+                myGlobals.put(canonical(e.getKey(), canon), freezeValue(e.getValue(), null, canon));
+            }
+        }
+        for (Map.Entry<String,Object> e : map.entrySet()) {
+            super.put(canonical(e.getKey(), canon), freezeValue(e.getValue(), myGlobals, canon));
+        }
+        merged = mergeLists();
+        frozen = true;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        merged = mergeLists();
+    }
+
+    /**
+     * Make a frozen copy of a map. Freezing a frozen map returns it.
+     * @param map - Map to copy
+     * @return the frozen copy
+     */
+    public static FrozenDefaultingMap freeze(Map<String,Object> map) {
+        if (map instanceof FrozenDefaultingMap) {
+            return (FrozenDefaultingMap)map;
+        }
+        return new FrozenDefaultingMap(map, null, new HashMap<Object,Object>());
+    }
+
+    /**
+     * Freeze the values of a map in place: nested maps become frozen
+     * copies, with the map's g. globals pushed into them, and lists become
+     * unmodifiable. Equal values are shared, as in a frozen copy. The map
+     * itself stays changeable, so this works on a map held in a final
+     * field. Values already frozen are left as they are.
+     * @param map - Map whose values to freeze
+     * @return number of values replaced
+     */
+    public static int freezeValues(DefaultingMap map) {
+        if (map instanceof FrozenDefaultingMap) {
+            return 0;
+        }
+        Map<Object,Object> canon = new HashMap<Object,Object>();
+        Map<String,Object> myGlobals = new HashMap<String,Object>();
+        for (Map.Entry<String,Object> e : map.entrySet()) {
+            if (e.getKey().startsWith(GLOBALPREFIX)) {
+                myGlobals.put(e.getKey(), freezeValue(e.getValue(), null, canon));
+            }
+        }
+        Map<String,Object> replaced = new HashMap<String,Object>();
+        for (Map.Entry<String,Object> e : map.entrySet()) {
+            Object v = e.getValue();
+            if (isFrozen(v)) {
+                continue;
+            }
+            Object f = freezeValue(v, myGlobals, canon);
+            if (f != v) {
+                replaced.put(e.getKey(), f);
+            }
+        }
+        // Put them back through put(), so the map's remembered sub-maps
+        // and flattened lists are dropped.
+        map.putAll(replaced);
+        return replaced.size();
+    }
+
+    /**
+     * Is a value already as frozen as freezeValue() would make it?
+     * @param v - The value
+     * @return true for frozen maps, and unmodifiable lists of frozen values.
+     */
+    protected static boolean isFrozen(Object v) {
+        if (v instanceof FrozenDefaultingMap) {
+            return true;
+        }
+        if (v instanceof List<?>) {
+            if (v.getClass() != UNMODIFIABLE_LIST) {
+                return false;
+            }
+            for (Object o : (List<?>)v) {
+                if ((o instanceof Map<?,?> || o instanceof List<?>) && !isFrozen(o)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return !(v instanceof Map<?,?>);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static Object freezeValue(Object v, Map<String,Object> globals, Map<Object,Object> canon) {
+        if (v instanceof FrozenDefaultingMap) {
+            return v;
+        }
+        if (v instanceof Map<?,?>) {
+            return new FrozenDefaultingMap((Map<String,Object>)v, globals, canon);
+        }
+        if (v instanceof List<?>) {
+            List<Object> copy = new ArrayList<Object>(((List<?>)v).size());
+            for (Object o : (List<Object>)v) {
+                copy.add(freezeValue(o, globals, canon));
+            }
+            return canonical(Collections.unmodifiableList(copy), canon);
+        }
+        if ((v instanceof String) || (v instanceof Number) || (v instanceof Boolean)) {
+            return canonical(v, canon);
+        }
+        return v;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static <T> T canonical(T v, Map<Object,Object> canon) {
+        if (v instanceof String) {
+            v = (T)StringPool.intern((String)v);
+        }
+        Object c = canon.get(v);
+        if (c == null) {
+            canon.put(v, v);
+            return v;
+        }
+        return (T)c;
+    }
+
+    protected void checkFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("Configuration is frozen");
+        }
+    }
+
+    /**
+     * Nested maps were frozen with this map's globals, so they're returned
+     * as they are. A list of maps was merged when the map was frozen.
+     */
+    @Override
+    public DefaultingMap getSubMap(String key) {
+        Object o = get(key);
+        if (o instanceof DefaultingMap) {
+            return (DefaultingMap)o;
+        }
+        return (o instanceof List<?>) ? merged.get(key) : null;
+    }
+
+    @Override
+    protected boolean isChangeable() {
+        return !frozen;
+    }
+
+    /**
+     * Merge each list of maps into a frozen map, with this map's globals.
+     * @return merged maps by key
+     */
+    protected Map<String,DefaultingMap> mergeLists() {
+        Map<String,DefaultingMap> ret = null;
+        for (Map.Entry<String,Object> e : super.entrySet()) {
+            if (!(e.getValue() instanceof List<?>)) {
+                continue;
+            }
+            DefaultingMap m = mergeList(e.getKey(), (List<?>)e.getValue());
+            if (m != null) {
+                if (ret == null) {
+                    ret = new HashMap<String,DefaultingMap>();
+                }
+                ret.put(e.getKey(), m);
+            }
+        }
+        return (ret == null) ? Collections.<String,DefaultingMap>emptyMap() : ret;
+    }
+
+    protected DefaultingMap mergeList(String key, List<?> list) {
+        DefaultingMap all = new DefaultingMap();
+        for (Object ent : list) {
+            if (!(ent instanceof Map<?,?>)) {
+                return null;
+            }
+            @SuppressWarnings("unchecked")
+            Map<String,Object> subMap = (Map<String,Object>)ent;
+            all.putAll(subMap);
+        }
+        Map<String,Object> globals = new HashMap<String,Object>();
+        for (Map.Entry<String,Object> entry : super.entrySet()) {
+            if (entry.getKey().startsWith(GLOBALPREFIX) && !key.equals(entry.getKey())) {
+                globals.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return new FrozenDefaultingMap(all, globals, new HashMap<Object,Object>());
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        checkFrozen();
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Object> m) {
+        checkFrozen();
+        super.putAll(m);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        checkFrozen();
+        return super.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        checkFrozen();
+        super.clear();
+    }
+
+    @Override
+    public void mergeMap(DefaultingMap updater) {
+        checkFrozen();
+        super.mergeMap(updater);
+    }
+
+    @Override
+    public Set<Map.Entry<String,Object>> entrySet() {
+        return frozen ? Collections.unmodifiableSet(super.entrySet()) : super.entrySet();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return frozen ? Collections.unmodifiableSet(super.keySet()) : super.keySet();
+    }
+
+    @Override
+    public Collection<Object> values() {
+        return frozen ? Collections.unmodifiableCollection(super.values()) : super.values();
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.utils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A HyperLogLog distinct-count sketch. Memory is fixed at 2^precision
+ * bytes no matter how many values are offered, and two sketches with
+ * the same precision can be merged. The standard error of the estimate
+ * is roughly 1.04/sqrt(2^precision): about 1.6% at precision 12.
+ */
+public class HyperLogLog implements Serializable {
+    private static final long serialVersionUID = 2764133585472270361L;
+
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+
+    protected final int precision;
+    protected final byte[] registers;
+
+    /**
+     * Create an empty sketch.
+     * @param precision - log2 of the number of registers, 4 to 16.
+     */
+    public HyperLogLog(int precision) {
+        if ((precision < MIN_PRECISION) || (precision > MAX_PRECISION)) {
+            throw new IllegalArgumentException("HyperLogLog precision must be between "
+                    + MIN_PRECISION + " and " + MAX_PRECISION + ": " + precision);
+        }
+        this.precision = precision;
+        registers = new byte[1 << precision];
+    }
+
+    /**
+     * Add a value to the sketch.
+     * @param o - Value to add. See hash64() for how values are hashed.
+     */
+    public void offer(Object o) {
+        offerHash(hash64(o));
+    }
+
+    /**
+     * Add a value that has already been hashed to 64 well-mixed bits.
+     * @param hash - Hash of the value.
+     */
+    public void offerHash(long hash) {
+        int idx = (int)(hash >>> (64 - precision));
+        // The low bit guarantees the leading-zero count stops within the remaining bits.
+        long w = (hash << precision) | (1L << (precision - 1));
+        byte rho = (byte)(Long.numberOfLeadingZeros(w) + 1);
+        if (rho > registers[idx]) {
+            registers[idx] = rho;
+        }
+    }
+
+    /**
+     * Estimate the number of distinct values offered.
+     * @return estimated distinct count
+     */
+    public long cardinality() {
+        int m = registers.length;
+        double sum = 0.0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) {
+                ++zeros;
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if ((estimate <= 2.5 * m) && (zeros > 0)) {
+            // Small range correction: linear counting is more accurate here.
+            estimate = m * Math.log((double)m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    protected static double alpha(int m) {
+        switch (m) {
+        case 16:
+            return 0.673;
+        case 32:
+            return 0.697;
+        case 64:
+            return 0.709;
+        default:
+            return 0.7213 / (1.0 + 1.079 / m);
+        }
+    }
+
+    /**
+     * Merge another sketch into this one. The result estimates the
+     * distinct count of everything offered to either sketch.
+     * @param other - Sketch to merge. Must have the same precision.
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Can't merge HyperLogLog of precision "
+                    + other.precision + " into " + precision);
+        }
+        byte[] o = other.registers;
+        for (int i = 0; i < registers.length; ++i) {
+            if (o[i] > registers[i]) {
+                registers[i] = o[i];
+            }
+        }
+    }
+
+    /**
+     * Merge a sketch in toBytes() form into this one, without building
+     * a HyperLogLog from it.
+     * @param bytes - Output of toBytes() from a sketch of the same precision.
+     */
+    public void mergeBytes(byte[] bytes) {
+        if ((bytes[0] != precision) || (bytes.length != registers.length + 1)) {
+            throw new IllegalArgumentException("Can't merge HyperLogLog bytes of precision "
+                    + bytes[0] + " into " + precision);
+        }
+        for (int i = 0; i < registers.length; ++i) {
+            if (bytes[i + 1] > registers[i]) {
+                registers[i] = bytes[i + 1];
+            }
+        }
+    }
+
+    /**
+     * Reset the sketch to empty, keeping its memory.
+     */
+    public void clear() {
+        Arrays.fill(registers, (byte)0);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Compact binary form, for emitting partial sketches in tuples.
+     * @return precision byte followed by the registers
+     */
+    public byte[] toBytes() {
+        byte[] ret = new byte[registers.length + 1];
+        ret[0] = (byte)precision;
+        System.arraycopy(registers, 0, ret, 1, registers.length);
+        return ret;
+    }
+
+    /**
+     * Rebuild a sketch from toBytes() output.
+     * @param bytes - Output of toBytes().
+     * @return the sketch
+     */
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        HyperLogLog ret = new HyperLogLog(bytes[0]);
+        if (bytes.length != ret.registers.length + 1) {
+            throw new IllegalArgumentException("Bad HyperLogLog length " + bytes.length);
+        }
+        System.arraycopy(bytes, 1, ret.registers, 0, ret.registers.length);
+        return ret;
+    }
+
+    /**
+     * 64 bit hash of a value, without allocating. Strings and byte arrays
+     * are hashed by content; integral numbers by value, so an Integer and
+     * a Long with the same value hash the same; anything else by hashCode().
+     * @param o - Value to hash. May be null.
+     * @return hash
+     */
+    public static long hash64(Object o) {
+        if (o == null) {
+            return 0L;
+        }
+        if (o instanceof String) {
+            String s = (String)o;
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); ++i) {
+                h = (h ^ s.charAt(i)) * 0x100000001b3L;
+            }
+            return fmix64(h);
+        }
+        if ((o instanceof Long) || (o instanceof Integer) || (o instanceof Short) || (o instanceof Byte)) {
+            return fmix64(((Number)o).longValue());
+        }
+        if (o instanceof Number) {
+            return fmix64(Double.doubleToLongBits(((Number)o).doubleValue()));
+        }
+        if (o instanceof byte[]) {
+            long h = 0xcbf29ce484222325L;
+            for (byte b : (byte[])o) {
+                h = (h ^ (b & 0xff)) * 0x100000001b3L;
+            }
+            return fmix64(h);
+        }
+        return fmix64(o.hashCode());
+    }
+
+    /**
+     * Murmur3 64 bit finalizer; spreads the bits of k over the whole word.
+     */
+    protected static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.utils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving top-K summary (Metwally et al.). It tracks at most
+ * capacity items; when a new item arrives and the summary is full, the
+ * item with the smallest count is replaced and the newcomer inherits
+ * that count as its error bound. Any item whose true count exceeds
+ * total/capacity is guaranteed to be present. Counters are kept in a
+ * min-heap so updates are O(log capacity), and the summary is mergeable.
+ * @param <T> - Item type
+ */
+public class SpaceSaving<T> implements Serializable {
+    private static final long serialVersionUID = -4183785269658563203L;
+
+    /**
+     * One tracked item. count is an over-estimate of the true count by
+     * at most error.
+     * @param <T> - Item type
+     */
+    public static class Counter<T> implements Serializable {
+        private static final long serialVersionUID = 2298733549616124085L;
+        protected T item;
+        protected long count;
+        protected long error;
+        protected int pos;
+
+        protected Counter(T item, long count, long error) {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return item + "=" + count + "(+-" + error + ")";
+        }
+    }
+
+    protected final int capacity;
+    protected final Map<T,Counter<T>> counters;
+    protected final Counter<T>[] heap;
+    protected int size = 0;
+
+    /**
+     * @param capacity - Most items to track.
+     */
+    public SpaceSaving(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("SpaceSaving capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        counters = new HashMap<T,Counter<T>>(capacity * 2);
+        @SuppressWarnings("unchecked")
+        Counter<T>[] h = (Counter<T>[])new Counter<?>[capacity];
+        heap = h;
+    }
+
+    /**
+     * Count one occurrence of an item.
+     * @param item - The item.
+     */
+    public void offer(T item) {
+        offer(item, 1);
+    }
+
+    /**
+     * Count an item with a weight.
+     * @param item - The item.
+     * @param incr - Amount to add to its count; must be positive, since
+     * counts only grow.
+     */
+    public void offer(T item, long incr) {
+        if (incr <= 0) {
+            throw new IllegalArgumentException("SpaceSaving weight must be positive: " + incr);
+        }
+        Counter<T> c = counters.get(item);
+        if (c != null) {
+            c.count += incr;
+            siftDown(c.pos);
+        }
+        else if (size < capacity) {
+            c = new Counter<T>(item, incr, 0);
+            counters.put(item, c);
+            c.pos = size;
+            heap[size++] = c;
+            siftUp(c.pos);
+        }
+        else {
+            // Replace the smallest counter, reusing it for the new item.
+            c = heap[0];
+            counters.remove(c.item);
+            c.item = item;
+            c.error = c.count;
+            c.count += incr;
+            counters.put(item, c);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Smallest tracked count, which bounds the count of any untracked item.
+     * @return minimum count, or 0 if the summary isn't full
+     */
+    public long minCount() {
+        return (size < capacity) ? 0 : heap[0].count;
+    }
+
+    /**
+     * The top items, highest count first.
+     * @param n - How many to return.
+     * @return up to n counters
+     */
+    public List<Counter<T>> top(int n) {
+        List<Counter<T>> ret = new ArrayList<Counter<T>>(size);
+        for (int i = 0; i < size; ++i) {
+            ret.add(heap[i]);
+        }
+        Collections.sort(ret, new Comparator<Counter<T>>() {
+            @Override
+            public int compare(Counter<T> a, Counter<T> b) {
+                return (a.count < b.count) ? 1 : ((a.count == b.count) ? 0 : -1);
+            }
+        });
+        return (ret.size() > n) ? ret.subList(0, n) : ret;
+    }
+
+    /**
+     * Merge another summary into this one (Agarwal et al., "Mergeable
+     * Summaries"). An item missing from a full summary is assumed to have
+     * that summary's minimum count, which is also added to its error.
+     * @param other - Summary to merge.
+     */
+    public void merge(SpaceSaving<T> other) {
+        long myMin = minCount();
+        long otherMin = other.minCount();
+        Map<T,Counter<T>> all = new HashMap<T,Counter<T>>((size + other.size) * 2);
+        for (int i = 0; i < size; ++i) {
+            Counter<T> c = heap[i];
+            Counter<T> o = other.counters.get(c.item);
+            all.put(c.item, new Counter<T>(c.item,
+                    c.count + ((o == null) ? otherMin : o.count),
+                    c.error + ((o == null) ? otherMin : o.error)));
+        }
+        for (int i = 0; i < other.size; ++i) {
+            Counter<T> o = other.heap[i];
+            if (!all.containsKey(o.item)) {
+                all.put(o.item, new Counter<T>(o.item, o.count + myMin, o.error + myMin));
+            }
+        }
+
+        List<Counter<T>> merged = new ArrayList<Counter<T>>(all.values());
+        clear();
+        for (Counter<T> c : merged) {
+            if (size < capacity) {
+                counters.put(c.item, c);
+                c.pos = size;
+                heap[size++] = c;
+                siftUp(c.pos);
+            }
+            else if (c.count > heap[0].count) {
+                counters.remove(heap[0].item);
+                counters.put(c.item, c);
+                c.pos = 0;
+                heap[0] = c;
+                siftDown(0);
+            }
+        }
+    }
+
+    public void clear() {
+        counters.clear();
+        for (int i = 0; i < size; ++i) {
+            heap[i] = null;
+        }
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    protected void siftUp(int pos) {
+        Counter<T> c = heap[pos];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            Counter<T> p = heap[parent];
+            if (p.count <= c.count) {
+                break;
+            }
+            heap[pos] = p;
+            p.pos = pos;
+            pos = parent;
+        }
+        heap[pos] = c;
+        c.pos = pos;
+    }
+
+    protected void siftDown(int pos) {
+        Counter<T> c = heap[pos];
+        int half = size >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int right = child + 1;
+            if ((right < size) && (heap[right].count < heap[child].count)) {
+                child = right;
+            }
+            if (c.count <= heap[child].count) {
+                break;
+            }
+            heap[pos] = heap[child];
+            heap[pos].pos = pos;
+            pos = child;
+        }
+        heap[pos] = c;
+        c.pos = pos;
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of canonical strings. Configuration keys ("class",
+ * "parallelism", "g.env", ...) and schema field names repeat across
+ * every component of a topology, but the yaml parser and deserialization
+ * make a new String for each occurrence. DefaultingMap passes its keys
+ * and flattened lists through the shared pool so there's one instance of
+ * each. That also means HashMap lookups with a pooled key match on
+ * identity without comparing characters.
+ *
+ * Unlike String.intern(), the pool has a fixed capacity. Once it's full,
+ * strings not already in it are returned as they are. Long strings aren't
+ * pooled at all, since they're unlikely to be keys or field names.
+ */
+public class StringPool {
+    public static final int DEFAULT_MAX_SIZE = 1 << 16;
+    public static final int MAX_LENGTH = 256;
+
+    private static final StringPool shared = new StringPool(DEFAULT_MAX_SIZE);
+
+    protected final ConcurrentHashMap<String,String> pool;
+    protected final int maxSize;
+    protected final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Create a pool.
+     * @param maxSize - Maximum number of strings to keep.
+     */
+    public StringPool(int maxSize) {
+        this.maxSize = maxSize;
+        pool = new ConcurrentHashMap<String,String>(Math.min(maxSize, 1024));
+    }
+
+    /**
+     * Canonical instance of a string from the shared pool.
+     * @param s - A string, or null.
+     * @return the pooled instance equal to s, or s itself.
+     */
+    public static String intern(String s) {
+        return shared.canonical(s);
+    }
+
+    /**
+     * The shared pool.
+     * @return the pool used by intern().
+     */
+    public static StringPool getShared() {
+        return shared;
+    }
+
+    /**
+     * Canonical instance of a string.
+     * @param s - A string, or null.
+     * @return the pooled instance equal to s, or s itself if it isn't pooled.
+     */
+    public String canonical(String s) {
+        if ((s == null) || (s.length() > MAX_LENGTH)) {
+            return s;
+        }
+        String c = pool.get(s);
+        if (c != null) {
+            return c;
+        }
+        if (size.get() >= maxSize) {
+            return s;
+        }
+        c = pool.putIfAbsent(s, s);
+        if (c != null) {
+            return c;
+        }
+        size.incrementAndGet();
+        return s;
+    }
+
+    /**
+     * Number of strings in the pool.
+     * @return pool size
+     */
+    public int size() {
+        return size.get();
+    }
+}
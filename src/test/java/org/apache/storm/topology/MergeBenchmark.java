@@ -0,0 +1,202 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.utils.DefaultingMap;
+
+/**
+ * Rough timing of mergeYaml()/patchSchemas() against the original
+ * one-override-at-a-time merge and HashSet schema patch. This isn't
+ * a unit test; run it by hand:
+ *
+ *     java -cp &lt;test classpath&gt; org.apache.storm.topology.MergeBenchmark [components] [overrides]
+ */
+public class MergeBenchmark {
+
+    protected static final int ROUNDS = 200;
+
+    /**
+     * Build a base yaml with the given number of bolts, each with a
+     * handful of settings and a 200 field schema.
+     */
+    protected static Map<String,Object> makeBase(int components) {
+        Map<String,Object> bolts = new LinkedHashMap<String,Object>();
+        for (int c = 0; c < components; ++c) {
+            Map<String,Object> bolt = new LinkedHashMap<String,Object>();
+            bolt.put("class", "com.example.Bolt" + c);
+            bolt.put("parallelism", 4);
+            bolt.put("throttle", 0.5);
+            List<Object> schema = new ArrayList<Object>();
+            for (int f = 0; f < 200; ++f) {
+                schema.add("field" + f);
+            }
+            bolt.put("schema", schema);
+            bolts.put("Bolt" + c, bolt);
+        }
+        Map<String,Object> yaml = new LinkedHashMap<String,Object>();
+        yaml.put("bolts", bolts);
+        return yaml;
+    }
+
+    /**
+     * Build an override that touches every bolt and patches every schema.
+     */
+    protected static Map<String,Object> makeOverride(int components, int which) {
+        Map<String,Object> bolts = new LinkedHashMap<String,Object>();
+        Map<String,Object> patches = new LinkedHashMap<String,Object>();
+        for (int c = 0; c < components; ++c) {
+            Map<String,Object> bolt = new LinkedHashMap<String,Object>();
+            bolt.put("parallelism", which + 1);
+            bolt.put("env" + which, "x");
+            bolts.put("Bolt" + c, bolt);
+
+            Map<String,Object> patch = new HashMap<String,Object>();
+            List<Object> adds = new ArrayList<Object>();
+            adds.add("extra" + which);
+            patch.put("add", adds);
+            List<Object> removes = new ArrayList<Object>();
+            removes.add("field" + which);
+            patch.put("remove", removes);
+            patches.put("bolts>Bolt" + c + ">schema", patch);
+        }
+        Map<String,Object> yaml = new LinkedHashMap<String,Object>();
+        yaml.put("bolts", bolts);
+        yaml.put("listpatch", patches);
+        return yaml;
+    }
+
+    /**
+     * The merge as it was before overrides were applied as a stack.
+     */
+    @SuppressWarnings("unchecked")
+    protected static void legacyMerge(Map<String,Object> yaml, Map<String,Object> override) {
+        for (Map.Entry<String,Object> e : override.entrySet()) {
+            String k = e.getKey();
+            Object v = e.getValue();
+            if (v instanceof Map<?,?>) {
+                Map<String,Object> subMap = (Map<String,Object>)v;
+                Object ov = yaml.get(k);
+                if (!(ov instanceof Map<?,?>)) {
+                    yaml.put(k, subMap);
+                }
+                else {
+                    legacyMerge((Map<String,Object>)ov, subMap);
+                }
+            }
+            else {
+                yaml.put(k, v);
+            }
+        }
+    }
+
+    /**
+     * The schema patch as it was before schemas were kept ordered.
+     */
+    @SuppressWarnings("unchecked")
+    protected static void legacyPatch(Map<String,Object> yaml) {
+        Map<String,Object> patches = (Map<String,Object>)yaml.get("listpatch");
+        for (Map.Entry<String,Object> e : patches.entrySet()) {
+            DefaultingMap patcher = new DefaultingMap((Map<String,Object>)e.getValue());
+            String sects[] = e.getKey().split(">");
+            Map<String,Object> tgt = yaml;
+            for (int i = 0; i < sects.length - 1; ++i) {
+                tgt = (Map<String,Object>)tgt.get(sects[i]);
+            }
+            String finalSect = sects[sects.length - 1];
+            Set<String> schema = new HashSet<String>(new DefaultingMap(tgt).getFlattenedList(finalSect));
+            schema.addAll(patcher.getFlattenedList("add"));
+            schema.removeAll(patcher.getFlattenedList("remove"));
+            tgt.put(finalSect, new ArrayList<String>(schema));
+        }
+    }
+
+    /**
+     * Fresh copies of base and overrides, since merging consumes both.
+     */
+    @SuppressWarnings("unchecked")
+    protected static Object deepCopy(Object o) {
+        if (o instanceof Map<?,?>) {
+            Map<String,Object> ret = new LinkedHashMap<String,Object>();
+            for (Map.Entry<String,Object> e : ((Map<String,Object>)o).entrySet()) {
+                ret.put(e.getKey(), deepCopy(e.getValue()));
+            }
+            return ret;
+        }
+        if (o instanceof List<?>) {
+            List<Object> ret = new ArrayList<Object>();
+            for (Object i : (List<Object>)o) {
+                ret.add(deepCopy(i));
+            }
+            return ret;
+        }
+        return o;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static long run(boolean legacy, Map<String,Object> base, List<Map<String,Object>> overrides) {
+        long total = 0;
+        for (int r = 0; r < ROUNDS; ++r) {
+            Map<String,Object> yaml = (Map<String,Object>)deepCopy(base);
+            List<Map<String,Object>> stack = (List<Map<String,Object>>)deepCopy(overrides);
+            long start = System.nanoTime();
+            if (legacy) {
+                for (Map<String,Object> o : stack) {
+                    legacyMerge(yaml, o);
+                }
+                legacyPatch(yaml);
+            }
+            else {
+                TopoLoader.mergeYaml(yaml, stack);
+                TopoLoader.patchSchemas(yaml);
+            }
+            total += System.nanoTime() - start;
+        }
+        return total / ROUNDS;
+    }
+
+    public static void main(String[] args) {
+        int components = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+        int nOverrides = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+
+        Map<String,Object> base = makeBase(components);
+        List<Map<String,Object>> overrides = new ArrayList<Map<String,Object>>();
+        for (int i = 0; i < nOverrides; ++i) {
+            overrides.add(makeOverride(components, i));
+        }
+
+        // Warm up both paths before timing.
+        run(true, base, overrides);
+        run(false, base, overrides);
+
+        long legacy = run(true, base, overrides);
+        long stacked = run(false, base, overrides);
+        System.out.printf("%d components, %d overrides%n", components, nOverrides);
+        System.out.printf("legacy : %8.3f ms%n", legacy / 1e6);
+        System.out.printf("stacked: %8.3f ms%n", stacked / 1e6);
+    }
+}
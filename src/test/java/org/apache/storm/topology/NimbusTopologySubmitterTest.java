@@ -0,0 +1,58 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+
+public class NimbusTopologySubmitterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testJarChanged() throws Exception {
+        File jar = tmp.newFile("topology.jar");
+        FileOutputStream out = new FileOutputStream(jar);
+        out.write(new byte[] {1, 2, 3});
+        out.close();
+
+        NimbusTopologySubmitter submitter = new NimbusTopologySubmitter(jar.getPath());
+        submitter.checkJar();
+
+        // A rebuilt jar, as a deploy would leave behind.
+        out = new FileOutputStream(jar, true);
+        out.write(new byte[] {4});
+        out.close();
+        try {
+            submitter.submit("Topo", new HashMap<String,Object>(), null, null);
+            Assert.fail("Submitted with a changed jar");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("Restart"));
+        }
+        submitter.close();
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cold-start time of bin/topoloader with and without its class data
+ * sharing archive. Each run is a new JVM doing a --dryrun build of the
+ * given topology, so this times JVM startup, class loading and the
+ * build, but not submission. Build the archive first with
+ * "topoloader --cds-dump". This isn't a unit test; run it by hand:
+ *
+ *     java -cp &lt;test classpath&gt; org.apache.storm.topology.StartupBenchmark &lt;launcher&gt; &lt;runs&gt; [TopoLoader options] &lt;yaml&gt;
+ */
+public class StartupBenchmark {
+
+    /**
+     * Run the launcher once.
+     * @return wall time in nanoseconds
+     */
+    protected static long run(String launcher, boolean shared, List<String> args) throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<String>();
+        cmd.add(launcher);
+        cmd.add("--dryrun");
+        cmd.addAll(args);
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        if (!shared) {
+            pb.environment().put("TOPOLOADER_CDS", "off");
+        }
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(new File("/dev/null"));
+        long start = System.nanoTime();
+        int rc = pb.start().waitFor();
+        long elapsed = System.nanoTime() - start;
+        if (rc != 0) {
+            throw new IllegalStateException(cmd + " exited with " + rc);
+        }
+        return elapsed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("usage: StartupBenchmark <launcher> <runs> [TopoLoader options] <yaml>");
+            System.exit(1);
+        }
+        String launcher = args[0];
+        int runs = Integer.parseInt(args[1]);
+        List<String> loaderArgs = Arrays.asList(args).subList(2, args.length);
+
+        // One of each to warm the file cache, then alternate so drift hits both alike.
+        run(launcher, false, loaderArgs);
+        run(launcher, true, loaderArgs);
+
+        long[] total = new long[2];
+        long[] min = {Long.MAX_VALUE, Long.MAX_VALUE};
+        for (int i = 0; i < runs; ++i) {
+            for (int s = 0; s < 2; ++s) {
+                long t = run(launcher, s == 1, loaderArgs);
+                total[s] += t;
+                min[s] = Math.min(min[s], t);
+            }
+        }
+        System.out.printf("%d runs each%n", runs);
+        System.out.printf("no archive: mean %8.1f ms, min %8.1f ms%n", total[0] / 1e6 / runs, min[0] / 1e6);
+        System.out.printf("archive   : mean %8.1f ms, min %8.1f ms%n", total[1] / 1e6 / runs, min[1] / 1e6);
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology;
+
+import backtype.storm.Config;
+import backtype.storm.generated.StormTopology;
+
+import org.apache.storm.topology.scheduler.SpreadScheduler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class TopoLoaderBuildTest {
+    protected static final String testYamlFile = TopoLoaderTest.testYamlFile;
+    protected static final String testOverride = TopoLoaderTest.testOverride;
+
+    @Test
+    public void testSpec() {
+        TopologySpec spec = new TopologySpec(testYamlFile);
+        TopologySpec named = spec.withName("A").withWorkers(2).withOverrides(Arrays.asList(testOverride));
+        Assert.assertNull(spec.getName());
+        Assert.assertEquals(-1, spec.getWorkers());
+        Assert.assertTrue(spec.getOverrides().isEmpty());
+        Assert.assertEquals("A", named.getName());
+        Assert.assertEquals(2, named.getWorkers());
+        Assert.assertEquals(Arrays.asList(testOverride), named.getOverrides());
+        Assert.assertEquals(testYamlFile, named.getYamlPath());
+        Assert.assertNull(named.getYaml());
+        Assert.assertEquals(-1.0, spec.getScale(), 0.0);
+        Assert.assertEquals(0.5, spec.withScale(0.5).getScale(), 0.0);
+        for (double bad : new double[] {0, -1, Double.NaN}) {
+            try {
+                spec.withScale(bad);
+                Assert.fail("scale " + bad + " accepted");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+
+        // A spec keeps its own copy of yaml.
+        Map<String,Object> yaml = TopoLoader.readYaml(testYamlFile);
+        TopologySpec fromYaml = new TopologySpec(yaml);
+        yaml.put("workers", 99);
+        Assert.assertEquals(4, fromYaml.getYaml().get("workers"));
+        fromYaml.getYaml().put("workers", 98);
+        Assert.assertEquals(4, fromYaml.getYaml().get("workers"));
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+        BuiltTopology built = TopoLoader.build(new TopologySpec(testYamlFile).withName("A").withDebug(true), null);
+        Assert.assertEquals("A", built.getName());
+        Assert.assertEquals(4, ((Number)built.getStormConfig().get(Config.TOPOLOGY_WORKERS)).intValue());
+        Assert.assertEquals(Boolean.TRUE, built.getStormConfig().get(Config.TOPOLOGY_DEBUG));
+        Assert.assertTrue(built.getSpreads().contains("Spout"));
+        Assert.assertTrue(built.getTopology().get_spouts().containsKey("Spout"));
+        try {
+            built.getStormConfig().put(Config.TOPOLOGY_WORKERS, 1);
+            Assert.fail("config can be changed");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        built = TopoLoader.build(new TopologySpec(testYamlFile).withName("B").withWorkers(2), new YamlCache());
+        Assert.assertEquals(2, ((Number)built.getStormConfig().get(Config.TOPOLOGY_WORKERS)).intValue());
+        Assert.assertNull(built.getStormConfig().get(Config.TOPOLOGY_DEBUG));
+    }
+
+    @Test
+    public void testBuildFailure() throws Exception {
+        // No name in the yaml or the spec.
+        try {
+            TopoLoader.build(new TopologySpec(testYamlFile), null);
+            Assert.fail("built without a name");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("A topology name must be supplied"));
+        }
+        try {
+            TopoLoader.build(new TopologySpec("./no/such/topology.yaml").withName("A"), null);
+            Assert.fail("built without yaml");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("Can't open"));
+            Assert.assertTrue(e.getCause() instanceof IOException);
+            Assert.assertTrue(e.getCause().getCause() instanceof FileNotFoundException);
+        }
+        try {
+            TopoLoader.build(new TopologySpec(testYamlFile).withName("A")
+                    .withOverrides(Arrays.asList("./no/such/override.yaml")), new YamlCache());
+            Assert.fail("built without an override");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("override.yaml"));
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Map<String,Object> yaml = TopoLoader.readYaml(testYamlFile);
+        yaml.put("listpatch", Collections.singletonMap("nosuch>schema", Collections.emptyMap()));
+        try {
+            TopoLoader.build(new TopologySpec(yaml).withName("A"), null);
+            Assert.fail("built with a bad listpatch");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("listpatch section nosuch>schema not found"));
+        }
+    }
+
+    /**
+     * Lists and maps nested in the config can't be changed either.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBuiltConfigFrozen() {
+        List<List<String>> colocations = new ArrayList<List<String>>();
+        colocations.add(new ArrayList<String>(Arrays.asList("a", "b")));
+        Map<String,Object> nested = new HashMap<String,Object>();
+        nested.put("list", new ArrayList<String>(Arrays.asList("x")));
+        Map<String,Object> conf = new HashMap<String,Object>();
+        conf.put(SpreadScheduler.COLOCATE, colocations);
+        conf.put("nested", nested);
+        BuiltTopology built = new BuiltTopology("A", new StormTopology(), conf);
+
+        // Later changes to what it was built from don't show through.
+        colocations.get(0).add("c");
+        ((List<String>)nested.get("list")).add("y");
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a", "b")), built.getColocations());
+        Map<String,Object> frozen = (Map<String,Object>)built.getStormConfig().get("nested");
+        Assert.assertEquals(Arrays.asList("x"), frozen.get("list"));
+
+        try {
+            built.getColocations().get(0).add("d");
+            Assert.fail("colocation group can be changed");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            frozen.put("z", 1);
+            Assert.fail("nested map can be changed");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            ((List<String>)frozen.get("list")).add("z");
+            Assert.fail("list in nested map can be changed");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Many threads building at once, from shared specs and a shared cache,
+     * each get what a build on its own would.
+     */
+    @Test
+    public void testConcurrentBuilds() throws Exception {
+        final YamlCache cache = new YamlCache();
+        final TopologySpec fromPath = new TopologySpec(testYamlFile);
+        final TopologySpec fromYaml = new TopologySpec(TopoLoader.readYaml(testYamlFile)).withOverrides(Arrays.asList(testOverride));
+        final Map<String,Object> yamlBefore = fromYaml.getYaml();
+        final BuiltTopology expectPath = TopoLoader.build(fromPath.withName("Expect"), null);
+        final BuiltTopology expectYaml = TopoLoader.build(fromYaml.withName("Expect"), null);
+
+        int threads = 16;
+        int builds = 400;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final CountDownLatch go = new CountDownLatch(1);
+        List<Future<BuiltTopology>> results = new ArrayList<Future<BuiltTopology>>();
+        for (int i = 0; i < builds; ++i) {
+            final TopologySpec spec = ((i % 2 == 0) ? fromPath : fromYaml).withName("T" + i).withWorkers(1 + (i % 7));
+            results.add(pool.submit(new Callable<BuiltTopology>() {
+                @Override
+                public BuiltTopology call() throws Exception {
+                    go.await();
+                    return TopoLoader.build(spec, cache);
+                }
+            }));
+        }
+        go.countDown();
+        try {
+            for (int i = 0; i < builds; ++i) {
+                BuiltTopology built = results.get(i).get();
+                BuiltTopology expect = (i % 2 == 0) ? expectPath : expectYaml;
+                Assert.assertEquals("T" + i, built.getName());
+                Assert.assertEquals(1 + (i % 7), ((Number)built.getStormConfig().get(Config.TOPOLOGY_WORKERS)).intValue());
+                Assert.assertEquals(expect.getTopology().get_spouts().keySet(), built.getTopology().get_spouts().keySet());
+                Assert.assertEquals(expect.getTopology().get_bolts().keySet(), built.getTopology().get_bolts().keySet());
+                Assert.assertEquals(expect.getSpreads(), built.getSpreads());
+                Assert.assertEquals(expect.getColocations(), built.getColocations());
+                for (String bolt : expect.getTopology().get_bolts().keySet()) {
+                    Assert.assertEquals(expect.getTopology().get_bolts().get(bolt).get_common().get_inputs(),
+                            built.getTopology().get_bolts().get(bolt).get_common().get_inputs());
+                    Assert.assertEquals(expect.getTopology().get_bolts().get(bolt).get_common().get_parallelism_hint(),
+                            built.getTopology().get_bolts().get(bolt).get_common().get_parallelism_hint());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        // Nothing shared was changed by the builds.
+        Assert.assertEquals(yamlBefore, fromYaml.getYaml());
+        Assert.assertEquals(Collections.singletonList(testOverride), fromYaml.getOverrides());
+        Assert.assertEquals(2, cache.size());
+    }
+}
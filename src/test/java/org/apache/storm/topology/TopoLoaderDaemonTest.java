@@ -0,0 +1,217 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology;
+
+import backtype.storm.Config;
+
+import org.json.simple.JSONValue;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class TopoLoaderDaemonTest {
+    protected static final String testYamlFile = TopoLoaderTest.testYamlFile;
+
+    protected TopoLoaderTest.RecordingSubmitter recorder;
+    protected TopoLoaderDaemon daemon;
+
+    @Before
+    public void setUp() throws Exception {
+        recorder = new TopoLoaderTest.RecordingSubmitter();
+        daemon = new TopoLoaderDaemon(0, 4, recorder);
+        daemon.start();
+    }
+
+    @After
+    public void tearDown() {
+        daemon.stop();
+    }
+
+    /**
+     * Send a request; returns the response code and body.
+     */
+    protected Object[] request(String method, String path, String body) throws Exception {
+        return request(method, path, body, daemon.getToken());
+    }
+
+    protected Object[] request(String method, String path, String body, String token) throws Exception {
+        URL url = new URL("http://127.0.0.1:" + daemon.getPort() + path);
+        HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+        conn.setRequestMethod(method);
+        if (token != null) {
+            conn.setRequestProperty(TopoLoaderDaemon.TOKEN_HEADER, token);
+        }
+        if (body != null) {
+            conn.setDoOutput(true);
+            OutputStream out = conn.getOutputStream();
+            out.write(body.getBytes("UTF-8"));
+            out.close();
+        }
+        int code = conn.getResponseCode();
+        InputStream in = (code < 400) ? conn.getInputStream() : conn.getErrorStream();
+        StringBuilder sb = new StringBuilder();
+        InputStreamReader r = new InputStreamReader(in, "UTF-8");
+        char[] buf = new char[1024];
+        for (int n; (n = r.read(buf)) > 0; ) {
+            sb.append(buf, 0, n);
+        }
+        r.close();
+        return new Object[] {code, sb.toString()};
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Map<String,Object> submit(String... args) throws Exception {
+        Object[] resp = request("POST", "/submit", JSONValue.toJSONString(Arrays.asList(args)));
+        Assert.assertEquals(200, resp[0]);
+        return (Map<String,Object>)JSONValue.parse((String)resp[1]);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConcurrentSubmits() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<Map<String,Object>>> results = new ArrayList<Future<Map<String,Object>>>();
+        for (int i = 0; i < 8; ++i) {
+            final String name = "Topo" + i;
+            final String workers = Integer.toString(i + 1);
+            results.add(pool.submit(new Callable<Map<String,Object>>() {
+                @Override
+                public Map<String,Object> call() throws Exception {
+                    return submit("-n", name, "-w", workers, testYamlFile);
+                }
+            }));
+        }
+        for (int i = 0; i < results.size(); ++i) {
+            Map<String,Object> resp = results.get(i).get();
+            Assert.assertEquals(0, ((Number)resp.get("exit")).intValue());
+            // Each request sees only its own output.
+            String output = (String)resp.get("output");
+            Assert.assertTrue(output, output.contains("Submitting topology Topo" + i + "\n"));
+            for (int j = 0; j < results.size(); ++j) {
+                if (j != i) {
+                    Assert.assertFalse(output, output.contains("Topo" + j + "\n"));
+                }
+            }
+        }
+        pool.shutdown();
+
+        // Each request had its own storm config.
+        Assert.assertEquals(8, recorder.submitted.size());
+        for (int i = 0; i < 8; ++i) {
+            Assert.assertEquals(i + 1, ((Number)recorder.submitted.get("Topo" + i).get(Config.TOPOLOGY_WORKERS)).intValue());
+        }
+        // Requests don't close the shared submitter.
+        Assert.assertFalse(recorder.closed);
+
+        // The yaml was read once for all of them.
+        Object[] resp = request("GET", "/status", null);
+        Assert.assertEquals(200, resp[0]);
+        Map<String,Object> status = (Map<String,Object>)JSONValue.parse((String)resp[1]);
+        Assert.assertEquals(8, ((Number)status.get("requests")).intValue());
+        Assert.assertEquals(0, ((Number)status.get("active")).intValue());
+        Assert.assertEquals(1, ((Number)status.get("cachedYaml")).intValue());
+
+        daemon.stop();
+        Assert.assertTrue(recorder.closed);
+    }
+
+    @Test
+    public void testFailures() throws Exception {
+        // A rejected submission is reported in the output.
+        Map<String,Object> resp = submit("-n", "BadSubmit", testYamlFile);
+        Assert.assertTrue((String)resp.get("output"), ((String)resp.get("output")).contains("rejected BadSubmit"));
+
+        Assert.assertEquals(1, ((Number)submit("./no/such/topology.yaml").get("exit")).intValue());
+
+        Assert.assertEquals(405, request("GET", "/submit", null)[0]);
+        Assert.assertEquals(400, request("POST", "/submit", "{\"not\": \"a list\"}")[0]);
+        Assert.assertEquals(400, request("POST", "/submit", "[1, 2]")[0]);
+        Assert.assertEquals(400, request("POST", "/submit", "[\"--local\", \"" + testYamlFile + "\"]")[0]);
+        Assert.assertTrue(recorder.submitted.isEmpty());
+    }
+
+    @Test
+    public void testToken() throws Exception {
+        Assert.assertEquals(64, daemon.getToken().length());
+        String args = JSONValue.toJSONString(Arrays.asList("-n", "NoToken", testYamlFile));
+        Assert.assertEquals(401, request("POST", "/submit", args, null)[0]);
+        Assert.assertEquals(403, request("POST", "/submit", args, "not" + daemon.getToken())[0]);
+        Assert.assertEquals(401, request("GET", "/status", null, null)[0]);
+        Assert.assertTrue(recorder.submitted.isEmpty());
+
+        // A given token is used as is.
+        TopoLoaderDaemon other = new TopoLoaderDaemon(0, 1, recorder, "s3cret");
+        other.start();
+        try {
+            Assert.assertEquals("s3cret", other.getToken());
+        } finally {
+            other.stop();
+        }
+    }
+
+    @Test
+    public void testAllowedOptions() throws Exception {
+        Assert.assertNull(TopoLoaderDaemon.checkArgs(Arrays.asList("-n", "T", "--workers", "3", "--overrides", "a.yaml,b.yaml",
+                "-p", "10", "--scale", "0.5", "-d", "--dryrun", "-i", "--profile", testYamlFile)));
+        for (String bad : new String[] {"--codegen", "--codegendir", "--profilejson", "--manifest",
+                "--local", "-l", "--threads", "--help", "--name=T"}) {
+            Object[] resp = request("POST", "/submit", JSONValue.toJSONString(Arrays.asList(bad, "x", testYamlFile)));
+            Assert.assertEquals(bad, 400, resp[0]);
+            Assert.assertTrue((String)resp[1], ((String)resp[1]).startsWith(bad));
+        }
+        // An option's value can't be left off.
+        Assert.assertEquals(400, request("POST", "/submit", JSONValue.toJSONString(Arrays.asList(testYamlFile, "-n")))[0]);
+        Assert.assertTrue(recorder.submitted.isEmpty());
+    }
+
+    @Test
+    public void testTokenFile() throws Exception {
+        File f = File.createTempFile("daemon", ".token");
+        try {
+            TopoLoaderDaemon.writeToken(f, "abc");
+            Assert.assertEquals("abc", new String(Files.readAllBytes(f.toPath()), "UTF-8"));
+            try {
+                Assert.assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(f.toPath()));
+            } catch (UnsupportedOperationException e) {
+                // Not a POSIX file system.
+            }
+        } finally {
+            f.delete();
+        }
+    }
+}
@@ -21,25 +21,74 @@ package org.apache.storm.topology;
 
 import backtype.storm.Config;
 import backtype.storm.generated.StormTopology;
+import org.json.simple.JSONValue;
+import backtype.storm.generated.SubmitOptions;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import org.apache.storm.topology.builder.GeneratedTopology;
+import org.apache.storm.topology.builder.LoadProfile;
 import org.apache.storm.topology.builder.Loader;
 import org.apache.storm.topology.builder.Loader.LoadFailure;
 import org.apache.storm.topology.builder.TestConfigurator;
 import org.apache.utils.DefaultingMap;
 
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class TopoLoaderTest {
     protected static final String testYamlFile = "./src/test/resources/topologies/testtopology.yaml";
     protected static final String testOverride = "./src/test/resources/topologies/testoverride.yaml";
 
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Records what would have been submitted.
+     */
+    public static class RecordingSubmitter implements ITopologySubmitter {
+        protected final Map<String,Map<String,Object>> submitted = new ConcurrentHashMap<String,Map<String,Object>>();
+        protected boolean closed = false;
+
+        @Override
+        public void submit(String name, Map<String,Object> stormConf, StormTopology topology, SubmitOptions options) throws Exception {
+            if (name.startsWith("Bad")) {
+                throw new Exception("rejected " + name);
+            }
+            submitted.put(name, stormConf);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * TopoLoader that submits a batch to a RecordingSubmitter.
+     */
+    public static class BatchLoader extends TopoLoader {
+        protected final RecordingSubmitter recorder = new RecordingSubmitter();
+
+        @Override
+        protected ITopologySubmitter getBatchSubmitter() {
+            return recorder;
+        }
+    }
+
 
     protected Map<String,Object> makeMap() {
         HashMap<String, Object> hm = new HashMap<String,Object>();
@@ -203,6 +252,111 @@ public class TopoLoaderTest {
         Assert.assertNull(nsm.get("smstr"));
     }
     
+    @Test
+    public void testMergeStack() {
+        // A stack of overrides applied in one pass must give the same
+        // result as applying them one at a time.
+        List<Map<String,Object>> stack = new ArrayList<Map<String,Object>>();
+
+        Map<String,Object> o1 = new HashMap<String,Object>();
+        HashMap<String,Object> sub1 = new HashMap<String,Object>();
+        sub1.put("a", "1");
+        sub1.put("b", "1");
+        o1.put("submap", sub1);
+        o1.put("int", 1);
+        stack.add(o1);
+
+        Map<String,Object> o2 = new HashMap<String,Object>();
+        HashMap<String,Object> sub2 = new HashMap<String,Object>();
+        sub2.put("deleteSection", true);
+        o2.put("submap", sub2);
+        HashMap<String,Object> new2 = new HashMap<String,Object>();
+        new2.put("x", "2");
+        o2.put("newSub", new2);
+        stack.add(o2);
+
+        Map<String,Object> o3 = new HashMap<String,Object>();
+        HashMap<String,Object> sub3 = new HashMap<String,Object>();
+        sub3.put("c", "3");
+        o3.put("submap", sub3);
+        HashMap<String,Object> new3 = new HashMap<String,Object>();
+        new3.put("y", "3");
+        o3.put("newSub", new3);
+        o3.put("string", null);
+        stack.add(o3);
+
+        Map<String,Object> hm = makeMap();
+        TopoLoader.mergeYaml(hm, stack);
+
+        Assert.assertEquals(1, hm.get("int"));
+        Assert.assertTrue(hm.containsKey("string"));
+        Assert.assertNull(hm.get("string"));
+        Map<String,Object> nsm = getSubMap(hm, "submap");
+        Assert.assertEquals(1, nsm.size());
+        Assert.assertEquals("3", nsm.get("c"));
+        nsm = getSubMap(hm, "newSub");
+        Assert.assertEquals("2", nsm.get("x"));
+        Assert.assertEquals("3", nsm.get("y"));
+    }
+
+    @Test
+    public void testPatchSchemaOrder() {
+        ArrayList<String> theSchema = new ArrayList<String>();
+        theSchema.add("f3");
+        theSchema.add("f1");
+        theSchema.add("f2");
+
+        DefaultingMap theBolt = new DefaultingMap();
+        theBolt.put("schema", theSchema);
+        DefaultingMap bolts = new DefaultingMap();
+        bolts.put("testBolt", theBolt);
+        DefaultingMap yaml = new DefaultingMap();
+        yaml.put("bolts", bolts);
+
+        DefaultingMap aPatch = new DefaultingMap();
+        ArrayList<String> adds = new ArrayList<String>();
+        adds.add("f0");
+        aPatch.put("add", adds);
+        ArrayList<String> removes = new ArrayList<String>();
+        removes.add("f1");
+        aPatch.put("remove", removes);
+        DefaultingMap patches = new DefaultingMap();
+        patches.put("bolts>testBolt>schema", aPatch);
+        yaml.put("listpatch", patches);
+
+        Assert.assertTrue(TopoLoader.patchSchemas(yaml));
+
+        // Existing fields keep their order, additions go on the end.
+        Assert.assertEquals(Arrays.asList("f3", "f2", "f0"), theBolt.get("schema"));
+    }
+
+    @Test
+    public void testPatchSharedSchema() {
+        // Two patch entries that reach the same schema through a shared
+        // section both apply.
+        DefaultingMap theBolt = new DefaultingMap();
+        theBolt.put("schema", new ArrayList<String>(Arrays.asList("f1", "f2", "f3")));
+        DefaultingMap bolts = new DefaultingMap();
+        bolts.put("a", theBolt);
+        bolts.put("b", theBolt);
+        DefaultingMap yaml = new DefaultingMap();
+        yaml.put("bolts", bolts);
+
+        DefaultingMap aPatch = new DefaultingMap();
+        aPatch.put("add", new ArrayList<String>(Arrays.asList("f4")));
+        aPatch.put("remove", new ArrayList<String>(Arrays.asList("f2")));
+        DefaultingMap bPatch = new DefaultingMap();
+        bPatch.put("add", new ArrayList<String>(Arrays.asList("f3")));
+        bPatch.put("remove", new ArrayList<String>(Arrays.asList("f1")));
+        DefaultingMap patches = new DefaultingMap();
+        patches.put("bolts>a>schema", aPatch);
+        patches.put("bolts>b>schema", bPatch);
+        yaml.put("listpatch", patches);
+
+        Assert.assertTrue(TopoLoader.patchSchemas(yaml));
+        Assert.assertEquals(Arrays.asList("f3", "f4"), theBolt.get("schema"));
+    }
+
     @Test
     public void testPatchSchema() {
         DefaultingMap yaml = new DefaultingMap();
@@ -278,4 +432,173 @@ public class TopoLoaderTest {
         Assert.assertEquals (0, tl.runLoader(args));
     }
 
+    @Test
+    public void testScale() throws Exception {
+        TopoLoader tl = new TopoLoader();
+        Assert.assertEquals(0, tl.runLoader(new String[] {"--dryrun", "-n", "TestTopo", "--scale", "0.5", testYamlFile}));
+        Assert.assertEquals(2, ((Number)tl.getStormConfig().get(Config.TOPOLOGY_WORKERS)).intValue());
+        Assert.assertEquals(4, tl.unscaledWorkers);
+        Assert.assertArrayEquals(new int[] {10, 5}, tl.scaling.get("Bolt1"));
+
+        // An explicit worker count isn't scaled.
+        tl = new TopoLoader();
+        Assert.assertEquals(0, tl.runLoader(new String[] {"--dryrun", "-n", "TestTopo", "--scale", "2", "-w", "3", testYamlFile}));
+        Assert.assertEquals(3, ((Number)tl.getStormConfig().get(Config.TOPOLOGY_WORKERS)).intValue());
+        Assert.assertArrayEquals(new int[] {10, 20}, tl.scaling.get("Bolt1"));
+
+        // g.scale in the yaml does the same, and --scale wins over it.
+        File scaled = tmp.newFile("scaled.yaml");
+        FileWriter w = new FileWriter(scaled);
+        w.write("g.scale: 2\n");
+        w.close();
+        BuiltTopology built = TopoLoader.build(new TopologySpec(testYamlFile).withName("A")
+                .withOverrides(Arrays.asList(scaled.getPath())), null);
+        Assert.assertEquals(8, ((Number)built.getStormConfig().get(Config.TOPOLOGY_WORKERS)).intValue());
+        Assert.assertEquals(20, built.getTopology().get_bolts().get("Bolt1").get_common().get_parallelism_hint());
+        built = TopoLoader.build(new TopologySpec(testYamlFile).withName("A")
+                .withOverrides(Arrays.asList(scaled.getPath())).withScale(0.25), null);
+        Assert.assertEquals(1, ((Number)built.getStormConfig().get(Config.TOPOLOGY_WORKERS)).intValue());
+        Assert.assertEquals(3, built.getTopology().get_bolts().get("Bolt1").get_common().get_parallelism_hint());
+
+        Assert.assertEquals(1, new TopoLoader().runLoader(new String[] {"--dryrun", "-n", "TestTopo", "--scale", "0", testYamlFile}));
+    }
+
+    @Test
+    public void testCodegen() throws Exception {
+        File dir = tmp.newFolder();
+        String args[] = {"--codegen", "com.example.TestTopo", "--codegendir", dir.getPath(),
+                "--overrides", testOverride, testYamlFile};
+        Assert.assertEquals(0, new TopoLoader().runLoader(args));
+        File src = new File(dir, "com/example/TestTopo.java");
+        Assert.assertTrue(src.isFile());
+
+        // The generated class builds the same topology from its own yaml.
+        Map<String,Object> yaml = TopoLoader.readYaml(testYamlFile);
+        TopoLoader.processOverrides(testOverride, yaml);
+        TopoLoader.patchSchemas(yaml);
+        yaml.remove("listpatch");
+        final Map<String,Object> expected = yaml;
+        String gargs[] = {"--dryrun", "-n", "TestTopo"};
+        TopoLoader tl = new TopoLoader() {
+            @Override
+            protected StormTopology buildTopology(String yamlPath, LoadProfile prof) throws LoadFailure {
+                Assert.assertNull(yamlPath);
+                Assert.assertEquals(expected, generatedYaml);
+                return super.buildTopology(yamlPath, prof);
+            }
+        };
+        tl.generatedYaml = yaml;
+        tl.factory = new GeneratedTopology() {};
+        Assert.assertEquals(0, tl.runLoader(gargs));
+
+        // A generated topology has its yaml built in.
+        tl = new TopoLoader();
+        tl.generatedYaml = yaml;
+        Assert.assertEquals(1, tl.runLoader(new String[] {"--dryrun", testYamlFile}));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testProfile() throws Exception {
+        File json = File.createTempFile("profile", ".json");
+        json.deleteOnExit();
+        String args[] = {"--dryrun", "-n", "TestTopo", "--profilejson", json.getPath(), testYamlFile};
+
+        TopoLoader tl = new TopoLoader();
+        Assert.assertEquals (0, tl.runLoader(args));
+
+        Map<String,Object> profile = (Map<String,Object>)JSONValue.parse(new FileReader(json));
+        Map<String,Object> phases = (Map<String,Object>)profile.get("phases");
+        for (String p : new String[] {"yaml", "patchSchemas", "load", "load.modules", "load.bolts", "createTopology"}) {
+            Assert.assertTrue("missing phase " + p, phases.containsKey(p));
+        }
+        List<Object> components = (List<Object>)profile.get("components");
+        Assert.assertEquals(4, components.size());
+        for (Object c : components) {
+            Assert.assertTrue(((Number)((Map<String,Object>)c).get("serializedBytes")).longValue() > 0);
+        }
+    }
+
+    @Test
+    public void testBatchManifest() throws Exception {
+        File manifest = tmp.newFile("manifest.yaml");
+        FileWriter w = new FileWriter(manifest);
+        w.write("topologies:\n"
+                + "  - -n A " + testYamlFile + "\n"
+                + "  - [-n, B, --overrides, " + testOverride + ", -w, '2', " + testYamlFile + "]\n"
+                + "  - -n C ./no/such/topology.yaml\n"
+                + "  - -n BadSubmit " + testYamlFile + "\n"
+                + "  - -n D --nosuchoption " + testYamlFile + "\n");
+        w.close();
+
+        BatchLoader tl = new BatchLoader();
+        Assert.assertEquals(1, tl.runLoader(new String[] {"--manifest", manifest.getPath(), "--threads", "3"}));
+        Assert.assertTrue(tl.recorder.closed);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("A", "B")), tl.recorder.submitted.keySet());
+        Assert.assertEquals(4, ((Number)tl.recorder.submitted.get("A").get(Config.TOPOLOGY_WORKERS)).intValue());
+        Assert.assertEquals(2, ((Number)tl.recorder.submitted.get("B").get(Config.TOPOLOGY_WORKERS)).intValue());
+    }
+
+    @Test
+    public void testBatchRejectedOptions() throws Exception {
+        File manifest = tmp.newFile("rejected.yaml");
+        FileWriter w = new FileWriter(manifest);
+        w.write("topologies:\n"
+                + "  - -n Good " + testYamlFile + "\n"
+                + "  - -n Local --local 10 " + testYamlFile + "\n"
+                + "  - -n Manifest --manifest " + manifest.getPath() + " " + testYamlFile + "\n"
+                + "  - -n Codegen --codegen a.B " + testYamlFile + "\n"
+                + "  - -n Threads --threads 2 " + testYamlFile + "\n"
+                + "  - -n Profile --profile " + testYamlFile + "\n"
+                + "  - -n ProfileJson --profilejson p.json " + testYamlFile + "\n");
+        w.close();
+
+        BatchLoader tl = new BatchLoader();
+        Assert.assertEquals(1, tl.runLoader(new String[] {"--manifest", manifest.getPath()}));
+        Assert.assertEquals(Collections.singleton("Good"), tl.recorder.submitted.keySet());
+
+        // Nor can a batch be profiled from the command line.
+        tl = new BatchLoader();
+        Assert.assertEquals(1, tl.runLoader(new String[] {"--profile", "--manifest", manifest.getPath()}));
+        Assert.assertTrue(tl.recorder.submitted.isEmpty());
+    }
+
+    @Test
+    public void testBatchArgs() throws Exception {
+        // Each yaml gets the command line options. Without a name in the yaml,
+        // none can be built.
+        BatchLoader tl = new BatchLoader();
+        Assert.assertEquals(1, tl.runLoader(new String[] {"--dryrun", testYamlFile, testYamlFile}));
+        Assert.assertEquals(1, tl.runLoader(new String[] {"-n", "A", testYamlFile, testYamlFile}));
+
+        File named = tmp.newFile("named.yaml");
+        FileWriter w = new FileWriter(named);
+        w.write("topologyname: Named\n");
+        w.close();
+        // But they can't all have the same name.
+        tl = new BatchLoader();
+        Assert.assertEquals(1, tl.runLoader(new String[] {"--overrides", named.getPath(), testYamlFile, testYamlFile}));
+        Assert.assertEquals(Collections.singleton("Named"), tl.recorder.submitted.keySet());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testYamlCache() {
+        YamlCache cache = new YamlCache();
+        Map<String,Object> y1 = cache.get(testYamlFile);
+        Map<String,Object> y2 = cache.get("./src/test/resources/topologies/../topologies/testtopology.yaml");
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(y1, y2);
+
+        // Changing one copy doesn't change others.
+        Map<String,Object> spout = (Map<String,Object>)((Map<String,Object>)y1.get("spouts")).get("Spout");
+        ((List<Object>)spout.get("schema")).add("extra");
+        spout.put("parallelism", 1);
+        Map<String,Object> y3 = cache.get(testYamlFile);
+        Assert.assertEquals(y2, y3);
+        Assert.assertFalse(y1.equals(y3));
+
+        Assert.assertNull(cache.get("./no/such/file.yaml"));
+    }
+
 }
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class YamlInternerTest {
+
+    protected Map<String,Object> component(List<Object> schema) {
+        Map<String,Object> c = new LinkedHashMap<String,Object>();
+        c.put("class", new String("com.example.Bolt"));
+        c.put("schema", schema);
+        return c;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSharing() {
+        // Equal, but not aliased.
+        List<Object> s1 = new ArrayList<Object>(Arrays.<Object>asList(new String("a"), Arrays.asList("b", "c")));
+        List<Object> s2 = new ArrayList<Object>(Arrays.<Object>asList(new String("a"), Arrays.asList("b", "c")));
+        Map<String,Object> bolts = new LinkedHashMap<String,Object>();
+        bolts.put("B1", component(s1));
+        bolts.put("B2", component(s2));
+        bolts.put("B3", component(s1));
+        Map<String,Object> yaml = new LinkedHashMap<String,Object>();
+        yaml.put("bolts", bolts);
+
+        Assert.assertSame(yaml, YamlInterner.intern(yaml));
+        Map<String,Object> b1 = (Map<String,Object>)bolts.get("B1");
+        Map<String,Object> b2 = (Map<String,Object>)bolts.get("B2");
+        Map<String,Object> b3 = (Map<String,Object>)bolts.get("B3");
+        Assert.assertEquals(s1, b1.get("schema"));
+        Assert.assertSame(b1.get("schema"), b2.get("schema"));
+        Assert.assertSame(b1.get("schema"), b3.get("schema"));
+        Assert.assertSame(b1.get("class"), b2.get("class"));
+        List<Object> schema = (List<Object>)b1.get("schema");
+        Assert.assertSame(((List<Object>)schema.get(1)).get(0), "b");
+
+        // Shared lists can't be changed, maps can.
+        try {
+            schema.add("d");
+            Assert.fail("Shared list was modified");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+        b1.put("parallelism", 2);
+        Assert.assertFalse(b2.containsKey("parallelism"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testListOfMaps() {
+        Map<String,Object> m1 = new LinkedHashMap<String,Object>();
+        m1.put("k", Arrays.asList("x"));
+        Map<String,Object> m2 = new LinkedHashMap<String,Object>();
+        m2.put("k", Arrays.asList("x"));
+        List<Object> l1 = new ArrayList<Object>(Arrays.<Object>asList(m1));
+        List<Object> l2 = new ArrayList<Object>(Arrays.<Object>asList(m2));
+        Map<String,Object> yaml = new LinkedHashMap<String,Object>();
+        yaml.put("l1", l1);
+        yaml.put("l2", l2);
+
+        YamlInterner.intern(yaml);
+        // Lists of maps keep their identity, but their contents are interned.
+        Assert.assertSame(l1, yaml.get("l1"));
+        Assert.assertSame(l2, yaml.get("l2"));
+        Assert.assertSame(m1.get("k"), m2.get("k"));
+        l1.add("more");
+        Assert.assertEquals(1, l2.size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testTopologyYaml() {
+        Map<String,Object> yaml = TopoLoader.readYaml(TopoLoaderTest.testYamlFile);
+        YamlInterner interner = new YamlInterner();
+        interner.internMap(yaml);
+        Assert.assertTrue(interner.size() > 0);
+
+        // Anchored field lists are shared by the lists that alias them.
+        List<Object> schemas = (List<Object>)yaml.get("schemas");
+        Object sinkFields = ((Map<String,Object>)schemas.get(1)).get("fields");
+        boolean found = false;
+        for (Object b : ((Map<String,Object>)yaml.get("bolts")).values()) {
+            Object schema = ((Map<String,Object>)b).get("schema");
+            if (schema instanceof List<?>) {
+                for (Object f : (List<Object>)schema) {
+                    found |= (f == sinkFields);
+                }
+            }
+        }
+        Assert.assertTrue(found);
+    }
+
+    /**
+     * A list that contains itself, through an alias, is kept as it is
+     * rather than walked forever.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSelfReference() {
+        Map<String,Object> yaml = (Map<String,Object>)new Yaml(new SafeConstructor())
+                .load("a: &x [1, *x]\nb: [[1, *x], [2]]\nc: [2]\n");
+        List<Object> a = (List<Object>)yaml.get("a");
+        List<Object> b = (List<Object>)yaml.get("b");
+
+        YamlInterner.intern(yaml);
+        Assert.assertSame(a, yaml.get("a"));
+        Assert.assertSame(a, a.get(1));
+        // A list holding it isn't shared either, but its other lists are.
+        Assert.assertSame(b, yaml.get("b"));
+        Assert.assertSame(a, ((List<Object>)b.get(0)).get(1));
+        Assert.assertSame(yaml.get("c"), b.get(1));
+    }
+}
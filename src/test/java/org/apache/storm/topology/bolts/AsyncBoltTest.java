@@ -0,0 +1,233 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.bolts;
+
+import backtype.storm.task.OutputCollector;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import org.apache.utils.DefaultingMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.storm.topology.bolts.WindowedAggregationBoltTest.mockTick;
+import static org.apache.storm.topology.bolts.WindowedAggregationBoltTest.mockTuple;
+import static org.mockito.Mockito.*;
+
+public class AsyncBoltTest {
+
+    protected static final Fields inFields = new Fields("delay");
+
+    /**
+     * Sleeps for the tuple's delay, tracking how many calls overlap.
+     * A negative delay throws.
+     */
+    public static class SleepBolt extends AsyncBolt {
+        private static final long serialVersionUID = 1L;
+
+        protected final AtomicInteger active = new AtomicInteger();
+        protected final AtomicInteger maxActive = new AtomicInteger();
+
+        public SleepBolt(String name, DefaultingMap conf) {
+            super(name, conf);
+        }
+
+        @Override
+        protected List<Object> process(Tuple input) throws Exception {
+            int now = active.incrementAndGet();
+            int max;
+            while ((max = maxActive.get()) < now && !maxActive.compareAndSet(max, now)) {
+            }
+            try {
+                int delay = (Integer)input.getValues().get(0);
+                if (delay < 0) {
+                    throw new Exception("negative delay");
+                }
+                Thread.sleep(delay);
+                return Arrays.<Object>asList(delay);
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void declareOutputFields(OutputFieldsDeclarer declarer) {
+            declarer.declare(inFields);
+        }
+    }
+
+    /**
+     * Holds acks until flushDeferred(), like a bolt that commits in batches.
+     */
+    public static class BatchBolt extends SleepBolt {
+        private static final long serialVersionUID = 1L;
+
+        protected final List<Tuple> unacked = new ArrayList<Tuple>();
+        protected int flushes = 0;
+
+        public BatchBolt(String name, DefaultingMap conf) {
+            super(name, conf);
+        }
+
+        @Override
+        protected boolean complete(Tuple input, List<Object> result) {
+            super.complete(input, result);
+            unacked.add(input);
+            return false;
+        }
+
+        @Override
+        protected void flushDeferred() {
+            ++flushes;
+            for (Tuple t : unacked) {
+                ack(t);
+            }
+            unacked.clear();
+        }
+    }
+
+    protected SleepBolt build(int threads, int maxInFlight, boolean ordered, OutputCollector collector) {
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("threads", threads);
+        conf.put("maxinflight", maxInFlight);
+        conf.put("ordered", ordered);
+        SleepBolt bolt = new SleepBolt("Sleeper", conf);
+        bolt.prepare(new HashMap<String,Object>(), null, collector);
+        return bolt;
+    }
+
+    @Test
+    public void testInFlightCap() {
+        OutputCollector collector = mock(OutputCollector.class);
+        SleepBolt bolt = build(8, 3, false, collector);
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 30; ++i) {
+            Tuple t = mockTuple(inFields, 2 + (i % 3));
+            tuples.add(t);
+            bolt.execute(t);
+            Assert.assertTrue(bolt.getInFlight() <= 3);
+        }
+        bolt.cleanup();
+
+        Assert.assertEquals(0, bolt.getInFlight());
+        Assert.assertTrue(bolt.maxActive.get() <= 3);
+        Assert.assertTrue(bolt.maxActive.get() > 1);
+        for (Tuple t : tuples) {
+            verify(collector).emit(t, t.getValues());
+            verify(collector).ack(t);
+        }
+        verify(collector, never()).fail(any(Tuple.class));
+    }
+
+    @Test
+    public void testDeferredAcks() {
+        OutputCollector collector = mock(OutputCollector.class);
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("threads", 4);
+        conf.put("maxinflight", 4);
+        BatchBolt bolt = new BatchBolt("Batcher", conf);
+        bolt.prepare(new HashMap<String,Object>(), null, collector);
+        for (int i = 0; i < 20; ++i) {
+            bolt.execute(mockTuple(inFields, 1));
+            // Tuples waiting on a deferred ack still count.
+            Assert.assertTrue(bolt.getInFlight() <= 4);
+            Assert.assertEquals(bolt.getInFlight(), bolt.processing + bolt.unacked.size());
+        }
+        Assert.assertTrue(bolt.flushes >= 4);
+        bolt.cleanup();
+        Assert.assertEquals(bolt.unacked.size(), bolt.getInFlight());
+        verify(collector, times(20 - bolt.unacked.size())).ack(any(Tuple.class));
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testDeferredAcksNeverFlushed() {
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("maxinflight", 2);
+        SleepBolt bolt = new SleepBolt("Stuck", conf) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean complete(Tuple input, List<Object> result) {
+                return false;
+            }
+        };
+        bolt.prepare(new HashMap<String,Object>(), null, mock(OutputCollector.class));
+        for (int i = 0; i < 3; ++i) {
+            bolt.execute(mockTuple(inFields, 1));
+        }
+    }
+
+    @Test
+    public void testOrdered() {
+        OutputCollector collector = mock(OutputCollector.class);
+        SleepBolt bolt = build(10, 10, true, collector);
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        // Earlier tuples take longer, so they finish last.
+        for (int i = 0; i < 10; ++i) {
+            Tuple t = mockTuple(inFields, 5 * (10 - i));
+            tuples.add(t);
+            bolt.execute(t);
+        }
+        bolt.cleanup();
+
+        InOrder inOrder = inOrder(collector);
+        for (Tuple t : tuples) {
+            inOrder.verify(collector).ack(t);
+        }
+    }
+
+    @Test
+    public void testFailureAndTick() throws Exception {
+        OutputCollector collector = mock(OutputCollector.class);
+        SleepBolt bolt = build(2, 10, false, collector);
+        Tuple good = mockTuple(inFields, 1);
+        Tuple bad = mockTuple(inFields, -1);
+        bolt.execute(good);
+        bolt.execute(bad);
+
+        // A tick handles completions without new input.
+        for (int i = 0; (i < 100) && (bolt.getInFlight() > 0); ++i) {
+            Thread.sleep(10);
+            bolt.execute(mockTick());
+        }
+        Assert.assertEquals(0, bolt.getInFlight());
+        verify(collector).ack(good);
+        verify(collector).fail(bad);
+        verify(collector).reportError(any(Throwable.class));
+        verify(collector, never()).ack(bad);
+        bolt.cleanup();
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadConfig() {
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("maxinflight", 0);
+        new SleepBolt("Sleeper", conf);
+    }
+}
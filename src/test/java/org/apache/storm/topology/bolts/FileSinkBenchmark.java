@@ -0,0 +1,145 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.bolts;
+
+import backtype.storm.task.IOutputCollector;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.tuple.Tuple;
+
+import org.apache.utils.DefaultingMap;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Rough single-thread throughput of FileSinkBolt against the usual
+ * home-grown sink, a FileWriter that writes and flushes one line per
+ * tuple. This isn't a unit test; run it by hand:
+ *
+ *     java -cp &lt;test classpath&gt; org.apache.storm.topology.bolts.FileSinkBenchmark [tuples] [dir]
+ */
+public class FileSinkBenchmark {
+
+    /**
+     * Just enough of a Tuple for the sink: values and source.
+     */
+    protected static Tuple makeTuple(final List<Object> values) {
+        return (Tuple)Proxy.newProxyInstance(Tuple.class.getClassLoader(), new Class<?>[] {Tuple.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String m = method.getName();
+                        if (m.equals("getValues")) {
+                            return values;
+                        }
+                        if (m.equals("getSourceComponent")) {
+                            return "src";
+                        }
+                        if (m.equals("getSourceStreamId")) {
+                            return "default";
+                        }
+                        if (m.equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        }
+                        if (m.equals("equals")) {
+                            return proxy == args[0];
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    protected static class NullCollector implements IOutputCollector {
+        long acks = 0;
+        public List<Integer> emit(String streamId, Collection<Tuple> anchors, List<Object> tuple) { return null; }
+        public void emitDirect(int taskId, String streamId, Collection<Tuple> anchors, List<Object> tuple) {}
+        public void ack(Tuple input) { ++acks; }
+        public void fail(Tuple input) {}
+        public void reportError(Throwable error) {}
+    }
+
+    protected static void report(String what, long nanos, int tuples, long bytes) {
+        double secs = nanos / 1e9;
+        System.out.printf("%-12s %8.1f MB/s %12.0f tuples/s%n", what, bytes / secs / (1024 * 1024), tuples / secs);
+    }
+
+    protected static long naive(File out, Tuple[] input, int tuples) throws IOException {
+        long start = System.nanoTime();
+        FileWriter w = new FileWriter(out);
+        for (int i = 0; i < tuples; ++i) {
+            List<Object> v = input[i % input.length].getValues();
+            w.write(v.get(0) + "\t" + v.get(1) + "\t" + v.get(2) + "\n");
+            w.flush();
+        }
+        w.close();
+        return System.nanoTime() - start;
+    }
+
+    protected static long sink(File out, String flush, Tuple[] input, int tuples) throws Exception {
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("outPath", out.getPath());
+        conf.put("flush", flush);
+        NullCollector acks = new NullCollector();
+        FileSinkBolt bolt = new FileSinkBolt("Sink", conf);
+        bolt.prepare(new HashMap<String,Object>(), null, new OutputCollector(acks));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < tuples; ++i) {
+            bolt.execute(input[i % input.length]);
+        }
+        bolt.cleanup();
+        long nanos = System.nanoTime() - start;
+        if (acks.acks != tuples) {
+            throw new IllegalStateException("acked " + acks.acks + " of " + tuples);
+        }
+        return nanos;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int tuples = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        File dir = new File((args.length > 1) ? args[1] : System.getProperty("java.io.tmpdir"));
+
+        Tuple[] input = new Tuple[10000];
+        for (int i = 0; i < input.length; ++i) {
+            input[i] = makeTuple(Arrays.<Object>asList("user" + i, (long)i * 7919, "http://example.com/page/" + (i % 97)));
+        }
+
+        File out = new File(dir, "FileSinkBenchmark.out");
+        for (int round = 0; round < 3; ++round) {
+            long naive = naive(out, input, tuples);
+            long bytes = out.length();
+            report("naive", naive, tuples, bytes);
+            out.delete();
+            for (String flush : new String[] {"write", "sync"}) {
+                long nanos = sink(out, flush, input, tuples);
+                report("sink/" + flush, nanos, tuples, out.length());
+                out.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.bolts;
+
+import backtype.storm.task.OutputCollector;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.apache.storm.topology.builder.Loader;
+import org.apache.storm.topology.builder.Loader.LoadFailure;
+import org.apache.utils.DefaultingMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.apache.storm.topology.bolts.WindowedAggregationBoltTest.mockTick;
+import static org.apache.storm.topology.bolts.WindowedAggregationBoltTest.mockTuple;
+import static org.mockito.Mockito.*;
+
+public class FileSinkBoltTest {
+
+    protected static final Fields inFields = new Fields("user", "count");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    protected DefaultingMap makeConf(String flush) throws IOException {
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("class", FileSinkBolt.class.getName());
+        conf.put("outPath", new File(tmp.getRoot(), "out.txt").getPath());
+        conf.put("flush", flush);
+        conf.put("buffersize", 64);
+        return conf;
+    }
+
+    protected FileSinkBolt build(DefaultingMap conf, OutputCollector collector) throws LoadFailure {
+        FileSinkBolt bolt = (FileSinkBolt)Loader.loadAndBuild("Sink", conf);
+        bolt.prepare(new HashMap<String,Object>(), null, collector);
+        return bolt;
+    }
+
+    protected List<String> lines(File f) throws IOException {
+        return Files.readAllLines(f.toPath(), Charset.forName("UTF-8"));
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        OutputCollector collector = mock(OutputCollector.class);
+        FileSinkBolt bolt = build(makeConf("sync"), collector);
+
+        Tuple t1 = mockTuple(inFields, "alice", 1);
+        Tuple t2 = mockTuple(inFields, "bob", null);
+        bolt.execute(t1);
+        bolt.execute(t2);
+        // Nothing is acked until the batch is committed.
+        verify(collector, never()).ack(any(Tuple.class));
+        Assert.assertFalse(bolt.getFile().exists());
+
+        bolt.execute(mockTick());
+        verify(collector).ack(t1);
+        verify(collector).ack(t2);
+        List<String> out = lines(bolt.getFile());
+        Assert.assertEquals(2, out.size());
+        Assert.assertEquals("alice\t1", out.get(0));
+        Assert.assertEquals("bob\t", out.get(1));
+
+        // Filling the buffer commits without a tick.
+        for (int i = 0; i < 10; ++i) {
+            bolt.execute(mockTuple(inFields, "user" + i, i));
+        }
+        verify(collector, atLeast(6)).ack(any(Tuple.class));
+        bolt.cleanup();
+        Assert.assertEquals(12, lines(bolt.getFile()).size());
+        verify(collector, times(12)).ack(any(Tuple.class));
+    }
+
+    @Test
+    public void testFlushNone() throws Exception {
+        OutputCollector collector = mock(OutputCollector.class);
+        DefaultingMap conf = makeConf("none");
+        FileSinkBolt bolt = build(conf, collector);
+        Tuple t1 = mockTuple(inFields, "alice", 1);
+        bolt.execute(t1);
+        verify(collector).ack(t1);
+        bolt.cleanup();
+        Assert.assertEquals(1, lines(bolt.getFile()).size());
+    }
+
+    @Test
+    public void testRotateAndEncoder() throws Exception {
+        OutputCollector collector = mock(OutputCollector.class);
+        DefaultingMap conf = makeConf("write");
+        conf.put("rotatebytes", 20);
+        DefaultingMap enc = new DefaultingMap();
+        enc.put("class", DelimitedEncoder.class.getName());
+        enc.put("separator", ",");
+        conf.put("encoder", enc);
+        FileSinkBolt bolt = build(conf, collector);
+
+        for (int i = 0; i < 6; ++i) {
+            bolt.execute(mockTuple(inFields, "user" + i, i));
+            bolt.execute(mockTick());
+        }
+        bolt.cleanup();
+
+        File[] files = tmp.getRoot().listFiles();
+        Assert.assertTrue(files.length > 1);
+        int total = 0;
+        for (File f : files) {
+            for (String line : lines(f)) {
+                Assert.assertTrue(line.matches("user\\d,\\d"));
+                ++total;
+            }
+        }
+        Assert.assertEquals(6, total);
+        verify(collector, times(6)).ack(any(Tuple.class));
+    }
+
+    @Test
+    public void testWriteFailure() throws Exception {
+        OutputCollector collector = mock(OutputCollector.class);
+        DefaultingMap conf = makeConf("write");
+        conf.put("outPath", tmp.getRoot().getPath());   // A directory can't be opened for write
+        FileSinkBolt bolt = build(conf, collector);
+        Tuple t1 = mockTuple(inFields, "alice", 1);
+        bolt.execute(t1);
+        bolt.execute(mockTick());
+        verify(collector).fail(t1);
+        verify(collector).reportError(any(Throwable.class));
+        verify(collector, never()).ack(any(Tuple.class));
+    }
+
+    @Test
+    public void testFlushDefault() throws Exception {
+        DefaultingMap conf = makeConf(null);
+        conf.remove("flush");
+        Assert.assertEquals(FileSinkBolt.Flush.sync, ((FileSinkBolt)Loader.loadAndBuild("Sink", conf)).flush);
+        conf.put("flush", true);
+        Assert.assertEquals(FileSinkBolt.Flush.write, ((FileSinkBolt)Loader.loadAndBuild("Sink", conf)).flush);
+    }
+
+    @Test(expected=LoadFailure.class)
+    public void testBadFlush() throws Exception {
+        Loader.loadAndBuild("Sink", makeConf("sometimes"));
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.bolts;
+
+import backtype.storm.task.OutputCollector;
+import backtype.storm.topology.OutputFieldsGetter;
+import backtype.storm.tuple.Fields;
+import backtype.storm.utils.Utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.apache.storm.topology.builder.Loader;
+import org.apache.storm.topology.builder.Loader.LoadFailure;
+import org.apache.utils.DefaultingMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.apache.storm.topology.bolts.WindowedAggregationBoltTest.mockTick;
+import static org.apache.storm.topology.bolts.WindowedAggregationBoltTest.mockTuple;
+import static org.mockito.Mockito.*;
+
+public class SketchBoltTest {
+
+    protected static final Fields inFields = new Fields("site", "user");
+
+    protected DefaultingMap makeConf(Class<?> cls, String mode) {
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("class", cls.getName());
+        conf.put("mode", mode);
+        conf.put("keys", Arrays.asList("site"));
+        conf.put("field", "user");
+        conf.put("capacity", 5);
+        conf.put("top", 2);
+        return conf;
+    }
+
+    protected SketchBolt build(Class<?> cls, String mode) throws LoadFailure {
+        SketchBolt bolt = (SketchBolt)Loader.loadAndBuild(mode, makeConf(cls, mode));
+        bolt.prepare(new HashMap<String,Object>(), null, mock(OutputCollector.class));
+        return bolt;
+    }
+
+    /**
+     * Tick the bolt and return what it emitted.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected List<List<Object>> tick(SketchBolt bolt) {
+        OutputCollector collector = mock(OutputCollector.class);
+        bolt.collector = collector;
+        bolt.execute(mockTick());
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(collector, atLeast(0)).emit(captor.capture());
+        List<List<Object>> ret = new ArrayList<List<Object>>();
+        for (List out : captor.getAllValues()) {
+            ret.add(out);
+        }
+        return ret;
+    }
+
+    protected static Fields declared(SketchBolt bolt) {
+        OutputFieldsGetter getter = new OutputFieldsGetter();
+        bolt.declareOutputFields(getter);
+        return new Fields(getter.getFieldsDeclaration().get(Utils.DEFAULT_STREAM_ID).get_output_fields());
+    }
+
+    @Test
+    public void testDistinctPartialMerge() throws LoadFailure {
+        // Two partial stages, each seeing half of the users for a site.
+        SketchBolt p1 = build(DistinctCountBolt.class, "partial");
+        SketchBolt p2 = build(DistinctCountBolt.class, "partial");
+        for (int i = 0; i < 1000; ++i) {
+            ((i % 2 == 0) ? p1 : p2).execute(mockTuple(inFields, "s1", "user" + (i % 600)));
+        }
+        Fields partialFields = declared(p1);
+        Assert.assertEquals(Arrays.asList("site", "sketch"), partialFields.toList());
+
+        DefaultingMap mconf = makeConf(DistinctCountBolt.class, "merge");
+        mconf.remove("field");
+        SketchBolt merge = (SketchBolt)Loader.loadAndBuild("merge", mconf);
+        merge.prepare(new HashMap<String,Object>(), null, mock(OutputCollector.class));
+        for (SketchBolt p : Arrays.asList(p1, p2)) {
+            for (List<Object> partial : tick(p)) {
+                merge.execute(mockTuple(partialFields, partial.toArray()));
+            }
+            // Partials reset after each emit.
+            Assert.assertTrue(tick(p).isEmpty());
+        }
+
+        List<List<Object>> out = tick(merge);
+        Assert.assertEquals(1, out.size());
+        Assert.assertEquals("s1", out.get(0).get(0));
+        Assert.assertEquals(600.0, ((Long)out.get(0).get(1)).doubleValue(), 30.0);
+        Assert.assertEquals(Arrays.asList("site", "distinct"), declared(merge).toList());
+    }
+
+    @Test
+    public void testTopKPartialMerge() throws LoadFailure {
+        SketchBolt p1 = build(TopKBolt.class, "partial");
+        SketchBolt p2 = build(TopKBolt.class, "partial");
+        for (int i = 0; i < 1000; ++i) {
+            SketchBolt p = (i % 2 == 0) ? p1 : p2;
+            p.execute(mockTuple(inFields, "s1", "user" + i));
+            if (i % 3 == 0) {
+                p.execute(mockTuple(inFields, "s1", "heavy"));
+            }
+        }
+        p2.execute(mockTuple(inFields, "s2", "other"));
+        Fields partialFields = declared(p1);
+
+        DefaultingMap mconf = makeConf(TopKBolt.class, "merge");
+        mconf.remove("field");
+        SketchBolt merge = (SketchBolt)Loader.loadAndBuild("merge", mconf);
+        merge.prepare(new HashMap<String,Object>(), null, mock(OutputCollector.class));
+        for (SketchBolt p : Arrays.asList(p1, p2)) {
+            for (List<Object> partial : tick(p)) {
+                merge.execute(mockTuple(partialFields, partial.toArray()));
+            }
+        }
+
+        List<List<Object>> out = tick(merge);
+        // Two items for s1, one for s2
+        Assert.assertEquals(3, out.size());
+        for (List<Object> o : out) {
+            // site, item, count, error, rank
+            if ("s1".equals(o.get(0)) && (Integer)o.get(4) == 1) {
+                Assert.assertEquals("heavy", o.get(1));
+                Assert.assertTrue((Long)o.get(2) >= 334);
+            }
+        }
+        Assert.assertEquals(Arrays.asList("site", "item", "count", "error", "rank"), declared(merge).toList());
+    }
+
+    @Test
+    public void testTopKSkipsBadWeights() throws LoadFailure {
+        DefaultingMap conf = makeConf(TopKBolt.class, "single");
+        conf.put("weightfield", "n");
+        SketchBolt bolt = (SketchBolt)Loader.loadAndBuild("weighted", conf);
+        bolt.prepare(new HashMap<String,Object>(), null, mock(OutputCollector.class));
+        Fields weighted = new Fields("site", "user", "n");
+        bolt.execute(mockTuple(weighted, "s1", "a", 5));
+        bolt.execute(mockTuple(weighted, "s1", "b", 3));
+        bolt.execute(mockTuple(weighted, "s1", "a", -10));
+        bolt.execute(mockTuple(weighted, "s1", "b", 0));
+        bolt.execute(mockTuple(weighted, "s2", "c", -1));
+
+        List<List<Object>> out = tick(bolt);
+        Assert.assertEquals(2, out.size());
+        for (List<Object> o : out) {
+            Assert.assertEquals("s1", o.get(0));
+            Assert.assertEquals(("a".equals(o.get(1))) ? 5L : 3L, o.get(2));
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadMode() {
+        DefaultingMap conf = makeConf(TopKBolt.class, "final");
+        new TopKBolt("bad", conf);
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.bolts;
+
+import org.apache.storm.topology.bolts.WindowTable.Kind;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rough single-thread throughput of the WindowedAggregationBolt state:
+ * per-record updates into a bucket, and the per-tick merge of all buckets.
+ * This isn't a unit test; run it by hand:
+ *
+ *     java -cp &lt;test classpath&gt; org.apache.storm.topology.bolts.WindowAggregationBenchmark [keys] [buckets]
+ */
+public class WindowAggregationBenchmark {
+
+    public static void main(String[] args) {
+        int nKeys = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+        int nBuckets = (args.length > 1) ? Integer.parseInt(args[1]) : 6;
+        int records = 5000000;
+
+        // Records of (user, bytes, ip), built up front so only the update is timed.
+        List<List<Object>> input = new ArrayList<List<Object>>();
+        for (int i = 0; i < 100000; ++i) {
+            input.add(Arrays.<Object>asList("user" + (i % nKeys), (long)i, "10.0." + (i % 251) + "." + (i % 13)));
+        }
+        int[] keyPos = {0};
+        int[] valPos = {1, 1};
+        int[] distinctPos = {2};
+        Kind[] kinds = {Kind.sum, Kind.max};
+
+        WindowTable[] buckets = new WindowTable[nBuckets];
+        for (int b = 0; b < nBuckets; ++b) {
+            buckets[b] = new WindowTable(nKeys, 1, kinds, 1, 12);
+        }
+        WindowTable merged = new WindowTable(nKeys, 1, kinds, 1, 12);
+
+        for (int round = 0; round < 3; ++round) {
+            long start = System.nanoTime();
+            for (int i = 0; i < records; ++i) {
+                buckets[(i / (records / nBuckets + 1))].update(input.get(i % input.size()), keyPos, valPos, distinctPos);
+            }
+            long updateNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            merged.clear();
+            for (WindowTable b : buckets) {
+                b.mergeInto(merged);
+            }
+            long mergeNanos = System.nanoTime() - start;
+
+            System.out.printf("round %d: %,.0f updates/sec; merge of %d buckets x %d keys %.1f ms%n",
+                    round, records / (updateNanos / 1e9), nBuckets, nKeys, mergeNanos / 1e6);
+            for (WindowTable b : buckets) {
+                b.clear();
+            }
+        }
+    }
+}
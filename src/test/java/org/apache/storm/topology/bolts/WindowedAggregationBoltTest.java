@@ -0,0 +1,177 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.bolts;
+
+import backtype.storm.Config;
+import backtype.storm.Constants;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.apache.storm.topology.builder.Loader;
+import org.apache.storm.topology.builder.Loader.LoadFailure;
+import org.apache.utils.DefaultingMap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Mockito.*;
+
+public class WindowedAggregationBoltTest {
+
+    protected static final Fields inFields = new Fields("user", "bytes", "ip");
+
+    public static Tuple mockTuple(Fields fields, Object... values) {
+        Tuple t = mock(Tuple.class);
+        when(t.getSourceComponent()).thenReturn("src");
+        when(t.getSourceStreamId()).thenReturn("default");
+        when(t.getFields()).thenReturn(fields);
+        when(t.getValues()).thenReturn(Arrays.asList(values));
+        return t;
+    }
+
+    public static Tuple mockTick() {
+        Tuple t = mock(Tuple.class);
+        when(t.getSourceComponent()).thenReturn(Constants.SYSTEM_COMPONENT_ID);
+        when(t.getSourceStreamId()).thenReturn(Constants.SYSTEM_TICK_STREAM_ID);
+        return t;
+    }
+
+    protected DefaultingMap makeConf(int window, int slide) {
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("class", WindowedAggregationBolt.class.getName());
+        conf.put("windowsecs", window);
+        conf.put("slidesecs", slide);
+        conf.put("keys", Arrays.asList("user"));
+        conf.put("aggregations", Arrays.asList("count", "sum:bytes", "max:bytes:biggest", "distinct:ip"));
+        conf.put("maxkeys", 10);
+        return conf;
+    }
+
+    /**
+     * Tick the bolt and return what it emitted, by user.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected Map<Object,List<Object>> tick(WindowedAggregationBolt bolt, OutputCollector collector) {
+        reset(collector);
+        bolt.execute(mockTick());
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(collector, atLeast(0)).emit(captor.capture());
+        Map<Object,List<Object>> ret = new HashMap<Object,List<Object>>();
+        for (List<Object> out : captor.getAllValues()) {
+            ret.put(out.get(0), out);
+        }
+        return ret;
+    }
+
+    @Test
+    public void testSliding() throws LoadFailure {
+        Object o = Loader.loadAndBuild("agg", makeConf(20, 10));
+        Assert.assertTrue(o instanceof WindowedAggregationBolt);
+        WindowedAggregationBolt bolt = (WindowedAggregationBolt)o;
+        Assert.assertEquals(10, bolt.getComponentConfiguration().get(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS));
+
+        OutputCollector collector = mock(OutputCollector.class);
+        bolt.prepare(new HashMap<String,Object>(), null, collector);
+
+        Tuple t = mockTuple(inFields, "a", 10, "1.1.1.1");
+        bolt.execute(t);
+        verify(collector).ack(t);
+        bolt.execute(mockTuple(inFields, "a", 5L, "1.1.1.2"));
+        bolt.execute(mockTuple(inFields, "b", "7", "1.1.1.1"));
+
+        Map<Object,List<Object>> out = tick(bolt, collector);
+        Assert.assertEquals(2, out.size());
+        // user, count, sum_bytes, biggest, distinct_ip, windowend
+        Assert.assertEquals(6, out.get("a").size());
+        Assert.assertEquals(2L, out.get("a").get(1));
+        Assert.assertEquals(15.0, out.get("a").get(2));
+        Assert.assertEquals(10.0, out.get("a").get(3));
+        Assert.assertEquals(2L, out.get("a").get(4));
+        Assert.assertEquals(7.0, out.get("b").get(2));
+
+        // Second bucket: the window still covers the first.
+        bolt.execute(mockTuple(inFields, "a", 1, "1.1.1.1"));
+        out = tick(bolt, collector);
+        Assert.assertEquals(3L, out.get("a").get(1));
+        Assert.assertEquals(2L, out.get("a").get(4));
+        Assert.assertEquals(1L, out.get("b").get(1));
+
+        // Third: the first bucket has slid out.
+        out = tick(bolt, collector);
+        Assert.assertEquals(1, out.size());
+        Assert.assertEquals(1L, out.get("a").get(1));
+
+        out = tick(bolt, collector);
+        Assert.assertTrue(out.isEmpty());
+    }
+
+    @Test
+    public void testMaxKeys() {
+        WindowedAggregationBolt bolt = new WindowedAggregationBolt("agg", makeConf(10, 10));
+        OutputCollector collector = mock(OutputCollector.class);
+        bolt.prepare(new HashMap<String,Object>(), null, collector);
+        for (int i = 0; i < 25; ++i) {
+            bolt.execute(mockTuple(inFields, "u" + i, 1, "ip"));
+        }
+        Assert.assertEquals(10, tick(bolt, collector).size());
+    }
+
+    @Test
+    public void testTableSketchesBounded() {
+        // Keys land in different slots from one window to the next, but the
+        // table never holds more than maxKeys sketches.
+        WindowTable table = new WindowTable(10, 1, new WindowTable.Kind[0], 1, 4);
+        int[] keyPos = {0};
+        int[] distinctPos = {1};
+        for (int w = 0; w < 20; ++w) {
+            for (int i = 0; i < 10; ++i) {
+                table.update(Arrays.<Object>asList("w" + w + "k" + i, "ip"), keyPos, new int[0], distinctPos);
+            }
+            Assert.assertEquals(10, table.size());
+            table.clear();
+        }
+        int live = table.nSpareSketches;
+        for (int slot = 0; slot < table.capacity(); ++slot) {
+            if (table.sketchAt(slot, 0) != null) {
+                ++live;
+            }
+        }
+        Assert.assertEquals(10, live);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadWindow() {
+        new WindowedAggregationBolt("agg", makeConf(25, 10));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadAggregation() {
+        DefaultingMap conf = makeConf(10, 10);
+        conf.put("aggregations", Arrays.asList("median:bytes"));
+        new WindowedAggregationBolt("agg", conf);
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.apache.storm.topology.builder.Loader.LoadFailure;
+import org.apache.utils.DefaultingMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+public class CodeGeneratorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    protected static final String MOCK = MockLoadableObject.class.getName();
+
+    /**
+     * Compile generated source and load the class.
+     * @return the class, or null if it didn't compile.
+     */
+    protected Class<?> compile(CodeGenerator gen, String source) throws Exception {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(javac);
+        File src = tmp.newFolder();
+        File out = tmp.newFolder();
+        File f = new File(src, gen.getSourcePath());
+        f.getParentFile().mkdirs();
+        Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+        w.write(source);
+        w.close();
+
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int rc = javac.run(null, null, err, "-classpath", System.getProperty("java.class.path"),
+                "-d", out.getPath(), f.getPath());
+        if (rc != 0) {
+            return null;
+        }
+        URLClassLoader cl = new URLClassLoader(new URL[] {out.toURI().toURL()}, getClass().getClassLoader());
+        return cl.loadClass(gen.getSourcePath().replace(".java", "").replace('/', '.'));
+    }
+
+    protected Map<String,Object> makeYaml() {
+        Map<String,Object> src = new LinkedHashMap<String,Object>();
+        src.put("class", MOCK);
+        src.put("val", "spoutval");
+        Map<String,Object> spouts = new LinkedHashMap<String,Object>();
+        spouts.put("src", src);
+
+        Map<String,Object> custom = new LinkedHashMap<String,Object>();
+        custom.put("class", MOCK);
+        custom.put("component", "src");
+        Map<String,Object> b1 = new LinkedHashMap<String,Object>();
+        b1.put("class", MOCK);
+        b1.put("inputs", new ArrayList<Object>(Arrays.asList(custom)));
+        Map<String,Object> off = new LinkedHashMap<String,Object>();
+        off.put("class", "com.example.NotOnClasspath");
+        off.put("parallelism", 0);
+        Map<String,Object> bolts = new LinkedHashMap<String,Object>();
+        bolts.put("b1", b1);
+        bolts.put("off", off);
+        bolts.put("g.parallelism", 2);
+
+        Map<String,Object> yaml = new LinkedHashMap<String,Object>();
+        yaml.put("topologyname", "Generated");
+        yaml.put("spouts", spouts);
+        yaml.put("bolts", bolts);
+        return yaml;
+    }
+
+    @Test
+    public void testLiterals() throws Exception {
+        Map<String,Object> yaml = makeYaml();
+        Map<String,Object> values = new LinkedHashMap<String,Object>();
+        values.put("quoted", "a \"b\"\\c\n\td\u00e9");
+        values.put("int", 3);
+        values.put("long", 1L << 40);
+        values.put("double", 0.25);
+        values.put("bool", true);
+        values.put("null", null);
+        values.put("empty", new ArrayList<Object>());
+        values.put("emptymap", new HashMap<String,Object>());
+        List<Object> nested = new ArrayList<Object>();
+        nested.add(null);
+        nested.add(Arrays.<Object>asList("x", 2));
+        values.put("nested", nested);
+        yaml.put("values", values);
+
+        CodeGenerator gen = new CodeGenerator("gen.test.LiteralTopology");
+        Class<?> cls = compile(gen, gen.generate(yaml, "test"));
+        Assert.assertNotNull("Generated code didn't compile", cls);
+        Method m = cls.getMethod("yaml");
+        Assert.assertEquals(yaml, m.invoke(null));
+    }
+
+    @Test
+    public void testSpecialLiterals() throws Exception {
+        Map<String,Object> yaml = makeYaml();
+        Map<String,Object> values = new LinkedHashMap<String,Object>();
+        values.put("fnan", Float.NaN);
+        values.put("finf", Float.POSITIVE_INFINITY);
+        values.put("fneginf", Float.NEGATIVE_INFINITY);
+        values.put("float", 1.5F);
+        values.put("dnan", Double.NaN);
+        values.put("dneginf", Double.NEGATIVE_INFINITY);
+        values.put("timestamp", new Date(1420070400123L));
+        values.put("set", new LinkedHashSet<Object>(Arrays.<Object>asList("b", "a", 3)));
+        values.put("emptyset", new LinkedHashSet<Object>());
+        yaml.put("values", values);
+
+        CodeGenerator gen = new CodeGenerator("gen.test.SpecialTopology");
+        String source = gen.generate(yaml, "test");
+        Assert.assertTrue(source.contains("Float.NaN"));
+        Assert.assertTrue(source.contains("Float.POSITIVE_INFINITY"));
+        Assert.assertTrue(source.contains("Double.NEGATIVE_INFINITY"));
+        Class<?> cls = compile(gen, source);
+        Assert.assertNotNull("Generated code didn't compile", cls);
+        Assert.assertEquals(yaml, cls.getMethod("yaml").invoke(null));
+    }
+
+    /**
+     * Values too big for one method's code are split across methods.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBigValues() throws Exception {
+        Map<String,Object> yaml = makeYaml();
+        List<Object> schema = new ArrayList<Object>();
+        for (int i = 0; i < 10000; ++i) {
+            schema.add("field" + i);
+        }
+        Map<String,Object> bolts = (Map<String,Object>)yaml.get("bolts");
+        ((Map<String,Object>)bolts.get("b1")).put("schema", schema);
+
+        Map<String,Object> table = new LinkedHashMap<String,Object>();
+        Set<Object> tags = new LinkedHashSet<Object>();
+        for (int i = 0; i < 5000; ++i) {
+            table.put("key" + i, Arrays.<Object>asList(i, "v" + i));
+            tags.add("tag" + i);
+        }
+        yaml.put("table", table);
+        yaml.put("tags", tags);
+
+        CodeGenerator gen = new CodeGenerator("gen.test.BigTopology");
+        String source = gen.generate(yaml, "test");
+        Assert.assertTrue(source.contains("concat("));
+        Assert.assertTrue(source.contains("merge("));
+        Class<?> cls = compile(gen, source);
+        Assert.assertNotNull("Generated code didn't compile", cls);
+        Assert.assertEquals(yaml, cls.getMethod("yaml").invoke(null));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testUnsupportedLiteral() {
+        Map<String,Object> yaml = makeYaml();
+        yaml.put("binary", new byte[] {1, 2});
+        new CodeGenerator("gen.test.BinaryTopology").generate(yaml, "test");
+    }
+
+    @Test
+    public void testFactory() throws Exception {
+        CodeGenerator gen = new CodeGenerator("gen.test.FactoryTopology");
+        String source = gen.generate(makeYaml(), "test");
+        Assert.assertTrue(source.contains("return spout(new " + MOCK + "(name, conf));"));
+        Assert.assertTrue(source.contains("return bolt((backtype.storm.topology.IRichBolt)new " + MOCK + "(name, conf));"));
+        Assert.assertTrue(source.contains("return grouping(new " + MOCK + "(name, conf));"));
+        // Disabled bolts are never built, so aren't generated.
+        Assert.assertFalse(source.contains("NotOnClasspath("));
+
+        Class<?> cls = compile(gen, source);
+        Assert.assertNotNull("Generated code didn't compile", cls);
+        @SuppressWarnings("unchecked")
+        Map<String,Object> yaml = (Map<String,Object>)cls.getMethod("yaml").invoke(null);
+        IComponentFactory factory = (IComponentFactory)cls.newInstance();
+        Object spout = factory.newSpout("src", new DefaultingMap((Map<String,Object>)yaml.get("spouts")).getSubMap("src"));
+        Assert.assertEquals("spoutval", ((MockLoadableObject)spout).myVar());
+
+        Loader ldr = new Loader(new DefaultingMap(yaml), new backtype.storm.topology.TopologyBuilder(),
+                new TestConfigurator(), null, factory);
+        Assert.assertEquals(1, ldr.getTopology().get_spouts_size());
+        Assert.assertEquals(1, ldr.getTopology().get_bolts_size());
+    }
+
+    @Test
+    public void testWrongInterface() throws Exception {
+        Map<String,Object> yaml = makeYaml();
+        Map<String,Object> notBolt = new LinkedHashMap<String,Object>();
+        notBolt.put("class", "java.lang.Object");
+        notBolt.put("inputs", Arrays.asList("src"));
+        @SuppressWarnings("unchecked")
+        Map<String,Object> bolts = (Map<String,Object>)yaml.get("bolts");
+        bolts.put("notbolt", notBolt);
+
+        CodeGenerator gen = new CodeGenerator("gen.test.BadTopology");
+        String source = gen.generate(yaml, "test");
+        Assert.assertTrue(source.contains("return bolt(new java.lang.Object());"));
+        Assert.assertNull("A bolt that isn't a bolt compiled", compile(gen, source));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadClassName() {
+        new CodeGenerator("com.example.not-a-class");
+    }
+
+    @Test(expected=LoadFailure.class)
+    public void testDefaultBuildsByName() throws LoadFailure {
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("class", "com.example.NotOnClasspath");
+        new GeneratedTopology() {}.newBolt("b", conf);
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import backtype.storm.tuple.Fields;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.storm.topology.builder.Loader.LoadFailure;
+import org.apache.utils.DefaultingMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class FieldIndexTest {
+
+    protected static String testObjectPath = "org.apache.storm.topology.builder.MockLoadableObject";
+
+    @Test
+    public void testIndex() {
+        FieldIndex idx = new FieldIndex(Arrays.asList("c", "a", "b", "a"));
+        Assert.assertEquals(3, idx.size());
+        Assert.assertEquals(0, idx.indexOf("c"));
+        Assert.assertEquals(1, idx.indexOf("a"));
+        Assert.assertEquals(2, idx.require("b"));
+        Assert.assertEquals(-1, idx.indexOf("z"));
+        Assert.assertEquals("a", idx.get(1));
+        Assert.assertEquals(Arrays.asList("c", "a", "b"), idx.toList());
+
+        Fields f = idx.toFields();
+        Assert.assertEquals(2, f.fieldIndex("b"));
+        Assert.assertEquals(new FieldIndex(Arrays.asList("c", "a", "b")), idx);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRequire() {
+        FieldIndex idx = new FieldIndex(Arrays.asList("a"));
+        idx.require("b");
+    }
+
+    @Test
+    public void testCompile() {
+        ArrayList<Object> schema = new ArrayList<Object>();
+        schema.add(Arrays.asList("x", "y"));
+        schema.add("z");
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("schema", schema);
+
+        FieldIndex idx = Loader.getSchemaIndex(conf);
+        Assert.assertEquals(Arrays.asList("x", "y", "z"), idx.toList());
+        Assert.assertNull(Loader.getSchemaIndex(new DefaultingMap()));
+    }
+
+    protected DefaultingMap makeTopo(String groupFields) {
+        DefaultingMap spt = new DefaultingMap();
+        spt.put("class", testObjectPath);
+        spt.put("schema", Arrays.asList("f2", "f1"));
+        spt.put("declare", Arrays.asList("f2", "f1"));
+        DefaultingMap spouts = new DefaultingMap();
+        spouts.put("src", spt);
+
+        DefaultingMap blt = new DefaultingMap();
+        blt.put("class", testObjectPath);
+        blt.put("inputs", Arrays.asList("src::fields:" + groupFields));
+        DefaultingMap bolts = new DefaultingMap();
+        bolts.put("blt", blt);
+
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("spouts", spouts);
+        conf.put("bolts", bolts);
+        return conf;
+    }
+
+    @Test
+    public void testLoaderIndex() throws LoadFailure {
+        Loader ldr = new Loader(makeTopo("f1, f2"), new TestConfigurator());
+        Assert.assertNotNull(ldr.getTopology());
+
+        // Modules find their compiled schema in their configuration.
+        FieldIndex idx = (FieldIndex)ldr.spoutSpecs.get("src").get(Loader.SCHEMA_INDEX_KEY);
+        Assert.assertEquals(Arrays.asList("f2", "f1"), idx.toList());
+        Assert.assertSame(idx, Loader.getSchemaIndex(ldr.spoutSpecs.get("src")));
+    }
+
+    @Test
+    public void testSharedIndex() throws LoadFailure {
+        DefaultingMap conf = makeTopo("f1");
+        conf.getSubMap("bolts").getSubMap("blt").put("schema", Arrays.asList(Arrays.asList("f2"), "f1"));
+        Loader ldr = new Loader(conf, new TestConfigurator());
+
+        // Equal schemas get one index.
+        Assert.assertSame(ldr.spoutSpecs.get("src").get(Loader.SCHEMA_INDEX_KEY),
+                ldr.boltSpecs.get("blt").get(Loader.SCHEMA_INDEX_KEY));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadGroupingField() throws LoadFailure {
+        new Loader(makeTopo("f1,f3"), new TestConfigurator());
+    }
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import backtype.storm.Constants;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.BasicOutputCollector;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.topology.OutputFieldsGetter;
+import backtype.storm.topology.base.BaseBasicBolt;
+import backtype.storm.topology.base.BaseRichBolt;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.storm.topology.bolts.WindowedAggregationBoltTest.mockTick;
+import static org.apache.storm.topology.bolts.WindowedAggregationBoltTest.mockTuple;
+import static org.mockito.Mockito.*;
+
+public class FusedBoltTest {
+
+    protected static boolean isTick(Tuple t) {
+        return Constants.SYSTEM_TICK_STREAM_ID.equals(t.getSourceStreamId());
+    }
+
+    /**
+     * Upper-cases a word. Also emits on a stream nothing subscribes to.
+     */
+    public static class Upper extends BaseBasicBolt {
+        private static final long serialVersionUID = 1L;
+        protected int ticks = 0;
+
+        @Override
+        public void execute(Tuple input, BasicOutputCollector collector) {
+            if (isTick(input)) {
+                ++ticks;
+                return;
+            }
+            String w = (String)input.getValues().get(0);
+            collector.emit(new Values(w.toUpperCase()));
+            collector.emit("side", new Values(w));
+        }
+
+        @Override
+        public void declareOutputFields(OutputFieldsDeclarer declarer) {
+            declarer.declare(new Fields("word"));
+            declarer.declareStream("side", new Fields("word"));
+        }
+    }
+
+    /**
+     * Emits each letter of a word, anchored, then acks the word.
+     */
+    public static class Split extends BaseRichBolt {
+        private static final long serialVersionUID = 1L;
+        protected transient OutputCollector collector;
+        protected int ticks = 0;
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public void prepare(Map stormConf, TopologyContext context, OutputCollector collector) {
+            this.collector = collector;
+        }
+
+        @Override
+        public void execute(Tuple input) {
+            if (isTick(input)) {
+                ++ticks;
+            } else {
+                for (char c : input.getStringByField("word").toCharArray()) {
+                    collector.emit(input, new Values(String.valueOf(c)));
+                }
+            }
+            collector.ack(input);
+        }
+
+        @Override
+        public void declareOutputFields(OutputFieldsDeclarer declarer) {
+            declarer.declare(new Fields("letter"));
+        }
+    }
+
+    /**
+     * Emits each letter, anchored, and holds it until told to ack or fail.
+     */
+    public static class Hold extends BaseRichBolt {
+        private static final long serialVersionUID = 1L;
+        protected transient OutputCollector collector;
+        protected transient List<Tuple> held;
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public void prepare(Map stormConf, TopologyContext context, OutputCollector collector) {
+            this.collector = collector;
+            held = new ArrayList<Tuple>();
+        }
+
+        @Override
+        public void execute(Tuple input) {
+            if (!isTick(input)) {
+                Assert.assertEquals("split", input.getSourceComponent());
+                collector.emit(input, new Values(input.getValueByField("letter")));
+            }
+            held.add(input);
+        }
+
+        public void release(boolean ok) {
+            for (Tuple t : held) {
+                if (ok) {
+                    collector.ack(t);
+                } else {
+                    collector.fail(t);
+                }
+            }
+            held.clear();
+        }
+
+        @Override
+        public void declareOutputFields(OutputFieldsDeclarer declarer) {
+            declarer.declare(new Fields("out"));
+        }
+    }
+
+    protected FusedBolt build(Upper upper, Split split, Hold hold, OutputCollector collector) {
+        FusedBolt bolt = new FusedBolt(Arrays.asList("upper", "split", "hold"),
+                Arrays.<Object>asList(upper, split, hold), Arrays.asList("default", "default"));
+        bolt.prepare(new HashMap<String,Object>(), mock(TopologyContext.class), collector);
+        return bolt;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testChain() {
+        OutputCollector collector = mock(OutputCollector.class);
+        Hold hold = new Hold();
+        FusedBolt bolt = build(new Upper(), new Split(), hold, collector);
+
+        Tuple t = mockTuple(new Fields("w"), "ab");
+        bolt.execute(t);
+
+        List<Tuple> anchors = Arrays.asList(t);
+        verify(collector).emit("default", anchors, new Values("A"));
+        verify(collector).emit("default", anchors, new Values("B"));
+        verify(collector, times(2)).emit(anyString(), anyCollection(), anyList());
+        // Earlier stages are done, but the last still holds two letters.
+        verify(collector, never()).ack(t);
+        Assert.assertEquals(1, bolt.getPending());
+
+        hold.release(true);
+        verify(collector, times(1)).ack(t);
+        verify(collector, never()).fail(t);
+        Assert.assertEquals(0, bolt.getPending());
+    }
+
+    @Test
+    public void testFail() {
+        OutputCollector collector = mock(OutputCollector.class);
+        Hold hold = new Hold();
+        FusedBolt bolt = build(new Upper(), new Split(), hold, collector);
+
+        Tuple t1 = mockTuple(new Fields("w"), "ab");
+        Tuple t2 = mockTuple(new Fields("w"), "c");
+        bolt.execute(t1);
+        bolt.execute(t2);
+        hold.release(false);
+
+        verify(collector, times(1)).fail(t1);
+        verify(collector, times(1)).fail(t2);
+        verify(collector, never()).ack(any(Tuple.class));
+        Assert.assertEquals(0, bolt.getPending());
+    }
+
+    @Test
+    public void testTick() {
+        OutputCollector collector = mock(OutputCollector.class);
+        Upper upper = new Upper();
+        Split split = new Split();
+        Hold hold = new Hold();
+        FusedBolt bolt = build(upper, split, hold, collector);
+
+        Tuple tick = mockTick();
+        bolt.execute(tick);
+        Assert.assertEquals(1, upper.ticks);
+        Assert.assertEquals(1, split.ticks);
+        Assert.assertEquals(1, hold.held.size());
+        // Acked right away, though hold hasn't acked it.
+        verify(collector, times(1)).ack(tick);
+        Assert.assertEquals(0, bolt.getPending());
+
+        hold.release(true);
+        verify(collector, times(1)).ack(tick);
+    }
+
+    @Test
+    public void testIgnoredTicks() {
+        // A stage that never acks ticks, like WindowedAggregationBolt,
+        // doesn't leave them pending.
+        OutputCollector collector = mock(OutputCollector.class);
+        Hold hold = new Hold();
+        FusedBolt bolt = build(new Upper(), new Split(), hold, collector);
+        for (int i = 0; i < 10; ++i) {
+            bolt.execute(mockTick());
+        }
+        Assert.assertEquals(10, hold.held.size());
+        Assert.assertEquals(0, bolt.getPending());
+        verify(collector, times(10)).ack(any(Tuple.class));
+    }
+
+    @Test
+    public void testDeclare() {
+        FusedBolt bolt = new FusedBolt(Arrays.asList("upper", "split", "hold"),
+                Arrays.<Object>asList(new Upper(), new Split(), new Hold()), Arrays.asList("default", "default"));
+        OutputFieldsGetter getter = new OutputFieldsGetter();
+        bolt.declareOutputFields(getter);
+        Assert.assertEquals(Arrays.asList("out"), getter.getFieldsDeclaration().get("default").get_output_fields());
+        Assert.assertEquals(Arrays.asList("upper", "split", "hold"), bolt.getStageNames());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testUndeclaredLink() {
+        new FusedBolt(Arrays.asList("upper", "split"),
+                Arrays.<Object>asList(new Upper(), new Split()), Arrays.asList("nosuchstream"));
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import backtype.storm.Config;
+import backtype.storm.generated.StreamInfo;
+import backtype.storm.spout.SpoutOutputCollector;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.topology.IRichBolt;
+import backtype.storm.topology.IRichSpout;
+import backtype.storm.topology.OutputFieldsGetter;
+import backtype.storm.topology.TopologyBuilder;
+import backtype.storm.utils.Utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.apache.storm.topology.builder.Loader.LoadFailure;
+import org.apache.utils.DefaultingMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class LazyComponentTest {
+
+    protected DefaultingMap makeConf() {
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("class", MockLoadableObject.class.getName());
+        conf.put("lazy", true);
+        conf.put("val", "testval");
+        conf.put("schema", Arrays.asList("a", "b"));
+        List<Object> table = new ArrayList<Object>();
+        for (int i = 0; i < 1000; ++i) {
+            table.add("value" + (i % 10));
+        }
+        conf.put("table", table);
+        Map<String,Object> streams = new HashMap<String,Object>();
+        streams.put("errors", Arrays.asList("id", "message"));
+        conf.put("streams", streams);
+        Map<String,Object> cc = new HashMap<String,Object>();
+        cc.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 60);
+        conf.put("componentconfig", cc);
+        return conf;
+    }
+
+    @Test
+    public void testBolt() throws LoadFailure {
+        LazyBolt proxy = new LazyBolt("lazyBolt", makeConf());
+
+        OutputFieldsGetter getter = new OutputFieldsGetter();
+        proxy.declareOutputFields(getter);
+        Map<String,StreamInfo> streams = getter.getFieldsDeclaration();
+        Assert.assertEquals(Arrays.asList("a", "b"), streams.get(Utils.DEFAULT_STREAM_ID).get_output_fields());
+        Assert.assertEquals(Arrays.asList("id", "message"), streams.get("errors").get_output_fields());
+        Assert.assertEquals(60, proxy.getComponentConfiguration().get(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS));
+
+        // Shipped to the worker, then built there.
+        LazyBolt shipped = (LazyBolt)Utils.deserialize(Utils.serialize(proxy));
+        Assert.assertNull(shipped.getBolt());
+        shipped.prepare(new HashMap<String,Object>(), null, mock(OutputCollector.class));
+        MockLoadableObject real = (MockLoadableObject)shipped.getBolt();
+        Assert.assertEquals("lazyBolt", real.myName());
+        Assert.assertEquals("testval", real.myVar());
+    }
+
+    /**
+     * The real component gets a configuration it can change at any depth,
+     * as it would if built eagerly.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMutableConfig() throws LoadFailure {
+        LazyBolt shipped = (LazyBolt)Utils.deserialize(Utils.serialize(new LazyBolt("lazyBolt", makeConf())));
+        shipped.prepare(new HashMap<String,Object>(), null, mock(OutputCollector.class));
+        DefaultingMap conf = ((MockLoadableObject)shipped.getBolt()).theConf;
+        ((List<Object>)conf.get("table")).add("added");
+        ((Map<String,Object>)conf.get("streams")).put("more", Arrays.asList("x"));
+        conf.getSubMap("componentconfig").put("added", 1);
+        Assert.assertEquals(1001, ((List<Object>)conf.get("table")).size());
+        Assert.assertTrue(((Map<String,Object>)conf.get("streams")).containsKey("more"));
+    }
+
+    @Test
+    public void testSpout() throws LoadFailure {
+        LazySpout proxy = new LazySpout("lazySpout", makeConf());
+        LazySpout shipped = (LazySpout)Utils.deserialize(Utils.serialize(proxy));
+        shipped.open(new HashMap<String,Object>(), null, mock(SpoutOutputCollector.class));
+        Assert.assertEquals("testval", ((MockLoadableObject)shipped.getSpout()).myVar());
+    }
+
+    @Test
+    public void testSmaller() throws LoadFailure {
+        DefaultingMap conf = makeConf();
+        long eager = Utils.serialize(Loader.loadAndBuild("eager", conf)).length;
+        long lazy = Utils.serialize(new LazyBolt("lazy", makeConf())).length;
+        Assert.assertTrue(eager + " vs " + lazy, lazy < eager);
+    }
+
+    @Test(expected=LoadFailure.class)
+    public void testBadClass() throws LoadFailure {
+        DefaultingMap conf = makeConf();
+        conf.put("class", "org.apache.storm.topology.builder.NoSuchBolt");
+        new LazyBolt("lazyBolt", conf);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testWrongType() throws LoadFailure {
+        DefaultingMap conf = makeConf();
+        conf.put("class", FieldIndex.class.getName());
+        new LazySpout("lazySpout", conf);
+    }
+
+    @Test
+    public void testLoader() throws LoadFailure {
+        DefaultingMap spouts = new DefaultingMap();
+        spouts.put("spout", makeConf());
+        DefaultingMap bolt = makeConf();
+        bolt.put("inputs", Arrays.asList("spout::fields:a"));
+        DefaultingMap bolts = new DefaultingMap();
+        bolts.put("bolt", bolt);
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("spouts", spouts);
+        conf.put("bolts", bolts);
+
+        TopologyBuilder builder = spy(new TopologyBuilder());
+        new Loader(conf, builder, new TestConfigurator());
+
+        ArgumentCaptor<IRichSpout> spout = ArgumentCaptor.forClass(IRichSpout.class);
+        verify(builder).setSpout(eq("spout"), spout.capture(), eq(1));
+        Assert.assertTrue(spout.getValue() instanceof LazySpout);
+        ArgumentCaptor<IRichBolt> b = ArgumentCaptor.forClass(IRichBolt.class);
+        verify(builder).setBolt(eq("bolt"), b.capture(), eq(1));
+        Assert.assertTrue(b.getValue() instanceof LazyBolt);
+        builder.createTopology();
+    }
+}
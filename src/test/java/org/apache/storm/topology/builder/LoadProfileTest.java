@@ -0,0 +1,75 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LoadProfileTest {
+
+    @Test
+    public void testPhases() {
+        LoadProfile profile = new LoadProfile(false);
+        profile.phase("load", profile.start() - 3000000);
+        profile.phase("load.bolts", profile.start() - 2000000);
+        profile.phase("load.spouts", profile.start() - 500000);
+        profile.phase("yaml", profile.start() - 1000000);
+        profile.phase("yaml", profile.start() - 1000000);
+
+        Assert.assertTrue(profile.getPhaseNanos("yaml") >= 2000000);
+        Assert.assertEquals(0, profile.getPhaseNanos("submit"));
+        // Children don't count toward the total.
+        long total = profile.getTotalNanos();
+        Assert.assertEquals(profile.getPhaseNanos("load") + profile.getPhaseNanos("yaml"), total);
+
+        // Slowest first, children under their parent.
+        List<String> order = new ArrayList<String>();
+        for (String line : profile.report().split("\n")) {
+            order.add(line.trim().split(" ")[0]);
+        }
+        Assert.assertEquals("load", order.get(1));
+        Assert.assertEquals("load.bolts", order.get(2));
+        Assert.assertEquals("load.spouts", order.get(3));
+        Assert.assertEquals("yaml", order.get(4));
+        Assert.assertEquals("total", order.get(5));
+    }
+
+    @Test
+    public void testComponents() {
+        LoadProfile profile = new LoadProfile(true);
+        profile.component("small", "bolt", 1000, 0, "x");
+        profile.component("big", "bolt", 5000, 10, new int[10000]);
+        profile.component("broken", "spout", 2000, 0, new Object());
+
+        List<LoadProfile.Component> comps = profile.getComponents();
+        Assert.assertEquals(3, comps.size());
+        Assert.assertTrue(comps.get(1).serializedBytes > 40000);
+        Assert.assertTrue(comps.get(0).serializedBytes > 0);
+        Assert.assertEquals(-1, comps.get(2).serializedBytes);
+
+        String json = profile.toJson();
+        Assert.assertTrue(json, json.indexOf("\"big\"") < json.indexOf("\"broken\""));
+        Assert.assertTrue(json, json.indexOf("\"broken\"") < json.indexOf("\"small\""));
+        Assert.assertTrue(profile.report().contains("big"));
+    }
+}
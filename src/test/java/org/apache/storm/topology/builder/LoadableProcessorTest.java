@@ -0,0 +1,171 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.apache.storm.topology.builder.Loader.LoadFailure;
+import org.apache.utils.DefaultingMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ServiceLoader;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+public class LoadableProcessorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    protected File out;
+    protected String errors;
+
+    /**
+     * Compile a class in package gen.test with the processor.
+     * @return true if it compiled
+     */
+    protected boolean compile(String className, String body, String... options) throws Exception {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(javac);
+        File src = tmp.newFolder();
+        out = tmp.newFolder();
+        File f = new File(src, "gen/test/" + className + ".java");
+        f.getParentFile().mkdirs();
+        Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+        w.write("package gen.test;\n"
+                + "import org.apache.storm.topology.builder.Loadable;\n"
+                + "import org.apache.utils.DefaultingMap;\n"
+                + body);
+        w.close();
+
+        List<String> args = new ArrayList<String>(Arrays.asList(options));
+        args.addAll(Arrays.asList("-classpath", System.getProperty("java.class.path"),
+                "-processor", LoadableProcessor.class.getName(), "-d", out.getPath(), "-s", out.getPath(), f.getPath()));
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int rc = javac.run(null, null, err, args.toArray(new String[args.size()]));
+        errors = err.toString("UTF-8");
+        return rc == 0;
+    }
+
+    @Test
+    public void testRegistry() throws Exception {
+        Assert.assertTrue(errors, compile("Good",
+                "@Loadable public class Good {\n"
+                + "    public final String name;\n"
+                + "    public Good(String name, DefaultingMap conf) { this.name = name; }\n"
+                + "    public Good() { this.name = null; }\n"
+                + "    @Loadable public static class Inner {}\n"
+                + "}\n"));
+        Assert.assertTrue(new File(out, "gen/test/LoadableRegistry.java").isFile());
+
+        URLClassLoader cl = new URLClassLoader(new URL[] {out.toURI().toURL()}, getClass().getClassLoader());
+        List<ILoadableRegistry> found = new ArrayList<ILoadableRegistry>();
+        for (ILoadableRegistry r : ServiceLoader.load(ILoadableRegistry.class, cl)) {
+            if (r.getClass().getClassLoader() == cl) {
+                found.add(r);
+            }
+        }
+        Assert.assertEquals(1, found.size());
+        ILoadableRegistry registry = found.get(0);
+
+        // The (String, DefaultingMap) constructor is preferred, as in loadAndBuild().
+        Object good = registry.build("gen.test.Good", "g", new DefaultingMap());
+        Assert.assertEquals("g", good.getClass().getField("name").get(good));
+        Assert.assertEquals("gen.test.Good$Inner", registry.build("gen.test.Good$Inner", "i", null).getClass().getName());
+        Assert.assertNull(registry.build("gen.test.Other", "o", null));
+    }
+
+    @Test
+    public void testRegistryName() throws Exception {
+        Assert.assertTrue(errors, compile("Named", "@Loadable public class Named {}\n", "-Aloadable.registry=gen.reg.Mine"));
+        Assert.assertTrue(new File(out, "gen/reg/Mine.java").isFile());
+    }
+
+    @Test
+    public void testNoConstructor() throws Exception {
+        Assert.assertFalse(compile("NoCtor",
+                "@Loadable public class NoCtor {\n"
+                + "    public NoCtor(int x) {}\n"
+                + "}\n"));
+        Assert.assertTrue(errors, errors.contains("gen.test.NoCtor has no (String, DefaultingMap) or no-argument constructor"));
+    }
+
+    @Test
+    public void testPrivateConstructor() throws Exception {
+        Assert.assertFalse(compile("Hidden",
+                "@Loadable public class Hidden {\n"
+                + "    private Hidden(String name, DefaultingMap conf) {}\n"
+                + "    public Hidden() {}\n"
+                + "}\n"));
+        Assert.assertTrue(errors, errors.contains("must be public"));
+    }
+
+    @Test
+    public void testNotPublic() throws Exception {
+        Assert.assertFalse(compile("Outer",
+                "public class Outer {\n"
+                + "    @Loadable public class Inner {}\n"
+                + "    @Loadable static abstract class Abs {}\n"
+                + "}\n"));
+        Assert.assertTrue(errors, errors.contains("gen.test.Outer.Inner must be public, and static if nested"));
+        Assert.assertTrue(errors, errors.contains("gen.test.Outer.Abs is abstract"));
+    }
+
+    @Test
+    public void testLoaderUsesRegistry() throws LoadFailure {
+        // RegisteredObject was put in a registry when the tests were compiled.
+        boolean registered = false;
+        for (ILoadableRegistry r : Loader.getRegistries()) {
+            try {
+                registered |= (r.build(RegisteredObject.class.getName(), "r", new DefaultingMap()) != null);
+            } catch (Exception e) {
+                Assert.fail(e.getMessage());
+            }
+        }
+        Assert.assertTrue("RegisteredObject isn't in a registry", registered);
+
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("class", RegisteredObject.class.getName());
+        RegisteredObject o = (RegisteredObject)Loader.loadAndBuild("reg", conf);
+        Assert.assertEquals("reg", o.name);
+        Assert.assertSame(conf, o.conf);
+
+        conf.put("class", RegisteredObject.NoArgs.class.getName());
+        Assert.assertTrue(Loader.loadAndBuild("reg", conf) instanceof RegisteredObject.NoArgs);
+
+        // Classes that aren't registered are still loaded by name.
+        conf.put("class", MockLoadableObject.class.getName());
+        Assert.assertTrue(Loader.loadAndBuild("mock", conf) instanceof MockLoadableObject);
+    }
+}
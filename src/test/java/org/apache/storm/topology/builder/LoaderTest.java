@@ -19,12 +19,21 @@
  */
 package org.apache.storm.topology.builder;
 
+import backtype.storm.Config;
+import backtype.storm.generated.Bolt;
+
 import org.junit.Assert;
 import org.junit.Test;
 
 import org.apache.storm.topology.builder.Loader.LoadFailure;
 import org.apache.utils.DefaultingMap;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
 public class LoaderTest {
 
 
@@ -79,6 +88,41 @@ public class LoaderTest {
         Assert.assertEquals("tst", o);
     }
 
+    @Test
+    public void testMetricsConfig() {
+        Map<String,Object> consumer = new HashMap<String,Object>();
+        consumer.put("class", "backtype.storm.metric.LoggingMetricsConsumer");
+        consumer.put("parallelism", 2);
+        consumer.put("argument", "arg");
+        Map<String,Object> metrics = new HashMap<String,Object>();
+        metrics.put("bucketsecs", 10);
+        metrics.put("consumers", Arrays.<Object>asList(consumer));
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("metrics", metrics);
+
+        TestConfigurator cfg = new TestConfigurator();
+        Loader.doMetricsConfig(cfg, conf);
+        Config stormConf = cfg.getStormConfig();
+        Assert.assertEquals(10, stormConf.get(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS));
+        List<?> registered = (List<?>)stormConf.get(Config.TOPOLOGY_METRICS_CONSUMER_REGISTER);
+        Assert.assertEquals(1, registered.size());
+        Map<?,?> reg = (Map<?,?>)registered.get(0);
+        Assert.assertEquals("backtype.storm.metric.LoggingMetricsConsumer", reg.get("class"));
+        Assert.assertEquals(2L, reg.get("parallelism.hint"));
+        Assert.assertEquals("arg", reg.get("argument"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadMetricsConsumer() {
+        Map<String,Object> consumer = new HashMap<String,Object>();
+        consumer.put("class", "org.apache.storm.topology.builder.MockLoadableObject");
+        Map<String,Object> metrics = new HashMap<String,Object>();
+        metrics.put("consumers", Arrays.<Object>asList(consumer));
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("metrics", metrics);
+        Loader.doMetricsConfig(new TestConfigurator(), conf);
+    }
+
     public static Object testBuilder(String name, DefaultingMap conf) {
         return new MockLoadableObject(name, conf);
     }
@@ -87,4 +131,145 @@ public class LoaderTest {
         return name;
     }
 
+    @Test
+    public void testColocate() throws LoadFailure {
+        DefaultingMap spouts = new DefaultingMap();
+        DefaultingMap spt = new DefaultingMap();
+        spt.put("class", "org.apache.storm.topology.builder.MockLoadableObject");
+        spt.put("spreadworkers", true);
+        spouts.put("src", spt);
+
+        DefaultingMap bolts = new DefaultingMap();
+        DefaultingMap b1 = new DefaultingMap();
+        b1.put("class", "org.apache.storm.topology.builder.MockLoadableObject");
+        b1.put("inputs", Arrays.asList("src"));
+        b1.put("colocate", "src");
+        bolts.put("b1", b1);
+        DefaultingMap b2 = new DefaultingMap();
+        b2.put("class", "org.apache.storm.topology.builder.MockLoadableObject");
+        b2.put("inputs", Arrays.asList("b1"));
+        b2.put("colocate", Arrays.asList("b1", "nosuchbolt"));
+        bolts.put("b2", b2);
+
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("spouts", spouts);
+        conf.put("bolts", bolts);
+        Loader ldr = new Loader(conf, new TestConfigurator());
+
+        Assert.assertEquals(Arrays.asList("src"), ldr.getSpreads());
+        List<List<String>> groups = ldr.getColocations();
+        Assert.assertEquals(2, groups.size());
+        Assert.assertTrue(groups.contains(Arrays.asList("b1", "src")));
+        Assert.assertTrue(groups.contains(Arrays.asList("b2", "b1")));
+    }
+
+
+    /**
+     * src -> b1 -> b2 -> b3, with b2 also feeding b4 and b4 feeding b5.
+     */
+    protected DefaultingMap makeChainConf() {
+        DefaultingMap spouts = new DefaultingMap();
+        DefaultingMap spt = new DefaultingMap();
+        spt.put("class", "org.apache.storm.topology.builder.MockLoadableObject");
+        spouts.put("src", spt);
+
+        DefaultingMap bolts = new DefaultingMap();
+        String[][] edges = {{"b1", "src"}, {"b2", "b1"}, {"b3", "b2"}, {"b4", "b2:default:localOrShuffle"}, {"b5", "b4"}};
+        for (String[] e : edges) {
+            DefaultingMap b = new DefaultingMap();
+            b.put("class", "org.apache.storm.topology.builder.MockLoadableObject");
+            b.put("inputs", Arrays.asList(e[1]));
+            b.put("declare", Arrays.asList("f"));
+            bolts.put(e[0], b);
+        }
+        ((DefaultingMap)bolts.get("b1")).put("spreadworkers", true);
+        ((DefaultingMap)bolts.get("b3")).put("colocate", "b1");
+
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("spouts", spouts);
+        conf.put("bolts", bolts);
+        return conf;
+    }
+
+    @Test
+    public void testFuse() throws LoadFailure {
+        DefaultingMap conf = makeChainConf();
+        conf.put("fuse", true);
+        Loader ldr = new Loader(conf, new TestConfigurator());
+
+        // b2 has two consumers, so b1-b2 and b4-b5 are the only chains.
+        Map<String,List<String>> chains = ldr.getFusedChains();
+        Assert.assertEquals(2, chains.size());
+        Assert.assertEquals(Arrays.asList("b1", "b2"), chains.get("b2"));
+        Assert.assertEquals(Arrays.asList("b4", "b5"), chains.get("b5"));
+        Map<String,?> bolts = ldr.getTopology().get_bolts();
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("b2", "b3", "b5")), bolts.keySet());
+
+        // Hints on fused bolts apply to the bolt they were fused into.
+        Assert.assertEquals(Arrays.asList("b2"), ldr.getSpreads());
+        Assert.assertEquals(Arrays.asList(Arrays.asList("b3", "b2")), ldr.getColocations());
+    }
+
+    @Test
+    public void testFuseOptOut() throws LoadFailure {
+        DefaultingMap conf = makeChainConf();
+        Loader ldr = new Loader(conf, new TestConfigurator());
+        Assert.assertTrue(ldr.getFusedChains().isEmpty());
+        Assert.assertEquals(5, ldr.getTopology().get_bolts().size());
+
+        conf = makeChainConf();
+        conf.put("fuse", true);
+        ((DefaultingMap)((DefaultingMap)conf.get("bolts")).get("b5")).put("fuse", false);
+        ((DefaultingMap)((DefaultingMap)conf.get("bolts")).get("b2")).put("parallelism", 2);
+        ldr = new Loader(conf, new TestConfigurator());
+        Assert.assertTrue(ldr.getFusedChains().isEmpty());
+    }
+
+    @Test
+    public void testScale() throws LoadFailure {
+        DefaultingMap conf = makeChainConf();
+        DefaultingMap bolts = (DefaultingMap)conf.get("bolts");
+        ((DefaultingMap)((DefaultingMap)conf.get("spouts")).get("src")).put("parallelism", 4);
+        ((DefaultingMap)bolts.get("b1")).put("parallelism", 8);
+        ((DefaultingMap)bolts.get("b2")).put("parallelism", 8);
+        ((DefaultingMap)bolts.get("b3")).put("parallelism", 3);
+        ((DefaultingMap)bolts.get("b3")).put("minparallelism", 2);
+        ((DefaultingMap)bolts.get("b4")).put("parallelism", 10);
+        ((DefaultingMap)bolts.get("b4")).put("maxparallelism", 12);
+        conf.put("fuse", true);
+        conf.put("g.scale", 0.5);
+        Loader ldr = new Loader(conf, new TestConfigurator());
+
+        Map<String,Bolt> built = ldr.getTopology().get_bolts();
+        Assert.assertEquals(2, ldr.getTopology().get_spouts().get("src").get_common().get_parallelism_hint());
+        // b1 and b2 still match, so are still fused.
+        Assert.assertEquals(Arrays.asList("b1", "b2"), ldr.getFusedChains().get("b2"));
+        Assert.assertEquals(4, built.get("b2").get_common().get_parallelism_hint());
+        Assert.assertEquals(2, built.get("b3").get_common().get_parallelism_hint());
+        Assert.assertEquals(5, built.get("b4").get_common().get_parallelism_hint());
+        // Never below 1.
+        Assert.assertEquals(1, built.get("b5").get_common().get_parallelism_hint());
+        Assert.assertArrayEquals(new int[] {8, 4}, ldr.getScaling().get("b1"));
+        Assert.assertEquals(6, ldr.getScaling().size());
+
+        conf = makeChainConf();
+        bolts = (DefaultingMap)conf.get("bolts");
+        ((DefaultingMap)bolts.get("b4")).put("parallelism", 10);
+        ((DefaultingMap)bolts.get("b4")).put("maxparallelism", 12);
+        conf.put("g.scale", 2);
+        ldr = new Loader(conf, new TestConfigurator());
+        Assert.assertEquals(12, ldr.getTopology().get_bolts().get("b4").get_common().get_parallelism_hint());
+        Assert.assertEquals(2, ldr.getTopology().get_bolts().get("b5").get_common().get_parallelism_hint());
+
+        // Unscaled, nothing changes.
+        ldr = new Loader(makeChainConf(), new TestConfigurator());
+        Assert.assertTrue(ldr.getScaling().isEmpty());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadScale() throws LoadFailure {
+        DefaultingMap conf = makeChainConf();
+        conf.put("g.scale", 0);
+        new Loader(conf, new TestConfigurator());
+    }
 }
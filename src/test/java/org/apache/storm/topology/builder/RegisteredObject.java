@@ -0,0 +1,44 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import org.apache.utils.DefaultingMap;
+
+/**
+ * This is not, in itself, a unit test. It's a @Loadable class for
+ * LoadableProcessorTest; compiling the tests puts it in a registry.
+ */
+@Loadable
+public class RegisteredObject {
+    protected final String name;
+    protected final DefaultingMap conf;
+
+    public RegisteredObject(String name, DefaultingMap conf) {
+        this.name = name;
+        this.conf = conf;
+    }
+
+    /**
+     * Built with the no-argument constructor.
+     */
+    @Loadable
+    public static class NoArgs {
+    }
+}
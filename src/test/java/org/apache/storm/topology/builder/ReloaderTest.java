@@ -0,0 +1,308 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import backtype.storm.Config;
+import backtype.storm.Constants;
+import backtype.storm.spout.SpoutOutputCollector;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.topology.BasicOutputCollector;
+import backtype.storm.topology.IRichBolt;
+import backtype.storm.topology.IRichSpout;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.topology.TopologyBuilder;
+import backtype.storm.topology.base.BaseBasicBolt;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.Utils;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.apache.storm.topology.builder.Loader.LoadFailure;
+import org.apache.utils.DefaultingMap;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ReloaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * A bolt with a reloadable throttle.
+     */
+    public static class KnobBolt extends BaseBasicBolt implements IReloadable {
+        private static final long serialVersionUID = 1L;
+        protected double throttle;
+        protected final List<DefaultingMap> reloads = new ArrayList<DefaultingMap>();
+        protected int executed = 0;
+
+        public KnobBolt(String name, DefaultingMap conf) {
+            throttle = conf.getDouble("throttle", 1.0);
+        }
+
+        @Override
+        public Set<String> getReloadableKeys() {
+            return Collections.singleton("throttle");
+        }
+
+        @Override
+        public void reload(DefaultingMap changes) {
+            if (changes.getDouble("throttle", 0) < 0) {
+                throw new IllegalArgumentException("negative throttle");
+            }
+            reloads.add(changes);
+            throttle = changes.getDouble("throttle", 1.0);
+        }
+
+        @Override
+        public void execute(Tuple input, BasicOutputCollector collector) {
+            ++executed;
+        }
+
+        @Override
+        public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        }
+    }
+
+    /**
+     * A stand-in configuration store, shared by every copy of the source.
+     */
+    public static class StoreSource implements IReloadSource {
+        private static final long serialVersionUID = 1L;
+        protected static volatile Map<String,Object> live = new HashMap<String,Object>();
+        protected static volatile int version = 0;
+        protected transient int seen = 0;
+
+        public StoreSource(String name, DefaultingMap conf) {
+        }
+
+        protected static void set(String section, String component, String key, Object value) {
+            Map<String,Object> settings = new HashMap<String,Object>();
+            settings.put(key, value);
+            Map<String,Object> sect = new HashMap<String,Object>();
+            sect.put(component, settings);
+            Map<String,Object> l = new HashMap<String,Object>();
+            l.put(section, sect);
+            live = l;
+            ++version;
+        }
+
+        @Override
+        public Map<String,Object> read() {
+            if (seen == version) {
+                return null;
+            }
+            seen = version;
+            return live;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        StoreSource.live = new HashMap<String,Object>();
+        StoreSource.version = 0;
+    }
+
+    protected DefaultingMap boltConf() {
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("class", KnobBolt.class.getName());
+        conf.put("throttle", 0.5);
+        conf.put("other", 1);
+        return conf;
+    }
+
+    protected Reloader newReloader(DefaultingMap conf) {
+        return new Reloader("Bolt2", "bolts", new HashSet<String>(Arrays.asList("throttle", "other")), conf,
+                new StoreSource("reload", null), 5);
+    }
+
+    @Test
+    public void testPoll() {
+        Reloader r = newReloader(boltConf());
+        Assert.assertNull(r.poll());
+
+        StoreSource.set("bolts", "Bolt2", "throttle", 0.25);
+        DefaultingMap changes = r.poll();
+        Assert.assertEquals(Collections.singletonMap("throttle", (Object)0.25), changes);
+        Assert.assertNull(r.poll());
+
+        // The same value again isn't a change.
+        StoreSource.set("bolts", "Bolt2", "throttle", 0.25);
+        Assert.assertNull(r.poll());
+
+        // Other components' settings and keys that aren't reloadable are ignored,
+        // and the throttle goes back to the topology's value.
+        StoreSource.set("bolts", "Bolt1", "throttle", 0.1);
+        Assert.assertEquals(Collections.singletonMap("throttle", (Object)0.5), r.poll());
+        StoreSource.set("bolts", "Bolt2", "class", "x");
+        Assert.assertNull(r.poll());
+    }
+
+    @Test
+    public void testBolt() throws Exception {
+        KnobBolt knob = new KnobBolt("Bolt2", boltConf());
+        ReloadableBolt proxy = new ReloadableBolt(knob, newReloader(boltConf()));
+        Assert.assertEquals(5, proxy.getComponentConfiguration().get(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS));
+
+        // Shipped to the worker.
+        proxy = (ReloadableBolt)Utils.deserialize(Utils.serialize(proxy));
+        knob = (KnobBolt)proxy.getBolt();
+        OutputCollector collector = mock(OutputCollector.class);
+        proxy.prepare(new HashMap<String,Object>(), null, collector);
+
+        Tuple tick = mock(Tuple.class);
+        when(tick.getSourceComponent()).thenReturn(Constants.SYSTEM_COMPONENT_ID);
+        when(tick.getSourceStreamId()).thenReturn(Constants.SYSTEM_TICK_STREAM_ID);
+        Tuple data = mock(Tuple.class);
+        when(data.getSourceComponent()).thenReturn("Spout");
+        when(data.getSourceStreamId()).thenReturn(Utils.DEFAULT_STREAM_ID);
+
+        // Changes wait for a tick.
+        StoreSource.set("bolts", "Bolt2", "throttle", 0.25);
+        proxy.execute(data);
+        Assert.assertEquals(0.5, knob.throttle, 0);
+        Assert.assertEquals(1, knob.executed);
+        proxy.execute(tick);
+        Assert.assertEquals(0.25, knob.throttle, 0);
+        // The tick is the proxy's, not the bolt's.
+        Assert.assertEquals(1, knob.executed);
+        verify(collector).ack(tick);
+
+        // A rejected change leaves the bolt alone.
+        StoreSource.set("bolts", "Bolt2", "throttle", -1);
+        proxy.execute(tick);
+        Assert.assertEquals(0.25, knob.throttle, 0);
+        Assert.assertEquals(1, knob.reloads.size());
+    }
+
+    @Test
+    public void testSpout() throws Exception {
+        final List<DefaultingMap> reloads = new ArrayList<DefaultingMap>();
+        IRichSpout spout = mock(IRichSpout.class, withSettings().extraInterfaces(IReloadable.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                reloads.add((DefaultingMap)invocation.getArguments()[0]);
+                return null;
+            }
+        }).when((IReloadable)spout).reload(any(DefaultingMap.class));
+        Reloader r = new Reloader("Spout", "spouts", Collections.singleton("rate"), new DefaultingMap(),
+                new StoreSource("reload", null), 1);
+        ReloadableSpout proxy = new ReloadableSpout(spout, r);
+        proxy.open(new HashMap<String,Object>(), null, mock(SpoutOutputCollector.class));
+
+        StoreSource.set("spouts", "Spout", "rate", 100);
+        proxy.nextTuple();
+        // Not checked until checksecs have passed.
+        Assert.assertTrue(reloads.isEmpty());
+        proxy.nextCheck = 0;
+        proxy.nextTuple();
+        Assert.assertEquals(Collections.singletonMap("rate", (Object)100), reloads.get(0));
+        verify(spout, times(2)).nextTuple();
+    }
+
+    @Test
+    public void testFileSource() throws Exception {
+        File live = new File(tmp.getRoot(), "live.yaml");
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("path", live.getPath());
+        FileReloadSource source = (FileReloadSource)Reloader.newSource(conf);
+
+        // No file, nothing overridden.
+        Assert.assertNull(source.read());
+
+        FileWriter w = new FileWriter(live);
+        w.write("bolts:\n  Bolt2:\n    throttle: 0.25\n");
+        w.close();
+        Map<String,Object> y = source.read();
+        Assert.assertEquals(0.25, ((Map<?,?>)((Map<?,?>)y.get("bolts")).get("Bolt2")).get("throttle"));
+        Assert.assertNull(source.read());
+
+        w = new FileWriter(live);
+        w.write("bolts:\n  Bolt2:\n    throttle: 0.125\n");
+        w.close();
+        live.setLastModified(live.lastModified() + 2000);
+        y = source.read();
+        Assert.assertEquals(0.125, ((Map<?,?>)((Map<?,?>)y.get("bolts")).get("Bolt2")).get("throttle"));
+
+        // Deleting the file takes the overrides away.
+        Assert.assertTrue(live.delete());
+        Assert.assertTrue(source.read().isEmpty());
+    }
+
+    @Test
+    public void testLoader() throws LoadFailure {
+        DefaultingMap spout = new DefaultingMap();
+        spout.put("class", MockLoadableObject.class.getName());
+        DefaultingMap spouts = new DefaultingMap();
+        spouts.put("Spout", spout);
+        DefaultingMap bolt = boltConf();
+        bolt.put("inputs", Arrays.asList("Spout"));
+        DefaultingMap bolts = new DefaultingMap();
+        bolts.put("Bolt2", bolt);
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("spouts", spouts);
+        conf.put("bolts", bolts);
+
+        // Without a reload section, nothing is wrapped.
+        TopologyBuilder builder = spy(new TopologyBuilder());
+        new Loader(conf, builder, new TestConfigurator());
+        verify(builder).setBolt(eq("Bolt2"), isA(KnobBolt.class), eq(1));
+
+        DefaultingMap reload = new DefaultingMap();
+        reload.put("class", StoreSource.class.getName());
+        reload.put("checksecs", 7);
+        conf.put("reload", reload);
+        builder = spy(new TopologyBuilder());
+        new Loader(conf, builder, new TestConfigurator());
+        ArgumentCaptor<IRichBolt> b = ArgumentCaptor.forClass(IRichBolt.class);
+        verify(builder).setBolt(eq("Bolt2"), b.capture(), eq(1));
+        Assert.assertTrue(b.getValue() instanceof ReloadableBolt);
+        Assert.assertEquals(7, b.getValue().getComponentConfiguration().get(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS));
+        // The spout isn't reloadable.
+        verify(builder).setSpout(eq("Spout"), isA(MockLoadableObject.class), eq(1));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadSection() throws LoadFailure {
+        DefaultingMap reload = new DefaultingMap();
+        reload.put("checksecs", 7);
+        Reloader.newSource(reload);
+    }
+}
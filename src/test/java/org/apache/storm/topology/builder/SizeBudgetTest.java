@@ -0,0 +1,171 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.builder;
+
+import backtype.storm.topology.TopologyBuilder;
+import backtype.storm.utils.Utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.storm.topology.builder.Loader.LoadFailure;
+import org.apache.utils.DefaultingMap;
+import org.apache.utils.FrozenDefaultingMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SizeBudgetTest {
+
+    /**
+     * A component whose configuration has a big, repetitive table.
+     */
+    protected MockLoadableObject bigComponent() {
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("val", "testval");
+        List<Object> table = new ArrayList<Object>();
+        for (int i = 0; i < 2000; ++i) {
+            table.add(new String("value" + (i % 10)));
+        }
+        conf.put("table", table);
+        return new MockLoadableObject("big", conf);
+    }
+
+    protected SizeBudget budget(long component, long total, String action, boolean compact) {
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("component", component);
+        conf.put("total", total);
+        conf.put("action", action);
+        conf.put("compact", compact);
+        return new SizeBudget(conf);
+    }
+
+    @Test
+    public void testFieldSizes() {
+        List<SizeBudget.FieldSize> fields = SizeBudget.fieldSizes(bigComponent(), 2);
+        Assert.assertEquals(2, fields.size());
+        Assert.assertEquals("MockLoadableObject.theConf", fields.get(0).name);
+        Assert.assertTrue(fields.get(0).bytes > fields.get(1).bytes);
+    }
+
+    @Test
+    public void testComponentBudget() {
+        try {
+            budget(5000, 0, "fail", false).check("big", bigComponent());
+            Assert.fail("Budget not enforced");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("MockLoadableObject.theConf"));
+        }
+
+        SizeBudget warn = budget(5000, 0, "warn", false);
+        long size = warn.check("big", bigComponent());
+        Assert.assertTrue(size > 5000);
+        Assert.assertEquals(size, (long)warn.getSizes().get("big"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testTotalBudget() {
+        SizeBudget b = budget(0, 500, "fail", false);
+        b.check("a", new MockLoadableObject("a", new DefaultingMap()));
+        b.check("b", new MockLoadableObject("b", new DefaultingMap()));
+        b.checkTotal();
+    }
+
+    @Test
+    public void testCompact() {
+        long before = Utils.serialize(bigComponent()).length;
+
+        // MockLoadableObject.theConf is final; it's compacted in place.
+        MockLoadableObject compacted = bigComponent();
+        DefaultingMap conf = compacted.theConf;
+        long after = budget(0, 0, "fail", true).check("big", compacted);
+        // Repeated strings are written once.
+        Assert.assertTrue(before + " -> " + after, after < before * 2 / 3);
+        Assert.assertSame(conf, compacted.theConf);
+        Assert.assertEquals("testval", compacted.theConf.getString("val"));
+        Assert.assertEquals(2000, ((List<?>)compacted.theConf.get("table")).size());
+        Assert.assertEquals(0, SizeBudget.compact(compacted));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCompactNested() {
+        DefaultingMap nested = new DefaultingMap();
+        nested.put("x", "1");
+        List<Object> fields = new ArrayList<Object>();
+        fields.add("f1");
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("g.env", "prod");
+        conf.put("nested", nested);
+        conf.put("fields", fields);
+        MockLoadableObject component = new MockLoadableObject("c", conf);
+
+        Assert.assertEquals(2, SizeBudget.compact(component));
+        Assert.assertSame(conf, component.theConf);
+        DefaultingMap sub = conf.getSubMap("nested");
+        Assert.assertTrue(sub instanceof FrozenDefaultingMap);
+        Assert.assertEquals("prod", sub.getString("g.env"));
+        Assert.assertEquals("1", sub.getString("x"));
+        try {
+            ((List<Object>)conf.get("fields")).add("f2");
+            Assert.fail("compacted list can be changed");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            sub.put("y", 2);
+            Assert.fail("compacted map can be changed");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        // The map itself can still be changed.
+        conf.put("added", 1);
+        Assert.assertEquals(1, conf.getInt("added", 0));
+        Assert.assertEquals(0, SizeBudget.compact(component));
+    }
+
+    @Test
+    public void testLoaderBudget() throws LoadFailure {
+        DefaultingMap spt = new DefaultingMap();
+        spt.put("class", MockLoadableObject.class.getName());
+        List<Object> table = new ArrayList<Object>();
+        for (int i = 0; i < 2000; ++i) {
+            table.add("value" + i);
+        }
+        spt.put("table", table);
+        DefaultingMap spouts = new DefaultingMap();
+        spouts.put("spout", spt);
+        DefaultingMap budget = new DefaultingMap();
+        budget.put("component", 5000);
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("spouts", spouts);
+        conf.put("sizebudget", budget);
+
+        try {
+            new Loader(conf, new TopologyBuilder(), new TestConfigurator());
+            Assert.fail("Budget not enforced");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("spout serializes to"));
+        }
+
+        budget.put("component", 0);
+        new Loader(conf, new TopologyBuilder(), new TestConfigurator());
+    }
+}
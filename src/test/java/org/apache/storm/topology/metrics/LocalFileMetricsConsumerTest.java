@@ -0,0 +1,124 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.metrics;
+
+import backtype.storm.metric.api.IMetricsConsumer.DataPoint;
+import backtype.storm.metric.api.IMetricsConsumer.TaskInfo;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class LocalFileMetricsConsumerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    protected static Map<String,Object> streams(Object dflt, Object other) {
+        Map<String,Object> m = new HashMap<String,Object>();
+        m.put("default", dflt);
+        m.put("other", other);
+        return m;
+    }
+
+    protected static List<DataPoint> boltPoints(long executed, double latency) {
+        List<DataPoint> points = new ArrayList<DataPoint>();
+        points.add(new DataPoint("__execute-count", streams(executed, 0L)));
+        points.add(new DataPoint("__execute-latency", streams(latency, 0.0)));
+        points.add(new DataPoint("__emit-count", streams(executed * 2, 1L)));
+        points.add(new DataPoint("__ack-count", streams(executed, 0L)));
+        points.add(new DataPoint("__fail-count", streams(1L, 0L)));
+        points.add(new DataPoint("someUserMetric", 42));
+        return points;
+    }
+
+    @Test
+    public void testAggregate() throws Exception {
+        File f = new File(tmp.getRoot(), "metrics.tsv");
+        Map<String,Object> arg = new HashMap<String,Object>();
+        arg.put("path", f.getPath());
+        LocalFileMetricsConsumer consumer = new LocalFileMetricsConsumer();
+        consumer.prepare(new HashMap<String,Object>(), arg, null, null);
+
+        consumer.handleDataPoints(new TaskInfo("host", 6700, "Bolt", 1, 1000, 10), boltPoints(100, 2.0));
+        consumer.handleDataPoints(new TaskInfo("host", 6701, "Bolt", 2, 1002, 10), boltPoints(300, 4.0));
+        consumer.handleDataPoints(new TaskInfo("host", 6700, "__acker", 3, 1001, 10), boltPoints(5, 1.0));
+        // Nothing written until a later bucket shows up.
+        Assert.assertEquals(1, Files.readAllLines(f.toPath(), Charset.forName("UTF-8")).size());
+
+        // Or until the next bucket starts; a full interval of grace.
+        consumer.handleDataPoints(new TaskInfo("host", 6700, "Bolt", 1, 1010, 10), boltPoints(10, 1.0));
+        Assert.assertEquals(1, Files.readAllLines(f.toPath(), Charset.forName("UTF-8")).size());
+
+        consumer.handleDataPoints(new TaskInfo("host", 6700, "Bolt", 1, 1020, 10), boltPoints(20, 1.0));
+        List<String> lines = Files.readAllLines(f.toPath(), Charset.forName("UTF-8"));
+        Assert.assertEquals(2, lines.size());
+        Assert.assertEquals("1000\tBolt\t2\t400\t802\t400\t2\t3.500\t0.000\t0.000", lines.get(1));
+
+        // cleanup() writes everything still held.
+        consumer.cleanup();
+        lines = Files.readAllLines(f.toPath(), Charset.forName("UTF-8"));
+        Assert.assertEquals(4, lines.size());
+        Assert.assertTrue(lines.get(2).startsWith("1010\tBolt\t1\t10\t"));
+        Assert.assertTrue(lines.get(3).startsWith("1020\tBolt\t1\t20\t"));
+    }
+
+    @Test
+    public void testOutOfOrder() throws Exception {
+        File f = new File(tmp.getRoot(), "metrics.tsv");
+        Map<String,Object> arg = new HashMap<String,Object>();
+        arg.put("path", f.getPath());
+        LocalFileMetricsConsumer consumer = new LocalFileMetricsConsumer();
+        consumer.prepare(new HashMap<String,Object>(), arg, null, null);
+
+        // Task 2's report for each bucket arrives after task 1's report
+        // for the next one.
+        consumer.handleDataPoints(new TaskInfo("host", 6700, "Bolt", 1, 1000, 10), boltPoints(1, 1.0));
+        for (long t = 1010; t <= 1050; t += 10) {
+            consumer.handleDataPoints(new TaskInfo("host", 6700, "Bolt", 1, t, 10), boltPoints(1, 1.0));
+            consumer.handleDataPoints(new TaskInfo("host", 6701, "Bolt", 2, t - 8, 10), boltPoints(2, 1.0));
+        }
+        // Too late: bucket 1000 is already written.
+        consumer.handleDataPoints(new TaskInfo("host", 6702, "Bolt", 3, 1001, 10), boltPoints(4, 1.0));
+        consumer.cleanup();
+
+        List<String> lines = Files.readAllLines(f.toPath(), Charset.forName("UTF-8"));
+        Assert.assertEquals(7, lines.size());
+        Map<String,String> rows = new HashMap<String,String>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] cols = line.split("\t");
+            String key = cols[0] + "/" + cols[1];
+            Assert.assertNull("duplicate row for " + key, rows.put(key, line));
+        }
+        for (long t = 1000; t <= 1040; t += 10) {
+            Assert.assertTrue(rows.get(t + "/Bolt").startsWith(t + "\tBolt\t2\t3\t"));
+        }
+        Assert.assertTrue(rows.get("1050/Bolt").startsWith("1050\tBolt\t1\t1\t"));
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.scheduler;
+
+import backtype.storm.scheduler.ExecutorDetails;
+import backtype.storm.scheduler.WorkerSlot;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class SpreadPlannerTest {
+
+    /**
+     * Slots of a made-up cluster.
+     */
+    public static List<WorkerSlot> makeSlots(int nodes, int ports) {
+        List<WorkerSlot> slots = new ArrayList<WorkerSlot>();
+        for (int n = 0; n < nodes; ++n) {
+            for (int p = 0; p < ports; ++p) {
+                slots.add(new WorkerSlot("node" + n, 6700 + p));
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Components with the given executor counts, one task per executor.
+     */
+    public static Map<String,List<ExecutorDetails>> makeExecutors(Object... nameCounts) {
+        Map<String,List<ExecutorDetails>> ret = new LinkedHashMap<String,List<ExecutorDetails>>();
+        int task = 1;
+        for (int i = 0; i < nameCounts.length; i += 2) {
+            List<ExecutorDetails> execs = new ArrayList<ExecutorDetails>();
+            for (int e = 0; e < (Integer)nameCounts[i + 1]; ++e, ++task) {
+                execs.add(new ExecutorDetails(task, task));
+            }
+            ret.put((String)nameCounts[i], execs);
+        }
+        return ret;
+    }
+
+    /**
+     * Which slot each component's executors ended up in.
+     */
+    public static Map<String,Set<WorkerSlot>> slotsOf(Map<String,List<ExecutorDetails>> comps, Map<WorkerSlot,List<ExecutorDetails>> plan) {
+        Map<ExecutorDetails,WorkerSlot> where = new HashMap<ExecutorDetails,WorkerSlot>();
+        for (Map.Entry<WorkerSlot,List<ExecutorDetails>> e : plan.entrySet()) {
+            for (ExecutorDetails ed : e.getValue()) {
+                Assert.assertNull("executor placed twice", where.put(ed, e.getKey()));
+            }
+        }
+        Map<String,Set<WorkerSlot>> ret = new HashMap<String,Set<WorkerSlot>>();
+        for (Map.Entry<String,List<ExecutorDetails>> c : comps.entrySet()) {
+            Set<WorkerSlot> s = new HashSet<WorkerSlot>();
+            for (ExecutorDetails ed : c.getValue()) {
+                Assert.assertNotNull("executor not placed", where.get(ed));
+                s.add(where.get(ed));
+            }
+            ret.put(c.getKey(), s);
+        }
+        return ret;
+    }
+
+    protected static Set<String> nodes(Set<WorkerSlot> slots) {
+        Set<String> ret = new HashSet<String>();
+        for (WorkerSlot s : slots) {
+            ret.add(s.getNodeId());
+        }
+        return ret;
+    }
+
+    @Test
+    public void testChooseSlots() {
+        List<WorkerSlot> chosen = SpreadPlanner.chooseSlots(makeSlots(3, 4), 5);
+        Assert.assertEquals(5, chosen.size());
+        Assert.assertEquals(3, nodes(new HashSet<WorkerSlot>(chosen)).size());
+        Assert.assertEquals(12, SpreadPlanner.chooseSlots(makeSlots(3, 4), 20).size());
+    }
+
+    @Test
+    public void testNarrowPartner() {
+        // A parallelism 1 partner would pull the spread spout onto one worker.
+        Map<String,List<ExecutorDetails>> comps = makeExecutors("hot", 4, "single", 1, "wide", 4);
+        SpreadPlanner planner = new SpreadPlanner(comps);
+        planner.addSpread(Arrays.asList("hot"));
+        planner.colocate(Arrays.asList("hot", "single", "wide"));
+        Map<WorkerSlot,List<ExecutorDetails>> plan = planner.plan(makeSlots(4, 2), 4);
+
+        Map<String,Set<WorkerSlot>> where = slotsOf(comps, plan);
+        Assert.assertEquals(4, nodes(where.get("hot")).size());
+        // Partners as wide as the spread component still share its workers.
+        Assert.assertEquals(where.get("hot"), where.get("wide"));
+        Assert.assertEquals(1, where.get("single").size());
+    }
+
+    @Test
+    public void testSpread() {
+        // The hot spout has as many executors as there are nodes.
+        Map<String,List<ExecutorDetails>> comps = makeExecutors("hot", 3, "bolt", 12, "__acker", 3);
+        SpreadPlanner planner = new SpreadPlanner(comps);
+        planner.addSpread(Arrays.asList("hot", "missing"));
+        Map<WorkerSlot,List<ExecutorDetails>> plan = planner.plan(makeSlots(3, 4), 6);
+        Assert.assertEquals(6, plan.size());
+
+        Map<String,Set<WorkerSlot>> where = slotsOf(comps, plan);
+        Assert.assertEquals(3, nodes(where.get("hot")).size());
+        Assert.assertEquals(6, where.get("bolt").size());
+
+        // Load is even: 18 executors over 6 workers.
+        for (List<ExecutorDetails> l : plan.values()) {
+            Assert.assertEquals(3, l.size());
+        }
+    }
+
+    @Test
+    public void testLocalChain() {
+        // spout -> parse (localOrShuffle) -> enrich (localOrShuffle), and an unrelated sink.
+        Map<String,List<ExecutorDetails>> comps = makeExecutors("spout", 4, "parse", 8, "enrich", 6, "sink", 2);
+        SpreadPlanner planner = new SpreadPlanner(comps);
+        planner.addLocalEdge("spout", "parse");
+        planner.addLocalEdge("parse", "enrich");
+        Map<WorkerSlot,List<ExecutorDetails>> plan = planner.plan(makeSlots(2, 4), 8);
+
+        // Every worker with a spout task has parse and enrich tasks, and vice
+        // versa, so no localOrShuffle edge crosses workers.
+        Map<String,Set<WorkerSlot>> where = slotsOf(comps, plan);
+        Assert.assertEquals(4, where.get("spout").size());
+        Assert.assertEquals(where.get("spout"), where.get("parse"));
+        Assert.assertEquals(where.get("spout"), where.get("enrich"));
+        // The rest go to the otherwise idle workers.
+        Assert.assertTrue(Collections.disjoint(where.get("sink"), where.get("spout")));
+        Assert.assertEquals(2, planner.getGroups().size());
+    }
+
+    @Test
+    public void testColocate() {
+        Map<String,List<ExecutorDetails>> comps = makeExecutors("a", 2, "b", 4, "c", 4);
+        SpreadPlanner planner = new SpreadPlanner(comps);
+        planner.colocate(Arrays.asList("c", "a", "gone"));
+        Map<WorkerSlot,List<ExecutorDetails>> plan = planner.plan(makeSlots(1, 4), 4);
+        Map<String,Set<WorkerSlot>> where = slotsOf(comps, plan);
+        Assert.assertEquals(2, where.get("a").size());
+        Assert.assertEquals(where.get("a"), where.get("c"));
+        Assert.assertEquals(4, where.get("b").size());
+    }
+
+    @Test
+    public void testNoSlots() {
+        SpreadPlanner planner = new SpreadPlanner(makeExecutors("a", 2));
+        Assert.assertTrue(planner.plan(new ArrayList<WorkerSlot>(), 4).isEmpty());
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.scheduler;
+
+import backtype.storm.generated.StormTopology;
+import backtype.storm.scheduler.Cluster;
+import backtype.storm.scheduler.ExecutorDetails;
+import backtype.storm.scheduler.INimbus;
+import backtype.storm.scheduler.IScheduler;
+import backtype.storm.scheduler.SchedulerAssignment;
+import backtype.storm.scheduler.SchedulerAssignmentImpl;
+import backtype.storm.scheduler.SupervisorDetails;
+import backtype.storm.scheduler.Topologies;
+import backtype.storm.scheduler.TopologyDetails;
+import backtype.storm.scheduler.WorkerSlot;
+import backtype.storm.testing.TestWordCounter;
+import backtype.storm.testing.TestWordSpout;
+import backtype.storm.topology.TopologyBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class SpreadSchedulerTest {
+
+    /**
+     * Records which topologies it was asked to schedule.
+     */
+    protected static class FallbackScheduler implements IScheduler {
+        protected final Set<String> seen = new HashSet<String>();
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public void prepare(Map conf) {
+        }
+
+        @Override
+        public void schedule(Topologies topologies, Cluster cluster) {
+            for (TopologyDetails td : cluster.needsSchedulingTopologies(topologies)) {
+                seen.add(td.getName());
+            }
+        }
+    }
+
+    /**
+     * Just enough of Nimbus for Cluster to find supervisors' hosts.
+     */
+    protected static class FakeNimbus implements INimbus {
+        @Override
+        @SuppressWarnings("rawtypes")
+        public void prepare(Map conf, String schedulerLocalDir) {
+        }
+
+        @Override
+        public Collection<WorkerSlot> allSlotsAvailableForScheduling(Collection<SupervisorDetails> supervisors, Topologies topologies, Set<String> topologiesMissingAssignments) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void assignSlots(Topologies topologies, Map<String,Collection<WorkerSlot>> newSlotsByTopologyId) {
+        }
+
+        @Override
+        public String getHostName(Map<String,SupervisorDetails> existingSupervisors, String nodeId) {
+            SupervisorDetails s = existingSupervisors.get(nodeId);
+            return (s == null) ? null : s.getHost();
+        }
+
+        @Override
+        public IScheduler getForcedScheduler() {
+            return null;
+        }
+    }
+
+    protected Cluster makeCluster(int nodes, int ports) {
+        Map<String,SupervisorDetails> sups = new HashMap<String,SupervisorDetails>();
+        for (int n = 0; n < nodes; ++n) {
+            Number[] p = new Number[ports];
+            for (int i = 0; i < ports; ++i) {
+                p[i] = 6700 + i;
+            }
+            sups.put("node" + n, new SupervisorDetails("node" + n, "host" + n, null, Arrays.asList(p)));
+        }
+        return new Cluster(new FakeNimbus(), sups, new HashMap<String,SchedulerAssignmentImpl>());
+    }
+
+    protected TopologyDetails makeTopology(String name, Map<String,Object> conf, int workers) {
+        TopologyBuilder builder = new TopologyBuilder();
+        builder.setSpout("spout", new TestWordSpout(), 3);
+        builder.setBolt("count", new TestWordCounter(), 6).localOrShuffleGrouping("spout");
+        builder.setBolt("other", new TestWordCounter(), 2).shuffleGrouping("count");
+        StormTopology topology = builder.createTopology();
+
+        Map<ExecutorDetails,String> execs = new HashMap<ExecutorDetails,String>();
+        int task = 1;
+        for (Object[] c : new Object[][] {{"spout", 3}, {"count", 6}, {"other", 2}}) {
+            for (int i = 0; i < (Integer)c[1]; ++i, ++task) {
+                execs.put(new ExecutorDetails(task, task), (String)c[0]);
+            }
+        }
+        conf.put("topology.name", name);
+        return new TopologyDetails(name + "-1-1", conf, topology, workers, execs);
+    }
+
+    @Test
+    public void testSchedule() {
+        Map<String,Object> conf = new HashMap<String,Object>();
+        conf.put(SpreadScheduler.SPREAD_COMPONENTS, Collections.singletonList("spout"));
+        TopologyDetails hinted = makeTopology("hinted", conf, 3);
+        TopologyDetails plain = makeTopology("plain", new HashMap<String,Object>(), 2);
+        Map<String,TopologyDetails> tmap = new HashMap<String,TopologyDetails>();
+        tmap.put(hinted.getId(), hinted);
+        tmap.put(plain.getId(), plain);
+        Topologies topologies = new Topologies(tmap);
+
+        Cluster cluster = makeCluster(3, 2);
+        FallbackScheduler fallback = new FallbackScheduler();
+        SpreadScheduler scheduler = new SpreadScheduler(fallback);
+        scheduler.prepare(new HashMap<String,Object>());
+        scheduler.schedule(topologies, cluster);
+
+        // The hinted topology is fully placed; the other is left to the fallback.
+        Assert.assertEquals(Collections.singleton("plain"), fallback.seen);
+        SchedulerAssignment a = cluster.getAssignmentById(hinted.getId());
+        Assert.assertEquals(11, a.getExecutors().size());
+        Assert.assertEquals(3, a.getSlots().size());
+
+        // Spout executors on three different nodes, each with a counter.
+        Set<String> spoutNodes = new HashSet<String>();
+        Set<WorkerSlot> spoutSlots = new HashSet<WorkerSlot>();
+        Set<WorkerSlot> countSlots = new HashSet<WorkerSlot>();
+        for (Map.Entry<ExecutorDetails,WorkerSlot> e : a.getExecutorToSlot().entrySet()) {
+            String comp = hinted.getExecutorToComponent().get(e.getKey());
+            if ("spout".equals(comp)) {
+                spoutNodes.add(e.getValue().getNodeId());
+                spoutSlots.add(e.getValue());
+            }
+            else if ("count".equals(comp)) {
+                countSlots.add(e.getValue());
+            }
+        }
+        Assert.assertEquals(3, spoutNodes.size());
+        Assert.assertEquals(spoutSlots, countSlots);
+
+        // Already placed, so nothing to do the next time around.
+        fallback.seen.clear();
+        scheduler.schedule(topologies, cluster);
+        Assert.assertEquals(Collections.singleton("plain"), fallback.seen);
+    }
+
+    @Test
+    public void testHints() {
+        Map<String,Object> conf = new HashMap<String,Object>();
+        Assert.assertFalse(SpreadScheduler.hasHints(conf));
+        List<List<String>> groups = Collections.singletonList(Arrays.asList("other", "spout"));
+        conf.put(SpreadScheduler.COLOCATE, groups);
+        Assert.assertTrue(SpreadScheduler.hasHints(conf));
+
+        TopologyDetails td = makeTopology("t", conf, 2);
+        Cluster cluster = makeCluster(1, 2);
+        SpreadPlanner planner = SpreadScheduler.makePlanner(td, cluster.getNeedsSchedulingComponentToExecutors(td));
+        // spout-count from the localOrShuffle grouping, other from the hint.
+        Assert.assertEquals(1, planner.getGroups().size());
+    }
+}
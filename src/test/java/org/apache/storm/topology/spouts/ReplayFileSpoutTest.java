@@ -0,0 +1,194 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.storm.topology.spouts;
+
+import backtype.storm.spout.SpoutOutputCollector;
+import backtype.storm.topology.OutputFieldsGetter;
+import backtype.storm.utils.Utils;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+import org.apache.storm.topology.builder.Loader;
+import org.apache.storm.topology.builder.Loader.LoadFailure;
+import org.apache.utils.DefaultingMap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+
+public class ReplayFileSpoutTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    protected File capture(String name, String content) throws IOException {
+        File f = new File(tmp.getRoot(), name);
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(content.getBytes("UTF-8"));
+        out.close();
+        return f;
+    }
+
+    protected DefaultingMap makeConf(Object files) {
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("class", ReplayFileSpout.class.getName());
+        conf.put("files", files);
+        conf.put("schema", Arrays.asList("user", "bytes"));
+        conf.put("columns", Arrays.asList("ts", "user", "bytes"));
+        DefaultingMap types = new DefaultingMap();
+        types.put("bytes", "long");
+        conf.put("types", types);
+        return conf;
+    }
+
+    protected ReplayFileSpout open(DefaultingMap conf, SpoutOutputCollector collector) throws LoadFailure {
+        ReplayFileSpout spout = (ReplayFileSpout)Loader.loadAndBuild("Replay", conf);
+        spout.open(new HashMap<String,Object>(), null, collector);
+        return spout;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected List<List> emitted(SpoutOutputCollector collector) {
+        ArgumentCaptor<List> values = ArgumentCaptor.forClass(List.class);
+        verify(collector, atLeast(0)).emit(values.capture(), any());
+        return values.getAllValues();
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        capture("a", "1000\talice\t10\n1001\tbob\t\r\n\n");
+        capture("b", "1002\tcarol\t30");        // No newline at end
+        SpoutOutputCollector collector = mock(SpoutOutputCollector.class);
+        ReplayFileSpout spout = open(makeConf(tmp.getRoot().getPath()), collector);
+
+        OutputFieldsGetter getter = new OutputFieldsGetter();
+        spout.declareOutputFields(getter);
+        Assert.assertEquals(Arrays.asList("user", "bytes"),
+                getter.getFieldsDeclaration().get(Utils.DEFAULT_STREAM_ID).get_output_fields());
+
+        for (int i = 0; i < 5; ++i) {
+            spout.nextTuple();
+        }
+        @SuppressWarnings("rawtypes")
+        List<List> out = emitted(collector);
+        Assert.assertEquals(3, out.size());
+        Assert.assertEquals(Arrays.<Object>asList("alice", 10L), out.get(0));
+        Assert.assertEquals(Arrays.<Object>asList("bob", null), out.get(1));
+        Assert.assertEquals(Arrays.<Object>asList("carol", 30L), out.get(2));
+        Assert.assertEquals(3, spout.getPending());
+    }
+
+    @Test(timeout=10000)
+    public void testEmptyFilesForever() throws Exception {
+        capture("a", "");
+        capture("b", "\n\n");
+        SpoutOutputCollector collector = mock(SpoutOutputCollector.class);
+        DefaultingMap conf = makeConf(tmp.getRoot().getPath());
+        conf.put("repeat", 0);
+        ReplayFileSpout spout = open(conf, collector);
+        // A pass with no records ends the replay rather than spinning.
+        spout.nextTuple();
+        spout.nextTuple();
+        Assert.assertTrue(spout.exhausted);
+        verify(collector, never()).emit(anyListOf(Object.class), any());
+    }
+
+    @Test
+    public void testAckFail() throws Exception {
+        File f = capture("a", "1000\talice\t10\n1001\tbob\t20\n");
+        SpoutOutputCollector collector = mock(SpoutOutputCollector.class);
+        ReplayFileSpout spout = open(makeConf(f.getPath()), collector);
+        spout.nextTuple();
+        spout.nextTuple();
+
+        ReplayFileSpout.Offset first = new ReplayFileSpout.Offset(0, 0, 0);
+        ReplayFileSpout.Offset second = new ReplayFileSpout.Offset(0, 14, 0);
+        verify(collector).emit(Arrays.<Object>asList("alice", 10L), first);
+        verify(collector).emit(Arrays.<Object>asList("bob", 20L), second);
+
+        spout.ack(first);
+        spout.fail(second);
+        spout.nextTuple();
+        verify(collector, times(2)).emit(Arrays.<Object>asList("bob", 20L), second);
+        spout.ack(second);
+        Assert.assertEquals(0, spout.getPending());
+
+        // Nothing left.
+        spout.nextTuple();
+        verify(collector, times(3)).emit(anyListOf(Object.class), any());
+    }
+
+    @Test
+    public void testRemapAndRepeat() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; ++i) {
+            sb.append(1000 + i).append("\tuser").append(i).append('\t').append(i).append('\n');
+        }
+        File f = capture("a", sb.toString());
+        DefaultingMap conf = makeConf(f.getPath());
+        conf.put("repeat", 2);
+        SpoutOutputCollector collector = mock(SpoutOutputCollector.class);
+        ReplayFileSpout spout = open(conf, collector);
+        spout.chunkSize = 64;   // Lines will cross chunk boundaries
+
+        for (int i = 0; i < 250; ++i) {
+            spout.nextTuple();
+        }
+        @SuppressWarnings("rawtypes")
+        List<List> out = emitted(collector);
+        Assert.assertEquals(200, out.size());
+        for (int i = 0; i < 200; ++i) {
+            Assert.assertEquals(Arrays.<Object>asList("user" + (i % 100), (long)(i % 100)), out.get(i));
+        }
+    }
+
+    @Test
+    public void testOriginalSpeed() throws Exception {
+        File f = capture("a", "1000\talice\t10\n1150\tbob\t20\n");
+        DefaultingMap conf = makeConf(f.getPath());
+        conf.put("speed", "original");
+        conf.put("timefield", "ts");
+        SpoutOutputCollector collector = mock(SpoutOutputCollector.class);
+        ReplayFileSpout spout = open(conf, collector);
+
+        spout.nextTuple();
+        spout.nextTuple();
+        Assert.assertEquals(1, emitted(collector).size());
+        Thread.sleep(200);
+        spout.nextTuple();
+        Assert.assertEquals(2, emitted(collector).size());
+    }
+
+    @Test(expected=LoadFailure.class)
+    public void testSpeedNeedsTime() throws Exception {
+        DefaultingMap conf = makeConf("/nonexistent");
+        conf.put("speed", "2");
+        Loader.loadAndBuild("Replay", conf);
+    }
+}
@@ -20,8 +20,18 @@
 package org.apache.utils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import backtype.storm.utils.Utils;
 
 import org.junit.*;
 
@@ -265,4 +275,181 @@ public class DefaultingMapTest {
 
     }
 
+    /**
+     * The key instance actually stored in a map.
+     */
+    protected static String storedKey(Map<String,Object> m, String key) {
+        for (String k : m.keySet()) {
+            if (k.equals(key)) {
+                return k;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testPooledKeys() {
+        HashMap<String,Object> hm1 = new HashMap<String,Object>();
+        hm1.put(new String("parallelism"), 1);
+        hm1.put(new String("schema"), Arrays.asList(new String("f1"), Arrays.asList(new String("f2 "))));
+        HashMap<String,Object> hm2 = new HashMap<String,Object>();
+        hm2.put(new String("parallelism"), 2);
+        hm2.put(new String("schema"), Arrays.asList(new String("f2"), new String("f1")));
+
+        DefaultingMap dm1 = new DefaultingMap(hm1);
+        DefaultingMap dm2 = new DefaultingMap(hm2);
+        Assert.assertSame(storedKey(dm1, "parallelism"), storedKey(dm2, "parallelism"));
+        Assert.assertEquals(2, dm2.getInt("parallelism", 0));
+
+        // Flattened lists are pooled too.
+        Set<String> s1 = dm1.getFlattenedList("schema");
+        Set<String> s2 = dm2.getFlattenedList("schema");
+        Assert.assertEquals(Arrays.asList("f1", "f2"), new ArrayList<String>(s1));
+        Assert.assertSame(s1.iterator().next(), s2.toArray()[1]);
+        Assert.assertSame(s1.toArray()[1], s2.iterator().next());
+
+        // And keys of a merged list of maps.
+        DefaultingMap parent = new DefaultingMap();
+        parent.put("merged", Arrays.asList(hm1, hm2));
+        Assert.assertSame(storedKey(dm1, "schema"), storedKey(parent.getSubMap("merged"), "schema"));
+
+        // Deserialized keys are swapped for pooled ones.
+        DefaultingMap copy = (DefaultingMap)Utils.deserialize(Utils.serialize(dm1));
+        Assert.assertEquals(dm1, copy);
+        Assert.assertSame(storedKey(dm1, "parallelism"), storedKey(copy, "parallelism"));
+        Assert.assertSame(storedKey(dm1, "schema"), storedKey(copy, "schema"));
+    }
+
+    @Test
+    public void testFlattenMemo() {
+        List<Object> schema = new ArrayList<Object>();
+        schema.add("a");
+        schema.add(new ArrayList<Object>(Arrays.asList("b", "a")));
+        DefaultingMap dm = new DefaultingMap();
+        dm.put("schema", schema);
+
+        Set<String> s1 = dm.getFlattenedList("schema");
+        Assert.assertEquals(Arrays.asList("a", "b"), new ArrayList<String>(s1));
+        Assert.assertSame(s1, dm.getFlattenedList("schema"));
+        try {
+            s1.add("c");
+            Assert.fail("Flattened list was modified");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+
+        // Changes to the map, or to the length of the list, are noticed.
+        dm.put("other", 1);
+        Set<String> s2 = dm.getFlattenedList("schema");
+        Assert.assertNotSame(s1, s2);
+        Assert.assertEquals(s1, s2);
+        schema.add("c");
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<String>(dm.getFlattenedList("schema")));
+        dm.put("schema", Arrays.asList("z"));
+        Assert.assertEquals(Arrays.asList("z"), new ArrayList<String>(dm.getFlattenedList("schema")));
+        dm.remove("schema");
+        Assert.assertNull(dm.getFlattenedList("schema"));
+    }
+
+    @Test
+    public void testFlattenDeep() {
+        // Deeper than the stack would allow if flattening recursed.
+        List<Object> top = new ArrayList<Object>();
+        List<Object> l = top;
+        for (int i = 0; i < 200000; ++i) {
+            List<Object> next = new ArrayList<Object>();
+            l.add("f" + i);
+            l.add(next);
+            l = next;
+        }
+        l.add(top);     // And a loop back to the top.
+        DefaultingMap dm = new DefaultingMap();
+        dm.put("schema", top);
+        Set<String> s = dm.getFlattenedList("schema");
+        Assert.assertEquals(200000, s.size());
+        Assert.assertEquals("f0", s.iterator().next());
+    }
+
+    @Test
+    public void testSubMapKeepsChanges() {
+        DefaultingMap hm = makeMap();
+        hm.put("g.env", "test");
+
+        DefaultingMap sm = hm.getSubMap("submap");
+        Assert.assertEquals("test", sm.getString("g.env"));
+        // The converted child replaces the raw map, so changes to it stay.
+        Assert.assertSame(sm, hm.get("submap"));
+        sm.put("added", 2);
+        hm.put("other", 3);
+        Assert.assertSame(sm, hm.getSubMap("submap"));
+        Assert.assertEquals(2, hm.getSubMap("submap").getInt("added", 0));
+
+        // A new global is pushed into the child.
+        hm.put("g.env", "prod");
+        Assert.assertSame(sm, hm.getSubMap("submap"));
+        Assert.assertEquals("prod", sm.getString("g.env"));
+
+        // A frozen child that lacks the globals is copied, not changed.
+        DefaultingMap frozen = FrozenDefaultingMap.freeze(new DefaultingMap());
+        hm.put("frozen", frozen);
+        DefaultingMap copy = hm.getSubMap("frozen");
+        Assert.assertNotSame(frozen, copy);
+        Assert.assertEquals("prod", copy.getString("g.env"));
+        Assert.assertSame(copy, hm.getSubMap("frozen"));
+
+        // Merging into a child keeps the merge.
+        DefaultingMap upd = new DefaultingMap();
+        DefaultingMap updSub = new DefaultingMap();
+        updSub.put("newsubkey", "ns");
+        upd.put("submap", updSub);
+        hm.mergeMap(upd);
+        Assert.assertEquals("ns", hm.getSubMap("submap").getString("newsubkey"));
+        Assert.assertEquals("subString", hm.getSubMap("submap").getString("smstr"));
+    }
+
+    @Test
+    public void testConcurrentFrozenSubMap() throws Exception {
+        DefaultingMap conf = makeMap();
+        conf.put("g.env", "test");
+        List<Object> merged = new ArrayList<Object>();
+        merged.add(conf.get("submap"));
+        conf.put("merged", merged);
+        final DefaultingMap hm = (DefaultingMap)Utils.deserialize(Utils.serialize(FrozenDefaultingMap.freeze(conf)));
+        final int threads = 8;
+        final CountDownLatch go = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<DefaultingMap[]>> results = new ArrayList<Future<DefaultingMap[]>>();
+        for (int t = 0; t < threads; ++t) {
+            results.add(pool.submit(new Callable<DefaultingMap[]>() {
+                @Override
+                public DefaultingMap[] call() throws Exception {
+                    go.await();
+                    DefaultingMap[] ret = new DefaultingMap[] {hm.getSubMap("submap"), hm.getSubMap("merged")};
+                    for (int i = 0; i < 10000; ++i) {
+                        Assert.assertSame(ret[0], hm.getSubMap("submap"));
+                        Assert.assertSame(ret[1], hm.getSubMap("merged"));
+                    }
+                    return ret;
+                }
+            }));
+        }
+        go.countDown();
+        DefaultingMap[] first = results.get(0).get();
+        for (Future<DefaultingMap[]> f : results) {
+            // Every thread sees the same children.
+            Assert.assertSame(first[0], f.get()[0]);
+            Assert.assertSame(first[1], f.get()[1]);
+        }
+        pool.shutdown();
+        Assert.assertEquals("subString", first[1].getString("smstr"));
+        Assert.assertEquals("test", first[1].getString("g.env"));
+        Assert.assertTrue(hm.get("merged") instanceof List<?>);
+        try {
+            first[0].put("added", 1);
+            Assert.fail("frozen child can be changed");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
 }
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.utils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rough timing of repeated getFlattenedList() calls on a large schema,
+ * against flattening it from scratch each time as it used to. This isn't
+ * a unit test; run it by hand:
+ *
+ *     java -cp &lt;test classpath&gt; org.apache.utils.FlattenBenchmark [fields] [calls]
+ */
+public class FlattenBenchmark {
+
+    /**
+     * A schema of the given size, made of nested groups of 100 fields
+     * the way shared field lists are aliased into schemas.
+     */
+    protected static List<Object> makeSchema(int fields) {
+        List<Object> schema = new ArrayList<Object>();
+        List<Object> group = null;
+        for (int f = 0; f < fields; ++f) {
+            if ((f % 100) == 0) {
+                group = new ArrayList<Object>();
+                schema.add(group);
+            }
+            group.add("field" + f);
+        }
+        return schema;
+    }
+
+    /**
+     * The flatten as it was before it was remembered.
+     */
+    @SuppressWarnings("unchecked")
+    protected static void legacyFlatten(HashSet<String> oSch, List<Object> iSch) {
+        for (Object o : iSch) {
+            if (o == null) {
+                continue;
+            } else if (o instanceof List<?>) {
+                legacyFlatten(oSch, (List<Object>)o);
+            }
+            else {
+                oSch.add(o.toString().trim());
+            }
+        }
+    }
+
+    protected static long run(boolean legacy, DefaultingMap conf, int calls) {
+        long start = System.nanoTime();
+        int total = 0;
+        for (int c = 0; c < calls; ++c) {
+            Set<String> s;
+            if (legacy) {
+                HashSet<String> theSet = new LinkedHashSet<String>();
+                @SuppressWarnings("unchecked")
+                List<Object> schema = (List<Object>)conf.get("schema");
+                legacyFlatten(theSet, schema);
+                s = theSet;
+            }
+            else {
+                s = conf.getFlattenedList("schema");
+            }
+            total += s.size();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (total != calls * conf.getFlattenedList("schema").size()) {
+            throw new IllegalStateException("wrong size");
+        }
+        return elapsed / calls;
+    }
+
+    public static void main(String[] args) {
+        int fields = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+        int calls = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("schema", makeSchema(fields));
+
+        // Warm up both paths before timing.
+        run(true, conf, calls);
+        run(false, conf, calls);
+
+        long legacy = run(true, conf, calls);
+        long memo = run(false, conf, calls);
+        System.out.printf("%d fields, %d calls%n", fields, calls);
+        System.out.printf("legacy  : %10.3f us/call%n", legacy / 1e3);
+        System.out.printf("memoized: %10.3f us/call%n", memo / 1e3);
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.utils;
+
+import backtype.storm.utils.Utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class FrozenDefaultingMapTest {
+
+    protected DefaultingMap makeMap() {
+        DefaultingMap m = new DefaultingMap();
+        m.put("g.env", "test");
+        m.put("name", "top");
+        Map<String,Object> child = new HashMap<String,Object>();
+        child.put("val", 3);
+        child.put("list", new ArrayList<Object>(Arrays.asList("a", "b")));
+        m.put("child", child);
+        Map<String,Object> part1 = new HashMap<String,Object>();
+        part1.put("x", 1);
+        Map<String,Object> part2 = new HashMap<String,Object>();
+        part2.put("y", 2);
+        m.put("parts", Arrays.asList(part1, part2));
+        return m;
+    }
+
+    @Test
+    public void testReads() {
+        FrozenDefaultingMap f = FrozenDefaultingMap.freeze(makeMap());
+        Assert.assertEquals("top", f.getString("name"));
+        DefaultingMap child = f.getSubMap("child");
+        Assert.assertTrue(child instanceof FrozenDefaultingMap);
+        Assert.assertEquals(3, child.getInt("val", 0));
+        Assert.assertEquals("test", child.getString("g.env"));
+        Assert.assertEquals(2, child.getFlattenedList("list").size());
+
+        DefaultingMap parts = f.getSubMap("parts");
+        Assert.assertEquals(1, parts.getInt("x", 0));
+        Assert.assertEquals(2, parts.getInt("y", 0));
+        Assert.assertEquals("test", parts.getString("g.env"));
+        // The list wasn't replaced.
+        Assert.assertTrue(f.get("parts") instanceof List<?>);
+        Assert.assertSame(f, FrozenDefaultingMap.freeze(f));
+    }
+
+    @Test
+    public void testImmutable() {
+        FrozenDefaultingMap f = FrozenDefaultingMap.freeze(makeMap());
+        int failures = 0;
+        try { f.put("a", 1); } catch (UnsupportedOperationException e) { ++failures; }
+        try { f.remove("name"); } catch (UnsupportedOperationException e) { ++failures; }
+        try { f.clear(); } catch (UnsupportedOperationException e) { ++failures; }
+        try { f.entrySet().clear(); } catch (UnsupportedOperationException e) { ++failures; }
+        try { f.keySet().remove("name"); } catch (UnsupportedOperationException e) { ++failures; }
+        try { f.getSubMap("child").put("val", 4); } catch (UnsupportedOperationException e) { ++failures; }
+        try { ((List<?>)f.getSubMap("child").get("list")).clear(); } catch (UnsupportedOperationException e) { ++failures; }
+        try { f.mergeMap(new DefaultingMap()); } catch (UnsupportedOperationException e) { ++failures; }
+        Assert.assertEquals(8, failures);
+    }
+
+    @Test
+    public void testSerialize() {
+        FrozenDefaultingMap f = FrozenDefaultingMap.freeze(makeMap());
+        FrozenDefaultingMap copy = (FrozenDefaultingMap)Utils.deserialize(Utils.serialize(f));
+        Assert.assertEquals(f, copy);
+        Assert.assertEquals("test", copy.getSubMap("child").getString("g.env"));
+        try {
+            copy.put("a", 1);
+            Assert.fail("Deserialized copy isn't frozen");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+}
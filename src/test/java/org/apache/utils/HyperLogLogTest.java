@@ -0,0 +1,73 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void testEstimate() {
+        HyperLogLog hll = new HyperLogLog(12);
+        Assert.assertEquals(0, hll.cardinality());
+        for (int i = 0; i < 100000; ++i) {
+            hll.offer("user" + i);
+            // Repeats shouldn't count.
+            hll.offer("user" + (i / 2));
+        }
+        Assert.assertEquals(100000.0, hll.cardinality(), 5000.0);
+
+        HyperLogLog small = new HyperLogLog(12);
+        for (long i = 0; i < 100; ++i) {
+            small.offer(i);
+        }
+        Assert.assertEquals(100.0, small.cardinality(), 3.0);
+    }
+
+    @Test
+    public void testMerge() {
+        HyperLogLog a = new HyperLogLog(10);
+        HyperLogLog b = new HyperLogLog(10);
+        HyperLogLog all = new HyperLogLog(10);
+        for (int i = 0; i < 20000; ++i) {
+            ((i % 2 == 0) ? a : b).offer(i);
+            all.offer(i);
+        }
+        a.merge(b);
+        Assert.assertEquals(all.cardinality(), a.cardinality());
+
+        HyperLogLog copy = HyperLogLog.fromBytes(a.toBytes());
+        Assert.assertEquals(a.cardinality(), copy.cardinality());
+        Assert.assertEquals(10, copy.getPrecision());
+    }
+
+    @Test
+    public void testHash() {
+        Assert.assertEquals(HyperLogLog.hash64(5), HyperLogLog.hash64(5L));
+        Assert.assertEquals(HyperLogLog.hash64("abc"), HyperLogLog.hash64(new String("abc")));
+        Assert.assertNotEquals(HyperLogLog.hash64("abc"), HyperLogLog.hash64("abd"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testMergeMismatch() {
+        new HyperLogLog(10).merge(new HyperLogLog(11));
+    }
+}
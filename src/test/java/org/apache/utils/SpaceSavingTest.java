@@ -0,0 +1,97 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.utils.SpaceSaving.Counter;
+
+import java.util.List;
+
+public class SpaceSavingTest {
+
+    @Test
+    public void testTop() {
+        SpaceSaving<String> ss = new SpaceSaving<String>(10);
+        // "hot" items are far above total/capacity, so they must be found.
+        for (int i = 0; i < 10000; ++i) {
+            ss.offer("noise" + i);
+            if (i % 4 == 0) {
+                ss.offer("hot1");
+            }
+            if (i % 5 == 0) {
+                ss.offer("hot2", 2);
+            }
+        }
+        Assert.assertEquals(10, ss.size());
+        List<Counter<String>> top = ss.top(2);
+        Assert.assertEquals(2, top.size());
+        Assert.assertEquals("hot2", top.get(0).getItem());
+        Assert.assertEquals("hot1", top.get(1).getItem());
+        // Counts over-estimate by at most the error.
+        Assert.assertTrue(top.get(1).getCount() >= 2500);
+        Assert.assertTrue(top.get(1).getCount() - top.get(1).getError() <= 2500);
+    }
+
+    @Test
+    public void testExact() {
+        SpaceSaving<Long> ss = new SpaceSaving<Long>(5);
+        for (long i = 1; i <= 4; ++i) {
+            for (long j = 0; j < i; ++j) {
+                ss.offer(i);
+            }
+        }
+        List<Counter<Long>> top = ss.top(10);
+        Assert.assertEquals(4, top.size());
+        Assert.assertEquals(Long.valueOf(4), top.get(0).getItem());
+        Assert.assertEquals(4, top.get(0).getCount());
+        Assert.assertEquals(0, top.get(0).getError());
+        Assert.assertEquals(0, ss.minCount());
+    }
+
+    @Test
+    public void testMerge() {
+        SpaceSaving<String> a = new SpaceSaving<String>(5);
+        SpaceSaving<String> b = new SpaceSaving<String>(5);
+        for (int i = 0; i < 1000; ++i) {
+            a.offer("a" + (i % 50));
+            b.offer("b" + (i % 50));
+            a.offer("both");
+            b.offer("both");
+            if (i % 2 == 0) {
+                b.offer("bhot");
+            }
+        }
+        a.merge(b);
+        Assert.assertEquals(5, a.size());
+        List<Counter<String>> top = a.top(2);
+        Assert.assertEquals("both", top.get(0).getItem());
+        Assert.assertTrue(top.get(0).getCount() >= 2000);
+        Assert.assertEquals("bhot", top.get(1).getItem());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadWeight() {
+        SpaceSaving<String> ss = new SpaceSaving<String>(5);
+        ss.offer("a", 3);
+        ss.offer("a", -1);
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StringPoolTest {
+
+    @Test
+    public void testCanonical() {
+        StringPool pool = new StringPool(10);
+        String a1 = new String("abc");
+        String a2 = new String("abc");
+        Assert.assertSame(a1, pool.canonical(a1));
+        Assert.assertSame(a1, pool.canonical(a2));
+        Assert.assertNull(pool.canonical(null));
+        Assert.assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void testBounded() {
+        StringPool pool = new StringPool(2);
+        pool.canonical("a");
+        pool.canonical("b");
+        String c1 = new String("c");
+        String c2 = new String("c");
+        // Full, so new strings come back as they are.
+        Assert.assertSame(c1, pool.canonical(c1));
+        Assert.assertSame(c2, pool.canonical(c2));
+        Assert.assertEquals(2, pool.size());
+        // But pooled ones are still found.
+        Assert.assertSame("a", pool.canonical(new String("a")));
+    }
+
+    @Test
+    public void testLong() {
+        StringPool pool = new StringPool(10);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= StringPool.MAX_LENGTH; ++i) {
+            sb.append('x');
+        }
+        String s = sb.toString();
+        Assert.assertSame(s, pool.canonical(s));
+        Assert.assertEquals(0, pool.size());
+    }
+}
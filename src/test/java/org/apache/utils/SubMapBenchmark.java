@@ -0,0 +1,116 @@
+/**
+ * Copyright 2014, 2015, Yahoo, Inc.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rough throughput of getSubMap() from many threads sharing one frozen
+ * configuration, against a plain DefaultingMap, whose getSubMap() stores
+ * the child back into the parent and so needs a lock to share. This
+ * isn't a unit test; run it by hand:
+ *
+ *     java -cp &lt;test classpath&gt; org.apache.utils.SubMapBenchmark [threads] [seconds]
+ */
+public class SubMapBenchmark {
+
+    // Keeps the lookups from being optimized away.
+    protected static volatile int sink;
+
+    protected static DefaultingMap makeConf() {
+        DefaultingMap conf = new DefaultingMap();
+        conf.put("g.env", "prod");
+        conf.put("g.region", "east");
+        for (String k : new String[] {"encoder", "streams", "types", "metrics"}) {
+            Map<String,Object> child = new HashMap<String,Object>();
+            for (int i = 0; i < 10; ++i) {
+                child.put("setting" + i, i);
+            }
+            conf.put(k, child);
+        }
+        return conf;
+    }
+
+    protected static double run(final boolean locked, int threads, long millis) throws InterruptedException {
+        final DefaultingMap conf = locked ? makeConf() : FrozenDefaultingMap.freeze(makeConf());
+        final String[] keys = {"encoder", "streams", "types", "metrics"};
+        final AtomicLong ops = new AtomicLong();
+        final CountDownLatch go = new CountDownLatch(1);
+        final long[] stopAt = new long[1];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; ++t) {
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long n = 0;
+                    int sum = 0;
+                    while (System.nanoTime() < stopAt[0]) {
+                        for (int i = 0; i < 1000; ++i) {
+                            String key = keys[i & 3];
+                            DefaultingMap child;
+                            if (locked) {
+                                synchronized (conf) {
+                                    child = conf.getSubMap(key);
+                                }
+                            }
+                            else {
+                                child = conf.getSubMap(key);
+                            }
+                            sum += child.getInt("setting1", 0);
+                        }
+                        n += 1000;
+                    }
+                    ops.addAndGet(n);
+                    sink = sum;
+                }
+            };
+            workers[t].start();
+        }
+        stopAt[0] = System.nanoTime() + millis * 1000000L;
+        go.countDown();
+        for (Thread w : workers) {
+            w.join();
+        }
+        return ops.get() / (millis / 1000.0);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        long millis = 1000L * ((args.length > 1) ? Integer.parseInt(args[1]) : 5);
+
+        // Warm up both paths before timing.
+        run(true, threads, 1000);
+        run(false, threads, 1000);
+
+        double locked = run(true, threads, millis);
+        double frozen = run(false, threads, millis);
+        System.out.printf("%d threads%n", threads);
+        System.out.printf("locked : %,14.0f getSubMap/s%n", locked);
+        System.out.printf("frozen : %,14.0f getSubMap/s%n", frozen);
+    }
+}